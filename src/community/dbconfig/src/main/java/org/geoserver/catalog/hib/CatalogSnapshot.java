@@ -0,0 +1,239 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.hib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+
+/**
+ * Read only, in memory copy of the whole catalog as stored in the database at a given
+ * {@link CatalogVersion}. The objects it contains are fully initialized and detached from any
+ * session, so they can be handed out to any thread without touching the database.
+ */
+class CatalogSnapshot {
+
+    final long version;
+
+    /**
+     * Last time the version was checked against the database
+     */
+    volatile long checked;
+
+    Map<String, CatalogInfo> byId = new HashMap<String, CatalogInfo>();
+
+    List<WorkspaceInfo> workspaces = new ArrayList<WorkspaceInfo>();
+
+    Map<String, WorkspaceInfo> workspacesByName = new HashMap<String, WorkspaceInfo>();
+
+    List<NamespaceInfo> namespaces = new ArrayList<NamespaceInfo>();
+
+    Map<String, NamespaceInfo> namespacesByPrefix = new HashMap<String, NamespaceInfo>();
+
+    Map<String, NamespaceInfo> namespacesByURI = new HashMap<String, NamespaceInfo>();
+
+    List<StoreInfo> stores = new ArrayList<StoreInfo>();
+
+    List<ResourceInfo> resources = new ArrayList<ResourceInfo>();
+
+    List<StyleInfo> styles = new ArrayList<StyleInfo>();
+
+    Map<String, StyleInfo> stylesByName = new HashMap<String, StyleInfo>();
+
+    List<LayerInfo> layers = new ArrayList<LayerInfo>();
+
+    Map<String, LayerInfo> layersByName = new HashMap<String, LayerInfo>();
+
+    List<LayerGroupInfo> layerGroups = new ArrayList<LayerGroupInfo>();
+
+    Map<String, LayerGroupInfo> layerGroupsByName = new HashMap<String, LayerGroupInfo>();
+
+    CatalogSnapshot(long version) {
+        this.version = version;
+        this.checked = System.currentTimeMillis();
+    }
+
+    void add(WorkspaceInfo workspace) {
+        byId.put(workspace.getId(), workspace);
+        workspaces.add(workspace);
+        workspacesByName.put(workspace.getName(), workspace);
+    }
+
+    void add(NamespaceInfo namespace) {
+        byId.put(namespace.getId(), namespace);
+        namespaces.add(namespace);
+        namespacesByPrefix.put(namespace.getPrefix(), namespace);
+        namespacesByURI.put(namespace.getURI(), namespace);
+    }
+
+    void add(StoreInfo store) {
+        byId.put(store.getId(), store);
+        stores.add(store);
+    }
+
+    void add(ResourceInfo resource) {
+        byId.put(resource.getId(), resource);
+        resources.add(resource);
+    }
+
+    void add(StyleInfo style) {
+        byId.put(style.getId(), style);
+        styles.add(style);
+        stylesByName.put(style.getName(), style);
+    }
+
+    void add(LayerInfo layer) {
+        byId.put(layer.getId(), layer);
+        layers.add(layer);
+        layersByName.put(layer.getResource().getName(), layer);
+    }
+
+    void add(LayerGroupInfo layerGroup) {
+        byId.put(layerGroup.getId(), layerGroup);
+        layerGroups.add(layerGroup);
+        layerGroupsByName.put(layerGroup.getName(), layerGroup);
+    }
+
+    /**
+     * Returns the object with the specified id, provided it is of the requested type
+     */
+    <T> T get(String id, Class<T> clazz) {
+        Object info = byId.get(id);
+        return clazz.isInstance(info) ? clazz.cast(info) : null;
+    }
+
+    WorkspaceInfo getDefaultWorkspace() {
+        for (WorkspaceInfo ws : workspaces) {
+            if (ws.isDefault()) {
+                return ws;
+            }
+        }
+        return null;
+    }
+
+    NamespaceInfo getDefaultNamespace() {
+        for (NamespaceInfo ns : namespaces) {
+            if (ns.isDefault()) {
+                return ns;
+            }
+        }
+        return null;
+    }
+
+    <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name, Class<T> clazz) {
+        for (StoreInfo store : stores) {
+            if (clazz.isInstance(store) && name.equals(store.getName())
+                    && (workspace == CatalogFacade.ANY_WORKSPACE
+                        || sameId(workspace, store.getWorkspace()))) {
+                return clazz.cast(store);
+            }
+        }
+        return null;
+    }
+
+    <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace, Class<T> clazz) {
+        List<T> result = new ArrayList<T>();
+        for (StoreInfo store : stores) {
+            if (clazz.isInstance(store) && sameId(workspace, store.getWorkspace())) {
+                result.add(clazz.cast(store));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        for (ResourceInfo resource : resources) {
+            if (clazz.isInstance(resource) && name.equals(resource.getName())
+                    && (namespace == CatalogFacade.ANY_NAMESPACE
+                        || namespace.getPrefix().equals(resource.getNamespace().getPrefix()))) {
+                return clazz.cast(resource);
+            }
+        }
+        return null;
+    }
+
+    <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name, Class<T> clazz) {
+        for (ResourceInfo resource : resources) {
+            if (clazz.isInstance(resource) && name.equals(resource.getName())
+                    && sameId(store, resource.getStore())) {
+                return clazz.cast(resource);
+            }
+        }
+        return null;
+    }
+
+    <T extends ResourceInfo> List<T> getResourcesByNamespace(NamespaceInfo namespace,
+            Class<T> clazz) {
+        List<T> result = new ArrayList<T>();
+        for (ResourceInfo resource : resources) {
+            if (clazz.isInstance(resource)
+                    && namespace.getPrefix().equals(resource.getNamespace().getPrefix())) {
+                result.add(clazz.cast(resource));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        List<T> result = new ArrayList<T>();
+        for (ResourceInfo resource : resources) {
+            if (clazz.isInstance(resource) && sameId(store, resource.getStore())) {
+                result.add(clazz.cast(resource));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    List<LayerInfo> getLayers(ResourceInfo resource) {
+        List<LayerInfo> result = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : layers) {
+            if (sameId(resource, layer.getResource())) {
+                result.add(layer);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    List<LayerInfo> getLayers(StyleInfo style) {
+        List<LayerInfo> result = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : layers) {
+            if (sameId(style, layer.getDefaultStyle())) {
+                result.add(layer);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Filters the list by type
+     */
+    <T> List<T> filter(List<?> infos, Class<T> clazz) {
+        List<T> result = new ArrayList<T>();
+        for (Object info : infos) {
+            if (clazz.isInstance(info)) {
+                result.add(clazz.cast(info));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    static boolean sameId(CatalogInfo info1, CatalogInfo info2) {
+        return info1 != null && info2 != null && info1.getId() != null
+                && info1.getId().equals(info2.getId());
+    }
+}
@@ -0,0 +1,45 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.hib;
+
+/**
+ * Single row counter bumped in the same transaction as every catalog change, used by the nodes
+ * sharing the database to tell whether their {@link CatalogSnapshot} is still current.
+ */
+public class CatalogVersion {
+
+    /**
+     * Identifier of the catalog version row
+     */
+    public static final String CATALOG = "catalog";
+
+    String id;
+
+    long version;
+
+    public CatalogVersion() {
+    }
+
+    public CatalogVersion(String id, long version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
@@ -4,18 +4,32 @@
  */
 package org.geoserver.catalog.hib;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.geoserver.catalog.AttributeTypeInfo;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFacade;
 import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Info;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StoreInfo;
@@ -24,28 +38,86 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 
 import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.impl.NamespaceInfoImpl;
 import org.geoserver.catalog.impl.StyleInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
 import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.hibernate.AbstractHibFacade;
+import org.geoserver.ows.util.ClassProperties;
+import org.geoserver.ows.util.OwsUtils;
 import org.hibernate.FetchMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.collection.PersistentCollection;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.proxy.HibernateProxy;
 import org.opengis.filter.Filter;
 import org.opengis.filter.sort.SortBy;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+/**
+ * Catalog facade storing the catalog in a relational database through Hibernate.
+ * <p>
+ * Layers are loaded along with their resource, store, workspace, namespace and default style
+ * in a single select. When the snapshot mode is enabled reads are instead served from a read only
+ * in memory {@link CatalogSnapshot}, which is reloaded only when the {@link CatalogVersion} stored
+ * in the database changes. Every change bumps the version in the same transaction, so the nodes
+ * of a cluster sharing the database notice each other's changes within the check interval.
+ * The snapshot is reloaded at most once per reload interval, in between reads go to the database,
+ * so that a burst of changes does not trigger a full reload for each one of them.
+ * </p>
+ */
 public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade {
 
+    /**
+     * Fetch plan for layers, joins in the objects walked to build the layer name and describe it
+     */
+    static final String LAYER_FETCH = " l left join fetch l.resource r left join fetch r.store s"
+            + " left join fetch s.workspace left join fetch r.namespace"
+            + " left join fetch l.defaultStyle";
+
     /**
      * the catalog
      */
     Catalog catalog;
     
+    /**
+     * whether reads are served from an in memory snapshot
+     */
+    boolean snapshotEnabled = false;
+    
+    /**
+     * how often, in milliseconds, the snapshot version is checked against the database
+     */
+    long snapshotCheckInterval = 1000;
+    
+    /**
+     * minimum time, in milliseconds, between two loads of the snapshot
+     */
+    long snapshotReloadInterval = 5000;
+    
+    volatile CatalogSnapshot snapshot;
+    
+    /**
+     * last time the snapshot was loaded
+     */
+    volatile long loaded;
+    
+    /**
+     * number of local transactions that changed the catalog, used to avoid publishing a snapshot
+     * loaded while one of them was committing
+     */
+    final AtomicLong changes = new AtomicLong();
+    
+    final Object snapshotLock = new Object();
+    
     public Catalog getCatalog() {
         return catalog;
     }
@@ -54,6 +126,32 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
         this.catalog = catalog;
     }
     
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+    
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+        this.snapshot = null;
+        this.loaded = 0;
+    }
+    
+    public long getSnapshotCheckInterval() {
+        return snapshotCheckInterval;
+    }
+    
+    public void setSnapshotCheckInterval(long snapshotCheckInterval) {
+        this.snapshotCheckInterval = snapshotCheckInterval;
+    }
+    
+    public long getSnapshotReloadInterval() {
+        return snapshotReloadInterval;
+    }
+    
+    public void setSnapshotReloadInterval(long snapshotReloadInterval) {
+        this.snapshotReloadInterval = snapshotReloadInterval;
+    }
+    
     //
     // workspaces
     //
@@ -75,20 +173,44 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public WorkspaceInfo getWorkspace(String id) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, WorkspaceInfo.class), WorkspaceInfo.class);
+        }
         return (WorkspaceInfo) first(
             query("from ", WorkspaceInfo.class, " where id = ", param(id)));
     }
     
     public WorkspaceInfo getWorkspaceByName(String name) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.workspacesByName.get(name), WorkspaceInfo.class);
+        }
+        return queryWorkspaceByName(name);
+    }
+    
+    WorkspaceInfo queryWorkspaceByName(String name) {
         return (WorkspaceInfo) first(
             query("from ", WorkspaceInfo.class, " where name = ", param(name)));
     }
     
     public List<WorkspaceInfo> getWorkspaces() {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.workspaces, WorkspaceInfo.class);
+        }
         return (List<WorkspaceInfo>) list(WorkspaceInfo.class);
     }
     
     public WorkspaceInfo getDefaultWorkspace() {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.getDefaultWorkspace(), WorkspaceInfo.class);
+        }
+        return queryDefaultWorkspace();
+    }
+    
+    WorkspaceInfo queryDefaultWorkspace() {
         Query query = 
             query("from ", WorkspaceInfoImpl.class, " where default = ", param(Boolean.TRUE));
         return (WorkspaceInfoImpl) first(query);
@@ -96,7 +218,8 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
 
     public void setDefaultWorkspace(WorkspaceInfo workspace) {
         //TODO: remove the cast to WorkspaceInfoImpl
-        WorkspaceInfo old = getDefaultWorkspace();
+        // read from the database, the snapshot objects must not be modified
+        WorkspaceInfo old = queryDefaultWorkspace();
 
         if (old != null) {
             ((WorkspaceInfoImpl)old).setDefault(false);
@@ -104,7 +227,7 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
         }
         
         if (workspace != null) {
-            workspace = resolve(workspace);
+            workspace = attach(resolve(workspace));
             ((WorkspaceInfoImpl)workspace).setDefault(true);
             save(workspace);
         }
@@ -134,32 +257,61 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public NamespaceInfo getNamespace(String id) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, NamespaceInfo.class), NamespaceInfo.class);
+        }
         Query query = query("from ", NamespaceInfo.class, " where id = ", param(id));
         return (NamespaceInfo) first(query);
     }
 
     public NamespaceInfo getNamespaceByPrefix(String prefix) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.namespacesByPrefix.get(prefix), NamespaceInfo.class);
+        }
+        return queryNamespaceByPrefix(prefix);
+    }
+    
+    NamespaceInfo queryNamespaceByPrefix(String prefix) {
         Query query = query("from ", NamespaceInfo.class, " where prefix = ", param(prefix));
         return (NamespaceInfo) first(query);
     }
 
     public NamespaceInfo getNamespaceByURI(String uri) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.namespacesByURI.get(uri), NamespaceInfo.class);
+        }
         Query query = query("from ", NamespaceInfo.class, " where URI = ", param(uri));
         return (NamespaceInfo) first(query);
     }
 
     public List<NamespaceInfo> getNamespaces() {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.namespaces, NamespaceInfo.class);
+        }
         return list(NamespaceInfo.class);
     }
     
     public NamespaceInfo getDefaultNamespace() {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.getDefaultNamespace(), NamespaceInfo.class);
+        }
+        return queryDefaultNamespace();
+    }
+    
+    NamespaceInfo queryDefaultNamespace() {
         Query query = query("from ", NamespaceInfo.class, " where default = ", param(Boolean.TRUE));
         return (NamespaceInfo) first(query);
     }
     
     public void setDefaultNamespace(NamespaceInfo namespace) {
         //TODO: remove the cast to NamespaceInfoImpl
-        NamespaceInfo old = getDefaultNamespace();
+        // read from the database, the snapshot objects must not be modified
+        NamespaceInfo old = queryDefaultNamespace();
 
         if (old != null) {
             ((NamespaceInfoImpl)old).setDefault(false);
@@ -167,7 +319,7 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
         }
         
         if (namespace != null) {
-            namespace = resolve(namespace);
+            namespace = attach(resolve(namespace));
             ((NamespaceInfoImpl)namespace).setDefault(true);
             save(namespace);
         }
@@ -198,11 +350,19 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, clazz), clazz);
+        }
         return (T) first(query("from ", clazz, " where id = ", param(id)));
     }
 
     public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
             Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.getStoreByName(workspace, name, clazz), clazz);
+        }
         Query query = null;
         if (workspace == CatalogFacade.ANY_WORKSPACE) {
             query = query("from ", clazz, " where name = ", param(name));
@@ -214,16 +374,38 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
 
     public <T extends StoreInfo> List<T> getStores(Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.filter(snapshot.stores, clazz), clazz);
+        }
         return list(clazz);
     }
 
     public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
             Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.getStoresByWorkspace(workspace, clazz), clazz);
+        }
         return Collections.unmodifiableList(
             query("from ", clazz, " where workspace = ", param(workspace)).list());
     }
 
     public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            for (DataStoreInfo store : snapshot.getStoresByWorkspace(workspace,
+                    DataStoreInfo.class)) {
+                if (((DataStoreInfoImpl) store).isDefault()) {
+                    return proxy(store, DataStoreInfo.class);
+                }
+            }
+            return null;
+        }
+        return queryDefaultDataStore(workspace);
+    }
+    
+    DataStoreInfo queryDefaultDataStore(WorkspaceInfo workspace) {
         Query query = 
             query("from ", DataStoreInfoImpl.class, " where workspace = ", param(workspace), 
                  " and default = ", param(Boolean.TRUE));
@@ -232,7 +414,8 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
 
     public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
         //TODO: remove the cast to DataStoreInfoImpl
-        DataStoreInfo old = getDefaultDataStore(workspace);
+        // read from the database, the snapshot objects must not be modified
+        DataStoreInfo old = queryDefaultDataStore(workspace);
 
         if (old != null) {
             ((DataStoreInfoImpl)old).setDefault(false);
@@ -240,6 +423,7 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
         }
         
         if (store != null) {
+            store = attach(store);
             ((DataStoreInfoImpl)store).setDefault(true);
             save(store);
         }
@@ -270,11 +454,19 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, clazz), clazz);
+        }
         return (T) first(query("from ", clazz, " where id = ", param(id)));
     }
 
     public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
             Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.getResourceByName(namespace, name, clazz), clazz);
+        }
         Query query = null;
         if (namespace == CatalogFacade.ANY_NAMESPACE) {
             query = query("from ", clazz, " where name = ", param(name));
@@ -289,22 +481,38 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
 
     public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
             Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.getResourceByStore(store, name, clazz), clazz);
+        }
         Query query = query("from ", clazz, " r where name = ", param(name),
             " and r.store = ", param(store));
         return (T) first(query);
     }
 
     public <T extends ResourceInfo> List<T> getResources(Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.filter(snapshot.resources, clazz), clazz);
+        }
         return (List<T>) list(clazz);
     }
 
     public <T extends ResourceInfo> List<T> getResourcesByNamespace(NamespaceInfo namespace, Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.getResourcesByNamespace(namespace, clazz), clazz);
+        }
         Query query = query("select r from ", clazz, " r, ", NamespaceInfo.class, " n",
                 " where r.namespace = n and n.prefix = ", param(namespace.getPrefix()));
         return query.list();
     }
 
     public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.getResourcesByStore(store, clazz), clazz);
+        }
         Query query = query("from ", clazz, " r where r.store = ", param(store));
         return query.list();
     }
@@ -329,11 +537,19 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
    
     public StyleInfo getStyle(String id) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, StyleInfo.class), StyleInfo.class);
+        }
         Query query = query("from ", StyleInfo.class, " where id = ", param(id));
         return (StyleInfo) first(query);
     }
 
     public StyleInfo getStyleByName(String name) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.stylesByName.get(name), StyleInfo.class);
+        }
         Query query = query("from ", StyleInfo.class, " where name = ", param(name));
         return (StyleInfo) first(query);
     }
@@ -344,6 +560,10 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
 
     public List<StyleInfo> getStyles() {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.styles, StyleInfo.class);
+        }
         return (List<StyleInfo>) list(StyleInfo.class);
     }
 
@@ -397,22 +617,40 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public LayerInfo getLayer(String id) {
-        Query query = query("from ", LayerInfo.class, " where id = ", param(id));
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, LayerInfo.class), LayerInfo.class);
+        }
+        Query query = query("select l from ", LayerInfo.class, LAYER_FETCH, " where l.id = ",
+                param(id));
         return (LayerInfo) first(query);
     }
 
     public LayerInfo getLayerByName(String name) {
-        Query query = query("from ", LayerInfo.class, " where resource.name = ", param(name));
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.layersByName.get(name), LayerInfo.class);
+        }
+        Query query = query("select l from ", LayerInfo.class, LAYER_FETCH, " where r.name = ",
+                param(name));
         return (LayerInfo) first(query);
     }
     
     public List<LayerInfo> getLayers(ResourceInfo resource) {
-        Query query = 
-            query("from ", LayerInfo.class, " where resource.id = ", param(resource.getId()));
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.getLayers(resource), LayerInfo.class);
+        }
+        Query query = query("select l from ", LayerInfo.class, LAYER_FETCH, " where r.id = ",
+                param(resource.getId()));
         return (List<LayerInfo>) query.list();
     }
 
     public List<LayerInfo> getLayers(StyleInfo style) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.getLayers(style), LayerInfo.class);
+        }
         Query query = query("from ", LayerInfo.class, " where defaultStyle.id = ", param(style.getId()));
           
         //TODO: we need to check layer.styles as well, nto sure how to do this with hql...
@@ -422,7 +660,12 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
 
     public List<LayerInfo> getLayers() {
-        return list(LayerInfo.class);
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.layers, LayerInfo.class);
+        }
+        Query query = query("select l from ", LayerInfo.class, LAYER_FETCH);
+        return Collections.unmodifiableList((List<LayerInfo>) query.list());
     }
     
     //
@@ -445,11 +688,19 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public LayerGroupInfo getLayerGroup(String id) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.get(id, LayerGroupInfo.class), LayerGroupInfo.class);
+        }
         Query query = query("from ", LayerGroupInfo.class, " where id = ", param(id));
         return (LayerGroupInfo) first(query);
     }
 
     public LayerGroupInfo getLayerGroupByName(String name) {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxy(snapshot.layerGroupsByName.get(name), LayerGroupInfo.class);
+        }
         Query query = query("from ", LayerGroupInfo.class, " where name = ", param(name));
         return (LayerGroupInfo) first(query);
     }
@@ -461,6 +712,10 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
 
     public List<LayerGroupInfo> getLayerGroups() {
+        CatalogSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return proxyList(snapshot.layerGroups, LayerGroupInfo.class);
+        }
         return list(LayerGroupInfo.class);
     }
 
@@ -513,12 +768,397 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
             Filter filter, Integer offset, Integer count, SortBy sortOrder) {
         throw new UnsupportedOperationException();
     }
+    //
+    // snapshot
+    //
+    @Override
+    protected <T extends Info> T persist(T entity, boolean clearId) {
+        unwrapReferences(entity);
+        T persisted = super.persist(entity, clearId);
+        changed();
+        return persisted;
+    }
+    
+    @Override
+    protected <T extends Info> T merge(T entity) {
+        T merged = super.merge(attach(entity));
+        changed();
+        return merged;
+    }
+    
+    @Override
+    protected void delete(Info entity) {
+        super.delete(ModificationProxy.unwrap(entity));
+        changed();
+    }
+    
+    /**
+     * Wraps a snapshot object in a {@link ModificationProxy}, the snapshot is shared by all
+     * threads and its objects must never be modified in place
+     */
+    static <T> T proxy(T info, Class<T> clazz) {
+        return info != null ? ModificationProxy.create(info, clazz) : null;
+    }
+    
+    static <T> List<T> proxyList(List<T> infos, Class<T> clazz) {
+        return Collections.unmodifiableList(ModificationProxy.createList(infos, clazz));
+    }
+    
+    /**
+     * Returns the object to be handed to Hibernate for an object that might come from the
+     * snapshot. The changes recorded by the {@link ModificationProxy} are applied to the copy
+     * of the object attached to the current session, leaving the snapshot untouched.
+     */
+    <T extends Info> T attach(T info) {
+        ModificationProxy h = ModificationProxy.handler(info);
+        if (h == null) {
+            return info;
+        }
+        
+        Object object = h.getProxyObject();
+        T attached = (T) unwrap(sessionFactory.getCurrentSession().get(object.getClass(),
+                info.getId()));
+        if (attached == null) {
+            throw new IllegalArgumentException("No " + object.getClass().getSimpleName()
+                    + " with id " + info.getId() + " in the database");
+        }
+        
+        apply(h, attached);
+        unwrapReferences(attached);
+        return attached;
+    }
+    
+    /**
+     * Applies the changes recorded by a {@link ModificationProxy} to the target object
+     */
+    static void apply(ModificationProxy h, Object target) {
+        ModificationProxy changes = new ModificationProxy(target);
+        for (Map.Entry<String, Object> e : h.getProperties().entrySet()) {
+            Object value = e.getValue();
+            ModificationProxy related = ModificationProxy.handler(value);
+            if (related != null) {
+                // the proxy caches the related objects as soon as they are accessed, keep the
+                // ones that were not replaced. Catalog objects are saved on their own, the
+                // changes made in place to the other ones are part of the target
+                Object current = OwsUtils.get(target, e.getKey());
+                if (current instanceof CatalogInfo) {
+                    if (CatalogSnapshot.sameId((CatalogInfo) current, (CatalogInfo) value)) {
+                        continue;
+                    }
+                }
+                else if (current != null) {
+                    apply(related, current);
+                    continue;
+                }
+            }
+            changes.getProperties().put(e.getKey(), value);
+        }
+        changes.commit();
+    }
+    
+    /**
+     * Replaces the references to snapshot objects held by the specified object with the
+     * objects themselves, Hibernate cannot deal with the proxies
+     */
+    static void unwrapReferences(Info info) {
+        ClassProperties cp = OwsUtils.getClassProperties(info.getClass());
+        for (String property : cp.properties()) {
+            Method getter = cp.getter(property, null);
+            Class<?> type = getter.getReturnType();
+            try {
+                if (Info.class.isAssignableFrom(type) && !Catalog.class.isAssignableFrom(type)) {
+                    Object value = getter.invoke(info);
+                    Object unwrapped = ModificationProxy.unwrap(value);
+                    if (unwrapped != value) {
+                        OwsUtils.set(info, property, unwrapped);
+                    }
+                }
+                else if (List.class.isAssignableFrom(type)) {
+                    List<Object> values = (List<Object>) getter.invoke(info);
+                    if (values != null) {
+                        for (ListIterator<Object> it = values.listIterator(); it.hasNext();) {
+                            Object value = it.next();
+                            Object unwrapped = ModificationProxy.unwrap(value);
+                            if (unwrapped != value) {
+                                it.set(unwrapped);
+                            }
+                        }
+                    }
+                }
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Failed to unwrap " + property + " of " + info, e);
+            }
+        }
+    }
+    
+    /**
+     * Bumps the catalog version in the current transaction, and drops the local snapshot once
+     * the transaction is over. The version is bumped even if the snapshot mode is disabled, as
+     * other nodes sharing the database might have it enabled.
+     */
+    void changed() {
+        Session session = sessionFactory.getCurrentSession();
+        int updated = session.createQuery(
+                "update CatalogVersion v set v.version = v.version + 1 where v.id = :id")
+                .setParameter("id", CatalogVersion.CATALOG).executeUpdate();
+        if (updated == 0) {
+            session.save(new CatalogVersion(CatalogVersion.CATALOG, 1));
+        }
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        invalidateSnapshot();
+                    }
+                });
+        }
+        else {
+            invalidateSnapshot();
+        }
+    }
+    
+    void invalidateSnapshot() {
+        changes.incrementAndGet();
+        snapshot = null;
+    }
+    
+    /**
+     * Returns the snapshot reads should be served from, or null if they should go to the
+     * database. The database is hit only once per check interval to verify the version, and the
+     * whole catalog is loaded again only if the version changed, and not more than once per
+     * reload interval. Until then the outdated snapshot is dropped and the database is used.
+     */
+    CatalogSnapshot snapshot() {
+        if (!snapshotEnabled) {
+            return null;
+        }
+        
+        CatalogSnapshot current = snapshot;
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.checked < snapshotCheckInterval) {
+            return current;
+        }
+        if (current == null && now - loaded < snapshotReloadInterval) {
+            return null;
+        }
+        
+        long version = readVersion(sessionFactory.getCurrentSession());
+        synchronized (snapshotLock) {
+            current = snapshot;
+            if (current != null && current.version >= version) {
+                current.checked = now;
+                return current;
+            }
+            if (now - loaded < snapshotReloadInterval) {
+                snapshot = null;
+                return null;
+            }
+            
+            // a snapshot loaded while a local change was being committed might miss it, use it
+            // for this call only and let the next one load it again
+            long localChanges = changes.get();
+            CatalogSnapshot loaded = loadSnapshot();
+            this.loaded = now;
+            if (changes.get() == localChanges) {
+                snapshot = loaded;
+            }
+            return loaded;
+        }
+    }
+    
+    long readVersion(Session session) {
+        Number version = (Number) session.createQuery(
+                "select v.version from CatalogVersion v where v.id = :id")
+                .setParameter("id", CatalogVersion.CATALOG).uniqueResult();
+        return version != null ? version.longValue() : 0;
+    }
+    
+    /**
+     * Loads the whole catalog in a session of its own, following the same fetch plans used for
+     * the single queries and initializing the lazy associations, so that the objects can be used
+     * once the session is closed
+     */
+    CatalogSnapshot loadSnapshot() {
+        Session session = sessionFactory.openSession();
+        try {
+            // the collections get replaced by plain copies, nothing must be written back
+            session.setFlushMode(FlushMode.MANUAL);
+            Transaction tx = session.beginTransaction();
+            try {
+                CatalogSnapshot loaded = new CatalogSnapshot(readVersion(session));
+                
+                for (Object o : session.createQuery("from WorkspaceInfoImpl").list()) {
+                    WorkspaceInfo ws = (WorkspaceInfo) unwrap(o);
+                    initialize(ws.getMetadata());
+                    loaded.add(ws);
+                }
+                for (Object o : session.createQuery("from NamespaceInfoImpl").list()) {
+                    NamespaceInfo ns = (NamespaceInfo) unwrap(o);
+                    initialize(ns.getMetadata());
+                    loaded.add(ns);
+                }
+                for (Object o : session.createQuery(
+                        "select s from StoreInfoImpl s left join fetch s.workspace").list()) {
+                    StoreInfo store = (StoreInfo) unwrap(o);
+                    initialize(store.getMetadata(), store.getConnectionParameters());
+                    loaded.add(store);
+                }
+                for (Object o : session.createQuery("select r from ResourceInfoImpl r"
+                        + " left join fetch r.store left join fetch r.namespace").list()) {
+                    ResourceInfo resource = (ResourceInfo) unwrap(o);
+                    initialize(resource.getMetadata(), resource.getAlias(),
+                            resource.getKeywords(), resource.getMetadataLinks());
+                    if (resource instanceof FeatureTypeInfo) {
+                        List<AttributeTypeInfo> attributes = 
+                            ((FeatureTypeInfo) resource).getAttributes();
+                        initialize(attributes);
+                        for (AttributeTypeInfo att : attributes) {
+                            initialize(att.getMetadata());
+                        }
+                    }
+                    else if (resource instanceof CoverageInfo) {
+                        CoverageInfo coverage = (CoverageInfo) resource;
+                        initialize(coverage.getSupportedFormats(), coverage.getRequestSRS(),
+                                coverage.getResponseSRS(), coverage.getInterpolationMethods(),
+                                coverage.getDimensions(), coverage.getParameters());
+                    }
+                    loaded.add(resource);
+                }
+                for (Object o : session.createQuery("from StyleInfoImpl").list()) {
+                    loaded.add((StyleInfo) unwrap(o));
+                }
+                for (Object o : session.createQuery(
+                        "select l from LayerInfoImpl" + LAYER_FETCH).list()) {
+                    LayerInfo layer = (LayerInfo) unwrap(o);
+                    initialize(layer.getStyles(), layer.getLegend(), layer.getMetadata(),
+                            layer.getAttribution());
+                    loaded.add(layer);
+                }
+                for (Object o : session.createQuery("from LayerGroupInfoImpl").list()) {
+                    LayerGroupInfo lg = (LayerGroupInfo) unwrap(o);
+                    initialize(lg.getLayers(), lg.getStyles(), lg.getMetadata());
+                    loaded.add(lg);
+                }
+                
+                Set<Object> visited = 
+                    Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+                for (CatalogInfo info : loaded.byId.values()) {
+                    detachCollections(info, visited);
+                }
+                return loaded;
+            }
+            finally {
+                // read only, nothing to commit
+                tx.rollback();
+            }
+        }
+        finally {
+            session.close();
+        }
+    }
+    
+    /**
+     * Replaces the Hibernate collections held by the object, and by the objects it contains
+     * other than the catalog ones, with plain copies. The persistent collections are bound to the
+     * session the snapshot is loaded with, and a {@link ModificationProxy} copies collections
+     * by creating a new instance of their class, which for them is an uninitialized collection
+     * failing as soon as it's accessed.
+     */
+    static void detachCollections(Object object, Set<Object> visited) {
+        if (!visited.add(object)) {
+            return;
+        }
+        
+        ClassProperties cp = OwsUtils.getClassProperties(object.getClass());
+        for (String property : cp.properties()) {
+            Method getter = cp.getter(property, null);
+            Class<?> type = getter.getReturnType();
+            boolean container = Collection.class.isAssignableFrom(type) 
+                || Map.class.isAssignableFrom(type);
+            if (!container && !isDetachable(type)) {
+                continue;
+            }
+            
+            try {
+                Object value = getter.invoke(object);
+                if (value == null) {
+                    continue;
+                }
+                
+                if (value instanceof PersistentCollection) {
+                    Object copy = copy(value);
+                    Method setter = cp.setter(property, copy.getClass());
+                    if (setter == null) {
+                        throw new IllegalStateException("No setter for " + property + " of "
+                                + object.getClass().getName());
+                    }
+                    setter.invoke(object, copy);
+                    value = copy;
+                }
+                
+                Collection<?> children = Collections.singleton(value);
+                if (value instanceof Map && !(value instanceof MetadataMap)) {
+                    children = ((Map<?, ?>) value).values();
+                }
+                else if (value instanceof Collection) {
+                    children = (Collection<?>) value;
+                }
+                for (Object child : children) {
+                    if (child != null && isDetachable(child.getClass())) {
+                        detachCollections(child, visited);
+                    }
+                }
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Failed to detach " + property + " of " + object, e);
+            }
+        }
+    }
+    
+    /**
+     * Whether the objects of the type are part of the object holding them, the catalog objects
+     * are referenced, and detached on their own
+     */
+    static boolean isDetachable(Class<?> type) {
+        return MetadataMap.class.isAssignableFrom(type) || (Info.class.isAssignableFrom(type) 
+                && !CatalogInfo.class.isAssignableFrom(type));
+    }
+    
+    static Object copy(Object collection) {
+        if (collection instanceof List) {
+            return new ArrayList<Object>((List<?>) collection);
+        }
+        if (collection instanceof Set) {
+            return new HashSet<Object>((Set<?>) collection);
+        }
+        if (collection instanceof Map) {
+            return new HashMap<Object, Object>((Map<?, ?>) collection);
+        }
+        return new ArrayList<Object>((Collection<?>) collection);
+    }
+    
+    static void initialize(Object... proxies) {
+        for (Object proxy : proxies) {
+            Hibernate.initialize(proxy);
+        }
+    }
+    
+    static Object unwrap(Object o) {
+        if (o instanceof HibernateProxy) {
+            return ((HibernateProxy) o).getHibernateLazyInitializer().getImplementation();
+        }
+        return o;
+    }
+    
     //
     // Utilities
     //
     WorkspaceInfo resolve(WorkspaceInfo ws) {
         if (ws.getId() == null) {
-            WorkspaceInfo resolved = getWorkspaceByName(ws.getName());
+            WorkspaceInfo resolved = queryWorkspaceByName(ws.getName());
             if (resolved != null) {
                 return resolved;
             }
@@ -528,7 +1168,7 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     
     NamespaceInfo resolve(NamespaceInfo ns) {
         if (ns.getId() == null) {
-            NamespaceInfo resolved = getNamespaceByPrefix(ns.getPrefix());
+            NamespaceInfo resolved = queryNamespaceByPrefix(ns.getPrefix());
             if (resolved != null) {
                 return resolved;
             }
@@ -538,6 +1178,7 @@ public class HibCatalogFacade extends AbstractHibFacade implements CatalogFacade
     }
     
     public void dispose() {
+        snapshot = null;
     }
 
     public void resolve() {
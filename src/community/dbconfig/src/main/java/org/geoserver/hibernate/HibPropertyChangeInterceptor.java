@@ -101,6 +101,10 @@ public class HibPropertyChangeInterceptor extends EmptyInterceptor implements Ap
     @Override
     public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState,
             Object[] previousState, String[] propertyNames, Type[] types) {
+        if (!(entity instanceof Info)) {
+            // bookkeeping entities, such as the catalog version, fire no events
+            return false;
+        }
         
         List<String> propertyNamesChanged = new ArrayList<String>();
         List<Object> oldValues = new ArrayList<Object>();
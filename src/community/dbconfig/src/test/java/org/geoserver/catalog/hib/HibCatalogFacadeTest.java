@@ -5,6 +5,7 @@
 package org.geoserver.catalog.hib;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -13,6 +14,7 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Keyword;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
@@ -20,8 +22,12 @@ import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.hibernate.HibTestSupport;
 import org.h2.tools.DeleteDbFiles;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.collection.PersistentCollection;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -548,4 +554,143 @@ public class HibCatalogFacadeTest extends HibTestSupport {
         assertEquals(lg, dao.getLayerGroupByName("anvils"));
         
     }
+    
+    @Test
+    public void testSnapshot() throws Exception {
+        HibCatalogFacade facade = (HibCatalogFacade) ctx.getBean("hibCatalogFacadeTarget");
+        facade.setSnapshotEnabled(true);
+        facade.setSnapshotCheckInterval(60 * 60 * 1000);
+        facade.setSnapshotReloadInterval(0);
+        try {
+            // local changes are seen right away
+            testAddWorkspace();
+            assertNotNull(dao.getWorkspaceByName("acme"));
+            
+            // changes made by another node are not seen until the version changes
+            update("update WorkspaceInfoImpl set name = 'acme2' where name = 'acme'");
+            assertNotNull(dao.getWorkspaceByName("acme"));
+            
+            update("update CatalogVersion v set v.version = v.version + 1");
+            facade.setSnapshotCheckInterval(0);
+            assertNull(dao.getWorkspaceByName("acme"));
+            assertNotNull(dao.getWorkspaceByName("acme2"));
+        }
+        finally {
+            facade.setSnapshotEnabled(false);
+            facade.setSnapshotReloadInterval(5000);
+        }
+    }
+    
+    @Test
+    public void testSnapshotObjectsAreNotShared() throws Exception {
+        HibCatalogFacade facade = (HibCatalogFacade) ctx.getBean("hibCatalogFacadeTarget");
+        facade.setSnapshotEnabled(true);
+        facade.setSnapshotCheckInterval(60 * 60 * 1000);
+        facade.setSnapshotReloadInterval(0);
+        try {
+            testAddLayer();
+            
+            // changes made to the returned objects don't leak into the snapshot
+            WorkspaceInfo ws = dao.getWorkspaceByName("acme");
+            ws.setName("changed");
+            assertEquals("acme", dao.getWorkspaceByName("acme").getName());
+            assertNull(dao.getWorkspaceByName("changed"));
+            
+            dao.getWorkspaces().get(0).setName("changed");
+            assertEquals("acme", dao.getWorkspaces().get(0).getName());
+            
+            LayerInfo l = dao.getLayerByName("anvil");
+            l.setPath("changed");
+            l.getResource().setTitle("changed");
+            assertEquals("/anvil", dao.getLayerByName("anvil").getPath());
+            assertNull(dao.getLayerByName("anvil").getResource().getTitle());
+            
+            // until they are saved
+            dao.save(ws);
+            assertNull(dao.getWorkspaceByName("acme"));
+            assertNotNull(dao.getWorkspaceByName("changed"));
+            
+            dao.save(l);
+            assertEquals("changed", dao.getLayerByName("anvil").getPath());
+        }
+        finally {
+            facade.setSnapshotEnabled(false);
+            facade.setSnapshotReloadInterval(5000);
+        }
+    }
+    
+    @Test
+    public void testSnapshotCollections() throws Exception {
+        HibCatalogFacade facade = (HibCatalogFacade) ctx.getBean("hibCatalogFacadeTarget");
+        facade.setSnapshotEnabled(true);
+        facade.setSnapshotCheckInterval(60 * 60 * 1000);
+        facade.setSnapshotReloadInterval(0);
+        try {
+            testAddFeatureType();
+            WorkspaceInfo ws = dao.getWorkspaceByName("acme");
+            DataStoreInfo ds = dao.getStoreByName(ws, "widgets", DataStoreInfo.class);
+            ds.getConnectionParameters().put("foo", "bar");
+            dao.save(ds);
+            NamespaceInfo ns = dao.getNamespaceByPrefix("acme");
+            FeatureTypeInfo ft = dao.getResourceByName(ns, "anvil", FeatureTypeInfo.class);
+            ft.getKeywords().add(new Keyword("tools"));
+            dao.save(ft);
+            
+            // read from the snapshot, whose session is long closed
+            ds = dao.getStoreByName(ws, "widgets", DataStoreInfo.class);
+            assertNotNull(facade.snapshot);
+            assertEquals("bar", ds.getConnectionParameters().get("foo"));
+            assertFalse(ModificationProxy.unwrap(ds).getConnectionParameters() 
+                    instanceof PersistentCollection);
+            
+            ft = dao.getResourceByName(ns, "anvil", FeatureTypeInfo.class);
+            assertEquals(1, ft.getKeywords().size());
+            assertEquals("tools", ft.getKeywords().get(0).getValue());
+            assertFalse(ModificationProxy.unwrap(ft).getKeywords() 
+                    instanceof PersistentCollection);
+        }
+        finally {
+            facade.setSnapshotEnabled(false);
+            facade.setSnapshotReloadInterval(5000);
+        }
+    }
+    
+    @Test
+    public void testSnapshotReloadInterval() throws Exception {
+        HibCatalogFacade facade = (HibCatalogFacade) ctx.getBean("hibCatalogFacadeTarget");
+        facade.setSnapshotEnabled(true);
+        facade.setSnapshotCheckInterval(60 * 60 * 1000);
+        facade.setSnapshotReloadInterval(60 * 60 * 1000);
+        try {
+            assertEquals(0, dao.getWorkspaces().size());
+            assertNotNull(facade.snapshot);
+            
+            // a local change drops the snapshot, the reads go to the database until the 
+            // reload interval is over
+            testAddWorkspace();
+            assertNull(facade.snapshot);
+            assertNotNull(dao.getWorkspaceByName("acme"));
+            assertNull(facade.snapshot);
+            
+            facade.setSnapshotReloadInterval(0);
+            assertNotNull(dao.getWorkspaceByName("acme"));
+            assertNotNull(facade.snapshot);
+        }
+        finally {
+            facade.setSnapshotEnabled(false);
+            facade.setSnapshotReloadInterval(5000);
+        }
+    }
+    
+    void update(String hql) {
+        Session session = sessionFactory.openSession();
+        try {
+            Transaction tx = session.beginTransaction();
+            session.createQuery(hql).executeUpdate();
+            tx.commit();
+        }
+        finally {
+            session.close();
+        }
+    }
 }
@@ -0,0 +1,38 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jdbcconfig;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.jdbcconfig.internal.DbUtils;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Logs, at FINE level, the number of statements each OWS request ran against the configuration
+ * database
+ */
+public class JDBCConfigStatementsCallback extends AbstractDispatcherCallback {
+
+    static final Logger LOGGER = Logging.getLogger(JDBCConfigStatementsCallback.class);
+
+    @Override
+    public Request init(Request request) {
+        DbUtils.resetStatementCount();
+        return request;
+    }
+
+    @Override
+    public void finished(Request request) {
+        int count = DbUtils.getStatementCount();
+        DbUtils.resetStatementCount();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(request.getService() + " " + request.getRequest() + " ran " + count
+                    + " statements against the configuration database");
+        }
+    }
+}
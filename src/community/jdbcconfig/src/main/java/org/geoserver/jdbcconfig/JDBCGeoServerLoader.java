@@ -65,6 +65,12 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
         this.geoServerFacade = geoServerFacade;
     }
 
+    @Override
+    protected boolean canReloadCatalogIncrementally() {
+        // the catalog lives in the database, not in the data directory
+        return !config.isEnabled() && super.canReloadCatalogIncrementally();
+    }
+
     @Override
     protected void loadCatalog(Catalog catalog, XStreamPersister xp) throws Exception {
         if (!config.isEnabled()) {
@@ -87,6 +93,10 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
             readCatalog(catalog, xp);
             decImportStep();
         }
+
+        if (config.isPrefetch()) {
+            ((JDBCCatalogFacade) catalogFacade).getConfigDatabase().warmUp();
+        }
     }
 
     @Override
@@ -905,22 +905,8 @@ public class JDBCCatalogFacade implements CatalogFacade {
 
     private <T extends CatalogInfo> T findUnique(Class<T> type, Filter filter)
             throws IllegalArgumentException {
-
-        final Integer count = Integer.valueOf(2);
-        CloseableIterator<T> it = list(type, filter, null, count, null);
-        T result = null;
-        try {
-            if (it.hasNext()) {
-                result = it.next();
-                if (it.hasNext()) {
-                    throw new IllegalArgumentException(
-                            "Specified query predicate resulted in more than one object");
-                }
-            }
-        } finally {
-            it.close();
-        }
-        return result;
+        // the database caches the ids of the objects found by unique lookups
+        return db.getUnique(type, filter);
     }
 
     /**
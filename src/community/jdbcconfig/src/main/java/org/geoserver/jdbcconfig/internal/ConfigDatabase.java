@@ -15,6 +15,8 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -26,6 +28,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,10 +40,13 @@ import org.geoserver.catalog.Info;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.catalog.impl.ClassMappings;
 import org.geoserver.catalog.impl.ModificationProxy;
@@ -60,6 +66,7 @@ import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.util.CacheProvider;
 import org.geoserver.util.DefaultCacheProvider;
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.text.ecql.ECQL;
 import org.geotools.util.Converters;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.Filter;
@@ -67,6 +74,7 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -82,12 +90,14 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * 
@@ -96,6 +106,11 @@ public class ConfigDatabase {
 
     public static final Logger LOGGER = Logging.getLogger(ConfigDatabase.class);
 
+    /**
+     * Maximum number of objects loaded with a single statement
+     */
+    static final int PREFETCH_BATCH_SIZE = 100;
+
     private DbMappings dbMappings;
 
     private CatalogImpl catalog;
@@ -108,8 +123,15 @@ public class ConfigDatabase {
 
     private Cache<String, Info> cache;
 
+    /**
+     * The id of the object matching a unique lookup, such as by name, keyed by type and filter
+     */
+    Cache<String, String> identityCache;
+
     private InfoRowMapper<CatalogInfo> catalogRowMapper;
 
+    private InfoRowMapper<CatalogInfo> catalogBlobRowMapper;
+
     private InfoRowMapper<Info> configRowMapper;
 
     /**
@@ -127,17 +149,23 @@ public class ConfigDatabase {
             CacheProvider cacheProvider) {
 
         this.binding = binding;
-        this.template = new NamedParameterJdbcTemplate(dataSource);
+        this.template = DbUtils.countStatements(new NamedParameterJdbcTemplate(dataSource));
 
         this.dbMappings = new DbMappings();
 
         this.catalogRowMapper = new InfoRowMapper<CatalogInfo>(CatalogInfo.class, binding);
+        this.catalogBlobRowMapper = new InfoRowMapper<CatalogInfo>(CatalogInfo.class, binding, 2);
         this.configRowMapper = new InfoRowMapper<Info>(Info.class, binding);
 
         if (cacheProvider == null) {
             cacheProvider = DefaultCacheProvider.findProvider();
         }
         cache = cacheProvider.getCache("catalog");
+        // ids are small, keep them around even if the objects themselves are evicted
+        identityCache = CacheBuilder.newBuilder()
+                .concurrencyLevel(DefaultCacheProvider.DEFAULT_CONCURRENCY_LEVEL)
+                .expireAfterAccess(DefaultCacheProvider.DEFAULT_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+                .maximumSize(DefaultCacheProvider.DEFAULT_MAX_ENTRIES).build();
     }
 
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = Exception.class)
@@ -241,20 +269,13 @@ public class ConfigDatabase {
                     sw.toString()));
         }
 
-        List<T> lazyTransformed = Lists.transform(ids, new Function<String, T>() {
-            @Override
-            public T apply(String id) {
-                return getById(id, of);
-            }
-        });
-
         CloseableIterator<T> result;
 
         if (fullySupported) {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            Iterator<T> iterator = loadInBatches(ids, of);
             result = new CloseableIteratorAdapter<T>(iterator);
         } else {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            Iterator<T> iterator = loadInBatches(ids, of);
             if (offset != null) {
                 Iterators.skip(iterator, offset.intValue());
             }
@@ -267,6 +288,166 @@ public class ConfigDatabase {
         return result;
     }
 
+    /**
+     * Returns the objects with the given ids, the ones that are not cached are loaded a batch at a
+     * time while iterating
+     */
+    private <T extends Info> Iterator<T> loadInBatches(final List<String> ids, final Class<T> of) {
+        if (!CatalogInfo.class.isAssignableFrom(of)) {
+            return Iterators.transform(ids.iterator(), new Function<String, T>() {
+                @Override
+                public T apply(String id) {
+                    return getById(id, of);
+                }
+            });
+        }
+
+        Iterator<List<String>> batches = Lists.partition(ids, PREFETCH_BATCH_SIZE).iterator();
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<String>, Iterator<T>>() {
+                    @Override
+                    public Iterator<T> apply(List<String> batch) {
+                        // the cache may hold the values weakly, keep the batch reachable until
+                        // it has been consumed
+                        final Map<String, Info> prefetched = prefetch(batch);
+                        return Iterators.transform(batch.iterator(), new Function<String, T>() {
+                            @Override
+                            public T apply(String id) {
+                                T info = getById(id, of);
+                                prefetched.remove(id);
+                                return info;
+                            }
+                        });
+                    }
+                }));
+    }
+
+    /**
+     * Loads in the cache the catalog objects with the given ids that are not there yet, using a
+     * single statement
+     * 
+     * @return the objects found, by id
+     */
+    private Map<String, Info> prefetch(final List<String> ids) {
+        final Map<String, Info> found = Maps.newHashMap();
+        List<String> missing = Lists.newArrayList();
+        for (String id : ids) {
+            Info info = cache.getIfPresent(id);
+            if (info == null) {
+                missing.add(id);
+            } else {
+                found.put(id, info);
+            }
+        }
+        // a single object is better loaded through the cache
+        if (missing.size() < 2) {
+            return found;
+        }
+
+        String sql = "select id, blob from object where id in ( :ids )";
+        Map<String, ?> params = params("ids", missing);
+        logStatement(sql, params);
+        template.query(sql, params, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                String id = rs.getString(1);
+                Info info = catalogBlobRowMapper.mapRow(rs, rs.getRow());
+                // don't replace a fresher copy stored by a concurrent save
+                Info cached = cache.asMap().putIfAbsent(id, info);
+                found.put(id, cached == null ? info : cached);
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Loads in the cache all the layers, along with their resources and stores, and the
+     * workspaces, namespaces, styles and layer groups, a batch at a time.
+     * <p>
+     * The objects stay in the cache only if the configured {@link CacheProvider} keeps them
+     * around, the default one holds them weakly.
+     * </p>
+     * 
+     * @return the number of objects loaded
+     */
+    public int warmUp() {
+        List<Integer> types = Lists.newArrayList();
+        for (Class<? extends CatalogInfo> clazz : ImmutableList.of(WorkspaceInfo.class,
+                NamespaceInfo.class, StoreInfo.class, ResourceInfo.class, StyleInfo.class,
+                LayerInfo.class, LayerGroupInfo.class)) {
+            types.addAll(typesParam(clazz));
+        }
+
+        final String sql = "select id from object where type_id in ( :types )";
+        Map<String, ?> params = params("types", types);
+        logStatement(sql, params);
+        List<String> ids = template.queryForList(sql, params, String.class);
+
+        Stopwatch sw = new Stopwatch().start();
+        int loaded = 0;
+        for (List<String> batch : Lists.partition(ids, PREFETCH_BATCH_SIZE)) {
+            loaded += prefetch(batch).size();
+        }
+        sw.stop();
+        LOGGER.info("Prefetched " + loaded + " catalog objects in " + sw);
+        return loaded;
+    }
+
+    /**
+     * Returns the only object of the given type matching the filter, or null if there is none.
+     * <p>
+     * The id of the matching object is cached, so that repeated lookups, for example by name,
+     * only hit the database if the object itself is not in the cache. The cached object is
+     * checked against the filter before being returned, as a lookup running concurrently with a
+     * change can cache a mapping that the change already made stale.
+     * </p>
+     * 
+     * @throws IllegalArgumentException if more than one object matches the filter
+     */
+    public <T extends CatalogInfo> T getUnique(final Class<T> type, final Filter filter)
+            throws IllegalArgumentException {
+
+        final String key = identityKey(type, filter);
+        if (key != null) {
+            String id = identityCache.getIfPresent(key);
+            if (id != null) {
+                T info = getById(id, type);
+                if (info != null && filter.evaluate(info)) {
+                    return info;
+                }
+                identityCache.invalidate(key);
+            }
+        }
+
+        CloseableIterator<T> it = query(type, filter, null, Integer.valueOf(2), null);
+        T result = null;
+        try {
+            if (it.hasNext()) {
+                result = it.next();
+                if (it.hasNext()) {
+                    throw new IllegalArgumentException(
+                            "Specified query predicate resulted in more than one object");
+                }
+            }
+        } finally {
+            it.close();
+        }
+
+        if (result != null && key != null) {
+            identityCache.put(key, result.getId());
+        }
+        return result;
+    }
+
+    String identityKey(Class<?> type, Filter filter) {
+        try {
+            return type.getName() + ":" + ECQL.toCQL(filter);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Cannot cache the results of " + filter, e);
+            return null;
+        }
+    }
+
     public <T extends Info> List<T> queryAsList(final Class<T> of, final Filter filter,
             Integer offset, Integer count, SortBy sortOrder) {
 
@@ -322,6 +503,7 @@ public class ConfigDatabase {
         addAttributes(info, key);
 
         cache.put(id, info);
+        identityCache.invalidateAll();
         return getById(id, interf);
     }
 
@@ -531,6 +713,7 @@ public class ConfigDatabase {
         LOGGER.fine("Removed " + relatedPropCount + " related properties of " + info.getId());
 
         cache.invalidate(info.getId());
+        identityCache.invalidateAll();
     }
 
     /**
@@ -592,6 +775,9 @@ public class ConfigDatabase {
             }
         }
         // / </HACK>
+
+        // names may have changed
+        identityCache.invalidateAll();
         return getById(id, clazz);
     }
 
@@ -830,6 +1016,7 @@ public class ConfigDatabase {
     public void dispose() {
         cache.invalidateAll();
         cache.cleanUp();
+        identityCache.invalidateAll();
     }
 
     private final class CatalogLoader implements Callable<CatalogInfo> {
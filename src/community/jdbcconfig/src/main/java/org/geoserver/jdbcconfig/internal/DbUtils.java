@@ -4,6 +4,10 @@
  */
 package org.geoserver.jdbcconfig.internal;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
@@ -12,6 +16,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.util.logging.Logging;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 
 import com.google.common.collect.Maps;
 
@@ -19,6 +24,53 @@ public class DbUtils {
 
     static final Logger LOGGER = Logging.getLogger(DbUtils.class.getPackage().getName());
 
+    /**
+     * Number of statements run by the current thread
+     */
+    static final ThreadLocal<int[]> STATEMENTS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * Returns the number of statements the current thread ran against the configuration database
+     * since the last call to {@link #resetStatementCount()}
+     */
+    public static int getStatementCount() {
+        return STATEMENTS.get()[0];
+    }
+
+    public static void resetStatementCount() {
+        STATEMENTS.remove();
+    }
+
+    /**
+     * Wraps the template so that each statement run through it is accounted for in
+     * {@link #getStatementCount()}
+     */
+    public static NamedParameterJdbcOperations countStatements(
+            final NamedParameterJdbcOperations template) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == NamedParameterJdbcOperations.class
+                        && !"getJdbcOperations".equals(method.getName())) {
+                    STATEMENTS.get()[0]++;
+                }
+                try {
+                    return method.invoke(template, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        };
+        return (NamedParameterJdbcOperations) Proxy.newProxyInstance(
+                DbUtils.class.getClassLoader(),
+                new Class<?>[] { NamedParameterJdbcOperations.class }, handler);
+    }
+
     public static Map<String, ?> params(Object... kv) {
         Map<String, Object> params = Maps.newHashMap();
         String paramName;
@@ -75,6 +75,14 @@ public class JDBCConfigProperties extends Properties {
         setProperty("import", String.valueOf(imprt));
     }
 
+    public boolean isPrefetch() {
+        return Boolean.parseBoolean(getProperty("prefetch", "false"));
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        setProperty("prefetch", String.valueOf(prefetch));
+    }
+
     public void save() throws IOException {
         factory.saveConfig(this);
     }
@@ -17,16 +17,19 @@
 package org.geoserver.jdbcconfig.internal;
 
 import java.lang.reflect.Proxy;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.Info;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
 import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.opengis.filter.Filter;
 
 /**
  * @author groldan
@@ -114,4 +117,61 @@ public class ConfigDatabaseTest extends TestCase {
         }
         assertEquals(info, saved);
     }
+
+    public void testGetUniqueCachesIdentity() throws Exception {
+        WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+        ws.setId("wsid");
+        ws.setName("ws1");
+        database.add(ws);
+
+        Filter filter = Predicates.equal("name", "ws1");
+        assertEquals(ws, database.getUnique(WorkspaceInfo.class, filter));
+
+        // the second lookup is answered from the caches
+        DbUtils.resetStatementCount();
+        assertEquals(ws, database.getUnique(WorkspaceInfo.class, filter));
+        assertEquals(0, DbUtils.getStatementCount());
+
+        // renaming the object makes the cached lookup go stale
+        WorkspaceInfo proxy = database.getById("wsid", WorkspaceInfo.class);
+        proxy.setName("ws2");
+        database.save(proxy);
+        assertNull(database.getUnique(WorkspaceInfo.class, filter));
+        assertEquals("wsid",
+                database.getUnique(WorkspaceInfo.class, Predicates.equal("name", "ws2")).getId());
+    }
+
+    public void testGetUniqueIgnoresStaleIdentity() throws Exception {
+        for (int i = 1; i <= 2; i++) {
+            WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+            ws.setId("wsid" + i);
+            ws.setName("ws" + i);
+            database.add(ws);
+        }
+
+        // a lookup racing with a rename can cache a mapping the rename made stale
+        Filter filter = Predicates.equal("name", "ws1");
+        database.identityCache.put(database.identityKey(WorkspaceInfo.class, filter), "wsid2");
+        assertEquals("wsid1", database.getUnique(WorkspaceInfo.class, filter).getId());
+        assertEquals("wsid1", database.identityCache.getIfPresent(database.identityKey(
+                WorkspaceInfo.class, filter)));
+    }
+
+    public void testQueryLoadsInBatches() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+            ws.setId("ws" + i);
+            ws.setName("ws" + i);
+            database.add(ws);
+        }
+        // empty the cache
+        database.dispose();
+
+        DbUtils.resetStatementCount();
+        List<WorkspaceInfo> workspaces = database.queryAsList(WorkspaceInfo.class,
+                Filter.INCLUDE, null, null, null);
+        assertEquals(10, workspaces.size());
+        // one statement for the ids, one for the objects
+        assertEquals(2, DbUtils.getStatementCount());
+    }
 }
@@ -56,9 +56,6 @@ public class GeometryRegionatingStrategy extends
                         + attribute + " in layer " + featureType.getName());
             }
         }
-
-        // geometry size is a double
-        h2Type = "DOUBLE";
     }
 
     @Override 
@@ -4,7 +4,6 @@
  */
 package org.geoserver.kml.regionate;
 
-import java.sql.Connection;
 import java.util.Map;
 
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -16,7 +15,6 @@ import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureIterator;
-import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeType;
@@ -24,7 +22,6 @@ import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
-import org.opengis.filter.spatial.BBOX;
 
 /**
  * An attribute based regionating strategy assuming it's possible (and fast) to
@@ -83,17 +80,9 @@ public class NativeSortRegionatingStrategy extends
         return super.getDatabaseName(cfg) + "_" +  MapLayerInfo.getRegionateAttribute(cfg);
     }
 
-    public FeatureIterator getSortedFeatures(GeometryDescriptor geom,
-    		ReferencedEnvelope latLongEnv, ReferencedEnvelope nativeEnv, 
-    		Connection cacheConn) throws Exception {
-        // build the bbox filter
-        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
-        BBOX filter = ff.bbox(geom.getLocalName(), nativeEnv.getMinX(),
-                nativeEnv.getMinY(), nativeEnv.getMaxX(), nativeEnv.getMaxY(), null);
-
+    public FeatureIterator getSortedFeatures(GeometryDescriptor geom) throws Exception {
         // build an optimized query (only the necessary attributes
         Query q = new Query();
-        q.setFilter(filter);
         q.setPropertyNames(new String[] { geom.getLocalName(), attribute });
         // TODO: enable this when JTS learns how to compute centroids
         // without triggering the
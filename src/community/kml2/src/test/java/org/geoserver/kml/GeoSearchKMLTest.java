@@ -15,6 +15,7 @@ import java.util.logging.Level;
 import org.apache.commons.io.FileUtils;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.kml.regionate.CachedHierarchyRegionatingStrategy;
 import org.geotools.util.logging.Logging;
 import org.junit.After;
 import org.junit.Before;
@@ -36,6 +37,7 @@ public class GeoSearchKMLTest extends RegionatingTestSupport {
     public void cleanupRegionationDatabases() throws IOException {
         File dir = getDataDirectory().findOrCreateDir("geosearch");
         FileUtils.deleteDirectory(dir);
+        CachedHierarchyRegionatingStrategy.clearIndexes();
     }
     
     @Test
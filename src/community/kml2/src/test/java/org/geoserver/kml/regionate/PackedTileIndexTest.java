@@ -0,0 +1,89 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.regionate;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackedTileIndexTest {
+
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("regionate", ".idx", new File("target"));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testBuildAndRead() throws Exception {
+        PackedTileIndex.Builder builder = new PackedTileIndex.Builder(file, 2);
+        builder.add(0, 0, 0, "f.1");
+        builder.add(5, 3, 4, "f.2");
+        builder.add(0, 0, 0, "f.3");
+        builder.add(5, 3, 4, "f.\u00e8");
+        builder.add(1, 0, 1, "f.5");
+        assertEquals(2, builder.getCount(0, 0, 0));
+        assertEquals(0, builder.getCount(1, 1, 1));
+
+        PackedTileIndex index = builder.build();
+        assertEquals(2, index.getFeaturesPerTile());
+        assertEquals(3, index.getTileCount());
+        // insertion order is preserved
+        assertEquals(Arrays.asList("f.1", "f.3"), new ArrayList<String>(index.getFids(0, 0, 0)));
+        assertEquals(Arrays.asList("f.2", "f.\u00e8"),
+                new ArrayList<String>(index.getFids(5, 3, 4)));
+        assertEquals(Arrays.asList("f.5"), new ArrayList<String>(index.getFids(1, 0, 1)));
+        assertTrue(index.getFids(1, 1, 1).isEmpty());
+        assertTrue(index.getFids(-1, 0, 0).isEmpty());
+
+        // can be reopened
+        index = PackedTileIndex.open(file);
+        assertEquals(Arrays.asList("f.5"), new ArrayList<String>(index.getFids(1, 0, 1)));
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        PackedTileIndex.Builder builder = new PackedTileIndex.Builder(file, 2);
+        builder.add(0, 0, 0, "f.1");
+        PackedTileIndex previous = builder.build();
+
+        builder = new PackedTileIndex.Builder(file, 2);
+        builder.add(0, 0, 0, "f.2");
+        // the previous index is still usable while the new one is being built
+        assertEquals(Arrays.asList("f.1"), new ArrayList<String>(previous.getFids(0, 0, 0)));
+        PackedTileIndex index = builder.build(previous);
+
+        assertTrue(previous.isClosed());
+        try {
+            previous.getFids(0, 0, 0);
+            fail("The previous index should have been closed");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+        assertEquals(Arrays.asList("f.2"), new ArrayList<String>(index.getFids(0, 0, 0)));
+    }
+
+    @Test
+    public void testTileIndexBorders() {
+        // regular case
+        assertEquals(1, CachedHierarchyRegionatingStrategy.tileIndex(15, 0, 10, 100));
+        // on the east border of a tile, goes to the next one
+        assertEquals(2, CachedHierarchyRegionatingStrategy.tileIndex(20, 0, 10, 100));
+        // unless it's the max of the data set
+        assertEquals(1, CachedHierarchyRegionatingStrategy.tileIndex(20, 0, 10, 20));
+    }
+}
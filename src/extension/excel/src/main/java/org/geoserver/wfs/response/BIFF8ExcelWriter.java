@@ -0,0 +1,783 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.poifs.filesystem.POIFSWriterEvent;
+import org.apache.poi.poifs.filesystem.POIFSWriterListener;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Font;
+
+/**
+ * {@link ExcelWriter} writing Excel 97 (BIFF8) records directly, without building a workbook in
+ * memory.
+ * <p>
+ * The cell records are spooled to a temporary file as the features are read, so that memory
+ * usage does not depend on the number of rows. Once all the sheets are done the workbook
+ * globals, which need to know the position of each sheet, are computed and the whole workbook
+ * stream is copied into the OLE2 container.
+ * </p>
+ * <p>
+ * Strings up to 255 chars are written as inline LABEL records, the longer ones go in the shared
+ * string table, which is spooled to a second temporary file and copied in the workbook globals at
+ * the end. The strings are not de-duplicated, that would require keeping them in memory.
+ * </p>
+ * <p>
+ * The fonts, formats and cell styles are always the same, so the part of the workbook globals
+ * holding them is built only once and shared among all the writers.
+ * </p>
+ */
+public class BIFF8ExcelWriter implements ExcelWriter {
+
+    static final int MAX_RECORD_DATA = 8224;
+
+    static final int MAX_SHEET_NAME = 31;
+
+    /**
+     * The max number of chars in a LABEL record
+     */
+    static final int MAX_LABEL_CHARS = 255;
+
+    // record identifiers
+    static final int BOF = 0x0809;
+
+    static final int EOF = 0x000A;
+
+    static final int CODEPAGE = 0x0042;
+
+    static final int WINDOW1 = 0x003D;
+
+    static final int FONT = 0x0031;
+
+    static final int FORMAT = 0x041E;
+
+    static final int XF = 0x00E0;
+
+    static final int STYLE = 0x0293;
+
+    static final int BOUNDSHEET = 0x0085;
+
+    static final int DIMENSIONS = 0x0200;
+
+    static final int WINDOW2 = 0x023E;
+
+    static final int NUMBER = 0x0203;
+
+    static final int LABEL = 0x0204;
+
+    static final int LABELSST = 0x00FD;
+
+    static final int BOOLERR = 0x0205;
+
+    static final int CONTINUE = 0x003C;
+
+    static final int SST = 0x00FC;
+
+    static final int EXTSST = 0x00FF;
+
+    // substream types in the BOF record
+    static final int BOF_GLOBALS = 0x0005;
+
+    static final int BOF_SHEET = 0x0010;
+
+    // the cell styles (XF records) available, the first 15 ones are the mandatory style XFs
+    static final int XF_GENERAL = 15;
+
+    static final int XF_HEADER = 16;
+
+    static final int XF_DATE = 17;
+
+    static final int XF_WARNING = 18;
+
+    static final int DATE_FORMAT_INDEX = 164;
+
+    static final String DATE_FORMAT = "yyyy-mm-dd hh:mm:ss";
+
+    // the fixed size parts of each sheet substream
+    static final int SHEET_OVERHEAD = (4 + 16) // BOF
+            + (4 + 14) // DIMENSIONS
+            + (4 + 18) // WINDOW2
+            + 4; // EOF
+
+    /**
+     * The workbook globals preceding the sheet list, the same for every workbook
+     */
+    static final byte[] GLOBALS_HEADER;
+    static {
+        try {
+            GLOBALS_HEADER = buildGlobalsHeader();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to build the BIFF8 workbook globals", e);
+        }
+    }
+
+    List<SheetInfo> sheets = new ArrayList<SheetInfo>();
+
+    SheetInfo sheet;
+
+    File cellsFile;
+
+    OutputStream cells;
+
+    long written;
+
+    RecordBuffer record = new RecordBuffer(MAX_RECORD_DATA);
+
+    SharedStringTable strings = new SharedStringTable();
+
+    public void startSheet(String name) throws IOException {
+        if (cells == null) {
+            cellsFile = File.createTempFile("excel", ".biff");
+            cells = new BufferedOutputStream(new FileOutputStream(cellsFile), 64 * 1024);
+        }
+        sheet = new SheetInfo(uniqueSheetName(name));
+        sheet.start = written;
+        sheets.add(sheet);
+    }
+
+    public void writeText(int row, int col, String value, TextStyle style) throws IOException {
+        int xf = XF_GENERAL;
+        if (style == TextStyle.HEADER) {
+            xf = XF_HEADER;
+        } else if (style == TextStyle.WARNING) {
+            xf = XF_WARNING;
+        }
+
+        // use the compressed (8 bit) encoding when possible, it halves the size
+        boolean compressed = true;
+        for (int i = 0; i < value.length() && compressed; i++) {
+            compressed = value.charAt(i) < 256;
+        }
+
+        record.reset();
+        writeCellHeader(row, col, xf);
+        if (value.length() > MAX_LABEL_CHARS) {
+            record.writeInt(strings.add(value, compressed));
+            writeCellRecord(LABELSST);
+        } else {
+            record.writeShort(value.length());
+            record.writeByte(compressed ? 0 : 1);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (compressed) {
+                    record.writeByte(c);
+                } else {
+                    record.writeShort(c);
+                }
+            }
+            writeCellRecord(LABEL);
+        }
+    }
+
+    public void writeNumber(int row, int col, double value) throws IOException {
+        writeNumber(row, col, value, XF_GENERAL);
+    }
+
+    public void writeDate(int row, int col, Date value) throws IOException {
+        writeNumber(row, col, DateUtil.getExcelDate(value), XF_DATE);
+    }
+
+    public void writeDate(int row, int col, Calendar value) throws IOException {
+        writeNumber(row, col, DateUtil.getExcelDate(value, false), XF_DATE);
+    }
+
+    void writeNumber(int row, int col, double value, int xf) throws IOException {
+        record.reset();
+        writeCellHeader(row, col, xf);
+        record.writeLong(Double.doubleToLongBits(value));
+        writeCellRecord(NUMBER);
+    }
+
+    public void writeBoolean(int row, int col, boolean value) throws IOException {
+        record.reset();
+        writeCellHeader(row, col, XF_GENERAL);
+        record.writeByte(value ? 1 : 0);
+        // not an error code
+        record.writeByte(0);
+        writeCellRecord(BOOLERR);
+    }
+
+    void writeCellHeader(int row, int col, int xf) {
+        record.writeShort(row);
+        record.writeShort(col);
+        record.writeShort(xf);
+        if (row >= sheet.rows) {
+            sheet.rows = row + 1;
+        }
+        if (col >= sheet.cols) {
+            sheet.cols = col + 1;
+        }
+    }
+
+    void writeCellRecord(int sid) throws IOException {
+        record.writeTo(sid, cells);
+        written += 4 + record.length;
+    }
+
+    public void endSheet() {
+        sheet.length = written - sheet.start;
+        sheet = null;
+    }
+
+    public long getWrittenBytes() {
+        return written + strings.getSize();
+    }
+
+    public void write(OutputStream output) throws IOException {
+        if (cells != null) {
+            cells.close();
+            cells = null;
+        }
+
+        final byte[] globals = buildGlobals();
+        long size = globals.length + strings.getSize() + 4;
+        for (SheetInfo si : sheets) {
+            size += SHEET_OVERHEAD + si.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("The workbook is too large to be written: " + size + " bytes");
+        }
+
+        // let POI build the OLE2 container around the workbook stream, the stream contents
+        // are copied straight to the output when the container is written
+        final IOException[] failure = new IOException[1];
+        POIFSFileSystem fs = new POIFSFileSystem();
+        fs.createDocument("Workbook", (int) size, new POIFSWriterListener() {
+
+            public void processPOIFSWriterEvent(POIFSWriterEvent event) {
+                try {
+                    writeWorkbookStream(event.getStream(), globals);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        fs.writeFilesystem(output);
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    void writeWorkbookStream(OutputStream os, byte[] globals) throws IOException {
+        os.write(globals);
+        RecordBuffer rb = new RecordBuffer(32);
+        strings.writeTo(os, globals.length);
+        rb.reset();
+        rb.writeTo(EOF, os);
+        if (sheets.isEmpty()) {
+            return;
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new BufferedInputStream(new FileInputStream(cellsFile));
+        try {
+            for (int i = 0; i < sheets.size(); i++) {
+                SheetInfo si = sheets.get(i);
+
+                writeBOF(rb, BOF_SHEET);
+                rb.writeTo(BOF, os);
+
+                rb.reset();
+                rb.writeInt(0);
+                rb.writeInt(si.rows);
+                rb.writeShort(0);
+                rb.writeShort(si.cols);
+                rb.writeShort(0);
+                rb.writeTo(DIMENSIONS, os);
+
+                // the cells have been spooled one sheet after the other
+                long remaining = si.length;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of the spooled cell records");
+                    }
+                    os.write(buffer, 0, read);
+                    remaining -= read;
+                }
+
+                rb.reset();
+                // grid lines, headers, zeroes, default colors, outline symbols, only the
+                // first sheet is selected
+                rb.writeShort(i == 0 ? 0x06B6 : 0x04B6);
+                rb.writeShort(0);
+                rb.writeShort(0);
+                rb.writeInt(0x40);
+                rb.writeShort(0);
+                rb.writeShort(0);
+                rb.writeInt(0);
+                rb.writeTo(WINDOW2, os);
+
+                rb.reset();
+                rb.writeTo(EOF, os);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the workbook globals up to the sheet list, which points at the position of each
+     * sheet in the workbook stream. The shared string table and the EOF record follow.
+     */
+    byte[] buildGlobals() throws IOException {
+        long length = GLOBALS_HEADER.length;
+        for (SheetInfo si : sheets) {
+            length += 4 + 8 + 2 * si.name.length();
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream((int) length);
+        bos.write(GLOBALS_HEADER);
+        RecordBuffer rb = new RecordBuffer(MAX_RECORD_DATA);
+        long position = length + strings.getSize() + 4;
+        for (SheetInfo si : sheets) {
+            rb.reset();
+            rb.writeInt((int) position);
+            // visible worksheet
+            rb.writeShort(0);
+            rb.writeByte(si.name.length());
+            rb.writeByte(1);
+            for (int i = 0; i < si.name.length(); i++) {
+                rb.writeShort(si.name.charAt(i));
+            }
+            rb.writeTo(BOUNDSHEET, bos);
+            position += SHEET_OVERHEAD + si.length;
+        }
+
+        return bos.toByteArray();
+    }
+
+    static byte[] buildGlobalsHeader() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        RecordBuffer rb = new RecordBuffer(256);
+
+        writeBOF(rb, BOF_GLOBALS);
+        rb.writeTo(BOF, bos);
+
+        // UTF-16
+        rb.reset();
+        rb.writeShort(1200);
+        rb.writeTo(CODEPAGE, bos);
+
+        rb.reset();
+        rb.writeShort(0x0168);
+        rb.writeShort(0x010E);
+        rb.writeShort(0x3A5C);
+        rb.writeShort(0x23BE);
+        rb.writeShort(0x0038);
+        rb.writeShort(0);
+        rb.writeShort(0);
+        rb.writeShort(1);
+        rb.writeShort(0x0258);
+        rb.writeTo(WINDOW1, bos);
+
+        // the four default fonts, then the bold one (index 5, as index 4 does not exist)
+        // and the bold red one for warnings (index 6)
+        for (int i = 0; i < 4; i++) {
+            writeFont(rb, Font.BOLDWEIGHT_NORMAL, 0x7FFF);
+            rb.writeTo(FONT, bos);
+        }
+        writeFont(rb, Font.BOLDWEIGHT_BOLD, 0x7FFF);
+        rb.writeTo(FONT, bos);
+        writeFont(rb, Font.BOLDWEIGHT_BOLD, Font.COLOR_RED);
+        rb.writeTo(FONT, bos);
+
+        rb.reset();
+        rb.writeShort(DATE_FORMAT_INDEX);
+        rb.writeShort(DATE_FORMAT.length());
+        rb.writeByte(0);
+        for (int i = 0; i < DATE_FORMAT.length(); i++) {
+            rb.writeByte(DATE_FORMAT.charAt(i));
+        }
+        rb.writeTo(FORMAT, bos);
+
+        // the style XFs
+        for (int i = 0; i < XF_GENERAL; i++) {
+            writeXF(rb, 0, 0, 0xFFF5, i == 0 ? 0 : 0xF400);
+            rb.writeTo(XF, bos);
+        }
+        // the cell XFs
+        writeXF(rb, 0, 0, 0x0001, 0);
+        rb.writeTo(XF, bos);
+        writeXF(rb, 5, 0, 0x0001, 0);
+        rb.writeTo(XF, bos);
+        writeXF(rb, 0, DATE_FORMAT_INDEX, 0x0001, 0);
+        rb.writeTo(XF, bos);
+        writeXF(rb, 6, 0, 0x0001, 0);
+        rb.writeTo(XF, bos);
+
+        // the built-in Normal style
+        rb.reset();
+        rb.writeShort(0x8000);
+        rb.writeByte(0);
+        rb.writeByte(0xFF);
+        rb.writeTo(STYLE, bos);
+
+        return bos.toByteArray();
+    }
+
+    static void writeBOF(RecordBuffer rb, int type) {
+        rb.reset();
+        rb.writeShort(0x0600);
+        rb.writeShort(type);
+        rb.writeShort(0x10D3);
+        rb.writeShort(0x07CC);
+        rb.writeInt(0x41);
+        rb.writeInt(0x06);
+    }
+
+    static void writeFont(RecordBuffer rb, int weight, int color) {
+        String name = "Arial";
+        rb.reset();
+        // height in twips
+        rb.writeShort(200);
+        rb.writeShort(0);
+        rb.writeShort(color);
+        rb.writeShort(weight);
+        // escapement, underline, family, charset, reserved
+        rb.writeShort(0);
+        rb.writeByte(0);
+        rb.writeByte(0);
+        rb.writeByte(0);
+        rb.writeByte(0);
+        rb.writeByte(name.length());
+        rb.writeByte(0);
+        for (int i = 0; i < name.length(); i++) {
+            rb.writeByte(name.charAt(i));
+        }
+    }
+
+    static void writeXF(RecordBuffer rb, int font, int format, int options, int usedAttributes) {
+        rb.reset();
+        rb.writeShort(font);
+        rb.writeShort(format);
+        rb.writeShort(options);
+        // bottom aligned
+        rb.writeShort(0x0020);
+        rb.writeShort(usedAttributes);
+        // borders and palette
+        rb.writeShort(0);
+        rb.writeShort(0);
+        rb.writeInt(0);
+        // fill pattern colors
+        rb.writeShort(0x20C0);
+    }
+
+    /**
+     * Returns a valid sheet name not used yet by any other sheet, Excel compares the names
+     * ignoring the case
+     */
+    String uniqueSheetName(String name) {
+        String base = sheetName(name, sheets.size());
+        String result = base;
+        for (int i = 2; isSheetNameUsed(result); i++) {
+            String suffix = "(" + i + ")";
+            result = base.substring(0, Math.min(base.length(), MAX_SHEET_NAME - suffix.length()))
+                    + suffix;
+        }
+        return result;
+    }
+
+    boolean isSheetNameUsed(String name) {
+        for (SheetInfo si : sheets) {
+            if (si.name.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes the name a valid sheet name, Excel limits the length and forbids a few chars
+     */
+    static String sheetName(String name, int index) {
+        if (name == null || name.length() == 0) {
+            return "Sheet" + (index + 1);
+        }
+        StringBuilder sb = new StringBuilder(Math.min(name.length(), MAX_SHEET_NAME));
+        for (int i = 0; i < name.length() && i < MAX_SHEET_NAME; i++) {
+            char c = name.charAt(i);
+            if ("/\\?*[]:".indexOf(c) >= 0) {
+                sb.append('_');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public void dispose() {
+        if (cells != null) {
+            try {
+                cells.close();
+            } catch (IOException e) {
+                // nothing we can do about it
+            }
+            cells = null;
+        }
+        if (cellsFile != null) {
+            cellsFile.delete();
+            cellsFile = null;
+        }
+        strings.dispose();
+    }
+
+    /**
+     * The position and size of a sheet cells in the spool file
+     */
+    static class SheetInfo {
+        String name;
+
+        long start;
+
+        long length;
+
+        int rows;
+
+        int cols;
+
+        SheetInfo(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The shared string table (SST record and its CONTINUE records) holding the strings too long
+     * for a LABEL record, spooled to a temporary file. The layout of the records is tracked as the
+     * strings are added, so that the table size and its EXTSST index are known before writing it.
+     */
+    static class SharedStringTable {
+
+        /**
+         * The min number of strings per EXTSST bucket, the position of one string out of this
+         * many is tracked while spooling
+         */
+        static final int BUCKET_SIZE = 8;
+
+        static final int MAX_BUCKETS = 128;
+
+        File file;
+
+        OutputStream out;
+
+        int count;
+
+        /**
+         * The data size of the records already filled
+         */
+        List<Integer> records = new ArrayList<Integer>();
+
+        /**
+         * The data size of the record being filled, the first one starts with the string counts
+         */
+        int current = 8;
+
+        /**
+         * The size of the records already filled, headers included
+         */
+        long closed;
+
+        /**
+         * The position of every {@link #BUCKET_SIZE}-th string from the start of the table, and
+         * its offset from the start of the record containing it
+         */
+        List<Long> bucketPositions = new ArrayList<Long>();
+
+        List<Integer> bucketOffsets = new ArrayList<Integer>();
+
+        /**
+         * Adds a string to the table, returning its index
+         */
+        int add(String value, boolean compressed) throws IOException {
+            if (out == null) {
+                file = File.createTempFile("excel", ".sst");
+                out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+            }
+            int charSize = compressed ? 1 : 2;
+            // the string header cannot be split, and must be followed by at least one char
+            if (current + 3 + charSize > MAX_RECORD_DATA) {
+                nextRecord();
+            }
+            if (count % BUCKET_SIZE == 0) {
+                bucketPositions.add(closed + 4 + current);
+                bucketOffsets.add(4 + current);
+            }
+            writeShort(value.length());
+            out.write(compressed ? 0 : 1);
+            current += 3;
+            for (int i = 0; i < value.length(); i++) {
+                if (current + charSize > MAX_RECORD_DATA) {
+                    // the rest of the string goes into a CONTINUE record, starting with the
+                    // string options again
+                    nextRecord();
+                    out.write(compressed ? 0 : 1);
+                    current = 1;
+                }
+                char c = value.charAt(i);
+                if (compressed) {
+                    out.write(c);
+                } else {
+                    writeShort(c);
+                }
+                current += charSize;
+            }
+            return count++;
+        }
+
+        void writeShort(int value) throws IOException {
+            out.write(value);
+            out.write(value >>> 8);
+        }
+
+        void nextRecord() {
+            records.add(current);
+            closed += 4 + current;
+            current = 0;
+        }
+
+        /**
+         * The number of buckets tracked while spooling grouped in each EXTSST bucket, so that
+         * there are no more than {@link #MAX_BUCKETS} of them
+         */
+        int getBucketStep() {
+            return Math.max(1, (bucketPositions.size() + MAX_BUCKETS - 1) / MAX_BUCKETS);
+        }
+
+        int getBucketCount() {
+            int step = getBucketStep();
+            return (bucketPositions.size() + step - 1) / step;
+        }
+
+        /**
+         * The size of the SST, CONTINUE and EXTSST records, or 0 if the table is empty
+         */
+        long getSize() {
+            if (count == 0) {
+                return 0;
+            }
+            return closed + 4 + current + 4 + 2 + 8 * getBucketCount();
+        }
+
+        /**
+         * Writes out the table records
+         *
+         * @param os
+         * @param position the position of the table in the workbook stream
+         */
+        void writeTo(OutputStream os, long position) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+
+            RecordBuffer rb = new RecordBuffer(MAX_RECORD_DATA);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                    file)));
+            try {
+                for (int i = 0; i <= records.size(); i++) {
+                    int length = i < records.size() ? records.get(i) : current;
+                    rb.reset();
+                    if (i == 0) {
+                        // total and unique strings
+                        rb.writeInt(count);
+                        rb.writeInt(count);
+                    }
+                    in.readFully(rb.data, rb.length, length - rb.length);
+                    rb.length = length;
+                    rb.writeTo(i == 0 ? SST : CONTINUE, os);
+                }
+            } finally {
+                in.close();
+            }
+
+            int step = getBucketStep();
+            rb.reset();
+            rb.writeShort(BUCKET_SIZE * step);
+            for (int i = 0; i < bucketPositions.size(); i += step) {
+                rb.writeInt((int) (position + bucketPositions.get(i)));
+                rb.writeShort(bucketOffsets.get(i));
+                rb.writeShort(0);
+            }
+            rb.writeTo(EXTSST, os);
+        }
+
+        void dispose() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing we can do about it
+                }
+                out = null;
+            }
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * A reusable buffer for the contents of a single record, in little endian order
+     */
+    static class RecordBuffer {
+        byte[] data;
+
+        int length;
+
+        RecordBuffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void writeByte(int value) {
+            data[length++] = (byte) value;
+        }
+
+        void writeShort(int value) {
+            data[length++] = (byte) value;
+            data[length++] = (byte) (value >>> 8);
+        }
+
+        void writeInt(int value) {
+            writeShort(value);
+            writeShort(value >>> 16);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) value);
+            writeInt((int) (value >>> 32));
+        }
+
+        void writeTo(int sid, OutputStream os) throws IOException {
+            os.write(sid);
+            os.write(sid >>> 8);
+            os.write(length);
+            os.write(length >>> 8);
+            os.write(data, 0, length);
+        }
+    }
+}
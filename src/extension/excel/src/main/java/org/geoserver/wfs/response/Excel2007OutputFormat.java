@@ -34,8 +34,15 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
     /**
      * Returns a new SXSSFWorkbook workbook
      */
-    @Override
     protected Workbook getNewWorkbook() {
         return new SXSSFWorkbook(1);
     }
+
+    /**
+     * Returns a writer filling the workbook returned by {@link #getNewWorkbook()}
+     */
+    @Override
+    protected ExcelWriter getNewWriter() {
+        return new WorkbookExcelWriter(getNewWorkbook());
+    }
 }
@@ -5,8 +5,6 @@
 package org.geoserver.wfs.response;
 
 import org.apache.log4j.Logger;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.geoserver.config.GeoServer;
 
 /**
@@ -32,10 +30,11 @@ public class Excel97OutputFormat extends ExcelOutputFormat {
     }
 
     /**
-     * Returns a new HSSFWorkbook workbook
+     * Returns a writer streaming the BIFF8 records, a HSSFWorkbook would keep the whole
+     * document in memory
      */
     @Override
-    protected Workbook getNewWorkbook() {
-        return new HSSFWorkbook();
+    protected ExcelWriter getNewWriter() {
+        return new BIFF8ExcelWriter();
     }
 }
@@ -11,18 +11,14 @@ import java.util.Date;
 import java.util.Iterator;
 
 import org.apache.log4j.Logger;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CreationHelper;
-import org.apache.poi.ss.usermodel.RichTextString;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.response.ExcelWriter.TextStyle;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.opengis.feature.simple.SimpleFeature;
@@ -42,6 +38,17 @@ public abstract class ExcelOutputFormat extends WFSGetFeatureOutputFormat {
 
     protected static String TRUNCATE_WARNING = "DATA TRUNCATED";
 
+    /**
+     * WFS setting lowering the maximum number of rows in each sheet
+     */
+    public static final String MAX_ROWS = "excelMaxRows";
+
+    /**
+     * WFS setting limiting the size of the generated document. It is only honored by writers
+     * that can track the amount of data written, that is, the Excel 97 one
+     */
+    public static final String MAX_BYTES = "excelMaxBytes";
+
     protected int rowLimit;
 
     protected int colLimit;
@@ -54,8 +61,6 @@ public abstract class ExcelOutputFormat extends WFSGetFeatureOutputFormat {
         super(gs, formatName);
     }
 
-    protected abstract Workbook getNewWorkbook();
-
     /**
      * @return mime type;
      */
@@ -77,101 +82,126 @@ public abstract class ExcelOutputFormat extends WFSGetFeatureOutputFormat {
         return DISPOSITION_ATTACH;
     }
 
+    /**
+     * Returns the writer used to build the document
+     */
+    protected abstract ExcelWriter getNewWriter() throws IOException;
+
+    /**
+     * Returns the maximum number of rows in each sheet, header and truncation warning included:
+     * the format limit, eventually lowered by the {@link #MAX_ROWS} WFS setting
+     */
+    protected int getRowLimit() {
+        Integer maxRows = getWFSMetadataValue(MAX_ROWS, Integer.class);
+        if (maxRows != null && maxRows > 1 && maxRows < rowLimit) {
+            return maxRows;
+        }
+        return rowLimit;
+    }
+
+    /**
+     * Returns the maximum size of the document in bytes as configured by the {@link #MAX_BYTES}
+     * WFS setting, or -1 if there is no limit
+     */
+    protected long getByteLimit() {
+        Long maxBytes = getWFSMetadataValue(MAX_BYTES, Long.class);
+        if (maxBytes != null && maxBytes > 0) {
+            return maxBytes;
+        }
+        return -1;
+    }
+
+    <T> T getWFSMetadataValue(String key, Class<T> target) {
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        if (wfs == null) {
+            return null;
+        }
+        return wfs.getMetadata().get(key, target);
+    }
+
     /**
      * @see WFSGetFeatureOutputFormat#write(Object, OutputStream, Operation)
      */
     @Override
     protected void write(FeatureCollectionResponse featureCollection, OutputStream output, 
         Operation getFeature) throws IOException ,ServiceException {
-    
-        // Create the workbook
-        Workbook wb = getNewWorkbook();
-        CreationHelper helper = wb.getCreationHelper();
-        ExcelCellStyles styles = new ExcelCellStyles(wb);
-
-        for (Iterator it = featureCollection.getFeature().iterator(); it.hasNext();) {
-            SimpleFeatureCollection fc = (SimpleFeatureCollection) it.next();
-
-            // create the sheet for this feature collection
-            Sheet sheet = wb.createSheet(fc.getSchema().getTypeName());
-
-            // write out the header
-            Row header = sheet.createRow(0);
-
-            SimpleFeatureType ft = fc.getSchema();
-            Cell cell;
-
-            cell = header.createCell(0);
-            cell.setCellValue(helper.createRichTextString("FID"));
-            for (int i = 0; i < ft.getAttributeCount() && i < colLimit; i++) {
-                AttributeDescriptor ad = ft.getDescriptor(i);
-                cell = header.createCell(i + 1);
-                cell.setCellValue(helper.createRichTextString(ad.getLocalName()));
-                cell.setCellStyle(styles.getHeaderStyle());
-            }
+        int maxRows = getRowLimit();
+        long maxBytes = getByteLimit();
+
+        ExcelWriter writer = getNewWriter();
+        try {
+            for (Iterator it = featureCollection.getFeature().iterator(); it.hasNext();) {
+                SimpleFeatureCollection fc = (SimpleFeatureCollection) it.next();
+
+                // create the sheet for this feature collection
+                writer.startSheet(fc.getSchema().getTypeName());
+
+                // write out the header
+                SimpleFeatureType ft = fc.getSchema();
+                writer.writeText(0, 0, "FID", TextStyle.NORMAL);
+                for (int i = 0; i < ft.getAttributeCount() && i < colLimit; i++) {
+                    AttributeDescriptor ad = ft.getDescriptor(i);
+                    writer.writeText(0, i + 1, ad.getLocalName(), TextStyle.HEADER);
+                }
 
-            // write out the features
-            SimpleFeatureIterator i = fc.features();
-            int r = 0; // row index
-            try {
-                Row row;
-                while (i.hasNext()) {
-                    r++; // start at 1, since header is at 0
-
-                    row = sheet.createRow(r);
-                    cell = row.createCell(0);
-
-                    if (r == (rowLimit - 1) && i.hasNext()) {
-                        // there are more features than rows available in this
-                        // Excel format. write out a warning line and break
-                        RichTextString rowWarning = helper.createRichTextString(TRUNCATE_WARNING
-                                + ": ROWS " + r + " - " + fc.size() + " NOT SHOWN");
-                        cell.setCellValue(rowWarning);
-                        cell.setCellStyle(styles.getWarningStyle());
-                        break;
-                    }
+                // write out the features
+                SimpleFeatureIterator i = fc.features();
+                int r = 0; // row index
+                try {
+                    while (i.hasNext()) {
+                        r++; // start at 1, since header is at 0
+
+                        if (r == (maxRows - 1) 
+                                || (maxBytes > 0 && writer.getWrittenBytes() > maxBytes)) {
+                            // there are more features than rows (or bytes) available in this
+                            // Excel output. write out a warning line and break
+                            writer.writeText(r, 0, TRUNCATE_WARNING + ": ROWS " + r + " - "
+                                    + fc.size() + " NOT SHOWN", TextStyle.WARNING);
+                            break;
+                        }
 
-                    SimpleFeature f = i.next();
-                    cell.setCellValue(helper.createRichTextString(f.getID()));
-                    for (int j = 0; j < f.getAttributeCount() && j < colLimit; j++) {
-                        Object att = f.getAttribute(j);
-                        if (att != null) {
-                            cell = row.createCell(j + 1);
-                            if (att instanceof Number) {
-                                cell.setCellValue(((Number) att).doubleValue());
-                            } else if (att instanceof Date) {
-                                cell.setCellValue((Date) att);
-                                cell.setCellStyle(styles.getDateStyle());
-                            } else if (att instanceof Calendar) {
-                                cell.setCellValue((Calendar) att);
-                                cell.setCellStyle(styles.getDateStyle());
-                            } else if (att instanceof Boolean) {
-                                cell.setCellValue((Boolean) att);
-                            } else {
-                                // ok, it seems we have no better way than dump it as a string
-                                String stringVal = att.toString();
-
-                                // if string length > excel cell limit, truncate it and warn the
-                                // user, otherwise excel workbook will be corrupted
-                                if (stringVal.length() > CELL_CHAR_LIMIT) {
-                                    stringVal = TRUNCATE_WARNING
-                                            + " "
-                                            + stringVal.substring(0, CELL_CHAR_LIMIT
-                                                    - TRUNCATE_WARNING.length() - 1);
-                                    cell.setCellStyle(styles.getWarningStyle());
+                        SimpleFeature f = i.next();
+                        writer.writeText(r, 0, f.getID(), TextStyle.NORMAL);
+                        for (int j = 0; j < f.getAttributeCount() && j < colLimit; j++) {
+                            Object att = f.getAttribute(j);
+                            if (att != null) {
+                                if (att instanceof Number) {
+                                    writer.writeNumber(r, j + 1, ((Number) att).doubleValue());
+                                } else if (att instanceof Date) {
+                                    writer.writeDate(r, j + 1, (Date) att);
+                                } else if (att instanceof Calendar) {
+                                    writer.writeDate(r, j + 1, (Calendar) att);
+                                } else if (att instanceof Boolean) {
+                                    writer.writeBoolean(r, j + 1, (Boolean) att);
+                                } else {
+                                    // ok, it seems we have no better way than dump it as a string
+                                    String stringVal = att.toString();
+                                    TextStyle style = TextStyle.NORMAL;
+
+                                    // if string length > excel cell limit, truncate it and warn the
+                                    // user, otherwise excel workbook will be corrupted
+                                    if (stringVal.length() > CELL_CHAR_LIMIT) {
+                                        stringVal = TRUNCATE_WARNING
+                                                + " "
+                                                + stringVal.substring(0, CELL_CHAR_LIMIT
+                                                        - TRUNCATE_WARNING.length() - 1);
+                                        style = TextStyle.WARNING;
+                                    }
+                                    writer.writeText(r, j + 1, stringVal, style);
                                 }
-                                cell.setCellValue(helper.createRichTextString(stringVal));
-
                             }
                         }
                     }
+                } finally {
+                    i.close();
                 }
-            } finally {
-                i.close();
+                writer.endSheet();
             }
-        }
 
-        // write to output
-        wb.write(output);
+            // write to output
+            writer.write(output);
+        } finally {
+            writer.dispose();
+        }
     }
 }
@@ -0,0 +1,60 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Writes the cells of an Excel document. Sheets are written one at a time, and the cells of each
+ * sheet are written row by row, allowing implementations to stream the contents instead of
+ * keeping the whole workbook in memory.
+ */
+public interface ExcelWriter {
+
+    /**
+     * The styles that can be applied to a text cell
+     */
+    enum TextStyle {
+        NORMAL, HEADER, WARNING
+    }
+
+    /**
+     * Starts a new sheet with the given name
+     */
+    void startSheet(String name) throws IOException;
+
+    void writeText(int row, int col, String value, TextStyle style) throws IOException;
+
+    void writeNumber(int row, int col, double value) throws IOException;
+
+    void writeDate(int row, int col, Date value) throws IOException;
+
+    void writeDate(int row, int col, Calendar value) throws IOException;
+
+    void writeBoolean(int row, int col, boolean value) throws IOException;
+
+    /**
+     * Closes the current sheet
+     */
+    void endSheet() throws IOException;
+
+    /**
+     * Returns the amount of bytes written so far, or -1 if the writer cannot tell
+     */
+    long getWrittenBytes();
+
+    /**
+     * Writes out the complete document
+     */
+    void write(OutputStream output) throws IOException;
+
+    /**
+     * Releases the resources used by the writer, must be called once done with it
+     */
+    void dispose();
+}
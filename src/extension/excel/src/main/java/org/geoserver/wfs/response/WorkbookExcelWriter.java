@@ -0,0 +1,97 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * {@link ExcelWriter} building a POI {@link Workbook}
+ */
+public class WorkbookExcelWriter implements ExcelWriter {
+
+    Workbook wb;
+
+    CreationHelper helper;
+
+    ExcelCellStyles styles;
+
+    Sheet sheet;
+
+    Row row;
+
+    public WorkbookExcelWriter(Workbook wb) {
+        this.wb = wb;
+        this.helper = wb.getCreationHelper();
+        this.styles = new ExcelCellStyles(wb);
+    }
+
+    public void startSheet(String name) {
+        sheet = wb.createSheet(name);
+        row = null;
+    }
+
+    Cell createCell(int r, int c) {
+        if (row == null || row.getRowNum() != r) {
+            row = sheet.createRow(r);
+        }
+        return row.createCell(c);
+    }
+
+    public void writeText(int r, int c, String value, TextStyle style) {
+        Cell cell = createCell(r, c);
+        cell.setCellValue(helper.createRichTextString(value));
+        if (style == TextStyle.HEADER) {
+            cell.setCellStyle(styles.getHeaderStyle());
+        } else if (style == TextStyle.WARNING) {
+            cell.setCellStyle(styles.getWarningStyle());
+        }
+    }
+
+    public void writeNumber(int r, int c, double value) {
+        createCell(r, c).setCellValue(value);
+    }
+
+    public void writeDate(int r, int c, Date value) {
+        Cell cell = createCell(r, c);
+        cell.setCellValue(value);
+        cell.setCellStyle(styles.getDateStyle());
+    }
+
+    public void writeDate(int r, int c, Calendar value) {
+        Cell cell = createCell(r, c);
+        cell.setCellValue(value);
+        cell.setCellStyle(styles.getDateStyle());
+    }
+
+    public void writeBoolean(int r, int c, boolean value) {
+        createCell(r, c).setCellValue(value);
+    }
+
+    public void endSheet() {
+        sheet = null;
+        row = null;
+    }
+
+    public long getWrittenBytes() {
+        return -1;
+    }
+
+    public void write(OutputStream output) throws IOException {
+        wb.write(output);
+    }
+
+    public void dispose() {
+        // nothing to do
+    }
+}
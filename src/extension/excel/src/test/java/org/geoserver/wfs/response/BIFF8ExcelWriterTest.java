@@ -0,0 +1,219 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.poi.hssf.record.ExtSSTRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactory;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.geoserver.wfs.response.ExcelWriter.TextStyle;
+import org.junit.Test;
+
+public class BIFF8ExcelWriterTest {
+
+    @Test
+    public void testReadBack() throws Exception {
+        char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        String longText = new String(chars);
+        String unicodeText = "\u0391\u03b8\u03ae\u03bd\u03b1";
+        Date date = new Date(1000000000000l);
+
+        BIFF8ExcelWriter writer = new BIFF8ExcelWriter();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            writer.startSheet("first:sheet");
+            writer.writeText(0, 0, "header", TextStyle.HEADER);
+            writer.writeText(1, 0, longText, TextStyle.NORMAL);
+            writer.writeText(1, 1, unicodeText, TextStyle.WARNING);
+            writer.writeNumber(1, 2, 12.5);
+            writer.writeDate(1, 3, date);
+            writer.writeBoolean(1, 4, true);
+            writer.endSheet();
+            writer.startSheet("second");
+            writer.writeText(0, 0, "another", TextStyle.NORMAL);
+            writer.endSheet();
+            assertTrue(writer.getWrittenBytes() > longText.length());
+            writer.write(bos);
+        } finally {
+            writer.dispose();
+        }
+        assertNull(writer.cellsFile);
+
+        HSSFWorkbook wb = new HSSFWorkbook(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(2, wb.getNumberOfSheets());
+        Sheet sheet = wb.getSheet("first_sheet");
+        assertNotNull(sheet);
+        assertEquals(2, sheet.getPhysicalNumberOfRows());
+
+        Cell header = sheet.getRow(0).getCell(0);
+        assertEquals("header", header.getRichStringCellValue().getString());
+        assertEquals(Font.BOLDWEIGHT_BOLD, wb.getFontAt(header.getCellStyle().getFontIndex())
+                .getBoldweight());
+        assertEquals(longText, sheet.getRow(1).getCell(0).getRichStringCellValue().getString());
+        Cell warning = sheet.getRow(1).getCell(1);
+        assertEquals(unicodeText, warning.getRichStringCellValue().getString());
+        assertEquals(Font.COLOR_RED, wb.getFontAt(warning.getCellStyle().getFontIndex())
+                .getColor());
+        assertEquals(12.5, sheet.getRow(1).getCell(2).getNumericCellValue(), 0d);
+        Cell dateCell = sheet.getRow(1).getCell(3);
+        assertEquals(date, dateCell.getDateCellValue());
+        assertEquals(BIFF8ExcelWriter.DATE_FORMAT, dateCell.getCellStyle().getDataFormatString());
+        assertTrue(sheet.getRow(1).getCell(4).getBooleanCellValue());
+
+        sheet = wb.getSheet("second");
+        assertEquals("another", sheet.getRow(0).getCell(0).getRichStringCellValue().getString());
+    }
+
+    @Test
+    public void testLongStringsShared() throws Exception {
+        // enough strings to fill several SST records and more than 128 EXTSST buckets
+        String[] values = new String[1500];
+        for (int i = 0; i < values.length; i++) {
+            char[] chars = new char[256 + i % 50];
+            Arrays.fill(chars, i % 7 == 0 ? '\u03b8' : (char) ('a' + i % 26));
+            values[i] = new String(chars);
+        }
+
+        BIFF8ExcelWriter writer = new BIFF8ExcelWriter();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            writer.startSheet("strings");
+            for (int i = 0; i < values.length; i++) {
+                writer.writeText(i, 0, values[i], TextStyle.NORMAL);
+                writer.writeText(i, 1, "short", TextStyle.NORMAL);
+            }
+            writer.endSheet();
+            writer.write(bos);
+        } finally {
+            writer.dispose();
+        }
+        byte[] stream = getWorkbookStream(bos.toByteArray());
+
+        // LABEL records stay within their limit, the long strings are in the SST
+        List<Record> records = RecordFactory.createRecords(new ByteArrayInputStream(stream));
+        int labels = 0;
+        SSTRecord sst = null;
+        ExtSSTRecord extSst = null;
+        for (Record record : records) {
+            if (record instanceof LabelRecord) {
+                assertTrue(((LabelRecord) record).getValue().length() <= 255);
+                labels++;
+            } else if (record instanceof SSTRecord) {
+                sst = (SSTRecord) record;
+            } else if (record instanceof ExtSSTRecord) {
+                extSst = (ExtSSTRecord) record;
+            }
+        }
+        assertEquals(values.length, labels);
+        assertNotNull(sst);
+        assertNotNull(extSst);
+        assertEquals(values.length, sst.getNumUniqueStrings());
+
+        // each EXTSST entry points at the start of a string, inside a SST or CONTINUE record
+        int offset = findRecord(stream, BIFF8ExcelWriter.EXTSST);
+        int bucketSize = readShort(stream, offset + 4);
+        int buckets = (readShort(stream, offset + 2) - 2) / 8;
+        assertTrue(buckets <= 128);
+        assertEquals((values.length + bucketSize - 1) / bucketSize, buckets);
+        for (int i = 0; i < buckets; i++) {
+            int entry = offset + 6 + i * 8;
+            int position = readShort(stream, entry) | (readShort(stream, entry + 2) << 16);
+            int recordOffset = readShort(stream, entry + 4);
+            int sid = readShort(stream, position - recordOffset);
+            assertTrue(sid == BIFF8ExcelWriter.SST || sid == BIFF8ExcelWriter.CONTINUE);
+            assertEquals(values[i * bucketSize].length(), readShort(stream, position));
+        }
+
+        HSSFWorkbook wb = new HSSFWorkbook(new ByteArrayInputStream(bos.toByteArray()));
+        Sheet sheet = wb.getSheet("strings");
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], sheet.getRow(i).getCell(0).getRichStringCellValue()
+                    .getString());
+            assertEquals("short", sheet.getRow(i).getCell(1).getRichStringCellValue()
+                    .getString());
+        }
+    }
+
+    @Test
+    public void testUniqueSheetNames() throws Exception {
+        String longName = "a_very_long_feature_type_name_exceeding_the_limit";
+        String[] names = new String[] { "a:b", "a/b", "A_B", longName, longName + "2",
+                "Sheet7", null };
+
+        BIFF8ExcelWriter writer = new BIFF8ExcelWriter();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            for (String name : names) {
+                writer.startSheet(name);
+                writer.writeText(0, 0, "value", TextStyle.NORMAL);
+                writer.endSheet();
+            }
+            writer.write(bos);
+        } finally {
+            writer.dispose();
+        }
+
+        HSSFWorkbook wb = new HSSFWorkbook(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(names.length, wb.getNumberOfSheets());
+        Set<String> sheetNames = new HashSet<String>();
+        for (int i = 0; i < wb.getNumberOfSheets(); i++) {
+            String name = wb.getSheetName(i);
+            assertTrue(name.length() <= BIFF8ExcelWriter.MAX_SHEET_NAME);
+            assertTrue(sheetNames.add(name.toLowerCase()));
+        }
+        assertEquals("a_b", wb.getSheetName(0));
+        assertEquals("a_b(2)", wb.getSheetName(1));
+        assertEquals("A_B(3)", wb.getSheetName(2));
+        assertEquals(longName.substring(0, 28) + "(2)", wb.getSheetName(4));
+        assertEquals("Sheet7(2)", wb.getSheetName(6));
+    }
+
+    byte[] getWorkbookStream(byte[] xls) throws IOException {
+        POIFSFileSystem fs = new POIFSFileSystem(new ByteArrayInputStream(xls));
+        DocumentInputStream in = fs.createDocumentInputStream("Workbook");
+        try {
+            byte[] stream = new byte[in.available()];
+            in.readFully(stream);
+            return stream;
+        } finally {
+            in.close();
+        }
+    }
+
+    int findRecord(byte[] stream, int sid) {
+        int offset = 0;
+        while (offset < stream.length) {
+            if (readShort(stream, offset) == sid) {
+                return offset;
+            }
+            offset += 4 + readShort(stream, offset + 2);
+        }
+        fail("Record " + sid + " not found");
+        return -1;
+    }
+
+    int readShort(byte[] stream, int offset) {
+        return (stream[offset] & 0xFF) | ((stream[offset + 1] & 0xFF) << 8);
+    }
+}
@@ -16,6 +16,7 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -132,6 +133,26 @@ public class ExcelOutputFormatTest extends WFSTestSupport {
         testMultipleFeatureTypes( wb );
     }
     
+    @Test
+    public void testExcel97RowLimit() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(ExcelOutputFormat.MAX_ROWS, 3);
+        getGeoServer().save(wfs);
+        try {
+            MockHttpServletResponse resp = getAsServletResponse("wfs?request=GetFeature&version=1.0.0&typeName=sf:PrimitiveGeoFeature&outputFormat=excel");
+            HSSFWorkbook wb = new HSSFWorkbook(getBinaryInputStream(resp));
+            Sheet sheet = wb.getSheet("PrimitiveGeoFeature");
+
+            // header, one feature, and the warning
+            assertEquals(3, sheet.getPhysicalNumberOfRows());
+            assertTrue(sheet.getRow(2).getCell(0).getRichStringCellValue().getString()
+                    .startsWith(ExcelOutputFormat.TRUNCATE_WARNING));
+        } finally {
+            wfs.getMetadata().remove(ExcelOutputFormat.MAX_ROWS);
+            getGeoServer().save(wfs);
+        }
+    }
+
     private void testMultipleFeatureTypes( Workbook wb ) throws IOException{
         // check we have the expected sheets
     	Sheet sheet = wb.getSheet("PrimitiveGeoFeature");
@@ -4,13 +4,14 @@
  */
 package org.geoserver.wps;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 import org.geoserver.wps.ppio.BinaryPPIO;
 import org.geotools.xml.EncoderDelegate;
 import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 /**
  * Encodes objects as base64 binaries
@@ -29,14 +30,84 @@ public class BinaryEncoderDelegate implements EncoderDelegate {
     }
 
     public void encode(ContentHandler output) throws Exception {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        // stream the base64 encoded bytes as they are produced instead of accumulating
+        // the whole binary in memory
+        Base64ContentHandlerStream bos = new Base64ContentHandlerStream(output);
         ppio.encode(object, bos);
-
-        char[] chars = new String(Base64.encodeBase64(bos.toByteArray())).toCharArray();
-        output.characters(chars, 0, chars.length);
+        bos.close();
     }
 
     public void encode(OutputStream os) throws Exception {
         ppio.encode(object, os);
     }
+
+    /**
+     * Base64 encodes the bytes written into it and pushes the result to a {@link ContentHandler}
+     * in fixed size chunks
+     */
+    static class Base64ContentHandlerStream extends OutputStream {
+
+        // a multiple of 3, so that each chunk encodes without padding
+        static final int CHUNK_SIZE = 3 * 4096;
+
+        ContentHandler handler;
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+
+        int count;
+
+        public Base64ContentHandlerStream(ContentHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                emit();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    emit();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the last chunk is the only one that can end up padded
+            emit();
+        }
+
+        void emit() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            byte[] chunk = buffer;
+            if (count < buffer.length) {
+                chunk = new byte[count];
+                System.arraycopy(buffer, 0, chunk, 0, count);
+            }
+            byte[] encoded = Base64.encodeBase64(chunk);
+            char[] chars = new char[encoded.length];
+            for (int i = 0; i < encoded.length; i++) {
+                chars[i] = (char) encoded[i];
+            }
+            try {
+                handler.characters(chars, 0, chars.length);
+            } catch (SAXException e) {
+                throw (IOException) new IOException("Failed to encode binary output").initCause(e);
+            }
+            count = 0;
+        }
+    }
 }
@@ -5,15 +5,16 @@
 
 package org.geoserver.wps;
 
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
+import org.apache.commons.io.output.WriterOutputStream;
 import org.geoserver.wps.ppio.CDataPPIO;
 import org.geotools.xml.EncoderDelegate;
 import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 import org.xml.sax.ext.LexicalHandler;
 
 /**
@@ -32,19 +33,35 @@ public class CDataEncoderDelegate implements EncoderDelegate {
         this.object = object;
     }
 
-    public void encode(ContentHandler output) throws Exception {
+    public void encode(final ContentHandler output) throws Exception {
         ((LexicalHandler) output).startCDATA();
-        PipedInputStream pins = new PipedInputStream();
-        PipedOutputStream pos = new PipedOutputStream(pins);
-        ppio.encode(object, pos);
-        Reader r = new InputStreamReader(pins);
-        char[] buffer = new char[1024];
-        int read;
-        while ((read = r.read(buffer)) > 0) {
-            output.characters(buffer, 0, read);
-        }
-        pos.close();
-        r.close();
+        // decode the bytes into characters as they are written, pushing them straight
+        // into the content handler
+        Writer writer = new Writer() {
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                try {
+                    output.characters(cbuf, off, len);
+                } catch (SAXException e) {
+                    throw (IOException) new IOException("Failed to encode the output")
+                            .initCause(e);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                // nothing to do
+            }
+
+            @Override
+            public void close() throws IOException {
+                // nothing to do
+            }
+        };
+        WriterOutputStream os = new WriterOutputStream(writer, Charset.defaultCharset(), 4096, true);
+        ppio.encode(object, os);
+        os.close();
         ((LexicalHandler) output).endCDATA();
     }
 
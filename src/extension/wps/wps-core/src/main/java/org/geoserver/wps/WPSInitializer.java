@@ -81,11 +81,12 @@ public class WPSInitializer implements GeoServerInitializer {
 
         // the max number of asynch proceesses
         int maxAsynch = info.getMaxAsynchronousProcesses();
-        if (maxAsynch > 0) {
-            processManager.setMaxAsynchronousProcesses(maxAsynch);
-        } else {
-            processManager.setMaxAsynchronousProcesses(defaultMaxProcesses);
+        if (maxAsynch <= 0) {
+            maxAsynch = defaultMaxProcesses;
         }
+        processManager.setMaxAsynchronousProcesses(maxAsynch);
+        // the execution manager queue controls how many asynch processes are dispatched
+        executionManager.setMaxAsynchronousProcesses(maxAsynch);
 
         lookupNewProcessGroups(info, geoServer);
     }
@@ -0,0 +1,802 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wps10.ComplexDataType;
+import net.opengis.wps10.DataType;
+import net.opengis.wps10.ExecuteType;
+import net.opengis.wps10.InputReferenceType;
+import net.opengis.wps10.InputType;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.emf.common.util.Enumerator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wps.executor.ExecuteRequest;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.sort.SortBy;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * An opt-in cache for the outputs of deterministic processes.
+ * <p>
+ * Entries are keyed by process name and a canonical form of the request inputs (inputs sorted by
+ * identifier, references and their bodies expanded property by property), combined with the
+ * current version of the layers the request references. Layer versions are bumped by
+ * {@link #invalidate(String)}, which the {@link ProcessResultCacheInvalidator} calls on catalog
+ * changes and WFS transactions.
+ * </p>
+ * <p>
+ * The key also contains the name and roles of the current user, as the outputs depend on the data
+ * the user is allowed to access, so results are never shared between users.
+ * </p>
+ * <p>
+ * The outputs are stored in serialized form, so each hit returns a private copy. Recently used
+ * entries are kept in memory, the ones exceeding the memory budget are moved to disk, and the
+ * least recently used ones are dropped once the disk budget is exceeded too. Outputs that cannot
+ * be serialized (e.g., streaming feature collections) are not cached.
+ * </p>
+ */
+public class ProcessResultCache {
+
+    static final Logger LOGGER = Logging.getLogger(ProcessResultCache.class);
+
+    /**
+     * Marks requests whose inputs cannot be turned into a stable key
+     */
+    static class NotCacheableException extends Exception {
+        private static final long serialVersionUID = -5063960165113429474L;
+
+        public NotCacheableException(String message) {
+            super(message);
+        }
+    }
+
+    Catalog catalog;
+
+    File storage;
+
+    Set<String> cachedProcesses = Collections.emptySet();
+
+    long maxMemorySize = 16 * 1024 * 1024;
+
+    long maxDiskSize = 256 * 1024 * 1024;
+
+    /**
+     * Entries in memory, in least recently used order
+     */
+    LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<String, CacheEntry>(16, 0.75f,
+            true);
+
+    /**
+     * Entries on disk, in least recently used order
+     */
+    LinkedHashMap<String, CacheEntry> disk = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    long memorySize;
+
+    long diskSize;
+
+    ConcurrentHashMap<String, AtomicLong> layerVersions = new ConcurrentHashMap<String, AtomicLong>();
+
+    ConcurrentHashMap<Name, CacheStatistics> statistics = new ConcurrentHashMap<Name, CacheStatistics>();
+
+    public ProcessResultCache(Catalog catalog, GeoServerDataDirectory dataDirectory)
+            throws IOException {
+        this(catalog, dataDirectory.findOrCreateDir("temp", "wps-cache"));
+    }
+
+    ProcessResultCache(Catalog catalog, File storage) {
+        this.catalog = catalog;
+        this.storage = storage;
+        // leftovers of a previous run are useless, we don't know the layer versions they refer to
+        File[] files = storage.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Sets the names of the processes whose results can be cached (e.g., <code>gs:Bounds</code>)
+     *
+     * @param cachedProcesses
+     */
+    public void setCachedProcesses(List<String> cachedProcesses) {
+        if (cachedProcesses == null) {
+            this.cachedProcesses = Collections.emptySet();
+        } else {
+            this.cachedProcesses = new HashSet<String>(cachedProcesses);
+        }
+    }
+
+    public Set<String> getCachedProcesses() {
+        return Collections.unmodifiableSet(cachedProcesses);
+    }
+
+    /**
+     * The maximum amount of memory used by the cached results, in bytes
+     *
+     * @param maxMemorySize
+     */
+    public synchronized void setMaxMemorySize(long maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    public long getMaxMemorySize() {
+        return maxMemorySize;
+    }
+
+    /**
+     * The maximum amount of disk space used by the cached results, in bytes. Zero disables the
+     * disk cache.
+     *
+     * @param maxDiskSize
+     */
+    public synchronized void setMaxDiskSize(long maxDiskSize) {
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    public long getMaxDiskSize() {
+        return maxDiskSize;
+    }
+
+    /**
+     * Returns true if the results of the specified process can be cached
+     *
+     * @param processName
+     * @return
+     */
+    public boolean isCached(Name processName) {
+        return cachedProcesses.contains(processName.getURI());
+    }
+
+    /**
+     * Builds the cache key for the request, or returns null if the request cannot be cached
+     *
+     * @param request
+     * @return
+     */
+    public CacheKey getKey(ExecuteRequest request) {
+        Name processName = request.getProcessName();
+        if (!isCached(processName)) {
+            return null;
+        }
+
+        try {
+            Set<String> layers = new TreeSet<String>();
+            StringBuilder sb = new StringBuilder(processName.getURI());
+            canonicalizeInputs(request.getRequest(), sb, layers);
+
+            // the layer versions make sure entries computed before a data change are not used
+            for (String layer : layers) {
+                sb.append("\n").append(layer).append("@").append(getLayerVersion(layer));
+            }
+
+            // data security might give each user a different view of the same layers
+            appendSecurityContext(sb);
+
+            return new CacheKey(processName, digest(sb.toString()), layers);
+        } catch (NotCacheableException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Request for " + processName + " cannot be cached: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    void appendSecurityContext(StringBuilder sb) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        sb.append("\nuser=");
+        if (auth != null) {
+            sb.append(auth.getName());
+            Set<String> roles = new TreeSet<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            sb.append("\nroles=").append(roles);
+        }
+    }
+
+    void canonicalizeInputs(ExecuteType execute, StringBuilder sb, Set<String> layers)
+            throws NotCacheableException {
+        if (execute.getDataInputs() == null) {
+            return;
+        }
+
+        // sort the inputs by identifier, keeping the relative order of repeated inputs
+        List<InputType> inputs = new ArrayList<InputType>();
+        for (Object o : execute.getDataInputs().getInput()) {
+            inputs.add((InputType) o);
+        }
+        Collections.sort(inputs, new Comparator<InputType>() {
+
+            @Override
+            public int compare(InputType o1, InputType o2) {
+                return o1.getIdentifier().getValue().compareTo(o2.getIdentifier().getValue());
+            }
+        });
+
+        for (InputType input : inputs) {
+            sb.append("\n").append(input.getIdentifier().getValue()).append("=");
+            if (input.getReference() != null) {
+                InputReferenceType ref = input.getReference();
+                collectReferencedLayers(ref, layers);
+                if (ref.getBody() instanceof ExecuteType) {
+                    // chained process, canonicalize it as well
+                    ExecuteType chained = (ExecuteType) ref.getBody();
+                    sb.append("wps(").append(chained.getIdentifier().getValue());
+                    canonicalizeInputs(chained, sb, layers);
+                    sb.append(")");
+                } else {
+                    canonicalize(ref, sb, layers);
+                }
+            } else {
+                DataType data = input.getData();
+                if (data.getLiteralData() != null) {
+                    String value = data.getLiteralData().getValue();
+                    addLayer(value, layers);
+                }
+                canonicalize(data, sb, layers);
+            }
+        }
+    }
+
+    /**
+     * Appends a stable representation of the object to the builder. EMF objects are expanded
+     * property by property, values whose string representation is not known to be stable make the
+     * request non cacheable.
+     */
+    void canonicalize(Object value, StringBuilder sb, Set<String> layers)
+            throws NotCacheableException {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof EObject) {
+            EObject eo = (EObject) value;
+            sb.append(eo.eClass().getName()).append("{");
+            for (EStructuralFeature feature : eo.eClass().getEAllStructuralFeatures()) {
+                if (eo.eIsSet(feature)) {
+                    sb.append(feature.getName()).append("=");
+                    canonicalize(eo.eGet(feature), sb, layers);
+                    sb.append(";");
+                }
+            }
+            sb.append("}");
+        } else if (value instanceof FeatureMap.Entry) {
+            FeatureMap.Entry entry = (FeatureMap.Entry) value;
+            sb.append(entry.getEStructuralFeature().getName()).append("=");
+            canonicalize(entry.getValue(), sb, layers);
+        } else if (value instanceof Collection) {
+            sb.append("[");
+            for (Object item : (Collection) value) {
+                canonicalize(item, sb, layers);
+                sb.append(",");
+            }
+            sb.append("]");
+        } else if (value instanceof QName) {
+            QName name = (QName) value;
+            addLayer(name, layers);
+            sb.append(name);
+        } else if (value instanceof Geometry) {
+            sb.append(((Geometry) value).toText());
+        } else if (value instanceof String || value instanceof Number
+                || value instanceof Boolean || value instanceof Enumerator
+                || value instanceof Enum || value instanceof Envelope || value instanceof Filter
+                || value instanceof Expression || value instanceof SortBy
+                || value instanceof java.net.URI) {
+            sb.append(value);
+        } else {
+            throw new NotCacheableException("Cannot build a stable key out of a "
+                    + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Finds the layers referenced by a KVP internal request
+     */
+    void collectReferencedLayers(InputReferenceType ref, Set<String> layers) {
+        String href = ref.getHref();
+        if (href == null || !href.startsWith("http://geoserver/") || href.indexOf('?') < 0) {
+            return;
+        }
+
+        Map<String, Object> kvp = KvpUtils.parseQueryString(href);
+        for (Map.Entry<String, Object> entry : kvp.entrySet()) {
+            String key = entry.getKey().toUpperCase();
+            if (("TYPENAME".equals(key) || "TYPENAMES".equals(key) || "IDENTIFIER".equals(key) || "COVERAGE"
+                    .equals(key)) && entry.getValue() instanceof String) {
+                for (String name : ((String) entry.getValue()).split(",")) {
+                    addLayer(name.trim(), layers);
+                }
+            }
+        }
+    }
+
+    void addLayer(String name, Set<String> layers) {
+        if (name == null || name.length() == 0 || name.length() > 255
+                || Character.isDigit(name.charAt(0)) || name.indexOf(' ') >= 0) {
+            return;
+        }
+        ResourceInfo resource = catalog.getResourceByName(name, ResourceInfo.class);
+        if (resource != null) {
+            layers.add(resource.prefixedName());
+        }
+    }
+
+    void addLayer(QName name, Set<String> layers) {
+        ResourceInfo resource = null;
+        if (name.getNamespaceURI() != null && name.getNamespaceURI().length() > 0) {
+            resource = catalog.getResourceByName(name.getNamespaceURI(), name.getLocalPart(),
+                    ResourceInfo.class);
+        }
+        if (resource == null && name.getPrefix() != null && name.getPrefix().length() > 0) {
+            resource = catalog.getResourceByName(name.getPrefix(), name.getLocalPart(),
+                    ResourceInfo.class);
+        }
+        if (resource != null) {
+            layers.add(resource.prefixedName());
+        }
+    }
+
+    long getLayerVersion(String layer) {
+        AtomicLong version = layerVersions.get(layer);
+        return version == null ? 0 : version.get();
+    }
+
+    String digest(String canonical) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(canonical.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to compute the cache key digest", e);
+        }
+    }
+
+    /**
+     * Looks up the outputs associated to the key
+     *
+     * @param key
+     * @return a copy of the cached outputs, or null if not found
+     */
+    public Map<String, Object> get(CacheKey key) {
+        CacheStatistics stats = getStatistics(key.processName);
+        CacheEntry entry;
+        boolean fromDisk = false;
+        synchronized (this) {
+            entry = memory.get(key.digest);
+            if (entry == null) {
+                entry = disk.get(key.digest);
+                fromDisk = entry != null;
+            }
+        }
+        if (entry == null) {
+            stats.misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            byte[] data = entry.data;
+            if (fromDisk) {
+                data = readFile(entry.file);
+            }
+            Map<String, Object> result = deserialize(data);
+            stats.hits.incrementAndGet();
+            if (fromDisk) {
+                promote(entry, data);
+            }
+            return result;
+        } catch (Exception e) {
+            // the file might have been evicted in the meantime, or got corrupted
+            LOGGER.log(Level.FINE, "Failed to read cached process results", e);
+            stats.misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Caches the process outputs, if they can be serialized
+     *
+     * @param key
+     * @param outputs
+     */
+    public void put(CacheKey key, Map<String, Object> outputs) {
+        for (Object value : outputs.values()) {
+            if (value != null && !(value instanceof Serializable)) {
+                return;
+            }
+        }
+        byte[] data;
+        try {
+            data = serialize(outputs);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Outputs of " + key.processName + " cannot be cached", e);
+            return;
+        }
+
+        CacheEntry entry = new CacheEntry(key, data);
+        List<CacheEntry> spilled;
+        synchronized (this) {
+            // the layers might have changed while the process was running
+            for (String layer : key.layers) {
+                if (!key.versions.get(layer).equals(getLayerVersion(layer))) {
+                    return;
+                }
+            }
+            remove(key.digest);
+            if (data.length > maxMemorySize) {
+                spilled = Collections.singletonList(entry);
+            } else {
+                memory.put(key.digest, entry);
+                memorySize += entry.size;
+                spilled = evictFromMemory();
+            }
+        }
+        spill(spilled);
+    }
+
+    void promote(CacheEntry entry, byte[] data) {
+        List<CacheEntry> spilled;
+        synchronized (this) {
+            if (data.length > maxMemorySize || disk.get(entry.key.digest) != entry) {
+                return;
+            }
+            disk.remove(entry.key.digest);
+            diskSize -= entry.size;
+            entry.file.delete();
+            entry.file = null;
+            entry.data = data;
+            memory.put(entry.key.digest, entry);
+            memorySize += entry.size;
+            spilled = evictFromMemory();
+        }
+        spill(spilled);
+    }
+
+    /**
+     * Removes the least recently used entries until the memory budget is respected, must be
+     * called with the lock held
+     */
+    List<CacheEntry> evictFromMemory() {
+        List<CacheEntry> evicted = new ArrayList<CacheEntry>();
+        for (Iterator<CacheEntry> it = memory.values().iterator(); it.hasNext()
+                && memorySize > maxMemorySize;) {
+            CacheEntry entry = it.next();
+            it.remove();
+            memorySize -= entry.size;
+            evicted.add(entry);
+        }
+        return evicted;
+    }
+
+    /**
+     * Writes the entries evicted from memory on disk, outside of the lock
+     */
+    void spill(List<CacheEntry> entries) {
+        if (maxDiskSize <= 0) {
+            return;
+        }
+        for (CacheEntry entry : entries) {
+            if (entry.size > maxDiskSize) {
+                continue;
+            }
+            File file = new File(storage, entry.key.digest + ".ser");
+            try {
+                writeFile(file, entry.data);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to move cached process results on disk", e);
+                file.delete();
+                continue;
+            }
+
+            List<File> dropped = new ArrayList<File>();
+            synchronized (this) {
+                if (memory.containsKey(entry.key.digest) || disk.containsKey(entry.key.digest)) {
+                    // someone re-added it meanwhile
+                    dropped.add(file);
+                } else {
+                    entry.file = file;
+                    entry.data = null;
+                    disk.put(entry.key.digest, entry);
+                    diskSize += entry.size;
+                    for (Iterator<CacheEntry> it = disk.values().iterator(); it.hasNext()
+                            && diskSize > maxDiskSize;) {
+                        CacheEntry evicted = it.next();
+                        it.remove();
+                        diskSize -= evicted.size;
+                        dropped.add(evicted.file);
+                    }
+                }
+            }
+            for (File f : dropped) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes an entry, must be called with the lock held
+     */
+    void remove(String digest) {
+        CacheEntry entry = memory.remove(digest);
+        if (entry != null) {
+            memorySize -= entry.size;
+        }
+        entry = disk.remove(digest);
+        if (entry != null) {
+            diskSize -= entry.size;
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * Marks the layer as changed, dropping all the entries that depend on it
+     *
+     * @param layer The layer prefixed name
+     */
+    public void invalidate(String layer) {
+        AtomicLong version = layerVersions.get(layer);
+        if (version == null) {
+            version = new AtomicLong();
+            AtomicLong existing = layerVersions.putIfAbsent(layer, version);
+            if (existing != null) {
+                version = existing;
+            }
+        }
+        version.incrementAndGet();
+
+        synchronized (this) {
+            List<String> stale = new ArrayList<String>();
+            for (CacheEntry entry : memory.values()) {
+                if (entry.key.layers.contains(layer)) {
+                    stale.add(entry.key.digest);
+                }
+            }
+            for (CacheEntry entry : disk.values()) {
+                if (entry.key.layers.contains(layer)) {
+                    stale.add(entry.key.digest);
+                }
+            }
+            for (String digest : stale) {
+                remove(digest);
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached entries
+     */
+    public synchronized void clear() {
+        for (CacheEntry entry : disk.values()) {
+            entry.file.delete();
+        }
+        memory.clear();
+        disk.clear();
+        memorySize = 0;
+        diskSize = 0;
+    }
+
+    /**
+     * Returns the number of entries currently cached, in memory and on disk
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return memory.size() + disk.size();
+    }
+
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    public synchronized long getDiskSize() {
+        return diskSize;
+    }
+
+    /**
+     * Returns the hit/miss statistics for the specified process
+     *
+     * @param processName
+     * @return
+     */
+    public CacheStatistics getStatistics(Name processName) {
+        CacheStatistics result = statistics.get(processName);
+        if (result == null) {
+            result = new CacheStatistics();
+            CacheStatistics existing = statistics.putIfAbsent(processName, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hit/miss statistics for all the processes that used the cache so far
+     *
+     * @return
+     */
+    public Map<Name, CacheStatistics> getAllStatistics() {
+        return Collections.unmodifiableMap(new HashMap<Name, CacheStatistics>(statistics));
+    }
+
+    byte[] serialize(Map<String, Object> outputs) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(new HashMap<String, Object>(outputs));
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return (Map<String, Object>) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    void writeFile(File file, byte[] data) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(file));
+            os.write(data);
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    byte[] readFile(File file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(file));
+            return IOUtils.toByteArray(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * The key of a cached result
+     */
+    public class CacheKey {
+        Name processName;
+
+        String digest;
+
+        Set<String> layers;
+
+        Map<String, Long> versions = new HashMap<String, Long>();
+
+        CacheKey(Name processName, String digest, Set<String> layers) {
+            this.processName = processName;
+            this.digest = digest;
+            this.layers = layers;
+            for (String layer : layers) {
+                versions.put(layer, getLayerVersion(layer));
+            }
+        }
+
+        public Name getProcessName() {
+            return processName;
+        }
+
+        /**
+         * The prefixed names of the layers the request depends onto
+         *
+         * @return
+         */
+        public Set<String> getLayers() {
+            return Collections.unmodifiableSet(layers);
+        }
+
+        @Override
+        public String toString() {
+            return processName.getURI() + ":" + digest;
+        }
+    }
+
+    static class CacheEntry {
+        CacheKey key;
+
+        byte[] data;
+
+        File file;
+
+        long size;
+
+        CacheEntry(CacheKey key, byte[] data) {
+            this.key = key;
+            this.data = data;
+            this.size = data.length;
+        }
+    }
+
+    /**
+     * Cache hit/miss statistics for a single process
+     */
+    public static class CacheStatistics {
+        AtomicLong hits = new AtomicLong();
+
+        AtomicLong misses = new AtomicLong();
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * The ratio of requests served from the cache, between 0 and 1
+         *
+         * @return
+         */
+        public double getHitRatio() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? 0 : ((double) h) / total;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStatistics [hits=" + hits + ", misses=" + misses + "]";
+        }
+    }
+}
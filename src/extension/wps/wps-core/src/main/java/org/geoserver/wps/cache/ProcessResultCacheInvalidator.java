@@ -0,0 +1,155 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.cache;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Keeps the {@link ProcessResultCache} consistent with the data, invalidating the cached results
+ * depending on layers modified in the catalog or by a WFS transaction
+ */
+public class ProcessResultCacheInvalidator implements CatalogListener, TransactionPlugin {
+
+    static final Logger LOGGER = Logging.getLogger(ProcessResultCacheInvalidator.class);
+
+    static final String MODIFIED_LAYERS = "WPS_CACHE_MODIFIED_LAYERS";
+
+    ProcessResultCache cache;
+
+    Catalog catalog;
+
+    public ProcessResultCacheInvalidator(ProcessResultCache cache, Catalog catalog) {
+        this.cache = cache;
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    // -----------------------------------------------------------------
+    // CatalogListener methods
+    // -----------------------------------------------------------------
+
+    public void handleAddEvent(CatalogAddEvent event) {
+        // a new layer cannot be referenced by existing entries
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        invalidate(event);
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        invalidate(event);
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        // the resource might have been renamed, invalidate the new name as well
+        invalidate(event);
+    }
+
+    public void reloaded() {
+        cache.clear();
+    }
+
+    void invalidate(CatalogEvent event) {
+        Object source = event.getSource();
+        if (source instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) source).getResource();
+            if (resource != null) {
+                cache.invalidate(resource.prefixedName());
+            }
+        } else if (source instanceof ResourceInfo) {
+            cache.invalidate(((ResourceInfo) source).prefixedName());
+        } else if (source instanceof StoreInfo) {
+            for (ResourceInfo resource : catalog.getResourcesByStore((StoreInfo) source,
+                    ResourceInfo.class)) {
+                cache.invalidate(resource.prefixedName());
+            }
+        } else if (source instanceof WorkspaceInfo || source instanceof NamespaceInfo) {
+            // prefixed names might have changed, start from scratch
+            cache.clear();
+        }
+    }
+
+    // -----------------------------------------------------------------
+    // TransactionPlugin methods
+    // -----------------------------------------------------------------
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        try {
+            QName typeName = event.getLayerName();
+            ResourceInfo resource = catalog.getResourceByName(typeName.getNamespaceURI(),
+                    typeName.getLocalPart(), ResourceInfo.class);
+            if (resource == null) {
+                return;
+            }
+
+            // invalidate right away so that no entries are computed against the modified
+            // data, and again at the end, to drop what was computed while the transaction ran
+            String layer = resource.prefixedName();
+            cache.invalidate(layer);
+            getModifiedLayers(event.getRequest()).add(layer);
+        } catch (RuntimeException e) {
+            // never make the transaction fail due to a cache error
+            LOGGER.log(Level.WARNING, "Error invalidating the WPS process result cache", e);
+        }
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        // nothing to do
+        return request;
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        Set<String> layers = getModifiedLayers(request);
+        for (String layer : layers) {
+            cache.invalidate(layer);
+        }
+        layers.clear();
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<String> getModifiedLayers(TransactionType transaction) {
+        Set<String> layers = (Set<String>) transaction.getExtendedProperties().get(
+                MODIFIED_LAYERS);
+        if (layers == null) {
+            layers = new HashSet<String>();
+            transaction.getExtendedProperties().put(MODIFIED_LAYERS, layers);
+        }
+        return layers;
+    }
+}
@@ -33,6 +33,9 @@ import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 public class DefaultProcessManager implements ProcessManager, ExtensionPriority, ApplicationListener<ApplicationEvent> {
 
@@ -196,13 +199,28 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
 
         ExecutionStatusEx status;
 
+        Authentication authentication;
+
         public ProcessCallable(Map<String, Object> inputs, ExecutionStatusEx status) {
             this.inputs = inputs;
             this.status = status;
+            // the process runs in another thread, carry over the caller security context
+            this.authentication = SecurityContextHolder.getContext().getAuthentication();
         }
 
         @Override
         public Map<String, Object> call() throws Exception {
+            SecurityContext context = SecurityContextHolder.createEmptyContext();
+            context.setAuthentication(authentication);
+            SecurityContextHolder.setContext(context);
+            try {
+                return execute();
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        }
+
+        Map<String, Object> execute() throws Exception {
             resourceManager.setCurrentExecutionId(status.getExecutionId());
             status.setPhase(ProcessState.RUNNING);
             ProcessListener listener = status.listener;
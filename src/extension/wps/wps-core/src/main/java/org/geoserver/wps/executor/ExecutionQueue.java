@@ -0,0 +1,390 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * A priority queue for asynchronous executions, dispatching them on a bounded set of worker
+ * threads while respecting the per user and per process concurrency limits.
+ * <p>
+ * Executions with a higher priority are dispatched first, executions with the same priority are
+ * dispatched in submission order. An execution that cannot run because its user or process reached
+ * the concurrency limit does not block the ones behind it.
+ * </p>
+ */
+public class ExecutionQueue {
+
+    static final Logger LOGGER = Logging.getLogger(ExecutionQueue.class);
+
+    static final Comparator<QueuedExecution> PRIORITY_COMPARATOR = new Comparator<QueuedExecution>() {
+
+        @Override
+        public int compare(QueuedExecution o1, QueuedExecution o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority > o2.priority ? -1 : 1;
+            }
+            if (o1.sequence != o2.sequence) {
+                return o1.sequence < o2.sequence ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    TreeSet<QueuedExecution> pending = new TreeSet<QueuedExecution>(PRIORITY_COMPARATOR);
+
+    Map<String, QueuedExecution> running = new HashMap<String, QueuedExecution>();
+
+    Map<String, Integer> runningPerUser = new HashMap<String, Integer>();
+
+    Map<Name, Integer> runningPerProcess = new HashMap<Name, Integer>();
+
+    AtomicLong sequence = new AtomicLong();
+
+    ThreadPoolExecutor workers;
+
+    int maxRunning;
+
+    int maxRunningPerUser;
+
+    int maxRunningPerProcess;
+
+    boolean shutdown;
+
+    public ExecutionQueue(int maxRunning) {
+        this.maxRunning = maxRunning;
+        // fixed size pool, the queue makes sure we never submit more than maxRunning tasks
+        this.workers = new ThreadPoolExecutor(maxRunning, maxRunning, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Adds an execution to the queue, it will be run as soon as a worker is available and the
+     * concurrency limits allow it
+     *
+     * @param execution
+     */
+    public synchronized void submit(QueuedExecution execution) {
+        execution.sequence = sequence.getAndIncrement();
+        pending.add(execution);
+        dispatch();
+    }
+
+    /**
+     * Removes a queued execution that did not start running yet
+     *
+     * @param executionId
+     * @return true if the execution was found in the queue and removed, false otherwise
+     */
+    public synchronized boolean remove(String executionId) {
+        for (Iterator<QueuedExecution> it = pending.iterator(); it.hasNext();) {
+            QueuedExecution execution = it.next();
+            if (execution.executionId.equals(executionId)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the execution is waiting in the queue, false if it's running or unknown
+     *
+     * @param executionId
+     * @return
+     */
+    public synchronized boolean isQueued(String executionId) {
+        for (QueuedExecution execution : pending) {
+            if (execution.executionId.equals(executionId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the executions still waiting to be run, in dispatch order
+     *
+     * @return
+     */
+    public synchronized List<QueuedExecution> getQueued() {
+        return new ArrayList<QueuedExecution>(pending);
+    }
+
+    /**
+     * Returns the number of executions waiting to be run
+     *
+     * @return
+     */
+    public synchronized int getQueuedCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of executions currently running
+     *
+     * @return
+     */
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    /**
+     * Starts as many queued executions as the limits allow. Must be called with the lock held.
+     */
+    void dispatch() {
+        if (shutdown) {
+            // the queued executions stay in the store and will be resumed on restart
+            return;
+        }
+        for (Iterator<QueuedExecution> it = pending.iterator(); it.hasNext()
+                && running.size() < maxRunning;) {
+            final QueuedExecution execution = it.next();
+            if (!canRun(execution)) {
+                continue;
+            }
+
+            it.remove();
+            running.put(execution.executionId, execution);
+            increment(runningPerUser, execution.user);
+            increment(runningPerProcess, execution.processName);
+            execution.startTime = System.currentTimeMillis();
+            try {
+                workers.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        // run with the security context of the user that submitted the request
+                        SecurityContext context = SecurityContextHolder.createEmptyContext();
+                        context.setAuthentication(execution.authentication);
+                        SecurityContextHolder.setContext(context);
+                        try {
+                            execution.run();
+                        } catch (Throwable t) {
+                            LOGGER.log(Level.SEVERE, "Asynchronous execution "
+                                    + execution.executionId + " failed", t);
+                        } finally {
+                            SecurityContextHolder.clearContext();
+                            finished(execution);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down in the meantime, put it back
+                LOGGER.log(Level.FINE, "Workers not accepting executions anymore", e);
+                running.remove(execution.executionId);
+                decrement(runningPerUser, execution.user);
+                decrement(runningPerProcess, execution.processName);
+                execution.startTime = 0;
+                pending.add(execution);
+                return;
+            }
+        }
+    }
+
+    boolean canRun(QueuedExecution execution) {
+        if (maxRunningPerUser > 0 && execution.user != null
+                && count(runningPerUser, execution.user) >= maxRunningPerUser) {
+            return false;
+        }
+        if (maxRunningPerProcess > 0
+                && count(runningPerProcess, execution.processName) >= maxRunningPerProcess) {
+            return false;
+        }
+        return true;
+    }
+
+    synchronized void finished(QueuedExecution execution) {
+        if (running.remove(execution.executionId) != null) {
+            decrement(runningPerUser, execution.user);
+            decrement(runningPerProcess, execution.processName);
+        }
+        dispatch();
+    }
+
+    <K> int count(Map<K, Integer> counters, K key) {
+        Integer count = counters.get(key);
+        return count == null ? 0 : count;
+    }
+
+    <K> void increment(Map<K, Integer> counters, K key) {
+        if (key != null) {
+            counters.put(key, count(counters, key) + 1);
+        }
+    }
+
+    <K> void decrement(Map<K, Integer> counters, K key) {
+        if (key != null) {
+            int count = count(counters, key) - 1;
+            if (count <= 0) {
+                counters.remove(key);
+            } else {
+                counters.put(key, count);
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of executions running in parallel
+     *
+     * @param maxRunning
+     */
+    public synchronized void setMaxRunning(int maxRunning) {
+        this.maxRunning = maxRunning;
+        if (maxRunning > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(maxRunning);
+            workers.setCorePoolSize(maxRunning);
+        } else {
+            workers.setCorePoolSize(maxRunning);
+            workers.setMaximumPoolSize(maxRunning);
+        }
+        dispatch();
+    }
+
+    public synchronized int getMaxRunning() {
+        return maxRunning;
+    }
+
+    /**
+     * Sets the maximum number of executions a single user can have running in parallel, zero or
+     * negative means no limit. Anonymous executions are not subject to this limit.
+     *
+     * @param maxRunningPerUser
+     */
+    public synchronized void setMaxRunningPerUser(int maxRunningPerUser) {
+        this.maxRunningPerUser = maxRunningPerUser;
+        dispatch();
+    }
+
+    public synchronized int getMaxRunningPerUser() {
+        return maxRunningPerUser;
+    }
+
+    /**
+     * Sets the maximum number of executions of the same process running in parallel, zero or
+     * negative means no limit
+     *
+     * @param maxRunningPerProcess
+     */
+    public synchronized void setMaxRunningPerProcess(int maxRunningPerProcess) {
+        this.maxRunningPerProcess = maxRunningPerProcess;
+        dispatch();
+    }
+
+    public synchronized int getMaxRunningPerProcess() {
+        return maxRunningPerProcess;
+    }
+
+    /**
+     * Stops the workers, the executions still in the queue are left alone so that they can be
+     * recovered later
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        workers.shutdownNow();
+    }
+
+    /**
+     * An execution waiting in the queue
+     */
+    public static abstract class QueuedExecution {
+
+        String executionId;
+
+        Name processName;
+
+        String user;
+
+        int priority;
+
+        long submissionTime;
+
+        long startTime;
+
+        long sequence;
+
+        Authentication authentication;
+
+        public QueuedExecution(String executionId, Name processName, String user, int priority,
+                long submissionTime) {
+            this(executionId, processName, user, priority, submissionTime, null);
+        }
+
+        /**
+         * Builds a new queued execution, that will be run with the specified authentication
+         */
+        public QueuedExecution(String executionId, Name processName, String user, int priority,
+                long submissionTime, Authentication authentication) {
+            this.executionId = executionId;
+            this.processName = processName;
+            this.user = user;
+            this.priority = priority;
+            this.submissionTime = submissionTime;
+            this.authentication = authentication;
+        }
+
+        /**
+         * Runs the execution, called from one of the queue workers
+         */
+        protected abstract void run();
+
+        public String getExecutionId() {
+            return executionId;
+        }
+
+        public Name getProcessName() {
+            return processName;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public long getSubmissionTime() {
+            return submissionTime;
+        }
+
+        /**
+         * The authentication the execution runs with, or null if anonymous
+         *
+         * @return
+         */
+        public Authentication getAuthentication() {
+            return authentication;
+        }
+
+        /**
+         * The time the execution got dispatched to a worker, or zero if it's still queued
+         *
+         * @return
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.opengis.wps10.ExecuteType;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.wps.xml.WPSConfiguration;
+import org.geotools.util.logging.Logging;
+import org.geotools.wps.WPS;
+import org.geotools.xml.Encoder;
+import org.geotools.xml.Parser;
+
+/**
+ * Persists the asynchronous execute requests in the data directory, so that the executions that
+ * were queued or running when GeoServer was stopped can be resubmitted on restart.
+ * <p>
+ * Each execution is saved as a pair of files, the encoded execute request (
+ * <code>executionId.xml</code>) and its queueing metadata (<code>executionId.properties</code>). The
+ * metadata file is written last and acts as the commit marker for the entry.
+ * </p>
+ * <p>
+ * The roles of the submitting user are saved along with the request, so that a recovered execution
+ * runs with the same privileges it was submitted with. The {@link #submitSave} and
+ * {@link #submitRemove} methods write in a background thread, in submission order, so that
+ * encoding the request does not slow down the request thread.
+ * </p>
+ */
+public class ExecutionQueueStore {
+
+    static final Logger LOGGER = Logging.getLogger(ExecutionQueueStore.class);
+
+    static final String KEY_USER = "user";
+
+    static final String KEY_PRIORITY = "priority";
+
+    static final String KEY_SUBMISSION_TIME = "submissionTime";
+
+    static final String KEY_ROLES = "roles";
+
+    File storage;
+
+    ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "wps-queue-store");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public ExecutionQueueStore(GeoServerDataDirectory dataDirectory) throws IOException {
+        this(dataDirectory.findOrCreateDir("wps", "queue"));
+    }
+
+    ExecutionQueueStore(File storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Returns the directory holding the queued executions
+     *
+     * @return
+     */
+    public File getStorage() {
+        return storage;
+    }
+
+    /**
+     * Saves the specified execution in the store in a background thread. Failures are logged,
+     * the execution can still run, it just won't survive a restart
+     *
+     * @param executionId
+     * @param request
+     * @param user The user that submitted the request, or null if anonymous
+     * @param roles The roles of the user that submitted the request, or null if anonymous
+     * @param priority
+     * @param submissionTime
+     * @return
+     */
+    public Future<?> submitSave(final String executionId, final ExecuteType request,
+            final String user, final Collection<String> roles, final int priority,
+            final long submissionTime) {
+        return writer.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    save(executionId, request, user, roles, priority, submissionTime);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to persist the asynchronous execution "
+                            + executionId + ", it won't be recovered in case of restart", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the specified execution from the store in a background thread, after any save
+     * submitted before
+     *
+     * @param executionId
+     * @return
+     */
+    public Future<?> submitRemove(final String executionId) {
+        return writer.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                remove(executionId);
+            }
+        });
+    }
+
+    /**
+     * Completes the pending writes and stops the background writer
+     */
+    public void dispose() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Saves the specified execution in the store
+     *
+     * @param executionId
+     * @param request
+     * @param user The user that submitted the request, or null if anonymous
+     * @param roles The roles of the user that submitted the request, or null if anonymous
+     * @param priority
+     * @param submissionTime
+     * @throws IOException
+     */
+    public void save(String executionId, ExecuteType request, String user,
+            Collection<String> roles, int priority, long submissionTime) throws IOException {
+        // first the request, then the metadata, a crash in between will leave behind only
+        // a request file that won't be picked up during recovery
+        OutputStream os = null;
+        File requestFile = getRequestFile(executionId);
+        File tmpRequest = new File(storage, "tmp" + requestFile.getName());
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(tmpRequest));
+            Encoder encoder = new Encoder(new WPSConfiguration());
+            encoder.encode(request, WPS.Execute, os);
+            os.close();
+            rename(tmpRequest, requestFile);
+        } finally {
+            IOUtils.closeQuietly(os);
+            tmpRequest.delete();
+        }
+
+        Properties metadata = new Properties();
+        if (user != null) {
+            metadata.setProperty(KEY_USER, user);
+        }
+        if (roles != null) {
+            StringBuilder sb = new StringBuilder();
+            for (String role : roles) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(role);
+            }
+            metadata.setProperty(KEY_ROLES, sb.toString());
+        }
+        metadata.setProperty(KEY_PRIORITY, String.valueOf(priority));
+        metadata.setProperty(KEY_SUBMISSION_TIME, String.valueOf(submissionTime));
+        File metadataFile = getMetadataFile(executionId);
+        File tmpMetadata = new File(storage, "tmp" + metadataFile.getName());
+        try {
+            os = new FileOutputStream(tmpMetadata);
+            metadata.store(os, "Queued WPS execution " + executionId);
+            os.close();
+            rename(tmpMetadata, metadataFile);
+        } finally {
+            IOUtils.closeQuietly(os);
+            tmpMetadata.delete();
+        }
+    }
+
+    /**
+     * Removes the specified execution from the store
+     *
+     * @param executionId
+     */
+    public void remove(String executionId) {
+        // metadata first, so that a partial removal won't be recovered
+        File metadataFile = getMetadataFile(executionId);
+        if (metadataFile.exists() && !metadataFile.delete()) {
+            LOGGER.log(Level.WARNING, "Failed to remove queued execution metadata " + metadataFile);
+        }
+        File requestFile = getRequestFile(executionId);
+        if (requestFile.exists() && !requestFile.delete()) {
+            LOGGER.log(Level.WARNING, "Failed to remove queued execution request " + requestFile);
+        }
+    }
+
+    /**
+     * Lists all the executions in the store, sorted by submission time. Entries that cannot be
+     * read back are logged and removed.
+     *
+     * @return
+     */
+    public List<StoredExecution> list() {
+        List<StoredExecution> result = new ArrayList<StoredExecution>();
+        File[] metadataFiles = storage.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".properties") && !name.startsWith("tmp");
+            }
+        });
+        if (metadataFiles == null) {
+            return result;
+        }
+
+        for (File metadataFile : metadataFiles) {
+            String name = metadataFile.getName();
+            String executionId = name.substring(0, name.length() - ".properties".length());
+            try {
+                result.add(read(executionId));
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to read back the queued WPS execution "
+                        + executionId + ", removing it from the queue", e);
+                remove(executionId);
+            }
+        }
+
+        Collections.sort(result, new Comparator<StoredExecution>() {
+
+            @Override
+            public int compare(StoredExecution o1, StoredExecution o2) {
+                long diff = o1.submissionTime - o2.submissionTime;
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        return result;
+    }
+
+    StoredExecution read(String executionId) throws Exception {
+        Properties metadata = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(getMetadataFile(executionId));
+            metadata.load(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        ExecuteType request;
+        try {
+            is = new BufferedInputStream(new FileInputStream(getRequestFile(executionId)));
+            Parser parser = new Parser(new WPSConfiguration());
+            request = (ExecuteType) parser.parse(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        StoredExecution execution = new StoredExecution();
+        execution.executionId = executionId;
+        execution.request = request;
+        execution.user = metadata.getProperty(KEY_USER);
+        String roles = metadata.getProperty(KEY_ROLES);
+        if (roles != null) {
+            execution.roles = new ArrayList<String>();
+            for (String role : roles.split(",")) {
+                if (role.trim().length() > 0) {
+                    execution.roles.add(role.trim());
+                }
+            }
+        }
+        execution.priority = Integer.parseInt(metadata.getProperty(KEY_PRIORITY, "0"));
+        execution.submissionTime = Long.parseLong(metadata.getProperty(KEY_SUBMISSION_TIME,
+                "0"));
+        return execution;
+    }
+
+    File getRequestFile(String executionId) {
+        return new File(storage, executionId + ".xml");
+    }
+
+    File getMetadataFile(String executionId) {
+        return new File(storage, executionId + ".properties");
+    }
+
+    void rename(File source, File target) throws IOException {
+        // renameTo won't overwrite an existing file on some platforms
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Failed to replace " + target);
+        }
+        if (!source.renameTo(target)) {
+            throw new IOException("Failed to rename " + source + " to " + target);
+        }
+    }
+
+    /**
+     * An execution read back from the store
+     */
+    public static class StoredExecution {
+        String executionId;
+
+        ExecuteType request;
+
+        String user;
+
+        List<String> roles;
+
+        int priority;
+
+        long submissionTime;
+
+        public String getExecutionId() {
+            return executionId;
+        }
+
+        public ExecuteType getRequest() {
+            return request;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * The roles of the submitting user, or null if the execution was submitted anonymously
+         *
+         * @return
+         */
+        public List<String> getRoles() {
+            return roles;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public long getSubmissionTime() {
+            return submissionTime;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opengis.feature.type.Name;
+
+/**
+ * Collects per process execution statistics: time spent waiting in the execution queue, time
+ * spent running, and size of the stored results
+ */
+public class ExecutionStatistics {
+
+    ConcurrentHashMap<Name, ProcessStatistics> statistics = new ConcurrentHashMap<Name, ProcessStatistics>();
+
+    /**
+     * Returns the statistics for the specified process, creating them if missing
+     *
+     * @param processName
+     * @return
+     */
+    public ProcessStatistics getStatistics(Name processName) {
+        ProcessStatistics result = statistics.get(processName);
+        if (result == null) {
+            result = new ProcessStatistics(processName);
+            ProcessStatistics existing = statistics.putIfAbsent(processName, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the statistics for all the processes executed so far
+     *
+     * @return
+     */
+    public Map<Name, ProcessStatistics> getAllStatistics() {
+        return Collections.unmodifiableMap(new HashMap<Name, ProcessStatistics>(statistics));
+    }
+
+    /**
+     * Clears all the collected statistics
+     */
+    public void reset() {
+        statistics.clear();
+    }
+
+    /**
+     * Execution statistics for a single process
+     */
+    public static class ProcessStatistics {
+
+        Name processName;
+
+        AtomicLong executions = new AtomicLong();
+
+        AtomicLong failures = new AtomicLong();
+
+        AtomicLong totalQueueTime = new AtomicLong();
+
+        AtomicLong totalRunTime = new AtomicLong();
+
+        AtomicLong maxRunTime = new AtomicLong();
+
+        AtomicLong results = new AtomicLong();
+
+        AtomicLong totalResultSize = new AtomicLong();
+
+        AtomicLong maxResultSize = new AtomicLong();
+
+        ProcessStatistics(Name processName) {
+            this.processName = processName;
+        }
+
+        /**
+         * Records a completed execution
+         *
+         * @param queueTime The time spent waiting in the queue, in milliseconds
+         * @param runTime The time spent executing the process, in milliseconds
+         * @param failed Whether the execution failed or not
+         */
+        public void executed(long queueTime, long runTime, boolean failed) {
+            executions.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            totalQueueTime.addAndGet(queueTime);
+            totalRunTime.addAndGet(runTime);
+            updateMax(maxRunTime, runTime);
+        }
+
+        /**
+         * Records the size of a stored result
+         *
+         * @param size The result size, in bytes
+         */
+        public void resultStored(long size) {
+            results.incrementAndGet();
+            totalResultSize.addAndGet(size);
+            updateMax(maxResultSize, size);
+        }
+
+        void updateMax(AtomicLong max, long value) {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public Name getProcessName() {
+            return processName;
+        }
+
+        public long getExecutions() {
+            return executions.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTotalQueueTime() {
+            return totalQueueTime.get();
+        }
+
+        public long getAverageQueueTime() {
+            long count = executions.get();
+            return count == 0 ? 0 : totalQueueTime.get() / count;
+        }
+
+        public long getTotalRunTime() {
+            return totalRunTime.get();
+        }
+
+        public long getAverageRunTime() {
+            long count = executions.get();
+            return count == 0 ? 0 : totalRunTime.get() / count;
+        }
+
+        public long getMaxRunTime() {
+            return maxRunTime.get();
+        }
+
+        public long getStoredResults() {
+            return results.get();
+        }
+
+        public long getTotalResultSize() {
+            return totalResultSize.get();
+        }
+
+        public long getAverageResultSize() {
+            long count = results.get();
+            return count == 0 ? 0 : totalResultSize.get() / count;
+        }
+
+        public long getMaxResultSize() {
+            return maxResultSize.get();
+        }
+
+        @Override
+        public String toString() {
+            return "ProcessStatistics [processName=" + processName + ", executions=" + executions
+                    + ", failures=" + failures + ", averageQueueTime=" + getAverageQueueTime()
+                    + ", averageRunTime=" + getAverageRunTime() + ", averageResultSize="
+                    + getAverageResultSize() + "]";
+        }
+    }
+}
@@ -7,12 +7,13 @@ package org.geoserver.wps.executor;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,7 +22,12 @@ import net.opengis.wps10.ExecuteResponseType;
 import org.apache.commons.io.IOUtils;
 import org.geoserver.ows.XmlObjectEncodingResponse;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.impl.GeoServerRole;
 import org.geoserver.wps.WPSException;
+import org.geoserver.wps.cache.ProcessResultCache;
+import org.geoserver.wps.cache.ProcessResultCache.CacheKey;
+import org.geoserver.wps.executor.ExecutionQueue.QueuedExecution;
+import org.geoserver.wps.executor.ExecutionQueueStore.StoredExecution;
 import org.geoserver.wps.executor.ExecutionStatus.ProcessState;
 import org.geoserver.wps.ppio.ComplexPPIO;
 import org.geoserver.wps.ppio.ProcessParameterIO;
@@ -40,9 +46,19 @@ import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 /**
  * Manages the process runs for both synchronous and asynchronous processes
+ * <p>
+ * Asynchronous executions are placed in a priority {@link ExecutionQueue} that runs them on a
+ * bounded set of workers, and, if a {@link ExecutionQueueStore} is configured, are persisted until
+ * completion so that they can be resubmitted after a restart
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  * 
@@ -52,7 +68,18 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
     private static final Logger LOGGER = Logging.getLogger(WPSExecutionManager.class);
 
-    private ExecutorService storedResponseWriters = Executors.newCachedThreadPool();
+    private ExecutionQueue asynchronousQueue = new ExecutionQueue(Runtime.getRuntime()
+            .availableProcessors());
+
+    private ExecutionQueueStore queueStore;
+
+    private ExecutionStatistics statistics = new ExecutionStatistics();
+
+    private Map<String, Integer> processPriorities = Collections.emptyMap();
+
+    private boolean queueRecovered;
+
+    private ProcessResultCache resultCache;
 
     ApplicationContext applicationContext;
 
@@ -102,26 +129,151 @@ public class WPSExecutionManager implements ApplicationContextAware,
         ProcessManager processManager = getProcessManager(processName);
         LazyInputMap inputs = request.getProcessInputs(this);
         String executionId = resourceManager.getExecutionId(synchronous);
-        final AsynchronousProcessContext context = new AsynchronousProcessContext(request,
+        AsynchronousProcessContext context = new AsynchronousProcessContext(request,
                 executionId, inputs, processManager, applicationContext);
         contexts.put(executionId, context);
-        processManager.submit(executionId, processName, inputs, request.isAsynchronous());
         if (request.isAsynchronous()) {
-            // ah, we need to store the output at the end, schedule a thread that will
-            // do as soon as the process is done executing
-            storedResponseWriters.submit(new Runnable() {
-
-                @Override
-                public void run() {
-                    
-                    context.writeResponseFile();
+            Authentication auth = getCurrentAuthentication();
+            String user = auth != null ? auth.getName() : null;
+            int priority = getPriority(processName);
+            long submissionTime = System.currentTimeMillis();
+            if (queueStore != null) {
+                // encoding the request takes time, do it off the request thread
+                queueStore.submitSave(executionId, request.getRequest(), user, getRoles(auth),
+                        priority, submissionTime);
+            }
+            enqueue(context, user, priority, submissionTime, auth);
+        } else {
+            if (resultCache != null) {
+                context.cacheKey = resultCache.getKey(request);
+                if (context.cacheKey != null) {
+                    context.cachedOutputs = resultCache.get(context.cacheKey);
+                    if (context.cachedOutputs != null) {
+                        // no need to run the process, getOutput will return the cached outputs
+                        return executionId;
+                    }
                 }
-            });
+            }
+            processManager.submit(executionId, processName, inputs, false);
         }
 
         return executionId;
     }
 
+    /**
+     * Places an asynchronous execution in the queue. Once dispatched the process is submitted to
+     * its process manager and the worker waits for its completion to write out the stored
+     * response.
+     */
+    void enqueue(final AsynchronousProcessContext context, String user, int priority,
+            long submissionTime, Authentication auth) {
+        asynchronousQueue.submit(new QueuedExecution(context.executionId, context.request
+                .getProcessName(), user, priority, submissionTime, auth) {
+
+            @Override
+            protected void run() {
+                context.queued = false;
+                boolean failed = true;
+                try {
+                    context.processManager.submit(executionId, processName, context.inputs, true);
+                    failed = !context.writeResponseFile();
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Failed to submit the asynchronous execution "
+                            + executionId, e);
+                    context.writeFailedResponse(e);
+                } finally {
+                    long end = System.currentTimeMillis();
+                    ExecutionStatistics.ProcessStatistics stats = statistics
+                            .getStatistics(processName);
+                    stats.executed(startTime - submissionTime, end - startTime, failed);
+                    File response = resourceManager.getStoredResponseFile(executionId);
+                    if (response.exists()) {
+                        stats.resultStored(response.length());
+                    }
+                    if (queueStore != null) {
+                        queueStore.submitRemove(executionId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Resubmits the asynchronous executions that were persisted before the last shutdown
+     */
+    void recoverQueuedExecutions() {
+        if (queueStore == null) {
+            return;
+        }
+
+        for (StoredExecution stored : queueStore.list()) {
+            String executionId = stored.getExecutionId();
+            try {
+                resourceManager.registerExecutionId(executionId, false);
+                ExecuteRequest request = new ExecuteRequest(stored.getRequest());
+                Name processName = request.getProcessName();
+                ProcessManager processManager = getProcessManager(processName);
+                LazyInputMap inputs = request.getProcessInputs(this);
+                AsynchronousProcessContext context = new AsynchronousProcessContext(request,
+                        executionId, inputs, processManager, applicationContext);
+                contexts.put(executionId, context);
+                enqueue(context, stored.getUser(), stored.getPriority(),
+                        stored.getSubmissionTime(), getAuthentication(stored));
+                LOGGER.info("Resubmitted queued WPS execution " + executionId + " for process "
+                        + processName);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to resubmit queued WPS execution "
+                        + executionId, e);
+                queueStore.remove(executionId);
+                contexts.remove(executionId);
+            }
+        }
+    }
+
+    /**
+     * Returns the current authentication, or null if the request is anonymous
+     */
+    Authentication getCurrentAuthentication() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && !(auth instanceof AnonymousAuthenticationToken)) {
+            return auth;
+        }
+        return null;
+    }
+
+    List<String> getRoles(Authentication auth) {
+        if (auth == null) {
+            return null;
+        }
+        List<String> roles = new ArrayList<String>();
+        for (GrantedAuthority authority : auth.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        return roles;
+    }
+
+    /**
+     * Rebuilds the authentication of the user that submitted a stored execution, with the roles
+     * it had at submission time
+     */
+    Authentication getAuthentication(StoredExecution stored) {
+        if (stored.getUser() == null) {
+            return null;
+        }
+        List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        if (stored.getRoles() != null) {
+            for (String role : stored.getRoles()) {
+                authorities.add(new GeoServerRole(role));
+            }
+        }
+        return new UsernamePasswordAuthenticationToken(stored.getUser(), null, authorities);
+    }
+
+    int getPriority(Name processName) {
+        Integer priority = processPriorities.get(processName.getURI());
+        return priority != null ? priority : 0;
+    }
+
     /**
      * Returns the status response for an asynch call if the id is known, null otherwise (it means
      * the process is either unknown or its execution already completed, in the latter case calling
@@ -160,7 +312,16 @@ public class WPSExecutionManager implements ApplicationContextAware,
     public void cancel(String executionId) {
         AsynchronousProcessContext context = contexts.get(executionId);
         if (context != null) {
-            context.processManager.cancel(executionId);
+            if (asynchronousQueue.remove(executionId)) {
+                // never started, just write out the failure and forget about it
+                if (queueStore != null) {
+                    queueStore.submitRemove(executionId);
+                }
+                context.writeFailedResponse(new ProcessException("Process execution "
+                        + executionId + " was cancelled while queued"));
+            } else {
+                context.processManager.cancel(executionId);
+            }
         }
     }
 
@@ -173,10 +334,18 @@ public class WPSExecutionManager implements ApplicationContextAware,
      * @return
      */
     public Map<String, Object> getOutput(String executionId, long timeout) throws ProcessException {
+        AsynchronousProcessContext context = contexts.get(executionId);
+        if (context != null && context.cachedOutputs != null) {
+            contexts.remove(executionId);
+            return context.cachedOutputs;
+        }
         for (ProcessManager pm : getProcessManagers()) {
             Map<String, Object> output = pm.getOutput(executionId, timeout);
             if (output != null) {
                 contexts.remove(executionId);
+                if (context != null && context.cacheKey != null) {
+                    resultCache.put(context.cacheKey, output);
+                }
                 return output;
             }
         }
@@ -213,6 +382,89 @@ public class WPSExecutionManager implements ApplicationContextAware,
         this.connectionTimeout = connectionTimeout;
     }
 
+    /**
+     * Sets the maximum number of asynchronous executions running in parallel, the others will wait
+     * in the queue
+     * 
+     * @param maxAsynchronousProcesses
+     */
+    public void setMaxAsynchronousProcesses(int maxAsynchronousProcesses) {
+        asynchronousQueue.setMaxRunning(maxAsynchronousProcesses);
+    }
+
+    /**
+     * Sets the maximum number of asynchronous executions a single user can have running in
+     * parallel, zero or negative means no limit
+     * 
+     * @param maxAsynchronousProcessesPerUser
+     */
+    public void setMaxAsynchronousProcessesPerUser(int maxAsynchronousProcessesPerUser) {
+        asynchronousQueue.setMaxRunningPerUser(maxAsynchronousProcessesPerUser);
+    }
+
+    /**
+     * Sets the maximum number of asynchronous executions of the same process running in
+     * parallel, zero or negative means no limit
+     * 
+     * @param maxAsynchronousProcessesPerProcess
+     */
+    public void setMaxAsynchronousProcessesPerProcess(int maxAsynchronousProcessesPerProcess) {
+        asynchronousQueue.setMaxRunningPerProcess(maxAsynchronousProcessesPerProcess);
+    }
+
+    /**
+     * Sets the queue priority of the asynchronous executions, by process name (e.g.,
+     * <code>gs:Bounds</code>). Higher values are dispatched first, processes not in the map get a
+     * zero priority
+     * 
+     * @param processPriorities
+     */
+    public void setProcessPriorities(Map<String, Integer> processPriorities) {
+        if (processPriorities == null) {
+            this.processPriorities = Collections.emptyMap();
+        } else {
+            this.processPriorities = new HashMap<String, Integer>(processPriorities);
+        }
+    }
+
+    /**
+     * Sets the store used to persist the asynchronous executions, if null executions won't
+     * survive a restart
+     * 
+     * @param queueStore
+     */
+    public void setQueueStore(ExecutionQueueStore queueStore) {
+        this.queueStore = queueStore;
+    }
+
+    /**
+     * Sets the cache used to avoid re-running synchronous executions of deterministic processes,
+     * if null no caching will be performed
+     * 
+     * @param resultCache
+     */
+    public void setResultCache(ProcessResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public ProcessResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public ExecutionQueue getAsynchronousQueue() {
+        return asynchronousQueue;
+    }
+
+    /**
+     * Returns the per process queue wait, run time and result size statistics of the
+     * asynchronous executions
+     * 
+     * @return
+     */
+    public ExecutionStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext context) throws BeansException {
         this.applicationContext = context;
@@ -221,10 +473,17 @@ public class WPSExecutionManager implements ApplicationContextAware,
     @Override
     public void onApplicationEvent(ApplicationEvent event) {
         if (event instanceof ContextRefreshedEvent) {
-            if (storedResponseWriters == null) {
-                storedResponseWriters = Executors.newCachedThreadPool();
-            } else if (event instanceof ContextClosedEvent) {
-                storedResponseWriters.shutdownNow();
+            synchronized (this) {
+                if (!queueRecovered) {
+                    queueRecovered = true;
+                    recoverQueuedExecutions();
+                }
+            }
+        } else if (event instanceof ContextClosedEvent) {
+            // the executions still in the store will be resumed on restart
+            asynchronousQueue.shutdown();
+            if (queueStore != null) {
+                queueStore.dispose();
             }
         }
     }
@@ -249,6 +508,12 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
         private float processWeight;
 
+        volatile boolean queued = true;
+
+        CacheKey cacheKey;
+
+        Map<String, Object> cachedOutputs;
+
         public AsynchronousProcessContext(ExecuteRequest request, String executionId,
                 LazyInputMap inputs, ProcessManager processManager,
                 ApplicationContext applicationContext) {
@@ -282,6 +547,10 @@ public class WPSExecutionManager implements ApplicationContextAware,
         }
 
         ExecutionStatus getOverallStatus() {
+            if (queued) {
+                return new ExecutionStatus(request.getProcessName(), executionId,
+                        ProcessState.QUEUED, 0f);
+            }
             ExecutionStatus inner = processManager.getStatus(executionId);
             // the process already completed?
             if (inner == null || inner.phase == ProcessState.COMPLETED) {
@@ -322,19 +591,44 @@ public class WPSExecutionManager implements ApplicationContextAware,
             return responseBuilder.build();
         }
 
-        public void writeResponseFile() {
+        /**
+         * Waits for the process to complete and writes out the stored response
+         * 
+         * @return true if the process completed successfully, false otherwise
+         */
+        public boolean writeResponseFile() {
+            ExecuteResponseBuilder responseBuilder = new ExecuteResponseBuilder(
+                    request.getRequest(), applicationContext, started);
+            responseBuilder.setExecutionId(executionId);
+            boolean success = true;
             try {
                 resourceManager.setCurrentExecutionId(executionId);
-                ExecuteResponseBuilder responseBuilder = new ExecuteResponseBuilder(
-                        request.getRequest(), applicationContext, started);
-                responseBuilder.setExecutionId(executionId);
-                try {
-                    Map<String, Object> outputs = processManager.getOutput(executionId, -1);
-                    responseBuilder.setOutputs(outputs);
-                } catch (Exception exception) {
-                    LOGGER.log(Level.SEVERE, "Request failed during execution", exception);
-                    responseBuilder.setException(exception);
-                }
+                Map<String, Object> outputs = processManager.getOutput(executionId, -1);
+                responseBuilder.setOutputs(outputs);
+            } catch (Exception exception) {
+                LOGGER.log(Level.SEVERE, "Request failed during execution", exception);
+                responseBuilder.setException(exception);
+                success = false;
+            }
+            return writeResponseFile(responseBuilder, success);
+        }
+
+        /**
+         * Writes out a stored response reporting the specified failure
+         * 
+         * @param exception
+         */
+        public void writeFailedResponse(Exception exception) {
+            queued = false;
+            ExecuteResponseBuilder responseBuilder = new ExecuteResponseBuilder(
+                    request.getRequest(), applicationContext, started);
+            responseBuilder.setExecutionId(executionId);
+            responseBuilder.setException(exception);
+            writeResponseFile(responseBuilder, false);
+        }
+
+        boolean writeResponseFile(ExecuteResponseBuilder responseBuilder, boolean success) {
+            try {
 
                 // write to a temp file (as that might take time) and only when done switch to the
                 // actual output file
@@ -345,6 +639,7 @@ public class WPSExecutionManager implements ApplicationContextAware,
                     // maybe it was an exception during output encoding, try to write out
                     // the error if possible
                     LOGGER.log(Level.SEVERE, "Request failed during output encoding", e);
+                    success = false;
                     responseBuilder.setException(e);
                     writeOutResponse(responseBuilder, output);
                 }
@@ -353,10 +648,11 @@ public class WPSExecutionManager implements ApplicationContextAware,
                 LOGGER.log(Level.SEVERE,
                         "Failed to write out the stored WPS response for executionId "
                                 + executionId, e);
-
+                success = false;
             } finally {
                 contexts.remove(executionId);
             }
+            return success;
         }
 
         void writeOutResponse(ExecuteResponseBuilder responseBuilder, File output)
@@ -0,0 +1,382 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Computes the tiles of the rasters produced by WPS processes on a bounded pool of threads, so
+ * that large raster outputs (e.g., georectification or coverage algebra results, which are computed
+ * lazily tile by tile) are not computed on the single thread that encodes them.
+ * <p>
+ * {@link #prefetch(RenderedImage)} wraps an image so that, as its consumer moves along the tiles in
+ * row major order, the tiles ahead of it are computed in parallel. The memory budget is shared by
+ * all the prefetching images, once it is used up the tiles are computed on the consumer thread.
+ * The consumer should dispose the returned image once done (or when giving up), so that the tiles
+ * still pending are cancelled.
+ * </p>
+ */
+public class RasterTileScheduler implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(RasterTileScheduler.class);
+
+    /**
+     * Max number of tiles waiting for a thread, past it the tiles are computed on the consumer
+     * thread
+     */
+    static final int MAX_QUEUED_TILES = 1024;
+
+    int threads;
+
+    long memoryBudget;
+
+    /**
+     * Memory held by the tiles scheduled and not yet consumed, across all prefetching images
+     */
+    long memoryUsed;
+
+    ThreadPoolExecutor executor;
+
+    public RasterTileScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), 64 * 1024 * 1024);
+    }
+
+    public RasterTileScheduler(int threads, long memoryBudget) {
+        this.threads = Math.max(1, threads);
+        this.memoryBudget = memoryBudget;
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_TILES), new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "wps-tile-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the number of threads computing tiles in parallel
+     *
+     * @param threads
+     */
+    public synchronized void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        if (this.threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(this.threads);
+            executor.setCorePoolSize(this.threads);
+        } else {
+            executor.setCorePoolSize(this.threads);
+            executor.setMaximumPoolSize(this.threads);
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the amount of memory, in bytes, shared by all the prefetching images to hold the tiles
+     * computed ahead of their consumers
+     *
+     * @param memoryBudget
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Reserves memory for a tile to be computed ahead of the consumer, returns false if the budget
+     * is used up
+     */
+    synchronized boolean reserve(long tileSize) {
+        if (memoryUsed + tileSize > memoryBudget) {
+            return false;
+        }
+        memoryUsed += tileSize;
+        return true;
+    }
+
+    synchronized void release(long tileSize) {
+        memoryUsed -= tileSize;
+    }
+
+    synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * Wraps the image so that its tiles get computed in parallel ahead of the consumer
+     *
+     * @param image
+     * @return
+     */
+    public RenderedImage prefetch(RenderedImage image) {
+        if (threads <= 1 || image.getNumXTiles() * image.getNumYTiles() <= 1
+                || image instanceof PrefetchingImage) {
+            return image;
+        }
+        return new PrefetchingImage(image);
+    }
+
+    /**
+     * Returns a coverage whose image tiles get computed in parallel ahead of the consumer
+     *
+     * @param coverage
+     * @return
+     */
+    public GridCoverage2D prefetch(GridCoverage2D coverage) {
+        RenderedImage image = coverage.getRenderedImage();
+        RenderedImage prefetching = prefetch(image);
+        if (prefetching == image) {
+            return coverage;
+        }
+        return new GridCoverageFactory().create(coverage.getName().toString(), prefetching,
+                coverage.getEnvelope(), coverage.getSampleDimensions(), null,
+                coverage.getProperties());
+    }
+
+    /**
+     * Cancels the tiles still pending for a coverage returned by {@link #prefetch(GridCoverage2D)},
+     * leaving the wrapped image alone. Does nothing if the coverage is not a prefetching one.
+     *
+     * @param coverage
+     */
+    public void dispose(GridCoverage2D coverage) {
+        RenderedImage image = coverage.getRenderedImage();
+        if (image instanceof PrefetchingImage) {
+            ((PrefetchingImage) image).dispose();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * An image wrapper computing the tiles ahead of the last requested one in parallel. Tiles are
+     * expected to be requested roughly in row major order, each tile is released once returned,
+     * along with the ones in the rows above the current one, the ones requested again or out of
+     * order are computed on the calling thread. Disposing the image, or interrupting the consumer
+     * thread, cancels the tiles still pending.
+     */
+    class PrefetchingImage extends PlanarImage {
+
+        RenderedImage theImage;
+
+        int tileCount;
+
+        int window;
+
+        long tileSize;
+
+        int next;
+
+        TreeMap<Integer, Future<Raster>> scheduled = new TreeMap<Integer, Future<Raster>>();
+
+        boolean disposed;
+
+        public PrefetchingImage(RenderedImage image) {
+            super(new ImageLayout(image), null, null);
+            this.theImage = image;
+            this.tileCount = getNumXTiles() * getNumYTiles();
+            this.tileSize = Math.max(1, (long) getTileWidth() * getTileHeight()
+                    * getSampleModel().getNumBands()
+                    * DataBuffer.getDataTypeSize(getSampleModel().getDataType()) / 8);
+            long budgetTiles = memoryBudget / tileSize;
+            this.window = (int) Math.max(threads, Math.min(tileCount, budgetTiles));
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            int col = tileX - getMinTileX();
+            int row = tileY - getMinTileY();
+            if (col < 0 || row < 0 || col >= getNumXTiles() || row >= getNumYTiles()) {
+                return theImage.getTile(tileX, tileY);
+            }
+
+            int index = row * getNumXTiles() + col;
+            Future<Raster> future;
+            synchronized (this) {
+                if (disposed) {
+                    throw new IllegalStateException("The image has been disposed");
+                }
+                // the consumer moved past the previous rows, release their tiles
+                int rowStart = row * getNumXTiles();
+                for (Iterator<Future<Raster>> it = scheduled.headMap(rowStart).values()
+                        .iterator(); it.hasNext();) {
+                    it.next().cancel(false);
+                    it.remove();
+                    release(tileSize);
+                }
+                if (index > next) {
+                    next = index;
+                }
+                while (next < tileCount && next < index + window && reserve(tileSize)) {
+                    Future<Raster> scheduledTile = schedule(next);
+                    if (scheduledTile == null) {
+                        release(tileSize);
+                        break;
+                    }
+                    scheduled.put(next, scheduledTile);
+                    next++;
+                }
+                future = scheduled.get(index);
+            }
+
+            if (future == null) {
+                return theImage.getTile(tileX, tileY);
+            }
+            try {
+                Raster tile = future.get();
+                consumed(index, future);
+                return tile;
+            } catch (InterruptedException e) {
+                // the request got aborted, no point computing the tiles ahead
+                dispose();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while computing tile " + tileX + ", "
+                        + tileY, e);
+            } catch (CancellationException e) {
+                throw new IllegalStateException("The image has been disposed", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException("Failed to compute tile " + tileX + ", " + tileY,
+                        e.getCause());
+            }
+        }
+
+        /**
+         * Schedules the computation of a tile, returns null if the queue of the pool is full
+         */
+        Future<Raster> schedule(int index) {
+            final int tileX = getMinTileX() + index % getNumXTiles();
+            final int tileY = getMinTileY() + index / getNumXTiles();
+            try {
+                return executor.submit(new Callable<Raster>() {
+
+                    @Override
+                    public Raster call() throws Exception {
+                        return theImage.getTile(tileX, tileY);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.FINE, "Tile queue full, computing tiles on the consumer thread",
+                        e);
+                return null;
+            }
+        }
+
+        /**
+         * Releases a tile once returned to the consumer
+         */
+        synchronized void consumed(int index, Future<Raster> future) {
+            if (scheduled.get(index) == future) {
+                scheduled.remove(index);
+                release(tileSize);
+            }
+        }
+
+        /**
+         * Assembles the data out of the (prefetched) tiles, instead of delegating to the wrapped
+         * image
+         */
+        @Override
+        public Raster getData(Rectangle region) {
+            Rectangle bounds = getBounds();
+            if (region == null) {
+                region = bounds;
+            } else if (!region.intersects(bounds)) {
+                throw new IllegalArgumentException("The region does not intersect the image");
+            } else {
+                region = region.intersection(bounds);
+            }
+
+            SampleModel sm = getSampleModel().createCompatibleSampleModel(region.width,
+                    region.height);
+            WritableRaster result = Raster.createWritableRaster(sm, region.getLocation());
+            int minTileX = XToTileX(region.x);
+            int maxTileX = XToTileX(region.x + region.width - 1);
+            int minTileY = YToTileY(region.y);
+            int maxTileY = YToTileY(region.y + region.height - 1);
+            for (int ty = minTileY; ty <= maxTileY; ty++) {
+                for (int tx = minTileX; tx <= maxTileX; tx++) {
+                    Raster tile = getTile(tx, ty);
+                    Rectangle overlap = tile.getBounds().intersection(region);
+                    if (!overlap.isEmpty()) {
+                        result.setRect(tile.createChild(overlap.x, overlap.y, overlap.width,
+                                overlap.height, overlap.x, overlap.y, null));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(getBounds());
+        }
+
+        /**
+         * Cancels the tiles scheduled and not yet consumed
+         */
+        @Override
+        public synchronized void dispose() {
+            disposed = true;
+            for (Future<Raster> future : scheduled.values()) {
+                future.cancel(true);
+                release(tileSize);
+            }
+            scheduled.clear();
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return theImage.getProperty(name);
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return theImage.getPropertyNames();
+        }
+    }
+}
@@ -45,10 +45,21 @@ public class StoreCoverage implements GSProcess {
 
     WPSStorageCleaner storage;
 
+    RasterTileScheduler tileScheduler;
+
     public StoreCoverage(WPSStorageCleaner storage) {
         this.storage = storage;
     }
 
+    /**
+     * Sets the scheduler used to compute the coverage tiles in parallel while writing them out
+     * 
+     * @param tileScheduler
+     */
+    public void setTileScheduler(RasterTileScheduler tileScheduler) {
+        this.tileScheduler = tileScheduler;
+    }
+
     @DescribeResult(name = "coverageLocation", description = "URL at which raster can be accessed")
     public URL execute(
             @DescribeParameter(name = "coverage", description = "Input raster") GridCoverage2D coverage)
@@ -64,6 +75,9 @@ public class StoreCoverage implements GSProcess {
                 DEFAULT_WRITE_PARAMS);
         final GeneralParameterValue[] wps = (GeneralParameterValue[]) params.values().toArray(
                 new GeneralParameterValue[1]);
+        if (tileScheduler != null) {
+            coverage = tileScheduler.prefetch(coverage);
+        }
         try {
             writer.write(coverage, wps);
         } finally {
@@ -72,6 +86,9 @@ public class StoreCoverage implements GSProcess {
             } catch (Exception e) {
                 // we tried, no need to fuss around this one
             }
+            if (tileScheduler != null) {
+                tileScheduler.dispose(coverage);
+            }
         }
 
         return storage.getURL(file);
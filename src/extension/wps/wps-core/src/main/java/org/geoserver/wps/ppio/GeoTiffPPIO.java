@@ -6,7 +6,6 @@ package org.geoserver.wps.ppio;
 
 import java.awt.Dimension;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,7 +15,9 @@ import javax.imageio.ImageIO;
 import javax.media.jai.JAI;
 
 import org.apache.commons.io.IOUtils;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wps.WPSException;
+import org.geoserver.wps.gs.RasterTileScheduler;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridCoverageWriter;
@@ -93,7 +94,6 @@ public class GeoTiffPPIO extends BinaryPPIO {
             File file = new File((String) fileSource);
             if(file.exists()) {
                 GeoTiffReader reader = null;
-                FileInputStream fis = null;
                 try {
                     // geotiff reader won't read unreferenced tiffs unless we tell it to
                     if(unreferenced) {
@@ -107,9 +107,8 @@ public class GeoTiffPPIO extends BinaryPPIO {
                         reader = new GeoTiffReader(file);
                         reader.read(null);
                     }
-                    // ooh, a geotiff already!
-                    fis = new FileInputStream(file);
-                    IOUtils.copyLarge(fis, os);
+                    // ooh, a geotiff already! Transfer it over without copying it in memory
+                    org.geoserver.data.util.IOUtils.copy(file, os);
                     return;
                 } catch(Exception e) {
                     // ok, not a geotiff!
@@ -117,44 +116,51 @@ public class GeoTiffPPIO extends BinaryPPIO {
                     if(reader != null) {
                         reader.dispose();
                     } 
-                    if(fis != null) {
-                        fis.close();
-                    }
                 }
             }
         }
 
-        // ok, encode in geotiff
-        if(unreferenced) {
-            new ImageWorker(coverage.getRenderedImage()).writeTIFF(os, "LZW", 0.75f, 256, 256);
-        } else {
-            GeoTiffFormat format = new GeoTiffFormat();
-            final GeoTiffFormat wformat = new GeoTiffFormat();
-            final GeoTiffWriteParams wp = new GeoTiffWriteParams();
-            wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
-            wp.setCompressionType("LZW");
-            wp.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
-            wp.setTiling(256, 256);
-            final ParameterValueGroup wparams = wformat.getWriteParameters();
-            wparams.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString())
-                    .setValue(wp);
+        // ok, encode in geotiff, computing the tiles in parallel if they are still to be computed
+        RasterTileScheduler scheduler = GeoServerExtensions.bean(RasterTileScheduler.class);
+        if (scheduler != null) {
+            coverage = scheduler.prefetch(coverage);
+        }
+        try {
+            if(unreferenced) {
+                new ImageWorker(coverage.getRenderedImage()).writeTIFF(os, "LZW", 0.75f, 256, 256);
+            } else {
+                GeoTiffFormat format = new GeoTiffFormat();
+                final GeoTiffFormat wformat = new GeoTiffFormat();
+                final GeoTiffWriteParams wp = new GeoTiffWriteParams();
+                wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
+                wp.setCompressionType("LZW");
+                wp.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+                wp.setTiling(256, 256);
+                final ParameterValueGroup wparams = wformat.getWriteParameters();
+                wparams.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString())
+                        .setValue(wp);
             
-            final GeneralParameterValue[] wps = (GeneralParameterValue[]) wparams.values().toArray(
-                    new GeneralParameterValue[1]);
-            // write out the coverage
-            AbstractGridCoverageWriter writer = (AbstractGridCoverageWriter) format.getWriter(os);
-            if (writer == null)
-                throw new WPSException(
-                        "Could not find the GeoTIFF writer, please check it's in the classpath");
-            try {
-                writer.write(coverage, wps);
-            } finally {
+                final GeneralParameterValue[] wps = (GeneralParameterValue[]) wparams.values().toArray(
+                        new GeneralParameterValue[1]);
+                // write out the coverage
+                AbstractGridCoverageWriter writer = (AbstractGridCoverageWriter) format.getWriter(os);
+                if (writer == null)
+                    throw new WPSException(
+                            "Could not find the GeoTIFF writer, please check it's in the classpath");
                 try {
-                    writer.dispose();
-                } catch (Exception e) {
-                    // swallow
+                    writer.write(coverage, wps);
+                } finally {
+                    try {
+                        writer.dispose();
+                    } catch (Exception e) {
+                        // swallow
+                    }
                 }
             }
+        } finally {
+            if (scheduler != null) {
+                scheduler.dispose(coverage);
+            }
         }
     }
     
@@ -96,6 +96,17 @@ public class WPSResourceManager implements DispatcherCallback,
         return id;
     }
 
+    /**
+     * Registers an execution id generated in a previous run, used when resuming asynchronous
+     * executions that were queued before a restart
+     *
+     * @param executionId
+     * @param synch
+     */
+    public void registerExecutionId(String executionId, boolean synch) {
+        resourceCache.putIfAbsent(executionId, new ExecutionResources(synch));
+    }
+
     /**
      * ProcessManagers should call this method every time they are running the process in a thread
      * other than the request thread, and that is not a child of it either (typical case is running
@@ -6,11 +6,10 @@
 package org.geoserver.wps.response;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.apache.commons.io.IOUtils;
+import org.geoserver.data.util.IOUtils;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.wps.GetExecutionResultType;
@@ -78,14 +77,12 @@ public class StoredFileResponse extends Response {
 
     public void write(Object value, OutputStream output, Operation operation) throws IOException {
         File file = (File) value;
-        FileInputStream fos = null;
         try {
             cleaner.lock(file);
-            fos = new FileInputStream(file);
-            IOUtils.copy(fos, output);
+            // let the file channel push the bytes out, no intermediate buffers
+            IOUtils.copy(file, output);
         } finally {
             cleaner.unlock(file);
-            IOUtils.closeQuietly(fos);
         }
 
     }
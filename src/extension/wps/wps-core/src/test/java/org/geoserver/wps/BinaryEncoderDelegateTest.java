@@ -0,0 +1,83 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.geoserver.wps.ppio.BinaryPPIO;
+import org.junit.Test;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class BinaryEncoderDelegateTest {
+
+    @Test
+    public void testChunkedEncoding() throws Exception {
+        // odd size, spanning several chunks and requiring padding at the end
+        byte[] data = new byte[100 * 1024 + 7];
+        new Random(0).nextBytes(data);
+
+        CollectingHandler handler = new CollectingHandler();
+        new BinaryEncoderDelegate(new BytesPPIO(), data).encode(handler);
+
+        assertTrue(handler.calls > 1);
+        assertEquals(new String(Base64.encodeBase64(data)), handler.result.toString());
+        assertArrayEquals(data, Base64.decodeBase64(handler.result.toString().getBytes()));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        new BinaryEncoderDelegate(new BytesPPIO(), new byte[0]).encode(handler);
+        assertEquals("", handler.result.toString());
+    }
+
+    static class CollectingHandler extends DefaultHandler {
+        StringBuilder result = new StringBuilder();
+
+        int calls;
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            calls++;
+            result.append(ch, start, length);
+        }
+    }
+
+    static class BytesPPIO extends BinaryPPIO {
+
+        protected BytesPPIO() {
+            super(byte[].class, byte[].class, "application/octet-stream");
+        }
+
+        @Override
+        public Object decode(InputStream input) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void encode(Object value, OutputStream os) throws Exception {
+            byte[] bytes = (byte[]) value;
+            // write in uneven pieces to exercise the buffering
+            int offset = 0;
+            int piece = 1;
+            while (offset < bytes.length) {
+                int len = Math.min(piece, bytes.length - offset);
+                os.write(bytes, offset, len);
+                offset += len;
+                piece = piece * 3 + 1;
+            }
+        }
+
+        @Override
+        public String getFileExtension() {
+            return "bin";
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.cache;
+
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.opengis.ows11.CodeType;
+import net.opengis.ows11.Ows11Factory;
+import net.opengis.wps10.ExecuteType;
+import net.opengis.wps10.Wps10Factory;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.security.impl.GeoServerRole;
+import org.geoserver.wps.cache.ProcessResultCache.CacheKey;
+import org.geoserver.wps.executor.ExecuteRequest;
+import org.geotools.feature.NameImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.type.Name;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class ProcessResultCacheTest {
+
+    static final Name BOUNDS = new NameImpl("gs", "Bounds");
+
+    File storage;
+
+    ProcessResultCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = File.createTempFile("wps-cache", "tmp", new File("target"));
+        storage.delete();
+        storage.mkdir();
+        Catalog catalog = createNiceMock(Catalog.class);
+        replay(catalog);
+        cache = new ProcessResultCache(catalog, storage);
+        cache.setCachedProcesses(Arrays.asList("gs:Bounds"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SecurityContextHolder.clearContext();
+        FileUtils.deleteDirectory(storage);
+    }
+
+    @Test
+    public void testHitMiss() throws Exception {
+        CacheKey key = key("abc", "topp:states");
+        assertNull(cache.get(key));
+        cache.put(key, outputs("result", "value"));
+
+        Map<String, Object> cached = cache.get(key);
+        assertEquals("value", cached.get("result"));
+        // each hit gets its own copy
+        assertNotSame(cached, cache.get(key));
+
+        assertEquals(2, cache.getStatistics(BOUNDS).getHits());
+        assertEquals(1, cache.getStatistics(BOUNDS).getMisses());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        CacheKey states = key("abc", "topp:states");
+        CacheKey roads = key("def", "sf:roads");
+        cache.put(states, outputs("result", "states"));
+        cache.put(roads, outputs("result", "roads"));
+
+        cache.invalidate("topp:states");
+        assertNull(cache.get(states));
+        assertNotNull(cache.get(roads));
+
+        // a key built before the invalidation cannot be used to store stale results
+        cache.put(states, outputs("result", "states"));
+        assertNull(cache.get(states));
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        cache.setMaxMemorySize(1024);
+        CacheKey first = key("first");
+        CacheKey second = key("second");
+        cache.put(first, outputs("result", new byte[800]));
+        cache.put(second, outputs("result", new byte[800]));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.getDiskSize() > 0);
+        assertEquals(1, storage.list().length);
+        assertEquals(800, ((byte[]) cache.get(first).get("result")).length);
+        assertEquals(800, ((byte[]) cache.get(second).get("result")).length);
+
+        cache.setMaxDiskSize(0);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, storage.list().length);
+    }
+
+    @Test
+    public void testNotSerializable() throws Exception {
+        CacheKey key = key("abc");
+        cache.put(key, outputs("result", new Object()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testKeyDependsOnUser() throws Exception {
+        ExecuteType execute = Wps10Factory.eINSTANCE.createExecuteType();
+        CodeType identifier = Ows11Factory.eINSTANCE.createCodeType();
+        identifier.setValue("gs:Bounds");
+        execute.setIdentifier(identifier);
+        ExecuteRequest request = new ExecuteRequest(execute);
+
+        login("joe", "ROLE_READER");
+        CacheKey joe = cache.getKey(request);
+        cache.put(joe, outputs("result", "joe"));
+        assertEquals(joe.digest, cache.getKey(request).digest);
+
+        // another user, or the same user with other roles, gets another key
+        login("bob", "ROLE_READER");
+        assertFalse(joe.digest.equals(cache.getKey(request).digest));
+        assertNull(cache.get(cache.getKey(request)));
+        login("joe", "ROLE_ADMINISTRATOR");
+        assertFalse(joe.digest.equals(cache.getKey(request).digest));
+        SecurityContextHolder.clearContext();
+        assertFalse(joe.digest.equals(cache.getKey(request).digest));
+    }
+
+    void login(String user, String... roles) {
+        List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        for (String role : roles) {
+            authorities.add(new GeoServerRole(role));
+        }
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, authorities));
+    }
+
+    CacheKey key(String digest, String... layers) {
+        return cache.new CacheKey(BOUNDS, digest, new TreeSet<String>(Arrays.asList(layers)));
+    }
+
+    Map<String, Object> outputs(String name, Object value) {
+        return new HashMap<String, Object>(Collections.singletonMap(name, value));
+    }
+}
@@ -0,0 +1,196 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wps.executor.ExecutionQueue.QueuedExecution;
+import org.geotools.feature.NameImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.type.Name;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class ExecutionQueueTest {
+
+    static final Name BUFFER = new NameImpl("gs", "Buffer");
+
+    static final Name BOUNDS = new NameImpl("gs", "Bounds");
+
+    ExecutionQueue queue;
+
+    List<String> executed;
+
+    CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        queue = new ExecutionQueue(1);
+        executed = new CopyOnWriteArrayList<String>();
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        CountDownLatch done = new CountDownLatch(4);
+        queue.submit(new BlockingExecution("blocker", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("low", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("high", BUFFER, null, 10, done));
+        queue.submit(new TestExecution("low2", BUFFER, null, 0, done));
+        assertEquals(3, queue.getQueuedCount());
+        assertTrue(queue.isQueued("high"));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("blocker", executed.get(0));
+        assertEquals("high", executed.get(1));
+        assertEquals("low", executed.get(2));
+        assertEquals("low2", executed.get(3));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        CountDownLatch done = new CountDownLatch(2);
+        queue.submit(new BlockingExecution("blocker", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("removed", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("kept", BUFFER, null, 0, done));
+        assertTrue(queue.remove("removed"));
+        assertFalse(queue.remove("blocker"));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, executed.size());
+        assertFalse(executed.contains("removed"));
+    }
+
+    @Test
+    public void testProcessLimit() throws Exception {
+        queue.setMaxRunning(2);
+        queue.setMaxRunningPerProcess(1);
+        CountDownLatch done = new CountDownLatch(3);
+        queue.submit(new BlockingExecution("buffer1", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("buffer2", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("bounds", BOUNDS, null, 0, done));
+
+        // the second buffer has to wait, but it does not block the bounds one
+        waitForExecution("bounds");
+        assertTrue(queue.isQueued("buffer2"));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("buffer2", executed.get(executed.size() - 1));
+    }
+
+    @Test
+    public void testUserLimit() throws Exception {
+        queue.setMaxRunning(2);
+        queue.setMaxRunningPerUser(1);
+        CountDownLatch done = new CountDownLatch(3);
+        queue.submit(new BlockingExecution("joe1", BUFFER, "joe", 0, done));
+        queue.submit(new TestExecution("joe2", BOUNDS, "joe", 0, done));
+        queue.submit(new TestExecution("anonymous", BOUNDS, null, 0, done));
+
+        waitForExecution("anonymous");
+        assertTrue(queue.isQueued("joe2"));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("joe2", executed.get(executed.size() - 1));
+    }
+
+    @Test
+    public void testShutdownWhileRunning() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        queue.submit(new BlockingExecution("blocker", BUFFER, null, 0, done));
+        queue.submit(new TestExecution("queued", BUFFER, null, 0, done));
+        waitForExecution("blocker");
+
+        // interrupts the blocker, whose completion must not try to dispatch the queued one
+        queue.shutdown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, queue.getRunningCount());
+        assertTrue(queue.isQueued("queued"));
+        assertFalse(executed.contains("queued"));
+    }
+
+    @Test
+    public void testRunsWithSubmitterAuthentication() throws Exception {
+        final Authentication auth = new UsernamePasswordAuthenticationToken("joe", null,
+                new ArrayList<GrantedAuthority>());
+        final List<Authentication> seen = new CopyOnWriteArrayList<Authentication>();
+        final CountDownLatch done = new CountDownLatch(1);
+        queue.submit(new QueuedExecution("secured", BUFFER, "joe", 0,
+                System.currentTimeMillis(), auth) {
+
+            @Override
+            protected void run() {
+                seen.add(SecurityContextHolder.getContext().getAuthentication());
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertSame(auth, seen.get(0));
+    }
+
+    void waitForExecution(String executionId) throws InterruptedException {
+        for (int i = 0; i < 100 && !executed.contains(executionId); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(executed.contains(executionId));
+    }
+
+    class TestExecution extends QueuedExecution {
+
+        CountDownLatch done;
+
+        public TestExecution(String executionId, Name processName, String user, int priority,
+                CountDownLatch done) {
+            super(executionId, processName, user, priority, System.currentTimeMillis());
+            this.done = done;
+        }
+
+        @Override
+        protected void run() {
+            executed.add(executionId);
+            done.countDown();
+        }
+    }
+
+    class BlockingExecution extends TestExecution {
+
+        public BlockingExecution(String executionId, Name processName, String user,
+                int priority, CountDownLatch done) {
+            super(executionId, processName, user, priority, done);
+        }
+
+        @Override
+        protected void run() {
+            executed.add(executionId);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // fine, we're done anyways
+            }
+            done.countDown();
+        }
+    }
+}
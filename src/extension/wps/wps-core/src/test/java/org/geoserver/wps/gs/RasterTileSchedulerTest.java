@@ -0,0 +1,159 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RasterTileSchedulerTest {
+
+    RasterTileScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new RasterTileScheduler(4, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.destroy();
+    }
+
+    @Test
+    public void testPrefetchSameData() throws Exception {
+        TiledImage source = createImage(1000, 700, 128);
+        RenderedImage prefetching = scheduler.prefetch(source);
+        assertNotSame(source, prefetching);
+
+        // read by tiles, in row major order
+        for (int ty = 0; ty < source.getNumYTiles(); ty++) {
+            for (int tx = 0; tx < source.getNumXTiles(); tx++) {
+                assertSameData(source.getTile(tx, ty), prefetching.getTile(tx, ty));
+            }
+        }
+
+        // read by strips not aligned with the tiles, and out of order
+        for (int y = 600; y >= 0; y -= 100) {
+            Rectangle strip = new Rectangle(0, y, 1000, 100);
+            assertSameData(source.getData(strip), prefetching.getData(strip));
+        }
+    }
+
+    @Test
+    public void testSingleTileNotWrapped() throws Exception {
+        TiledImage source = createImage(100, 100, 128);
+        assertSame(source, scheduler.prefetch(source));
+    }
+
+    @Test
+    public void testDisposeCancelsPending() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch interrupted = new CountDownLatch(2);
+        final CountDownLatch never = new CountDownLatch(1);
+        TiledImage source = createImage(1000, 700, 128);
+        // all tiles but the first one hang until interrupted
+        RenderedImage slow = new TiledImage(source, true) {
+            @Override
+            public Raster getTile(int tileX, int tileY) {
+                if (tileX != 0 || tileY != 0) {
+                    started.countDown();
+                    try {
+                        never.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+                return super.getTile(tileX, tileY);
+            }
+        };
+        RasterTileScheduler.PrefetchingImage prefetching;
+        prefetching = (RasterTileScheduler.PrefetchingImage) scheduler.prefetch(slow);
+        prefetching.getTile(0, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        prefetching.dispose();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(prefetching.scheduled.isEmpty());
+        try {
+            prefetching.getTile(1, 0);
+            fail("Should have failed, the image is disposed");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testConsumedTilesReleased() throws Exception {
+        TiledImage source = createImage(1000, 700, 128);
+        RasterTileScheduler.PrefetchingImage prefetching;
+        prefetching = (RasterTileScheduler.PrefetchingImage) scheduler.prefetch(source);
+        for (int tx = 0; tx < source.getNumXTiles(); tx++) {
+            prefetching.getTile(tx, 0);
+            assertFalse(prefetching.scheduled.containsKey(tx));
+        }
+        prefetching.dispose();
+        assertEquals(0, scheduler.getMemoryUsed());
+    }
+
+    @Test
+    public void testBudgetSharedAcrossImages() throws Exception {
+        // 64KB tiles, the 1MB budget holds 16 of them
+        TiledImage source = createImage(1000, 700, 128);
+        RasterTileScheduler.PrefetchingImage first;
+        first = (RasterTileScheduler.PrefetchingImage) scheduler.prefetch(source);
+        RasterTileScheduler.PrefetchingImage second;
+        second = (RasterTileScheduler.PrefetchingImage) scheduler.prefetch(source);
+        first.getTile(0, 0);
+        second.getTile(0, 0);
+        assertTrue(first.scheduled.size() + second.scheduled.size() <= 16);
+        assertTrue(scheduler.getMemoryUsed() <= scheduler.getMemoryBudget());
+
+        // the second image still returns the right data once the budget is used up
+        for (int ty = 0; ty < source.getNumYTiles(); ty++) {
+            for (int tx = 0; tx < source.getNumXTiles(); tx++) {
+                assertSameData(source.getTile(tx, ty), second.getTile(tx, ty));
+            }
+        }
+        first.dispose();
+        second.dispose();
+        assertEquals(0, scheduler.getMemoryUsed());
+    }
+
+    TiledImage createImage(int width, int height, int tileSize) {
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_INT,
+                tileSize, tileSize, 1);
+        TiledImage image = new TiledImage(0, 0, width, height, 0, 0, sm, null);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setSample(x, y, 0, x * 31 + y);
+            }
+        }
+        return image;
+    }
+
+    void assertSameData(Raster expected, Raster actual) {
+        assertEquals(expected.getBounds(), actual.getBounds());
+        Rectangle bounds = expected.getBounds();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                assertEquals(expected.getSample(x, y, 0), actual.getSample(x, y, 0));
+            }
+        }
+    }
+}
@@ -16,14 +16,18 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -42,15 +46,19 @@ import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.xml.GML2OutputFormat;
 import org.geoserver.wfs.xslt.config.TransformInfo;
 import org.geoserver.wfs.xslt.config.TransformRepository;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.gml.producer.FeatureTransformer;
+import org.geotools.xml.transform.TransformerBase.XMLReaderSupport;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.xml.sax.InputSource;
 
 /**
  * Output format based on XLST transformations
@@ -62,7 +70,24 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
 
     static Map<String, String> formats = new ConcurrentHashMap<String, String>();
 
-    ExecutorService executor = Executors.newCachedThreadPool();
+    /**
+     * System/environment variable controlling how many source output formats can run in parallel
+     */
+    public static final String XSLT_THREADS = "XSLT_THREADS";
+
+    /**
+     * Size of the pipe buffer between the source output format and the transformation, the
+     * default 1KB used by {@link PipedInputStream} would force a thread switch every few features
+     */
+    static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * How long, in seconds, the request waits for the source output format to terminate once the
+     * transformation is over
+     */
+    static final long SOURCE_TIMEOUT = 60;
+
+    ThreadPoolExecutor executor;
 
     private TransformRepository repository;
 
@@ -73,6 +98,46 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
         // we register new formats
         super(gs, formats.keySet());
         this.repository = repository;
+        this.executor = buildExecutor(getThreadCount());
+    }
+
+    /**
+     * Returns the number of threads used to run the source output formats, by default twice the
+     * number of available processors
+     */
+    static int getThreadCount() {
+        int threads = 2 * Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty(XSLT_THREADS);
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + XSLT_THREADS + ": " + value
+                        + ", using " + threads + " threads instead");
+            }
+        }
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Builds the executor running the source output formats. The pool is bounded, requests in
+     * excess are queued, and the request thread waits on the pipe until its source gets to run,
+     * so that a burst of XSLT requests cannot spawn an unbounded number of encoding threads
+     */
+    static ThreadPoolExecutor buildExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "XSLTSourceEncoder-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
     
     @Override
@@ -190,8 +255,25 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
 
         }
 
+        // the GML2 encoder is itself a transformer, its SAX events can be fed straight into
+        // the transformation without going through an intermediate document
+        if (sourceResponse.getClass() == GML2OutputFormat.class) {
+            GetFeatureRequest request = GetFeatureRequest.adapt(sourceOperation.getParameters()[0]);
+            FeatureTransformer source = ((GML2OutputFormat) sourceResponse).createTransformer(
+                    featureCollection, request);
+            XMLReaderSupport reader = new XMLReaderSupport(source,
+                    GML2OutputFormat.getSource(featureCollection));
+            try {
+                transformer.transform(new SAXSource(reader, new InputSource()), new StreamResult(
+                        output));
+            } catch (TransformerException e) {
+                throw new WFSException("Failed to run the the XSTL transformation", e);
+            }
+            return;
+        }
+
         // prepare the stream connections, so that we can do the transformation on the fly
-        PipedInputStream pis = new PipedInputStream();
+        PipedInputStream pis = new PipedInputStream(PIPE_SIZE);
         final PipedOutputStream pos = new PipedOutputStream(pis);
 
         // submit the source output format execution, tracking exceptions
@@ -217,12 +299,24 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
         } catch (TransformerException e) {
             transformerException = e;
         } finally {
+            // closing the reader side makes a source still writing fail instead of blocking
             pis.close();
         }
+        if (transformerException != null) {
+            // the source output is not needed anymore, stop it if still queued or running
+            future.cancel(true);
+        }
 
-        // now handle exceptions, starting from the source
+        // now handle exceptions, starting from the source. The transformation consumed or
+        // dropped its input already, so the source is done or about to fail on the closed pipe
         try {
-            future.get();
+            if (!future.isCancelled()) {
+                future.get(SOURCE_TIMEOUT, TimeUnit.SECONDS);
+            }
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new WFSException("The output format generating the source for the XSTL "
+                    + "transformation did not terminate in " + SOURCE_TIMEOUT + " seconds", e);
         } catch (Exception e) {
             throw new WFSException(
                     "Failed to run the output format generating the source for the XSTL transformation",
@@ -9,6 +9,7 @@ import static org.junit.Assert.*;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.commons.io.FileUtils;
 import org.custommonkey.xmlunit.XMLAssert;
@@ -166,6 +167,44 @@ public class GetFeatureXSLTTest extends WFSTestSupport {
         checkOws10Exception(d, ServiceException.INVALID_PARAMETER_VALUE, "typeName");
     }
     
+    @Test
+    public void testSingleThreadPool() throws Exception {
+        // the bounded pool must not stall subsequent requests once a source is done
+        XSLTOutputFormat format = applicationContext.getBean(XSLTOutputFormat.class);
+        ThreadPoolExecutor original = format.executor;
+        format.executor = XSLTOutputFormat.buildExecutor(1);
+        try {
+            for (int i = 0; i < 5; i++) {
+                Document d = getAsDOM("wfs?request=GetFeature&typename="
+                        + getLayerId(MockData.BUILDINGS)
+                        + "&version=1.0.0&service=wfs&outputFormat=text/html; subtype=xslt");
+                XMLAssert.assertXpathEvaluatesTo("2", "count(//h2)", d);
+            }
+            assertTrue(format.executor.getLargestPoolSize() <= 1);
+        } finally {
+            format.executor.shutdown();
+            format.executor = original;
+        }
+    }
+
+    @Test
+    public void testGML2SourceNotPiped() throws Exception {
+        // the GML2 source is fed to the transformation as SAX events, in the request thread
+        XSLTOutputFormat format = applicationContext.getBean(XSLTOutputFormat.class);
+        ThreadPoolExecutor original = format.executor;
+        format.executor = XSLTOutputFormat.buildExecutor(1);
+        try {
+            Document d = getAsDOM("wfs?request=GetFeature&typename="
+                    + getLayerId(MockData.BUILDINGS)
+                    + "&version=1.0.0&service=wfs&outputFormat=text/html; subtype=xslt");
+            XMLAssert.assertXpathEvaluatesTo("2", "count(//h2)", d);
+            assertEquals(0, format.executor.getTaskCount());
+        } finally {
+            format.executor.shutdown();
+            format.executor = original;
+        }
+    }
+
     @Test
     public void testNoOutputFormats() throws Exception {
         // clean up the config
@@ -21,6 +21,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -168,6 +169,8 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
     private final Catalog rawCatalog;
 
     private ConfigurableLockProvider lockProvider;
+
+    private SeedingThrottle seedingThrottle;
     
     private DefaultStorageFinder storageFinder;
 
@@ -1849,6 +1852,37 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return lockProvider;
     }
 
+    /**
+     * The throttle the seeding threads go through before rendering a meta tile, or {@code null}
+     * if seeding is not throttled
+     */
+    public SeedingThrottle getSeedingThrottle() {
+        return seedingThrottle;
+    }
+
+    public void setSeedingThrottle(SeedingThrottle seedingThrottle) {
+        this.seedingThrottle = seedingThrottle;
+    }
+
+    /**
+     * Returns the progress of the running and pending seed/reseed/truncate tasks, aggregated by
+     * layer name
+     */
+    public Map<String, SeedingProgress> getSeedingProgress() {
+        Map<String, SeedingProgress> progress = new TreeMap<String, SeedingProgress>();
+        Iterator<GWCTask> tasks = tileBreeder.getRunningAndPendingTasks();
+        while (tasks.hasNext()) {
+            GWCTask task = tasks.next();
+            SeedingProgress layerProgress = progress.get(task.getLayerName());
+            if (layerProgress == null) {
+                layerProgress = new SeedingProgress(task.getLayerName());
+                progress.put(task.getLayerName(), layerProgress);
+            }
+            layerProgress.add(task.getTilesDone(), task.getTilesTotal(), task.getTimeSpent());
+        }
+        return progress;
+    }
+
     public JDBCConfiguration getJDBCDiskQuotaConfig() throws IOException, org.geowebcache.config.ConfigurationException {
         File configFile = new File(storageFinder.getDefaultPath(), "geowebcache-diskquota-jdbc.xml");
         if (!configFile.exists()) {
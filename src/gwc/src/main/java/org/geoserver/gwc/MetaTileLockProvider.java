@@ -0,0 +1,198 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.locks.LockProvider;
+
+/**
+ * An in-process {@link LockProvider} optimized for the meta tile rendering done by
+ * {@link org.geoserver.gwc.layer.GeoServerTileLayer}, suitable for stand alone usage.
+ * <p>
+ * Locks are striped {@link ReentrantLock}s, so no lock objects are allocated per key. In addition,
+ * the holder of a lock can {@link #attach(String, Object) attach} a result to the lock key, e.g.,
+ * the tiles just encoded out of a meta tile: the threads that were waiting on the same lock can
+ * pick it up with {@link #getAttachment(String)} right after acquiring the lock, instead of looking
+ * up the tiles in the blob store again. Attachments are dropped as soon as no thread is waiting on
+ * the lock stripe anymore.
+ * </p>
+ * <p>
+ * The provider also keeps statistics about how long threads waited for the locks and how many
+ * renderings were avoided thanks to the attachments.
+ * </p>
+ */
+public class MetaTileLockProvider implements LockProvider {
+
+    static final Logger LOGGER = Logging.getLogger(MetaTileLockProvider.class);
+
+    static final int DEFAULT_STRIPES = 1024;
+
+    final Stripe[] stripes;
+
+    final AtomicLong acquisitions = new AtomicLong();
+
+    final AtomicLong contended = new AtomicLong();
+
+    final AtomicLong waitTime = new AtomicLong();
+
+    final AtomicLong maxWaitTime = new AtomicLong();
+
+    final AtomicLong attachmentHits = new AtomicLong();
+
+    public MetaTileLockProvider() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public MetaTileLockProvider(int stripeCount) {
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the {@link MetaTileLockProvider} the specified provider is, or delegates to, or
+     * {@code null} if the provider is of a different type
+     *
+     * @param provider
+     * @return
+     */
+    public static MetaTileLockProvider unwrap(LockProvider provider) {
+        if (provider instanceof ConfigurableLockProvider) {
+            provider = ((ConfigurableLockProvider) provider).getDelegate();
+        }
+        return provider instanceof MetaTileLockProvider ? (MetaTileLockProvider) provider : null;
+    }
+
+    Stripe stripe(String lockKey) {
+        // spread the hash bits, as the keys differ only by a few chars
+        int h = lockKey.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[(h & 0x7FFFFFFF) % stripes.length];
+    }
+
+    @Override
+    public Lock getLock(final String lockKey) throws GeoWebCacheException {
+        final Stripe stripe = stripe(lockKey);
+        acquisitions.incrementAndGet();
+        if (!stripe.lock.tryLock()) {
+            contended.incrementAndGet();
+            long start = System.nanoTime();
+            stripe.lock.lock();
+            long waited = System.nanoTime() - start;
+            waitTime.addAndGet(waited);
+            long max;
+            while ((max = maxWaitTime.get()) < waited && !maxWaitTime.compareAndSet(max, waited)) {
+                // retry
+            }
+        }
+
+        return new Lock() {
+
+            boolean released;
+
+            public void release() throws GeoWebCacheException {
+                if (released) {
+                    return;
+                }
+                released = true;
+                // nobody is going to pick up the attachments anymore
+                if (!stripe.lock.hasQueuedThreads() && stripe.lock.getHoldCount() == 1) {
+                    stripe.attachments.clear();
+                }
+                stripe.lock.unlock();
+            }
+        };
+    }
+
+    /**
+     * Attaches a value to the lock key, for the benefit of the threads waiting on it. The calling
+     * thread must hold the lock
+     *
+     * @param lockKey
+     * @param value
+     */
+    public void attach(String lockKey, Object value) {
+        Stripe stripe = stripe(lockKey);
+        if (!stripe.lock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("The lock for " + lockKey
+                    + " is not held by the current thread");
+        }
+        stripe.attachments.put(lockKey, value);
+    }
+
+    /**
+     * Returns the value attached to the lock key by a previous holder of the lock, if any. The
+     * calling thread must hold the lock
+     *
+     * @param lockKey
+     * @return
+     */
+    public Object getAttachment(String lockKey) {
+        Stripe stripe = stripe(lockKey);
+        if (!stripe.lock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("The lock for " + lockKey
+                    + " is not held by the current thread");
+        }
+        Object value = stripe.attachments.get(lockKey);
+        if (value != null) {
+            attachmentHits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * The number of locks acquired so far
+     */
+    public long getAcquisitionCount() {
+        return acquisitions.get();
+    }
+
+    /**
+     * The number of lock acquisitions that had to wait for another thread
+     */
+    public long getContendedCount() {
+        return contended.get();
+    }
+
+    /**
+     * The total time spent waiting for locks, in milliseconds
+     */
+    public long getTotalWaitTime() {
+        return waitTime.get() / 1000000;
+    }
+
+    /**
+     * The longest time spent waiting for a lock, in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get() / 1000000;
+    }
+
+    /**
+     * The number of times a thread found the results of a previous lock holder attached to the
+     * lock, that is, the number of renderings and blob store lookups avoided
+     */
+    public long getAvoidedRenderCount() {
+        return attachmentHits.get();
+    }
+
+    static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Only accessed by the lock holder
+         */
+        final Map<String, Object> attachments = new HashMap<String, Object>();
+    }
+}
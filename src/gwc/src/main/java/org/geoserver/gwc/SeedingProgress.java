@@ -0,0 +1,87 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+/**
+ * The progress of the seed/reseed/truncate tasks running on a layer, see
+ * {@link GWC#getSeedingProgress()}
+ */
+public class SeedingProgress {
+
+    final String layerName;
+
+    long tilesDone;
+
+    long tilesTotal;
+
+    long timeSpent;
+
+    int tasks;
+
+    SeedingProgress(String layerName) {
+        this.layerName = layerName;
+    }
+
+    /**
+     * Adds up the progress of a task
+     *
+     * @param tilesDone
+     * @param tilesTotal
+     * @param timeSpent the task running time, in seconds
+     */
+    void add(long tilesDone, long tilesTotal, long timeSpent) {
+        tasks++;
+        this.tilesDone += Math.max(0, tilesDone);
+        this.tilesTotal += Math.max(0, tilesTotal);
+        // the tasks run in parallel
+        this.timeSpent = Math.max(this.timeSpent, timeSpent);
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    /**
+     * The number of tasks working on the layer
+     */
+    public int getTaskCount() {
+        return tasks;
+    }
+
+    public long getTilesDone() {
+        return tilesDone;
+    }
+
+    public long getTilesTotal() {
+        return tilesTotal;
+    }
+
+    /**
+     * The number of tiles processed per second
+     */
+    public double getTilesPerSecond() {
+        if (timeSpent <= 0) {
+            return 0;
+        }
+        return tilesDone / (double) timeSpent;
+    }
+
+    /**
+     * The estimated number of seconds left to complete the tasks, or -1 if not known yet
+     */
+    public long getEstimatedTimeRemaining() {
+        double rate = getTilesPerSecond();
+        if (rate <= 0 || tilesTotal <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(0, tilesTotal - tilesDone) / rate);
+    }
+
+    @Override
+    public String toString() {
+        return "SeedingProgress[" + layerName + ": " + tilesDone + "/" + tilesTotal + " tiles, "
+                + getTilesPerSecond() + " tiles/s, ETA " + getEstimatedTimeRemaining() + "s]";
+    }
+}
@@ -0,0 +1,376 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Gives live requests priority over seeding, and adapts the number of meta tiles seeded in parallel
+ * to the server conditions.
+ * <p>
+ * As a {@link org.geoserver.ows.DispatcherCallback} the throttle keeps track of the live OWS
+ * requests being executed. The seeding threads of GWC have to call {@link #beginSeeding()} before
+ * seeding a meta tile and {@link #endSeeding()} afterwards: a seeding thread is let through
+ * only when the live requests leave at least one processor free, and the number of seeding threads
+ * rendering is below the current seeding concurrency.
+ * </p>
+ * <p>
+ * The seeding concurrency is adjusted with an additive increase, multiplicative decrease scheme:
+ * it is halved when the meta tile render time of a layer grows well above its baseline, or when the
+ * system load exceeds the number of processors, and it is increased by one otherwise. The baseline
+ * is tracked per layer, follows the average render time down immediately and drifts back up
+ * slowly, so that an unusually fast meta tile (e.g., an empty one) does not throttle seeding for
+ * good.
+ * </p>
+ * <p>
+ * The throttle is enabled by default, set the {@value #GWC_SEEDING_THROTTLE} system or
+ * environment variable to {@code false} to disable it.
+ * </p>
+ */
+public class SeedingThrottle extends AbstractDispatcherCallback {
+
+    static final Logger LOGGER = Logging.getLogger(SeedingThrottle.class);
+
+    /**
+     * Marks the threads currently seeding, so that the requests they issue to the dispatcher are
+     * not counted as live ones
+     */
+    static final ThreadLocal<Boolean> SEEDING = new ThreadLocal<Boolean>();
+
+    /**
+     * The nesting level of the dispatcher calls in the current thread, a live request can trigger
+     * nested dispatches (e.g., a tile cache miss rendering the meta tile)
+     */
+    static final ThreadLocal<Integer> DEPTH = new ThreadLocal<Integer>();
+
+    /**
+     * The time it took the current seeding thread to render its meta tile, not set if the tiles
+     * were already cached
+     */
+    static final ThreadLocal<RenderSample> RENDER_TIME = new ThreadLocal<RenderSample>();
+
+    /**
+     * System/environment variable disabling the throttle when set to false
+     */
+    public static final String GWC_SEEDING_THROTTLE = "GWC_SEEDING_THROTTLE";
+
+    /**
+     * How quickly the baseline render time of a layer moves up towards the average one
+     */
+    static final double BASELINE_DRIFT = 0.05;
+
+    /**
+     * Max time a seeding thread waits before re-checking the conditions, protects against lost
+     * signals and lets the load average be re-sampled
+     */
+    static final long MAX_WAIT_MS = 1000;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final Condition changed = lock.newCondition();
+
+    final int processors;
+
+    int maxConcurrency;
+
+    int concurrency;
+
+    int liveRequests;
+
+    int seeding;
+
+    /**
+     * Exponentially weighted moving average of the meta tile render time, in milliseconds
+     */
+    double averageRenderTime = -1;
+
+    /**
+     * The render time statistics of each layer, guarded by the lock
+     */
+    Map<String, LayerStats> layerStats = new HashMap<String, LayerStats>();
+
+    boolean enabled;
+
+    long seededMetaTiles;
+
+    long waitTime;
+
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    public SeedingThrottle() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SeedingThrottle(int processors) {
+        this.processors = Math.max(1, processors);
+        this.maxConcurrency = this.processors;
+        this.concurrency = this.processors;
+        this.enabled = !"false".equalsIgnoreCase(GeoServerExtensions
+                .getProperty(GWC_SEEDING_THROTTLE));
+    }
+
+    /**
+     * Enables or disables the throttle, when disabled seeding threads are let through right away
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the max number of meta tiles seeded in parallel, defaults to the number of processors
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        lock.lock();
+        try {
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+            this.concurrency = Math.min(concurrency, this.maxConcurrency);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    // -----------------------------------------------------------------
+    // DispatcherCallback methods
+    // -----------------------------------------------------------------
+
+    @Override
+    public Request init(Request request) {
+        Integer depth = DEPTH.get();
+        DEPTH.set(depth == null ? 1 : depth + 1);
+        if (depth == null && !Boolean.TRUE.equals(SEEDING.get())) {
+            lock.lock();
+            try {
+                liveRequests++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return request;
+    }
+
+    @Override
+    public void finished(Request request) {
+        Integer depth = DEPTH.get();
+        if (depth == null) {
+            return;
+        }
+        if (depth > 1) {
+            DEPTH.set(depth - 1);
+            return;
+        }
+        DEPTH.remove();
+        if (!Boolean.TRUE.equals(SEEDING.get())) {
+            lock.lock();
+            try {
+                liveRequests--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------
+    // Seeding gate
+    // -----------------------------------------------------------------
+
+    /**
+     * Waits until the current thread is allowed to seed a meta tile, returns right away if the
+     * throttle is disabled
+     *
+     * @throws InterruptedException
+     */
+    public void beginSeeding() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            while (enabled && (liveRequests >= processors || seeding >= concurrency)) {
+                changed.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+                if (seeding < concurrency && liveRequests < processors) {
+                    break;
+                }
+                // re-sample the load, it might have gone down
+                adjustForLoad();
+            }
+            seeding++;
+            waitTime += System.currentTimeMillis() - start;
+        } finally {
+            lock.unlock();
+        }
+        SEEDING.set(Boolean.TRUE);
+    }
+
+    /**
+     * Records the time it took to render the meta tile being seeded by the current thread, from
+     * the start of the rendering to the tiles being stored (waits for locks excluded). Does
+     * nothing if the current thread is not seeding
+     *
+     * @param layer the name of the layer being seeded
+     * @param renderTime the render time, in milliseconds
+     */
+    public static void rendered(String layer, long renderTime) {
+        if (Boolean.TRUE.equals(SEEDING.get())) {
+            RENDER_TIME.set(new RenderSample(layer, renderTime));
+        }
+    }
+
+    /**
+     * Signals the current thread is done seeding a meta tile
+     */
+    public void endSeeding() {
+        RenderSample sample = RENDER_TIME.get();
+        RENDER_TIME.remove();
+        SEEDING.remove();
+        lock.lock();
+        try {
+            seeding--;
+            if (sample != null) {
+                seededMetaTiles++;
+                adjustForLatency(sample.layer, sample.renderTime);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjusts the concurrency based on the meta tile render time. Must be called holding the lock
+     */
+    void adjustForLatency(String layer, long renderTime) {
+        averageRenderTime = average(averageRenderTime, renderTime);
+
+        LayerStats stats = layerStats.get(layer);
+        if (stats == null) {
+            stats = new LayerStats();
+            layerStats.put(layer, stats);
+        }
+        stats.average = average(stats.average, renderTime);
+        if (stats.baseline < 0 || stats.average < stats.baseline) {
+            stats.baseline = stats.average;
+        } else {
+            stats.baseline += (stats.average - stats.baseline) * BASELINE_DRIFT;
+        }
+
+        if (stats.average > stats.baseline * 2 || isOverloaded()) {
+            decrease();
+        } else if (concurrency < maxConcurrency) {
+            concurrency++;
+        }
+    }
+
+    static double average(double average, long value) {
+        return average < 0 ? value : average * 0.8 + value * 0.2;
+    }
+
+    /**
+     * Halves the concurrency if the system is overloaded. Must be called holding the lock
+     */
+    void adjustForLoad() {
+        if (isOverloaded()) {
+            decrease();
+        }
+    }
+
+    void decrease() {
+        int previous = concurrency;
+        concurrency = Math.max(1, concurrency / 2);
+        if (previous != concurrency && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Reducing seeding concurrency to " + concurrency);
+        }
+    }
+
+    boolean isOverloaded() {
+        double load = os.getSystemLoadAverage();
+        // negative if not available on the platform
+        return load > processors;
+    }
+
+    /**
+     * The number of live requests currently executing
+     */
+    public int getLiveRequests() {
+        return liveRequests;
+    }
+
+    /**
+     * The number of threads currently seeding
+     */
+    public int getSeedingThreads() {
+        return seeding;
+    }
+
+    /**
+     * The current max number of meta tiles seeded in parallel
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * The moving average of the meta tile render time, in milliseconds
+     */
+    public double getAverageRenderTime() {
+        return averageRenderTime;
+    }
+
+    /**
+     * The number of meta tiles seeded so far
+     */
+    public long getSeededMetaTiles() {
+        return seededMetaTiles;
+    }
+
+    /**
+     * The total time seeding threads waited for live requests or the concurrency limit, in
+     * milliseconds
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    static class RenderSample {
+        final String layer;
+
+        final long renderTime;
+
+        RenderSample(String layer, long renderTime) {
+            this.layer = layer;
+            this.renderTime = renderTime;
+        }
+    }
+
+    /**
+     * Exponentially weighted moving average of the meta tile render time of a layer, and the
+     * baseline it's compared to, in milliseconds
+     */
+    static class LayerStats {
+        double average = -1;
+
+        double baseline = -1;
+    }
+}
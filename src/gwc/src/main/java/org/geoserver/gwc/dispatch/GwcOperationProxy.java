@@ -30,6 +30,23 @@ public class GwcOperationProxy {
         this.responseHeaders = headers;
     }
 
+    /**
+     * Creates a proxy for a response that has already been written to the client
+     * 
+     * @param contentType
+     */
+    public GwcOperationProxy(final String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return {@code true} if the contents and headers have already been sent to the client, and
+     *         there is nothing left to write
+     */
+    public boolean isCommitted() {
+        return responseContent == null;
+    }
+
     public String getMimeType() {
         return contentType;
     }
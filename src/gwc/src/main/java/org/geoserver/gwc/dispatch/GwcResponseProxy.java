@@ -35,6 +35,9 @@ public class GwcResponseProxy extends Response {
     @Override
     public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
         GwcOperationProxy op = (GwcOperationProxy) value;
+        if (op.isCommitted()) {
+            return null;
+        }
         Map<String, String> responseHeaders = op.getResponseHeaders();
         if (responseHeaders == null || responseHeaders.size() == 0) {
             return null;
@@ -54,6 +57,10 @@ public class GwcResponseProxy extends Response {
             ServiceException {
 
         GwcOperationProxy op = (GwcOperationProxy) value;
+        if (op.isCommitted()) {
+            // streamed directly by GWC
+            return;
+        }
         byte[] contents = op.getContents();
         output.write(contents);
     }
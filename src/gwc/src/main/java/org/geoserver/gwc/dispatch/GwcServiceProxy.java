@@ -4,10 +4,11 @@
  */
 package org.geoserver.gwc.dispatch;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -21,6 +22,7 @@ import org.geoserver.ows.DisabledServiceCheck;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Response;
 import org.geotools.util.Version;
+import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheDispatcher;
 import org.geowebcache.GeoWebCacheExtensions;
 
@@ -34,6 +36,8 @@ import com.google.common.collect.ImmutableList;
  */
 public class GwcServiceProxy {
 
+    static final Logger LOGGER = Logging.getLogger(GwcServiceProxy.class);
+
     private final ServiceInfoImpl serviceInfo;
 
     private final GeoWebCacheDispatcher gwcDispatcher;
@@ -84,13 +88,27 @@ public class GwcServiceProxy {
 
         ResponseWrapper responseWrapper = new ResponseWrapper(rawRespose);
 
-        gwcDispatcher.handleRequest(rawRequest, responseWrapper);
+        try {
+            gwcDispatcher.handleRequest(rawRequest, responseWrapper);
+        } catch (Exception e) {
+            if (!responseWrapper.out.isStreaming()) {
+                throw e;
+            }
+            // part of the response already reached the client, a service exception cannot be
+            // reported anymore, the client will get a body shorter than the declared length
+            LOGGER.log(Level.SEVERE, "Failed to complete the response to "
+                    + rawRequest.getRequestURI(), e);
+            return new GwcOperationProxy(responseWrapper.getContentType());
+        }
 
         final String contentType = responseWrapper.getContentType();
+        if (responseWrapper.out.isStreaming()) {
+            // headers and contents have already been sent straight to the client
+            return new GwcOperationProxy(contentType);
+        }
         final Map<String, String> headers = responseWrapper.getHeaders();
-        final byte[] bytes = responseWrapper.out.getBytes();
 
-        return new GwcOperationProxy(contentType, headers, bytes);
+        return new GwcOperationProxy(contentType, headers, new byte[0]);
     }
 
     /**
@@ -99,7 +117,7 @@ public class GwcServiceProxy {
      */
     private final class ResponseWrapper extends HttpServletResponseWrapper {
 
-        final BufferedServletOutputStream out = new BufferedServletOutputStream();
+        final StreamingServletOutputStream out = new StreamingServletOutputStream(this);
         Map<String, String> headers = new LinkedHashMap<String, String>();
 
         private ResponseWrapper(HttpServletResponse response) {
@@ -113,30 +131,72 @@ public class GwcServiceProxy {
         
         @Override
         public void setHeader(String name, String value) {
-            headers.put(name, value);
+            if (out.isStreaming()) {
+                super.setHeader(name, value);
+            } else {
+                headers.put(name, value);
+            }
         }
 
         public Map<String, String> getHeaders() {
             return headers;
         }
+
+        /**
+         * Sends the headers collected so far to the wrapped response
+         */
+        void commitHeaders() {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                super.setHeader(entry.getKey(), entry.getValue());
+            }
+            headers.clear();
+        }
     }
 
-    private static class BufferedServletOutputStream extends ServletOutputStream {
+    /**
+     * Writes straight to the wrapped response output stream, sending the collected headers before
+     * the first byte. This way tiles served by GWC (which, for file based blob stores, transfers
+     * them with {@link java.nio.channels.FileChannel#transferTo}) are not copied in memory
+     */
+    private static class StreamingServletOutputStream extends ServletOutputStream {
+
+        final ResponseWrapper response;
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(4096);
+        ServletOutputStream delegate;
+
+        StreamingServletOutputStream(ResponseWrapper response) {
+            this.response = response;
+        }
+
+        boolean isStreaming() {
+            return delegate != null;
+        }
+
+        ServletOutputStream delegate() throws IOException {
+            if (delegate == null) {
+                response.commitHeaders();
+                delegate = response.getResponse().getOutputStream();
+            }
+            return delegate;
+        }
 
         @Override
         public void write(int b) throws IOException {
-            outputStream.write(b);
+            delegate().write(b);
         }
 
         @Override
         public void write(byte b[], int off, int len) throws IOException {
-            outputStream.write(b, off, len);
+            if (len > 0) {
+                delegate().write(b, off, len);
+            }
         }
 
-        public byte[] getBytes() {
-            return outputStream.toByteArray();
+        @Override
+        public void flush() throws IOException {
+            if (delegate != null) {
+                delegate.flush();
+            }
         }
     }
 }
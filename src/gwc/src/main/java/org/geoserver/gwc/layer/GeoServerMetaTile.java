@@ -11,8 +11,12 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
@@ -37,6 +41,11 @@ public class GeoServerMetaTile extends MetaTile {
 
     private RenderedImageMap metaTileMap;
 
+    /**
+     * The encoded tiles, by tile index, if {@link #setKeepEncodedTiles(boolean) requested}
+     */
+    private byte[][] encodedTiles;
+
     public GeoServerMetaTile(GridSubset gridSubset, MimeType responseFormat,
             FormatModifier formatModifier, long[] tileGridPosition, int metaX, int metaY,
             Integer gutter) {
@@ -44,6 +53,35 @@ public class GeoServerMetaTile extends MetaTile {
         super(gridSubset, responseFormat, formatModifier, tileGridPosition, metaX, metaY, gutter);
     }
 
+    /**
+     * Makes the meta tile keep a copy of the tiles it encodes, so that they can be handed over to
+     * the requests waiting for the same meta tile
+     * 
+     * @param keep
+     */
+    public void setKeepEncodedTiles(boolean keep) {
+        this.encodedTiles = keep ? new byte[tiles.length][] : null;
+    }
+
+    /**
+     * Returns the tiles encoded so far, keyed by {@code Arrays.toString(tileIndex)}, or an empty
+     * map if {@link #setKeepEncodedTiles(boolean)} was not called
+     * 
+     * @return
+     */
+    public Map<String, byte[]> getEncodedTiles() {
+        Map<String, byte[]> result = new HashMap<String, byte[]>();
+        if (encodedTiles != null) {
+            long[][] tileIndexes = getTilesGridPositions();
+            for (int i = 0; i < encodedTiles.length; i++) {
+                if (encodedTiles[i] != null) {
+                    result.put(Arrays.toString(tileIndexes[i]), encodedTiles[i]);
+                }
+            }
+        }
+        return result;
+    }
+
     public void setWebMap(RenderedImageMap webMap) {
         this.metaTileMap = webMap;
         setImage(webMap.getImage());
@@ -108,7 +146,14 @@ public class GeoServerMetaTile extends MetaTile {
             // call formatImageOuputStream instead of write to avoid disposition of rendered images
             // when processing a tile from a metatile and instead defer it to this class' dispose()
             // method
-            mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
+            if (encodedTiles != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                mapEncoder.formatImageOutputStream(tile, bytes, tileContext);
+                encodedTiles[tileIdx] = bytes.toByteArray();
+                outStream.write(encodedTiles[tileIdx]);
+            } else {
+                mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
+            }
             return true;
         } finally {
             outStream.close();
@@ -31,6 +31,8 @@ import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.MetaTileLockProvider;
+import org.geoserver.gwc.SeedingThrottle;
 import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
@@ -52,6 +54,7 @@ import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.OutsideCoverageException;
 import org.geowebcache.grid.SRS;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.LayerListenerList;
 import org.geowebcache.layer.MetaTile;
@@ -479,12 +482,21 @@ public class GeoServerTileLayer extends TileLayer {
         }
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
+        final LockProvider lockProvider = GWC.get().getLockProvider();
+        // if the lock provider supports it, hand over the tiles to the waiting requests
+        final MetaTileLockProvider coalescing = tryCache ? MetaTileLockProvider
+                .unwrap(lockProvider) : null;
+        final String lockKey = buildLockKey(tile, metaTile);
         Lock lock = null;
         try {
             /** ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
-            // got the lock on the meta tile, try again
-            if (tryCache && tryCacheFetch(tile)) {
+            lock = lockProvider.getLock(lockKey);
+            // got the lock on the meta tile, check if the previous holder rendered our tile
+            if (coalescing != null && tryRenderedTiles(tile, coalescing.getAttachment(lockKey))) {
+                LOGGER.finest("--> " + Thread.currentThread().getName()
+                        + " returns tile rendered by another request for "
+                        + Arrays.toString(metaTile.getMetaGridPos()));
+            } else if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest("--> " + Thread.currentThread().getName() + " returns cache hit for "
                         + Arrays.toString(metaTile.getMetaGridPos()));
             } else {
@@ -493,11 +505,22 @@ public class GeoServerTileLayer extends TileLayer {
                         + Arrays.toString(metaTile.getMetaGridPos()) + " on " + metaTile);
                 RenderedImageMap map;
                 try {
+                    // the lock is held at this point, only the rendering gets timed
+                    long renderStart = System.nanoTime();
                     long requestTime = System.currentTimeMillis();
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
+                    if (coalescing != null) {
+                        metaTile.setKeepEncodedTiles(true);
+                    }
                     saveTiles(metaTile, tile, requestTime);
+                    SeedingThrottle.rendered(getName(),
+                            (System.nanoTime() - renderStart) / 1000000);
+                    if (coalescing != null) {
+                        coalescing.attach(lockKey,
+                                new RenderedTiles(requestTime, metaTile.getEncodedTiles()));
+                    }
                 } catch (Exception e) {
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
                 } 
@@ -514,6 +537,38 @@ public class GeoServerTileLayer extends TileLayer {
         return finalizeTile(tile);
     }
     
+    /**
+     * Sets up the tile contents out of the tiles rendered by the previous holder of the meta tile
+     * lock, if available
+     */
+    private boolean tryRenderedTiles(ConveyorTile tile, Object attachment) {
+        if (!(attachment instanceof RenderedTiles)) {
+            return false;
+        }
+        RenderedTiles rendered = (RenderedTiles) attachment;
+        byte[] contents = rendered.tiles.get(Arrays.toString(tile.getTileIndex()));
+        if (contents == null) {
+            return false;
+        }
+        tile.setBlob(new ByteArrayResource(contents));
+        tile.getStorageObject().setCreated(rendered.created);
+        return true;
+    }
+
+    /**
+     * The tiles encoded out of a meta tile, attached to the meta tile lock
+     */
+    private static class RenderedTiles {
+        final long created;
+
+        final Map<String, byte[]> tiles;
+
+        RenderedTiles(long created, Map<String, byte[]> tiles) {
+            this.created = created;
+            this.tiles = tiles;
+        }
+    }
+
     private String buildLockKey(ConveyorTile tile, GeoServerMetaTile metaTile) {
         StringBuilder metaKey = new StringBuilder();
         
@@ -688,7 +743,24 @@ public class GeoServerTileLayer extends TileLayer {
         if (!tile.getMimeType().supportsTiling()) {
             metaX = metaY = 1;
         }
-        getMetatilingReponse(tile, tryCache, metaX, metaY);
+
+        // let live requests go first, and don't overload the server
+        final SeedingThrottle throttle = GWC.get().getSeedingThrottle();
+        if (throttle == null) {
+            getMetatilingReponse(tile, tryCache, metaX, metaY);
+            return;
+        }
+        try {
+            throttle.beginSeeding();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException("Interrupted while waiting to seed " + tile);
+        }
+        try {
+            getMetatilingReponse(tile, tryCache, metaX, metaY);
+        } finally {
+            throttle.endSeeding();
+        }
     }
 
     /**
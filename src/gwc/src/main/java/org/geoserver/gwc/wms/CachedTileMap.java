@@ -0,0 +1,40 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.wms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import org.geoserver.wms.map.RawMap;
+import org.geoserver.wms.map.RawMapResponse;
+import org.geowebcache.io.Resource;
+
+/**
+ * A {@link RawMap} serving a cached tile straight from the GWC blob store {@link Resource}, without
+ * loading it in memory first. For file based blob stores the resource transfers its contents with
+ * {@link java.nio.channels.FileChannel#transferTo}.
+ * <p>
+ * Being a {@link RawMap}, it's encoded by the {@link RawMapResponse}.
+ * </p>
+ */
+class CachedTileMap extends RawMap {
+
+    private final Resource tile;
+
+    public CachedTileMap(final Resource tile, final String mimeType) {
+        super(null, (byte[]) null, mimeType);
+        this.tile = tile;
+    }
+
+    public Resource getTile() {
+        return tile;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        tile.transferTo(Channels.newChannel(out));
+    }
+}
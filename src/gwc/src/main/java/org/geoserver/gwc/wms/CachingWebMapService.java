@@ -8,10 +8,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static org.geowebcache.conveyor.Conveyor.CacheResult.MISS;
 
-import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Method;
-import java.nio.channels.Channels;
-import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.logging.Level;
@@ -95,22 +92,23 @@ public class CachingWebMapService implements MethodInterceptor {
             LOGGER.finest("GetMap request intercepted, serving cached content: " + request);
         }
 
-        final byte[] tileBytes;
-        {
-            final Resource mapContents = cachedTile.getBlob();
-            if (mapContents instanceof ByteArrayResource) {
-                tileBytes = ((ByteArrayResource) mapContents).getContents();
-            } else {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                mapContents.transferTo(Channels.newChannel(out));
-                tileBytes = out.toByteArray();
-            }
+        final String mimeType = cachedTile.getMimeType().getMimeType();
+        final Resource mapContents = cachedTile.getBlob();
+        final RawMap map;
+        if (mapContents instanceof ByteArrayResource) {
+            // the tile is already in memory (e.g., it has just been rendered)
+            map = new RawMap(null, ((ByteArrayResource) mapContents).getContents(), mimeType);
+        } else {
+            // cache hit from the blob store, stream it out instead of loading it in memory
+            map = new CachedTileMap(mapContents, mimeType);
         }
+        // the etag is based on the tile metadata, the same whatever the path, so that the blob
+        // does not need to be read to compute it
+        final String etag = "\"" + Long.toHexString(cachedTile.getTSCreated()) + "-"
+                + Long.toHexString(mapContents.getSize()) + "\"";
 
         // Handle Etags
         final String ifNoneMatch = request.getHttpRequestHeader("If-None-Match");
-        final byte[] hash = MessageDigest.getInstance("MD5").digest(tileBytes);
-        final String etag = toHexString(hash);
         if (etag.equals(ifNoneMatch)) {
             // Client already has the current version
             LOGGER.finer("ETag matches, returning 304");
@@ -118,9 +116,6 @@ public class CachingWebMapService implements MethodInterceptor {
         }
 
         LOGGER.finer("No matching ETag, returning cached tile");
-        final String mimeType = cachedTile.getMimeType().getMimeType();
-
-        RawMap map = new RawMap(null, tileBytes, mimeType);
 
         map.setContentDispositionHeader(null, "." + cachedTile.getMimeType().getFileExtension(), false);
 
@@ -219,19 +214,4 @@ public class CachingWebMapService implements MethodInterceptor {
         final GetMapRequest request = (GetMapRequest) arguments[0];
         return request;
     }
-
-    private String toHexString(byte[] hash) {
-
-        StringBuilder sb = new StringBuilder();
-
-        for (int i = 0; i < hash.length; i += 4) {
-            int c1 = 0xFF & hash[i];
-            int c2 = 0xFF & hash[i + 1];
-            int c3 = 0xFF & hash[i + 2];
-            int c4 = 0xFF & hash[i + 3];
-            int integer = ((c1 << 24) + (c2 << 16) + (c3 << 8) + (c4 << 0));
-            sb.append(Integer.toHexString(integer));
-        }
-        return sb.toString();
-    }
 }
@@ -87,6 +87,22 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals("image/png", sr.getContentType());
     }
 
+    @Test
+    public void testServiceCacheHitStreamed() throws Exception {
+        String layerId = getLayerId(MockData.BASIC_POLYGONS);
+        String path = "gwc/service/wmts?request=GetTile&layer=" + layerId
+                + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=0";
+        MockHttpServletResponse sr = getAsServletResponse(path);
+        assertEquals(200, sr.getErrorCode());
+
+        // the cached tile is written straight to the client, along with the gwc headers
+        sr = getAsServletResponse(path);
+        assertEquals(200, sr.getErrorCode());
+        assertEquals("image/png", sr.getContentType());
+        assertEquals("HIT", sr.getHeader("geowebcache-cache-result"));
+        assertTrue(sr.getOutputStreamContent().length() > 0);
+    }
+
     /**
      * If direct WMS integration is enabled, a GetMap requests that hits the regular WMS but matches
      * a gwc tile should return with the proper {@code geowebcache-tile-index} HTTP response header.
@@ -172,6 +188,36 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getErrorCode());
     }
 
+    @Test public void testDirectWMSIntegrationETagSupport() throws Exception {
+        final GWC gwc = GWC.get();
+        gwc.getConfig().setDirectWMSIntegrationEnabled(true);
+
+        final String layerName = BASIC_POLYGONS.getPrefix() + ":" + BASIC_POLYGONS.getLocalPart();
+
+        final String path = buildGetMap(true, layerName, "EPSG:4326", null) + "&tiled=true";
+
+        // make sure the tile is cached, and then get it back from the blob store
+        MockHttpServletResponse response = getAsServletResponse(path);
+        assertEquals(200, response.getStatusCode());
+        response = getAsServletResponse(path);
+        assertEquals(200, response.getStatusCode());
+        assertEquals("HIT", response.getHeader("geowebcache-cache-result"));
+        assertTrue(response.getOutputStreamContent().length() > 0);
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+
+        MockHttpServletRequest httpReq = createRequest(path);
+        httpReq.setMethod("GET");
+        httpReq.setBodyContent(new byte[] {});
+        httpReq.setHeader("If-None-Match", etag);
+        response = dispatch(httpReq, "UTF-8");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getErrorCode());
+
+        httpReq.setHeader("If-None-Match", "foo");
+        response = dispatch(httpReq, "UTF-8");
+        assertEquals(HttpServletResponse.SC_OK, response.getErrorCode());
+    }
+
     @Test public void testDirectWMSIntegrationMaxAge() throws Exception {
         final GWC gwc = GWC.get();
         gwc.getConfig().setDirectWMSIntegrationEnabled(true);
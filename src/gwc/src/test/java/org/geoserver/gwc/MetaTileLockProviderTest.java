@@ -0,0 +1,102 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.geowebcache.locks.LockProvider.Lock;
+import org.geowebcache.locks.MemoryLockProvider;
+import org.junit.Test;
+
+public class MetaTileLockProviderTest {
+
+    @Test
+    public void testUnwrap() {
+        MetaTileLockProvider provider = new MetaTileLockProvider();
+        assertSame(provider, MetaTileLockProvider.unwrap(provider));
+
+        ConfigurableLockProvider configurable = new ConfigurableLockProvider();
+        configurable.setDelegate(provider);
+        assertSame(provider, MetaTileLockProvider.unwrap(configurable));
+
+        configurable.setDelegate(new MemoryLockProvider());
+        assertNull(MetaTileLockProvider.unwrap(configurable));
+    }
+
+    @Test
+    public void testAttachmentRequiresLock() throws Exception {
+        MetaTileLockProvider provider = new MetaTileLockProvider();
+        try {
+            provider.attach("key", "value");
+            fail("Should have failed, lock not held");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+
+        // uncontended, the attachment is dropped on release
+        Lock lock = provider.getLock("key");
+        provider.attach("key", "value");
+        assertEquals("value", provider.getAttachment("key"));
+        lock.release();
+
+        lock = provider.getLock("key");
+        assertNull(provider.getAttachment("key"));
+        lock.release();
+        assertEquals(1, provider.getAvoidedRenderCount());
+        assertEquals(2, provider.getAcquisitionCount());
+        assertEquals(0, provider.getContendedCount());
+    }
+
+    @Test
+    public void testWaiterGetsAttachment() throws Exception {
+        final MetaTileLockProvider provider = new MetaTileLockProvider();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Lock lock = provider.getLock("key");
+            final CountDownLatch started = new CountDownLatch(1);
+            Future<Object> waiter = executor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    started.countDown();
+                    Lock lock = provider.getLock("key");
+                    try {
+                        return provider.getAttachment("key");
+                    } finally {
+                        lock.release();
+                    }
+                }
+            });
+
+            // wait for the other thread to queue up on the lock
+            started.await();
+            long start = System.currentTimeMillis();
+            while (!provider.stripe("key").lock.hasQueuedThreads()
+                    && System.currentTimeMillis() - start < 5000) {
+                Thread.sleep(10);
+            }
+            provider.attach("key", "rendered");
+            lock.release();
+
+            assertEquals("rendered", waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, provider.getContendedCount());
+            assertEquals(1, provider.getAvoidedRenderCount());
+
+            // the waiter was the last one, the attachment is gone
+            lock = provider.getLock("key");
+            assertNull(provider.getAttachment("key"));
+            lock.release();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class SeedingThrottleTest {
+
+    @Test
+    public void testNestedRequestsCountOnce() {
+        SeedingThrottle throttle = new SeedingThrottle(2);
+        Request request = new Request();
+        throttle.init(request);
+        throttle.init(request);
+        assertEquals(1, throttle.getLiveRequests());
+        throttle.finished(request);
+        assertEquals(1, throttle.getLiveRequests());
+        throttle.finished(request);
+        assertEquals(0, throttle.getLiveRequests());
+    }
+
+    @Test
+    public void testSeedingRequestsNotLive() throws Exception {
+        SeedingThrottle throttle = new SeedingThrottle(2);
+        throttle.beginSeeding();
+        Request request = new Request();
+        throttle.init(request);
+        assertEquals(0, throttle.getLiveRequests());
+        throttle.finished(request);
+        throttle.endSeeding();
+        assertEquals(0, throttle.getSeedingThreads());
+        // nothing was rendered
+        assertEquals(0, throttle.getSeededMetaTiles());
+    }
+
+    @Test
+    public void testLiveRequestsPreemptSeeding() throws Exception {
+        final SeedingThrottle throttle = new SeedingThrottle(1);
+        Request request = new Request();
+        throttle.init(request);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> seeder = executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    throttle.beginSeeding();
+                    try {
+                        SeedingThrottle.rendered("layer", 10);
+                        return throttle.getSeedingThreads();
+                    } finally {
+                        throttle.endSeeding();
+                    }
+                }
+            });
+
+            try {
+                seeder.get(200, TimeUnit.MILLISECONDS);
+                fail("Seeding should wait for the live request to complete");
+            } catch (TimeoutException e) {
+                // fine
+            }
+
+            throttle.finished(request);
+            assertEquals(Integer.valueOf(1), seeder.get(5, TimeUnit.SECONDS));
+            assertEquals(1, throttle.getSeededMetaTiles());
+            assertEquals(10, throttle.getAverageRenderTime(), 0d);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEnabledByDefault() throws Exception {
+        SeedingThrottle throttle = new SeedingThrottle(1);
+        assertTrue(throttle.isEnabled());
+    }
+
+    @Test
+    public void testDisabledDoesNotGate() throws Exception {
+        SeedingThrottle throttle = new SeedingThrottle(1);
+        throttle.setEnabled(false);
+        Request request = new Request();
+        throttle.init(request);
+        // would block if the throttle was enabled, a live request is using the only processor
+        throttle.beginSeeding();
+        assertEquals(1, throttle.getSeedingThreads());
+        throttle.endSeeding();
+        throttle.finished(request);
+        assertEquals(0, throttle.getSeedingThreads());
+    }
+
+    @Test
+    public void testSlowRendersReduceConcurrency() {
+        SeedingThrottle throttle = new SeedingThrottle(8);
+        throttle.lock.lock();
+        try {
+            throttle.adjustForLatency("layer", 10);
+            for (int i = 0; i < 10; i++) {
+                throttle.adjustForLatency("layer", 100);
+            }
+            assertTrue(throttle.getConcurrency() < 8);
+        } finally {
+            throttle.lock.unlock();
+        }
+    }
+
+    @Test
+    public void testFastRenderOnOtherLayer() {
+        SeedingThrottle throttle = new NotOverloadedThrottle(8);
+        throttle.lock.lock();
+        try {
+            // an empty tile on a layer does not set the bar for the others
+            throttle.adjustForLatency("empty", 1);
+            for (int i = 0; i < 10; i++) {
+                throttle.adjustForLatency("layer", 100);
+            }
+            assertEquals(8, throttle.getConcurrency());
+        } finally {
+            throttle.lock.unlock();
+        }
+    }
+
+    @Test
+    public void testRecoverAfterFastRender() {
+        SeedingThrottle throttle = new NotOverloadedThrottle(8);
+        throttle.lock.lock();
+        try {
+            throttle.adjustForLatency("layer", 1);
+            for (int i = 0; i < 200; i++) {
+                throttle.adjustForLatency("layer", 100);
+            }
+            // the baseline caught up with the steady render time, the concurrency recovered
+            assertEquals(8, throttle.getConcurrency());
+        } finally {
+            throttle.lock.unlock();
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertFalse(new SeedingThrottle(2).isEnabled());
+    }
+
+    /**
+     * Ignores the actual system load, so that the tests do not depend on the build machine
+     */
+    static class NotOverloadedThrottle extends SeedingThrottle {
+        NotOverloadedThrottle(int processors) {
+            super(processors);
+        }
+
+        @Override
+        boolean isOverloaded() {
+            return false;
+        }
+    }
+}
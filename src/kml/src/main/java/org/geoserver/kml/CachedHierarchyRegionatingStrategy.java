@@ -4,16 +4,12 @@
  */
 package org.geoserver.kml;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,16 +20,13 @@ import org.geoserver.ows.HttpErrorCodeException;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSMapContent;
 import org.geotools.data.FeatureSource;
-import org.geotools.data.jdbc.JDBCUtils;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
 import org.geotools.referencing.CRS;
-import org.geotools.referencing.operation.projection.ProjectionException;
 import org.geotools.util.CanonicalSet;
 import org.geotools.util.logging.Logging;
-import org.h2.tools.DeleteDbFiles;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.filter.Filter;
@@ -52,9 +45,10 @@ import com.vividsolutions.jts.geom.Point;
  * Base class for regionating strategies. Common functionality provided:
  * <ul>
  * <li>tiling based on the TMS tiling recommendation</li>
- * <li>caching the assignment of a feature in a specific tile in an H2 database
- * stored in the data directory</li>
- * <li>
+ * <li>caching the assignment of the features to the tiles in a memory mapped
+ * {@link PackedTileIndex} stored in the data directory, built in a single pass over the data
+ * and rebuilt when the layer is modified</li>
+ * </ul>
  * 
  * @author Andrea Aime - OpenGeo
  * @author David Winslow - OpenGeo
@@ -72,7 +66,18 @@ public abstract class CachedHierarchyRegionatingStrategy implements
 
     static final double MAX_ERROR = 0.02;
 
-    static final Set<String> NO_FIDS = Collections.emptySet();
+    static final String INDEX_EXTENSION = ".idx";
+
+    /**
+     * The loaded indexes, by database name
+     */
+    static final ConcurrentHashMap<String, PackedTileIndex> INDEXES = new ConcurrentHashMap<String, PackedTileIndex>();
+
+    /**
+     * The indexes whose layer changed after they were built
+     */
+    static final Set<String> STALE = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * This structure is used to make sure that multiple threads end up using
@@ -90,8 +95,6 @@ public abstract class CachedHierarchyRegionatingStrategy implements
                     90.0, -90.0), WGS84);
             MAX_TILE_WIDTH = WORLD_BOUNDS.getWidth() / 2.0;
 
-            // make sure, once and for all, that H2 is around
-            Class.forName("org.h2.Driver");
         } catch (Exception e) {
             throw new RuntimeException(
                     "Could not initialize the class constants", e);
@@ -116,7 +119,7 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     protected Integer featuresPerTile;
 
     /**
-     * The name of the database that will contain the fid to tile cache
+     * The name of the index that will contain the fid to tile cache
      */
     protected String tableName;
 
@@ -133,12 +136,10 @@ public abstract class CachedHierarchyRegionatingStrategy implements
         Catalog catalog = gs.getCatalog();
         Set<String> featuresInTile = Collections.emptySet();
         try {
-            // grab information needed to reach the db and get a hold to a db
-            // connection
+            // grab information needed to reach the index
             FeatureSource featureSource = layer.getFeatureSource();
             featureType = catalog.getFeatureTypeByName(featureSource.getName());
             
-            String dataDir = catalog.getResourceLoader().getBaseDirectory().getCanonicalPath();
             tableName = getDatabaseName(context, layer);
 
             // grab the features per tile, use a default if user did not
@@ -172,7 +173,7 @@ public abstract class CachedHierarchyRegionatingStrategy implements
                                 + tileEnvelope);
 
             // oki doki, let's compute the fids in the requested tile
-            featuresInTile = getFeaturesForTile(dataDir, tile);
+            featuresInTile = getFeaturesForTile(tile);
             LOGGER.log(Level.FINE, "Found "+featuresInTile.size() + " features in tile " + tile.toString());
         } catch (Throwable t) {
             LOGGER.log(Level.SEVERE,
@@ -196,11 +197,17 @@ public abstract class CachedHierarchyRegionatingStrategy implements
 
     public void clearCache(FeatureTypeInfo cfg){
         try{
-            DeleteDbFiles.execute(
-                GeoserverDataDirectory.findCreateConfigDir("geosearch").getCanonicalPath(),
-                "h2cache_" + getDatabaseName(cfg),
-                true
-                );
+            String name = getDatabaseName(cfg);
+            PackedTileIndex index = INDEXES.remove(name);
+            if (index != null) {
+                index.close();
+            }
+            STALE.remove(name);
+            File file = new File(GeoserverDataDirectory.findCreateConfigDir("geosearch"), name
+                    + INDEX_EXTENSION);
+            if (file.exists() && !file.delete()) {
+                LOGGER.warning("Could not delete the regionating index " + file);
+            }
         } catch (Exception ioe) {
             LOGGER.severe("Couldn't clear out config dir due to: " + ioe);
         }
@@ -234,305 +241,287 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     }
 
     /**
-     * Open/creates the db and then reads/computes the tile features
+     * Reads the tile features from the layer index, building it if necessary
      * 
-     * @param dataDir
      * @param tile
      * @return
      * @throws Exception
      */
-    private Set<String> getFeaturesForTile(String dataDir, Tile tile)
-            throws Exception {
-        Connection conn = null;
-        Statement st = null;
-
-        // build the synchonization token
-        canonicalizer.add(tableName);
-        tableName = canonicalizer.get(tableName);
-
+    private Set<String> getFeaturesForTile(Tile tile) throws Exception {
         try {
-            // make sure no two thread in parallel can build the same db
-            synchronized (tableName) {
-                // get a hold to the database that contains the cache (this will
-                // eventually create the db)
-                conn = DriverManager.getConnection("jdbc:h2:file:" + dataDir
-                        + "/geosearch/h2cache_" + tableName, "geoserver",
-                        "geopass");
-
-                // try to create the table, if it's already there this will fail
-                st = conn.createStatement();
-                st.execute("CREATE TABLE IF NOT EXISTS TILECACHE( " //
-                        + "x BIGINT, " //
-                        + "y BIGINT, " //
-                        + "z INT, " //
-                        + "fid varchar (64))");
-                st.execute("CREATE INDEX IF NOT EXISTS IDX_TILECACHE ON TILECACHE(x, y, z)");
-            }
-
-            return readFeaturesForTile(tile, conn);
-        } finally {
-            JDBCUtils.close(st);
-            JDBCUtils.close(conn, null, null);
+            return getIndex().getFids(tile.x, tile.y, tile.z);
+        } catch (IllegalStateException e) {
+            // the index got replaced by a rebuilt one while we were using it
+            return getIndex().getFids(tile.x, tile.y, tile.z);
         }
     }
 
     /**
-     * Reads/computes the tile feature set
+     * Returns the index for the current layer. Once loaded the index is shared among all requests
+     * and read without locking. If the layer data changed the first request noticing it rebuilds
+     * the index, the others keep on using the previous one until the new one is ready. Builds and
+     * swaps are serialized on the index name.
      * 
-     * @param tile
-     *            the Tile whose features we must find
-     * @param conn
-     *            the H2 connection
      * @return
      * @throws Exception
      */
-    protected Set<String> readFeaturesForTile(Tile tile, Connection conn)
-            throws Exception {
-        // grab the fids and decide whether we have to compute them
-        Set<String> fids = readCachedTileFids(tile, conn);
-        if (fids != null) {
-            return fids;
-        } else {
-            // build the synchronization token
-            String tileKey = tableName + tile.x + "-" + tile.y + "-" + tile.z;
-            canonicalizer.add(tileKey);
-            tileKey = canonicalizer.get(tileKey);
-
-            synchronized (tileKey) {
-                // might have been built while we were waiting
-                fids = readCachedTileFids(tile, conn);
-                if (fids != null)
-                    return fids;
-
-                // still missing, we need to compute them
-                fids = computeFids(tile, conn);
-                storeFids(tile, fids, conn);
-
-                // optimization, if we did not manage to fill up this tile,
-                // the ones below it will be empty -> mark them as such right
-                // away
-                if (fids.size() < featuresPerTile)
-                    for (Tile child : tile.getChildren())
-                        storeFids(child, NO_FIDS, conn);
-            }
+    protected PackedTileIndex getIndex() throws Exception {
+        PackedTileIndex index = INDEXES.get(tableName);
+        if (index != null && !index.isClosed() && index.getFeaturesPerTile() == featuresPerTile
+                && !STALE.contains(tableName)) {
+            return index;
         }
-        return fids;
-    }
 
-    /**
-     * Store the fids inside
-     * 
-     * @param t
-     * @param fids
-     * @param conn
-     * @throws SQLException
-     */
-    private void storeFids(Tile t, Set<String> fids, Connection conn)
-            throws SQLException {
-        PreparedStatement ps = null;
-        try {
-            // we are going to execute this one many times, 
-            // let's prepare it so that the db engine does 
-            // not have to parse it at every call
-            String stmt = "INSERT INTO TILECACHE VALUES (" + t.x + ", " + t.y
-                    + ", " + t.z + ", ?)";
-            ps = conn.prepareStatement(stmt);
-
-            if (fids.size() == 0) {
-                // we just have to mark the tile as empty
-                ps.setString(1, null);
-                ps.execute();
-            } else {
-                // store all the fids
-                conn.setAutoCommit(false);
-                for (String fid : fids) {
-                    ps.setString(1, fid);
-                    ps.execute();
+        // build the synchonization token
+        canonicalizer.add(tableName);
+        tableName = canonicalizer.get(tableName);
+
+        // make sure no two thread in parallel can build the same index
+        synchronized (tableName) {
+            index = INDEXES.get(tableName);
+            if (index != null && index.isClosed()) {
+                // a previous swap failed half way
+                index = null;
+            }
+            boolean stale = STALE.contains(tableName);
+            if (index != null && index.getFeaturesPerTile() == featuresPerTile && !stale) {
+                return index;
+            }
+
+            File file = getIndexFile();
+            if (index == null && file.exists() && !stale) {
+                // built during a previous run
+                try {
+                    index = PackedTileIndex.open(file);
+                    if (index.getFeaturesPerTile() == featuresPerTile) {
+                        INDEXES.put(tableName, index);
+                        return index;
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not open the regionating index " + file
+                            + ", rebuilding it", e);
                 }
-                conn.commit();
             }
-        } finally {
-            conn.setAutoCommit(true);
-            JDBCUtils.close(ps);
+
+            // the requests coming in meanwhile keep on using the old index, if any
+            STALE.remove(tableName);
+            try {
+                PackedTileIndex rebuilt = buildIndex(file, index);
+                INDEXES.put(tableName, rebuilt);
+                return rebuilt;
+            } catch (Exception e) {
+                STALE.add(tableName);
+                if (index != null && !index.isClosed()
+                        && index.getFeaturesPerTile() == featuresPerTile) {
+                    LOGGER.log(Level.WARNING, "Failed to refresh the regionating index for "
+                            + tableName + ", will keep on using the old one", e);
+                    return index;
+                }
+                throw e;
+            }
         }
     }
 
+    File getIndexFile() throws IOException {
+        return new File(GeoserverDataDirectory.findCreateConfigDir("geosearch"), tableName
+                + INDEX_EXTENSION);
+    }
+
     /**
-     * Computes the fids that will be stored in the specified tile
+     * Builds the index in a single pass over the features, sorted by regionating priority. Each
+     * feature is placed in the highest tile containing its centroid that is not full yet, which
+     * is the same as assigning to each tile the top features not already contained in its
+     * ancestors.
      * 
-     * @param tileCoords
-     * @param st
+     * @param file
+     * @param previous the index being replaced, closed once the new one is ready, or null
      * @return
-     * @throws SQLException
+     * @throws Exception
      */
-    private Set<String> computeFids(Tile tile, Connection conn)
-            throws Exception {
-        Set<String> parentFids = getUpwardFids(tile.getParent(), conn);
-        Set<String> currFids = new HashSet<String>();
+    PackedTileIndex buildIndex(File file, PackedTileIndex previous) throws Exception {
+        long start = System.currentTimeMillis();
+        PackedTileIndex.Builder builder = new PackedTileIndex.Builder(file, featuresPerTile);
         FeatureIterator fi = null;
+        boolean success = false;
         try {
-            // grab the features
-            FeatureSource fs = featureType.getFeatureSource(null,null);
+            FeatureSource fs = featureType.getFeatureSource(null, null);
             GeometryDescriptor geom = fs.getSchema().getGeometryDescriptor();
-            CoordinateReferenceSystem nativeCrs = geom
-                    .getCoordinateReferenceSystem();
-
-            ReferencedEnvelope nativeTileEnvelope = null;
-
-            if (!CRS.equalsIgnoreMetadata(WGS84, nativeCrs)) {
-                try {
-                    nativeTileEnvelope = tile.getEnvelope().transform(nativeCrs, true);
-                } catch (ProjectionException pe) {
-                    // the WGS84 envelope of the tile is too big for this project,
-                    // let's intersect it with the declared lat/lon bounds then
-                    LOGGER.log(Level.INFO, "Could not reproject the current tile bounds " 
-                            + tile.getEnvelope() + " to the native SRS, intersecting with " 
-                            + "the layer declared lat/lon bounds and retrying");
-                    
-                    // let's compare against the declared data bounds then
-                    ReferencedEnvelope llEnv = featureType.getLatLonBoundingBox();
-                    Envelope reduced = tile.getEnvelope().intersection(llEnv);
-                    if(reduced.isNull() || reduced.getWidth() == 0 || reduced.getHeight() == 0) {
-                        // no overlap, no party, the tile will be empty
-                        return Collections.emptySet();
-                    }
-                    
-                    // there is some overlap, let's try the reprojection again.
-                    // if even this fails, the user has evidently setup the 
-                    // geographics bounds improperly
-                    ReferencedEnvelope refRed = new ReferencedEnvelope(reduced, 
-                            tile.getEnvelope().getCoordinateReferenceSystem());
-                    nativeTileEnvelope = refRed.transform(nativeCrs, true);
-                }
-            } else {
-                nativeTileEnvelope = tile.getEnvelope();
-            }
-
-            fi = getSortedFeatures(geom, tile.getEnvelope(), nativeTileEnvelope, conn);
+            fi = getSortedFeatures(geom);
 
-            // if the crs is not wgs84, we'll need to transform the point
+            Tile root = getRootTile();
             MathTransform tx = null;
             double[] coords = new double[2];
-
-            // scan counting how many fids we've collected
             boolean first = true;
-            while (fi.hasNext() && currFids.size() < featuresPerTile) {
-                // grab the feature, skip it if it's already in a parent element
+            int count = 0;
+            while (fi.hasNext()) {
                 SimpleFeature f = (SimpleFeature) fi.next();
-                if (parentFids.contains(f.getID()))
+                Geometry g = (Geometry) f.getDefaultGeometry();
+                if (g == null) {
                     continue;
+                }
 
                 // check the need for a transformation
                 if (first) {
                     first = false;
                     CoordinateReferenceSystem nativeCRS = f.getType()
                             .getCoordinateReferenceSystem();
-                    featureType.getFeatureType().getCoordinateReferenceSystem();
-                    if (nativeCRS != null
-                            && !CRS.equalsIgnoreMetadata(nativeCRS, WGS84)) {
-                        tx = CRS.findMathTransform(nativeCRS, WGS84);
+                    if (nativeCRS != null && !CRS.equalsIgnoreMetadata(nativeCRS, WGS84)) {
+                        tx = CRS.findMathTransform(nativeCRS, WGS84, true);
                     }
                 }
 
-                // see if the features is to be included in this tile
-                Point p = ((Geometry) f.getDefaultGeometry()).getCentroid();
+                Point p = g.getCentroid();
                 coords[0] = p.getX();
                 coords[1] = p.getY();
-                if (tx != null)
+                if (Double.isNaN(coords[0]) || Double.isNaN(coords[1])) {
+                    LOGGER.warning("Could not calculate centroid for feature " + f.getID());
+                    continue;
+                }
+                if (tx != null) {
                     tx.transform(coords, 0, coords, 0, 1);
-                if (tile.contains(coords[0], coords[1]))
-                    currFids.add(f.getID());
+                }
+                if (assign(builder, root, f.getID(), coords[0], coords[1])) {
+                    count++;
+                }
             }
+
+            PackedTileIndex index = builder.build(previous);
+            success = true;
+            LOGGER.info("Built regionating index " + file + " with " + count + " features in "
+                    + index.getTileCount() + " tiles in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            return index;
         } finally {
-            if (fi != null)
+            if (fi != null) {
                 fi.close();
+            }
+            if (!success) {
+                builder.abort();
+            }
         }
-        return currFids;
     }
 
     /**
-     * Returns all the features in the specified envelope, sorted according to
-     * the priority used for regionating. The features returned do not have to
-     * be the feature type ones, it's sufficient that they have the same FID and
-     * a geometry whose centroid is the same as the original feature one.
-     * 
-     * @param envelope
-     * @param indexConnection
-     *            a connection to the feature id cache db
-     * @return
-     * @throws Exception
+     * Places the feature in the first non full tile containing it, starting from the root
      */
-    protected abstract FeatureIterator getSortedFeatures(
-    		GeometryDescriptor geom, ReferencedEnvelope latLongEnvelope, 
-    		ReferencedEnvelope nativeEnvelope, Connection indexConnection)
-            throws Exception;
+    boolean assign(PackedTileIndex.Builder builder, Tile root, String fid, double x, double y)
+            throws IOException {
+        if (x < WORLD_BOUNDS.getMinX() || x > WORLD_BOUNDS.getMaxX()
+                || y < WORLD_BOUNDS.getMinY() || y > WORLD_BOUNDS.getMaxY()) {
+            LOGGER.log(Level.FINE, "Skipping feature {0}, it's outside of the world bounds", fid);
+            return false;
+        }
+
+        long z = root.contains(x, y) ? root.z : 0;
+        for (; z <= PackedTileIndex.MAX_LEVEL; z++) {
+            double tileSize = MAX_TILE_WIDTH / Math.pow(2, z);
+            long tileX = tileIndex(x, WORLD_BOUNDS.getMinX(), tileSize, dataEnvelope.getMaxX());
+            long tileY = tileIndex(y, WORLD_BOUNDS.getMinY(), tileSize, dataEnvelope.getMaxY());
+            // the deepest level takes whatever is left (e.g., lots of overlapping points)
+            if (builder.getCount(tileX, tileY, z) < featuresPerTile
+                    || z == PackedTileIndex.MAX_LEVEL) {
+                builder.add(tileX, tileY, z, fid);
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
-     * Returns a set of all the fids in the specified tile and in the parents of
-     * it, recursing up to the root tile
+     * Returns the index of the tile containing the ordinate, following the same border rules as
+     * {@link Tile#contains(double, double)}
+     */
+    static long tileIndex(double ordinate, double origin, double tileSize, double dataMax) {
+        long index = (long) Math.floor((ordinate - origin) / tileSize);
+        if (index > 0 && ordinate >= dataMax && origin + index * tileSize == ordinate) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the deepest tile containing the whole data set, that is, the tile at which
+     * {@link Tile#getParent()} stops
+     */
+    Tile getRootTile() {
+        Tile root = tileAt(0);
+        for (long z = 1; z <= PackedTileIndex.MAX_LEVEL; z++) {
+            Tile tile = tileAt(z);
+            if (!tile.getEnvelope().contains((BoundingBox) dataEnvelope)) {
+                break;
+            }
+            root = tile;
+        }
+        return root;
+    }
+
+    Tile tileAt(long z) {
+        double tileSize = MAX_TILE_WIDTH / Math.pow(2, z);
+        return new Tile((long) Math.floor((dataEnvelope.getMinX() - WORLD_BOUNDS.getMinX())
+                / tileSize), (long) Math.floor((dataEnvelope.getMinY() - WORLD_BOUNDS
+                .getMinY()) / tileSize), z);
+    }
+
+    /**
+     * Returns all the features of the layer, sorted according to the priority used for
+     * regionating. The features returned do not have to be the feature type ones, it's sufficient
+     * that they have the same FID and a geometry whose centroid is the same as the original
+     * feature one.
      * 
-     * @param tile
-     * @param st
+     * @param geom the layer geometry descriptor
      * @return
-     * @throws SQLException
+     * @throws Exception
      */
-    private Set<String> getUpwardFids(Tile tile, Connection conn)
-            throws Exception {
-        // recursion stop condition
-        if (tile == null)
-            return Collections.EMPTY_SET;
-
-        // return the curren tile fids, and recurse up to the parent
-        Set<String> fids = new HashSet();
-        fids.addAll(readFeaturesForTile(tile, conn));
-        fids.addAll(getUpwardFids(tile.getParent(), conn));
-        return fids;
-    }
+    protected abstract FeatureIterator getSortedFeatures(GeometryDescriptor geom)
+            throws Exception;
 
     /**
-     * Here we have three cases
-     * <ul>
-     * <li>the tile was already computed, and it resulted to be empty. We leave
-     * a "x,y,z,null" marker to know if that happened, and in this case the
-     * returned set will be empty</li> <li>the tile was already computed, and we
-     * have data, the returned sest will be non empty</li> <li>the tile is new,
-     * the db contains nothing, in this case we return "null"</li>
-     * <ul>
+     * Marks the regionating indexes of the specified layer as out of date, they will be rebuilt
+     * on the next request
      * 
-     * @param tileCoords
-     * @param conn
-     * @throws SQLException
+     * @param prefix
+     * @param name
      */
-    protected Set<String> readCachedTileFids(Tile tile, Connection conn)
-            throws SQLException {
-        Set<String> fids = null;
-        Statement st = null;
-        ResultSet rs = null;
+    public static void invalidate(String prefix, String name) {
+        String layer = prefix + "_" + name;
+        for (String indexName : INDEXES.keySet()) {
+            if (indexName.equals(layer) || indexName.startsWith(layer + "_")) {
+                STALE.add(indexName);
+            }
+        }
+        // also drop the ones built in a previous run and not loaded yet
         try {
-            st = conn.createStatement();
-            rs = st.executeQuery("SELECT fid FROM TILECACHE where x = "
-                    + tile.x + " AND y = " + tile.y + " and z = " + tile.z);
-            // decide whether we have to collect the fids or just to
-            // return that the tile was empty
-            if (rs.next()) {
-                String fid = rs.getString(1);
-                if (fid == null) {
-                    return Collections.emptySet();
-                } else {
-                    fids = new HashSet<String>();
-                    fids.add(fid);
+            File dir = GeoserverDataDirectory.findCreateConfigDir("geosearch");
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String fileName = file.getName();
+                    if (fileName.endsWith(INDEX_EXTENSION)
+                            && (fileName.equals(layer + INDEX_EXTENSION) || fileName
+                                    .startsWith(layer + "_"))
+                            && !INDEXES.containsKey(fileName.substring(0, fileName.length()
+                                    - INDEX_EXTENSION.length()))) {
+                        file.delete();
+                    }
                 }
             }
-            // fill the set with the collected fids
-            while (rs.next()) {
-                fids.add(rs.getString(1));
-            }
-        } finally {
-            JDBCUtils.close(rs);
-            JDBCUtils.close(st);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not clean up the regionating indexes of " + layer, e);
         }
+    }
 
-        return fids;
+    /**
+     * Closes and forgets all the loaded indexes, to be used when the index files are removed
+     * behind the strategies back (e.g., the data directory is reset)
+     */
+    public static void clearIndexes() {
+        for (String name : INDEXES.keySet()) {
+            PackedTileIndex index = INDEXES.remove(name);
+            if (index != null) {
+                index.close();
+            }
+        }
+        STALE.clear();
     }
 
     /**
@@ -4,17 +4,28 @@
  */
 package org.geoserver.kml;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.ServiceException;
@@ -22,12 +33,9 @@ import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
-import org.geotools.data.jdbc.JDBCUtils;
 import org.geotools.feature.FeatureIterator;
-import org.geotools.feature.FeatureTypes;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
 import org.geotools.referencing.CRS;
 import org.opengis.feature.Feature;
@@ -43,6 +51,12 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 
+/**
+ * Regionating strategy sorting the features on an attribute the data store cannot sort on
+ * natively. The features are sorted in memory in runs of {@link #RUN_SIZE} elements, runs are
+ * spilled on disk and merged back, so that arbitrarily large layers can be sorted in a single pass
+ * over the data.
+ */
 public class ExternalSortRegionatingStrategy extends
         CachedHierarchyRegionatingStrategy {
 
@@ -52,24 +66,30 @@ public class ExternalSortRegionatingStrategy extends
     static final SimpleFeatureType IDX_FEATURE_TYPE;
 
     /**
-     * Java type to H2 type map (covers only types that do not have a size)
+     * The number of features sorted in memory before spilling a sorted run on disk
+     */
+    static final int RUN_SIZE = 100000;
+
+    /**
+     * The attribute types we can sort on (covers only types that do not have a size)
      */
-    static Map<Class<?>, String> CLASS_MAPPINGS = new LinkedHashMap<Class<?>, String>();
+    static Set<Class<?>> SORTABLE_CLASSES = new HashSet<Class<?>>();
     static {
-        CLASS_MAPPINGS.put(Boolean.class, "BOOLEAN");
-        CLASS_MAPPINGS.put(Byte.class, "TINYINT");
-        CLASS_MAPPINGS.put(Short.class, "SMALLINT");
-        CLASS_MAPPINGS.put(Character.class, "CHAR");
-        CLASS_MAPPINGS.put(Integer.class, "INT");
-        CLASS_MAPPINGS.put(Long.class, "BIGINT");
-        CLASS_MAPPINGS.put(BigInteger.class, "BIGINT");
-        CLASS_MAPPINGS.put(BigDecimal.class, "DECIMAL");
-        CLASS_MAPPINGS.put(Float.class, "REAL");
-        CLASS_MAPPINGS.put(Double.class, "DOUBLE");
-        CLASS_MAPPINGS.put(java.util.Date.class, "DATE");
-        CLASS_MAPPINGS.put(java.sql.Date.class, "DATE");
-        CLASS_MAPPINGS.put(java.sql.Time.class, "TIME");
-        CLASS_MAPPINGS.put(java.sql.Timestamp.class, "TIMESTAMP");
+        SORTABLE_CLASSES.add(Boolean.class);
+        SORTABLE_CLASSES.add(Byte.class);
+        SORTABLE_CLASSES.add(Short.class);
+        SORTABLE_CLASSES.add(Character.class);
+        SORTABLE_CLASSES.add(Integer.class);
+        SORTABLE_CLASSES.add(Long.class);
+        SORTABLE_CLASSES.add(BigInteger.class);
+        SORTABLE_CLASSES.add(BigDecimal.class);
+        SORTABLE_CLASSES.add(Float.class);
+        SORTABLE_CLASSES.add(Double.class);
+        SORTABLE_CLASSES.add(String.class);
+        SORTABLE_CLASSES.add(java.util.Date.class);
+        SORTABLE_CLASSES.add(java.sql.Date.class);
+        SORTABLE_CLASSES.add(java.sql.Time.class);
+        SORTABLE_CLASSES.add(java.sql.Timestamp.class);
         
         SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
         tb.crs(WGS84);
@@ -78,12 +98,26 @@ public class ExternalSortRegionatingStrategy extends
         IDX_FEATURE_TYPE = tb.buildFeatureType();
     }
 
+    /**
+     * Sorts the entries on the sort value, descending, with null values at the end
+     */
+    static final Comparator<SortEntry> ENTRY_COMPARATOR = new Comparator<SortEntry>() {
+
+        @SuppressWarnings("unchecked")
+        public int compare(SortEntry e1, SortEntry e2) {
+            if (e1.value == null) {
+                return e2.value == null ? 0 : 1;
+            } else if (e2.value == null) {
+                return -1;
+            }
+            return e2.value.compareTo(e1.value);
+        }
+    };
+
     String attribute;
 
     FeatureSource fs;
 
-    String h2Type;
-
     public ExternalSortRegionatingStrategy(GeoServer gs) {
         super( gs );
     }
@@ -96,7 +130,7 @@ public class ExternalSortRegionatingStrategy extends
 
         checkAttribute(con, ft);
 
-        // make sure a special db for this layer and attribute will be created
+        // make sure a special index for this layer and attribute will be created
         return super.getDatabaseName(con, layer) + "_" + attribute;
     }
 
@@ -123,9 +157,8 @@ public class ExternalSortRegionatingStrategy extends
                     + attribute + " in layer " + featureType.getName());
         }
 
-        // Make sure we know how to turn that attribute into a H2 type
-        h2Type = getH2DataType(ad);
-        if (h2Type == null)
+        // Make sure we know how to sort on that attribute
+        if (!isSortable(ad))
             throw new ServiceException("Attribute type " + ad.getType()
                     + " is not " + "supported for external sorting on "
                     + featureType.getName() + "#" + attribute);
@@ -135,85 +168,41 @@ public class ExternalSortRegionatingStrategy extends
         return MapLayerInfo.getRegionateAttribute(cfg); 
     }
 
-    @Override
-    public FeatureIterator getSortedFeatures(GeometryDescriptor geom, 
-            ReferencedEnvelope latLongEnvelope, ReferencedEnvelope nativeEnvelope, 
-            Connection cacheConn) throws Exception {
-        // first of all, let's check if the geometry index table is there
-        Statement st = null;
-        try {
-            st = cacheConn.createStatement();
-            try {
-                st.executeQuery("SELECT * FROM FEATUREIDX LIMIT 1");
-            } catch (SQLException e) {
-                buildIndex(cacheConn);
-            }
-        } finally {
-            JDBCUtils.close(st);
-        }
-
-        return new IndexFeatureIterator(cacheConn, latLongEnvelope);
+    protected boolean isSortable(AttributeDescriptor ad) {
+        return SORTABLE_CLASSES.contains(ad.getType().getBinding());
     }
-    
-    protected String getH2DataType(AttributeDescriptor ad) {
-        if (String.class.equals(ad.getType().getBinding())) {
-            int length = FeatureTypes.getFieldLength(ad);
-            if (length <= 0)
-                length = 255;
-            return "VARCHAR(" + length + ")";
+
+    @Override
+    public FeatureIterator getSortedFeatures(GeometryDescriptor geom) throws Exception {
+        // build an optimized query, loading only the necessary attributes
+        CoordinateReferenceSystem nativeCrs = geom.getCoordinateReferenceSystem();
+        Query q = new Query();
+        if (geom.getLocalName().equals(attribute)) {
+            q.setPropertyNames(new String[] { geom.getLocalName() });
         } else {
-            return CLASS_MAPPINGS.get(ad.getType().getBinding());
+            q.setPropertyNames(new String[] { attribute, geom.getLocalName() });
         }
-    }
-    
-    void buildIndex(Connection conn) throws Exception {
-        Statement st = null;
-        PreparedStatement ps = null;
+
+        // setup the eventual transform
+        MathTransform tx = null;
+        double[] coords = new double[2];
+        if (nativeCrs != null && !CRS.equalsIgnoreMetadata(nativeCrs, WGS84))
+            tx = CRS.findMathTransform(nativeCrs, WGS84, true);
+
+        // read all the features, sorting them in runs
+        List<SortEntry> run = new ArrayList<SortEntry>();
+        List<File> runs = new ArrayList<File>();
         FeatureIterator fi = null;
+        boolean success = false;
         try {
-            st = conn.createStatement();
-            st.execute("CREATE TABLE FEATUREIDX(" //
-                    + "X NUMBER, " //
-                    + "Y NUMBER, " //
-                    + "FID VARCHAR(64), " //
-                    + "ORDER_FIELD " + h2Type + ")");
-            st.execute("CREATE INDEX FEATUREIDX_COORDS ON FEATUREIDX(X, Y)");
-            st.execute("CREATE INDEX FEATUREIDX_ORDER_FIELD ON FEATUREIDX(ORDER_FIELD)");
-
-            // prepare this statement so that the sql parser has to deal
-            // with it just once
-            ps = conn.prepareStatement("INSERT INTO "
-                    + "FEATUREIDX(X, Y, FID, ORDER_FIELD) VALUES (?, ?, ?, ?)");
-
-            // build an optimized query, loading only the necessary attributes
-            GeometryDescriptor geom = fs.getSchema()
-                    .getGeometryDescriptor();
-            CoordinateReferenceSystem nativeCrs = geom
-                    .getCoordinateReferenceSystem();
-            Query q = new Query();
-            
-            if (geom.getLocalName().equals(attribute)) {
-                q.setPropertyNames(new String[] { geom.getLocalName() });
-            } else {
-                q.setPropertyNames(new String[] { attribute, geom.getLocalName() });
-            }
-            
-            // setup the eventual transform
-            MathTransform tx = null;
-            double[] coords = new double[2];
-            if (!CRS.equalsIgnoreMetadata(nativeCrs, WGS84))
-                tx = CRS.findMathTransform(nativeCrs, WGS84, true);
-
-            // read all the features and fill the index table
-            // make it so the insertion is a single big transaction, should
-            // be faster,
-            // provided it does not kill H2...
-            conn.setAutoCommit(false);
             fi = fs.getFeatures(q).features();
             while (fi.hasNext()) {
                 // grab the centroid and transform it in 4326 if necessary
                 SimpleFeature f = (SimpleFeature) fi.next();
                 Geometry g = (Geometry) f.getDefaultGeometry();
+                if (g == null) {
+                    continue;
+                }
                 Point centroid = g.getCentroid();
                 
                 //robustness check for bad geometries
@@ -227,109 +216,232 @@ public class ExternalSortRegionatingStrategy extends
                 if (tx != null)
                     tx.transform(coords, 0, coords, 0, 1);
 
-                // insert
-                ps.setDouble(1, coords[0]);
-                ps.setDouble(2, coords[1]);
-                ps.setString(3, f.getID());
-                ps.setObject(4, getSortAttributeValue(f));
-                ps.execute();
+                run.add(new SortEntry((Comparable) getSortAttributeValue(f), coords[0],
+                        coords[1], f.getID()));
+                if (run.size() >= RUN_SIZE) {
+                    runs.add(writeRun(run));
+                    run.clear();
+                }
             }
-            // todo: commit every 1000 features or so. No transaction is
-            // slower, but too big transaction imposes a big overhead on the db
-            conn.commit();
             
-            // hum, shall we kick H2 so that it updates the statistics?
+            Collections.sort(run, ENTRY_COMPARATOR);
+            FeatureIterator result;
+            if (runs.isEmpty()) {
+                result = new SortedFeatureIterator(run.iterator(), runs);
+            } else {
+                runs.add(writeRun(run));
+                result = new SortedFeatureIterator(new MergingIterator(runs), runs);
+            }
+            success = true;
+            return result;
         } finally {
-            conn.setAutoCommit(true);
-            JDBCUtils.close(st);
-            JDBCUtils.close(ps);
             if (fi != null)
                 fi.close();
+            if (!success) {
+                for (File file : runs) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the run and writes it on disk
+     */
+    File writeRun(List<SortEntry> run) throws IOException {
+        Collections.sort(run, ENTRY_COMPARATOR);
+        File file = File.createTempFile("regionate", ".run");
+        ObjectOutputStream oos = null;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            oos.writeInt(run.size());
+            int count = 0;
+            for (SortEntry entry : run) {
+                oos.writeObject(entry.value);
+                oos.writeDouble(entry.x);
+                oos.writeDouble(entry.y);
+                oos.writeUTF(entry.fid);
+                // don't let the stream keep references to all the values written
+                if (++count % 1000 == 0) {
+                    oos.reset();
+                }
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(oos);
+            file.delete();
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(oos);
         }
+        return file;
     }
 
     /**
-     * Returns the value that will be inserted into the H2 index as the sorting field
+     * Returns the value that will be used as the sorting field
      * @param f
      * @return
      */
     protected Object getSortAttributeValue(SimpleFeature f) {
         return f.getAttribute(attribute);
     }
-    
-    public static class IndexFeatureIterator implements FeatureIterator {
-        SimpleFeatureBuilder builder;
 
-        GeometryFactory gf;
+    /**
+     * A feature centroid along with its sort value
+     */
+    static class SortEntry {
+        Comparable value;
+
+        double x;
+
+        double y;
+
+        String fid;
 
-        Statement st;
+        SortEntry(Comparable value, double x, double y, String fid) {
+            this.value = value;
+            this.x = x;
+            this.y = y;
+            this.fid = fid;
+        }
+    }
+
+    /**
+     * Reads back a sorted run from disk
+     */
+    static class RunReader {
+        int index;
+
+        ObjectInputStream ois;
+
+        int remaining;
+
+        SortEntry current;
+
+        RunReader(File file, int index) throws IOException {
+            this.index = index;
+            this.ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            this.remaining = ois.readInt();
+        }
+
+        boolean advance() {
+            if (remaining == 0) {
+                current = null;
+                close();
+                return false;
+            }
+            try {
+                Comparable value = (Comparable) ois.readObject();
+                double x = ois.readDouble();
+                double y = ois.readDouble();
+                String fid = ois.readUTF();
+                current = new SortEntry(value, x, y, fid);
+                remaining--;
+                return true;
+            } catch (Exception e) {
+                close();
+                throw new RuntimeException("Failed to read back the sorted features", e);
+            }
+        }
 
-        ResultSet rs;
+        void close() {
+            IOUtils.closeQuietly(ois);
+        }
+    }
 
-        boolean nextCalled;
+    /**
+     * Merges the sorted runs, runs earlier in the list win ties so that the sort is stable
+     */
+    static class MergingIterator implements Iterator<SortEntry> {
+        PriorityQueue<RunReader> queue;
 
-        boolean next;
+        List<RunReader> readers = new ArrayList<RunReader>();
 
-        public IndexFeatureIterator(Connection cacheConn,
-                ReferencedEnvelope envelope) throws Exception {
-            // grab all of the geometries sitting inside the envelope
+        MergingIterator(List<File> runs) throws IOException {
+            queue = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
 
+                public int compare(RunReader r1, RunReader r2) {
+                    int result = ENTRY_COMPARATOR.compare(r1.current, r2.current);
+                    return result != 0 ? result : r1.index - r2.index;
+                }
+            });
             try {
-                st = cacheConn.createStatement();
-                String sql = "SELECT X, Y, FID \n"
-                        + "FROM FEATUREIDX\n" // 
-                        + "WHERE X >= " + envelope.getMinX() + "\n"
-                        + "AND X <= " + envelope.getMaxX() + "\n"
-                        + "AND Y >= " + envelope.getMinY() + "\n"
-                        + "AND Y <= " + envelope.getMaxY() + "\n"
-                        + "ORDER BY ORDER_FIELD DESC";
-                rs = st.executeQuery(sql);
-                // make sure everything is properly closed in case of
-                // exception
-            } catch (SQLException e) {
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader reader = new RunReader(runs.get(i), i);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
                 close();
+                throw e;
+            }
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        public SortEntry next() {
+            RunReader reader = queue.poll();
+            if (reader == null) {
+                throw new NoSuchElementException();
+            }
+            SortEntry result = reader.current;
+            if (reader.advance()) {
+                queue.add(reader);
             }
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void close() {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the sorted entries as point features
+     */
+    public static class SortedFeatureIterator implements FeatureIterator {
+        SimpleFeatureBuilder builder;
+
+        GeometryFactory gf;
 
+        Iterator<SortEntry> entries;
+
+        List<File> runs;
+
+        SortedFeatureIterator(Iterator<SortEntry> entries, List<File> runs) {
+            this.entries = entries;
+            this.runs = runs;
             // prepare the builders we'll use to create all of the features
             builder = new SimpleFeatureBuilder(IDX_FEATURE_TYPE);
             gf = new GeometryFactory();
         }
 
         public void close() {
-            JDBCUtils.close(rs);
-            JDBCUtils.close(st);
+            if (entries instanceof MergingIterator) {
+                ((MergingIterator) entries).close();
+            }
+            for (File file : runs) {
+                file.delete();
+            }
         }
 
         public boolean hasNext() {
-            // the contract of the iterator does not say this will be
-            // called just once, we have to guard against multiple calls
-            if (!nextCalled)
-                try {
-                    next = rs.next();
-                    nextCalled = true;
-                } catch (SQLException e) {
-                    close();
-                    throw new RuntimeException(
-                            "Error while accessing next db record", e);
-                }
-
-            return next;
+            return entries.hasNext();
         }
 
         public Feature next() throws NoSuchElementException {
-            if (!nextCalled)
-                hasNext();
-            nextCalled = false;
-            try {
-                double x = rs.getDouble(1);
-                double y = rs.getDouble(2);
-                builder.add(gf.createPoint(new Coordinate(x, y)));
-                return builder.buildFeature(rs.getString(3));
-            } catch (SQLException e) {
-                close();
-                throw new RuntimeException(
-                        "Problems reading the geometry index");
-            }
+            SortEntry entry = entries.next();
+            builder.add(gf.createPoint(new Coordinate(entry.x, entry.y)));
+            return builder.buildFeature(entry.fid);
         }
 
     }
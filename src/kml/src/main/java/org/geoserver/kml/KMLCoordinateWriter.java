@@ -39,7 +39,12 @@ public class KMLCoordinateWriter extends CoordinateWriter {
 
     private final StringBuffer coordBuff = new StringBuffer();
 
-    private char[] buff = new char[200];
+    /**
+     * Number of chars after which the formatted coordinates are sent to the content handler
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    private char[] buff = new char[CHUNK_SIZE + 200];
 
     private final double scale;
 
@@ -69,15 +74,14 @@ public class KMLCoordinateWriter extends CoordinateWriter {
         final int coordCount = c.size();
         // used to check whether the coordseq handles a third dimension or not
         final int coordSeqDimension = c.getDimension();
-        double x, y, z;
-        // write down a coordinate at a time
+        double x, y;
+        // the coordinates are accumulated in the buffer and sent out in chunks, long
+        // sequences would otherwise cause one characters() call per coordinate
+        coordBuff.setLength(0);
         for (int i = 0, n = coordCount; i < n; i++) {
             x = c.getOrdinate(i, 0);
             y = c.getOrdinate(i, 1);
 
-            // clear the buffer
-            coordBuff.setLength(0);
-
             // format x into buffer and append delimiter
             formatDecimal(x, coordBuff);
             coordBuff.append(coordinateDelimiter);
@@ -94,18 +98,34 @@ public class KMLCoordinateWriter extends CoordinateWriter {
                 coordBuff.append(tupleDelimiter);
             }
 
-            // make sure our character buffer is big enough
-            if (coordBuff.length() > buff.length) {
-                buff = new char[coordBuff.length()];
+            if (coordBuff.length() >= CHUNK_SIZE) {
+                flushBuffer(output);
             }
+        }
+        flushBuffer(output);
+        output.endElement(null, "coordinates", "coordinates");
+    }
 
-            // copy the characters
-            coordBuff.getChars(0, coordBuff.length(), buff, 0);
+    /**
+     * Sends the formatted coordinates to the content handler and clears the buffer
+     */
+    private void flushBuffer(ContentHandler output) throws SAXException {
+        final int length = coordBuff.length();
+        if (length == 0) {
+            return;
+        }
 
-            // finally, output
-            output.characters(buff, 0, coordBuff.length());
+        // make sure our character buffer is big enough
+        if (length > buff.length) {
+            buff = new char[length];
         }
-        output.endElement(null, "coordinates", "coordinates");
+
+        // copy the characters
+        coordBuff.getChars(0, length, buff, 0);
+        coordBuff.setLength(0);
+
+        // finally, output
+        output.characters(buff, 0, length);
     }
 
     private void formatDecimal(double x, StringBuffer sb) {
@@ -117,7 +137,7 @@ public class KMLCoordinateWriter extends CoordinateWriter {
             else
                 sb.append(x);
         } else {
-            coordFormatter.format(x, coordBuff, zero);
+            coordFormatter.format(x, sb, zero);
         }
     }
 }
@@ -6,10 +6,16 @@ package org.geoserver.kml;
 
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.transform.TransformerException;
+
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
@@ -47,6 +53,11 @@ public class KMLTransformer extends TransformerBase {
 
     private WMS wms;
 
+    /**
+     * The writer the document is being encoded into, handed over to the layer transformers
+     */
+    Writer output;
+
     public KMLTransformer(WMS wms) {
         this.wms = wms;
         setNamespaceDeclarationEnabled(false);
@@ -60,6 +71,22 @@ public class KMLTransformer extends TransformerBase {
         this.kmz = kmz;
     }
 
+    @Override
+    public void transform(Object object, OutputStream out) throws TransformerException {
+        // the serializer keeps its own buffer when writing to a stream, encoding into a writer
+        // lets the layer transformers push out the placemarks encoded so far
+        Writer writer = new OutputStreamWriter(out, getEncoding());
+        this.output = writer;
+        try {
+            super.transform(object, writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        } finally {
+            this.output = null;
+        }
+    }
+
     protected class KMLTranslator extends TranslatorSupport {
         /**
          * Tolerance used to compare doubles for equality
@@ -279,6 +306,7 @@ public class KMLTransformer extends TransformerBase {
             delegate.setIndentation(getIndentation());
             delegate.setEncoding(getEncoding());
             delegate.setStandAlone(false);
+            delegate.setOutput(output);
         }
 
         double computeScaleDenominator(Layer layer, WMSMapContent mapContent) {
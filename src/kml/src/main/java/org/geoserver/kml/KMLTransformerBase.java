@@ -4,8 +4,12 @@
  */
 package org.geoserver.kml;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import org.geotools.xml.transform.TransformerBase;
 import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 /**
  * Base class for kml transformers.
@@ -19,6 +23,11 @@ public abstract class KMLTransformerBase extends TransformerBase {
      * standalone flag. 
      */
     boolean standAlone = true;
+
+    /**
+     * The writer the document is being encoded into, if known
+     */
+    Writer output;
     
     /**
      * Sets flag controlling wether the transformer encodes the document as 
@@ -42,12 +51,41 @@ public abstract class KMLTransformerBase extends TransformerBase {
     public boolean isStandAlone() {
         return standAlone;
     }
+
+    /**
+     * Sets the writer the serializer is encoding the document into, allowing the transformer to
+     * flush it periodically while encoding large documents
+     * 
+     * @param output
+     */
+    public void setOutput(Writer output) {
+        this.output = output;
+    }
+
+    public Writer getOutput() {
+        return output;
+    }
     
     public abstract class KMLTranslatorSupport extends TranslatorSupport {
 
         public KMLTranslatorSupport(ContentHandler contentHandler) {
             super(contentHandler, null, null);
         }
+
+        /**
+         * Flushes the output writer, if any, so that the placemarks already encoded are sent to
+         * the client instead of piling up in the response buffers
+         */
+        protected void flush() {
+            if (output != null) {
+                try {
+                    output.flush();
+                } catch (IOException e) {
+                    // most likely the client closed the connection, stop encoding
+                    throw new RuntimeException(new SAXException(e));
+                }
+            }
+        }
         
     }
 
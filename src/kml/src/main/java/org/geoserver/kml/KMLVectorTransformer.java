@@ -39,6 +39,11 @@ public class KMLVectorTransformer extends KMLMapTransformer {
 
     private KMLLookAt lookAtOpts;
 
+    /**
+     * Number of placemarks after which the output is flushed
+     */
+    private int flushInterval;
+
     public KMLVectorTransformer(WMS wms, WMSMapContent mapContent, Layer mapLayer) {
         this(wms, mapContent, mapLayer, null);
     }
@@ -49,6 +54,19 @@ public class KMLVectorTransformer extends KMLMapTransformer {
 
         setNamespaceDeclarationEnabled(false);
         this.lookAtOpts = lookAtOpts;
+        this.flushInterval = wms.getKmlFlushInterval();
+    }
+
+    /**
+     * Sets the number of placemarks after which the output is flushed, a non positive value
+     * disables the periodic flushes
+     */
+    public void setFlushInterval(int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public int getFlushInterval() {
+        return flushInterval;
     }
 
     /**
@@ -210,6 +228,7 @@ public class KMLVectorTransformer extends KMLMapTransformer {
         protected void encode(SimpleFeatureCollection features, FeatureTypeStyle[] styles) {
             // grab a reader and process
             SimpleFeatureIterator reader = null;
+            int encoded = 0;
 
             try {
                 // grab a reader and process
@@ -222,6 +241,7 @@ public class KMLVectorTransformer extends KMLMapTransformer {
                         List<Symbolizer> symbolizers = filterSymbolizers(feature, styles);
                         if (symbolizers.size() > 0) {
                             encodePlacemark(feature, symbolizers, lookAtOpts);
+                            encoded++;
                         }
                     } catch (RuntimeException t) {
                         // if the stream has been closed by the client don't keep on going forward,
@@ -233,6 +253,12 @@ public class KMLVectorTransformer extends KMLMapTransformer {
                             LOGGER.log(Level.WARNING, "Failure tranforming feature to KML:"
                                     + feature.getID(), t);
                     }
+
+                    // push out what has been encoded so far, the document can be very large
+                    if (flushInterval > 0 && encoded >= flushInterval) {
+                        flush();
+                        encoded = 0;
+                    }
                 }
             } finally {
                 // make sure we always close
@@ -0,0 +1,403 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A read only, memory mapped file associating each regionating tile to the ids of the features
+ * it contains.
+ * <p>
+ * The file contains a header, the table of the non empty tiles sorted by tile key, and the
+ * feature ids of each tile, stored contiguously. Lookups are a binary search in the tile table
+ * followed by a sequential read of the ids, using only absolute reads on the mapped buffer, so any
+ * number of threads can query the index concurrently without locking.
+ * </p>
+ * <p>
+ * Once {@link #close() closed} the index drops its reference to the mapped buffer, letting the
+ * mapping go as soon as the lookups still running are done, and refuses any further lookup.
+ * </p>
+ * <p>
+ * Tiles are identified by a key packing the zoom level and the tile coordinates, see
+ * {@link #key(long, long, long)}. Tiles not in the table are empty.
+ * </p>
+ */
+public class PackedTileIndex {
+
+    static final int MAGIC = 0x4B4D4C49;
+
+    static final int VERSION = 1;
+
+    /**
+     * magic, version, features per tile, tile count
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * tile key, number of features, offset of the feature ids
+     */
+    static final int TILE_ENTRY_SIZE = 20;
+
+    /**
+     * The max zoom level that can be represented by a tile key
+     */
+    static final int MAX_LEVEL = 25;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File file;
+
+    volatile ByteBuffer buffer;
+
+    int featuresPerTile;
+
+    int tileCount;
+
+    long dataOffset;
+
+    PackedTileIndex(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a regionating index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has an unsupported version " + buffer.getInt(4));
+        }
+        this.featuresPerTile = buffer.getInt(8);
+        this.tileCount = buffer.getInt(12);
+        this.dataOffset = HEADER_SIZE + (long) tileCount * TILE_ENTRY_SIZE;
+    }
+
+    /**
+     * Maps an existing index file in memory
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static PackedTileIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            // the mapping stays valid after the channel is closed
+            return new PackedTileIndex(file, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Packs the tile coordinates in a single key. Tile coordinates must be non negative, and the
+     * zoom level cannot be higher than {@link #MAX_LEVEL}.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long key(long x, long y, long z) {
+        return (z << 54) | (x << 27) | y;
+    }
+
+    /**
+     * Returns true if the tile coordinates can be represented in the index
+     */
+    static boolean isValid(long x, long y, long z) {
+        return z >= 0 && z <= MAX_LEVEL && x >= 0 && y >= 0 && x < (1L << 27) && y < (1L << 27);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The max number of features per tile the index has been built with
+     *
+     * @return
+     */
+    public int getFeaturesPerTile() {
+        return featuresPerTile;
+    }
+
+    /**
+     * The number of non empty tiles in the index
+     *
+     * @return
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Returns the ids of the features contained in the specified tile, in regionating order
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return the feature ids, or an empty set if the tile is empty
+     */
+    public Set<String> getFids(long x, long y, long z) {
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            throw new IllegalStateException("The regionating index " + file + " has been closed");
+        }
+        if (!isValid(x, y, z)) {
+            return Collections.emptySet();
+        }
+        long key = key(x, y, z);
+
+        // binary search the tile table
+        int low = 0;
+        int high = tileCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = HEADER_SIZE + mid * TILE_ENTRY_SIZE;
+            long midKey = buffer.getLong(position);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                int count = buffer.getInt(position + 8);
+                long offset = buffer.getLong(position + 12);
+                return readFids(buffer, (int) (dataOffset + offset), count);
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    Set<String> readFids(ByteBuffer buffer, int position, int count) {
+        Set<String> fids = new LinkedHashSet<String>();
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getShort(position) & 0xFFFF;
+            position += 2;
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            for (int j = 0; j < length; j++) {
+                bytes[j] = buffer.get(position + j);
+            }
+            position += length;
+            fids.add(new String(bytes, 0, length, UTF8));
+        }
+        return fids;
+    }
+
+    /**
+     * Releases the mapped file. Lookups already running complete normally, new ones fail with an
+     * {@link IllegalStateException}
+     */
+    public void close() {
+        buffer = null;
+    }
+
+    public boolean isClosed() {
+        return buffer == null;
+    }
+
+    /**
+     * Builds a {@link PackedTileIndex}. Assignments are first appended to a temporary file, along
+     * with the per tile counts, then scattered in tile order in the final file.
+     */
+    public static class Builder {
+
+        File target;
+
+        File assignments;
+
+        DataOutputStream out;
+
+        int featuresPerTile;
+
+        Map<Long, TileInfo> tiles = new HashMap<Long, TileInfo>();
+
+        public Builder(File target, int featuresPerTile) throws IOException {
+            this.target = target;
+            this.featuresPerTile = featuresPerTile;
+            this.assignments = new File(target.getParentFile(), target.getName() + ".assignments");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                    assignments)));
+        }
+
+        /**
+         * Adds a feature to the specified tile
+         */
+        public void add(long x, long y, long z, String fid) throws IOException {
+            byte[] bytes = fid.getBytes(UTF8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Feature id is too long: " + fid);
+            }
+            long key = key(x, y, z);
+            TileInfo tile = tiles.get(key);
+            if (tile == null) {
+                tile = new TileInfo();
+                tiles.put(key, tile);
+            }
+            tile.count++;
+            tile.size += 2 + bytes.length;
+
+            out.writeLong(key);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Returns the number of features assigned to the tile so far
+         */
+        public int getCount(long x, long y, long z) {
+            TileInfo tile = tiles.get(key(x, y, z));
+            return tile == null ? 0 : tile.count;
+        }
+
+        /**
+         * Writes out the index and maps it in memory
+         *
+         * @return
+         * @throws IOException
+         */
+        public PackedTileIndex build() throws IOException {
+            return build(null);
+        }
+
+        /**
+         * Writes out the index and maps it in memory, replacing a previous version of it. The
+         * previous index stays usable while the new one is written, and gets closed only once the
+         * new one replaced its file, so that it can still be used if the replacement fails.
+         *
+         * @param previous the index being replaced, or null
+         * @return
+         * @throws IOException
+         */
+        public PackedTileIndex build(PackedTileIndex previous) throws IOException {
+            out.close();
+
+            // compute the layout of the data section
+            long[] keys = new long[tiles.size()];
+            int i = 0;
+            for (Long key : tiles.keySet()) {
+                keys[i++] = key;
+            }
+            Arrays.sort(keys);
+            long dataSize = 0;
+            for (long key : keys) {
+                TileInfo tile = tiles.get(key);
+                tile.offset = dataSize;
+                tile.cursor = dataSize;
+                dataSize += tile.size;
+            }
+            long dataOffset = HEADER_SIZE + (long) keys.length * TILE_ENTRY_SIZE;
+            long fileSize = dataOffset + dataSize;
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Regionating index would be too big: " + fileSize
+                        + " bytes");
+            }
+
+            File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            DataInputStream in = null;
+            try {
+                raf.setLength(fileSize);
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+                // header and tile table
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, featuresPerTile);
+                buffer.putInt(12, keys.length);
+                int position = HEADER_SIZE;
+                for (long key : keys) {
+                    TileInfo tile = tiles.get(key);
+                    buffer.putLong(position, key);
+                    buffer.putInt(position + 8, tile.count);
+                    buffer.putLong(position + 12, tile.offset);
+                    position += TILE_ENTRY_SIZE;
+                }
+
+                // scatter the assignments in their tiles, keeping the insertion order
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(assignments)));
+                byte[] bytes = new byte[256];
+                for (long remaining = assignments.length(); remaining > 0;) {
+                    long key = in.readLong();
+                    int length = in.readUnsignedShort();
+                    if (bytes.length < length) {
+                        bytes = new byte[length];
+                    }
+                    in.readFully(bytes, 0, length);
+                    remaining -= 10 + length;
+
+                    TileInfo tile = tiles.get(key);
+                    int writePosition = (int) (dataOffset + tile.cursor);
+                    buffer.putShort(writePosition, (short) length);
+                    for (int j = 0; j < length; j++) {
+                        buffer.put(writePosition + 2 + j, bytes[j]);
+                    }
+                    tile.cursor += 2 + length;
+                }
+                buffer.force();
+            } finally {
+                IOUtils.closeQuietly(in);
+                raf.close();
+                assignments.delete();
+            }
+
+            if (!temp.renameTo(target)) {
+                // some platforms won't rename over an existing file
+                target.delete();
+                if (!temp.renameTo(target)) {
+                    temp.delete();
+                    throw new IOException("Could not rename " + temp + " to " + target);
+                }
+            }
+            PackedTileIndex index = open(target);
+            if (previous != null) {
+                previous.close();
+            }
+            return index;
+        }
+
+        /**
+         * Drops the partial results, to be called if the build failed
+         */
+        public void abort() {
+            IOUtils.closeQuietly(out);
+            assignments.delete();
+        }
+    }
+
+    static class TileInfo {
+        int count;
+
+        long size;
+
+        long offset;
+
+        long cursor;
+    }
+}
@@ -4,17 +4,11 @@
  */
 package org.geoserver.kml;
 
-import java.sql.Connection;
-
 import org.geoserver.config.GeoServer;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureIterator;
-import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.type.GeometryDescriptor;
-import org.opengis.filter.FilterFactory;
-import org.opengis.filter.spatial.BBOX;
 
 /**
  * This strategy just return the features as they come from the db 
@@ -34,20 +28,11 @@ public class RandomRegionatingStrategy extends
     }
 
     @Override
-    public FeatureIterator getSortedFeatures(GeometryDescriptor geom, 
-            ReferencedEnvelope latLongEnv, ReferencedEnvelope nativeEnv,
-            Connection cacheConn) throws Exception {
+    public FeatureIterator getSortedFeatures(GeometryDescriptor geom) throws Exception {
         FeatureSource fs = featureType.getFeatureSource(null, null);
-        
-        // build the bbox filter
-        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
-        
-        BBOX filter = ff.bbox(geom.getLocalName(), nativeEnv.getMinX(),
-                nativeEnv.getMinY(), nativeEnv.getMaxX(), nativeEnv.getMaxY(), null);
 
         // build an optimized query (only the necessary attributes
         Query q = new Query();
-        q.setFilter(filter);
         // TODO: enable this when JTS learns how to compute centroids
         // without triggering the
         // generation of Coordinate[] out of the sequences...
@@ -0,0 +1,88 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Marks the regionating indexes of the layers modified by a WFS transaction as out of date, so
+ * that they get rebuilt on the next regionated request
+ */
+public class RegionatingIndexInvalidator implements TransactionPlugin {
+
+    static final Logger LOGGER = Logging.getLogger(RegionatingIndexInvalidator.class);
+
+    static final String MODIFIED_LAYERS = "KML_REGIONATING_MODIFIED_LAYERS";
+
+    Catalog catalog;
+
+    public RegionatingIndexInvalidator(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName name = event.getLayerName();
+        getModifiedLayers(event.getRequest()).add(name);
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        // nothing to do
+        return request;
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        if (!committed) {
+            return;
+        }
+        for (QName name : getModifiedLayers(request)) {
+            try {
+                FeatureTypeInfo ft = catalog.getFeatureTypeByName(name.getNamespaceURI(),
+                        name.getLocalPart());
+                if (ft != null) {
+                    CachedHierarchyRegionatingStrategy.invalidate(ft.getNamespace().getPrefix(),
+                            ft.getName());
+                }
+            } catch (RuntimeException e) {
+                // never make the transaction fail due to a regionating index problem
+                LOGGER.log(Level.WARNING, "Failed to invalidate the regionating index of " + name,
+                        e);
+            }
+        }
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<QName> getModifiedLayers(TransactionType transaction) {
+        Set<QName> layers = (Set<QName>) transaction.getExtendedProperties().get(MODIFIED_LAYERS);
+        if (layers == null) {
+            layers = new HashSet<QName>();
+            transaction.getExtendedProperties().put(MODIFIED_LAYERS, layers);
+        }
+        return layers;
+    }
+}
@@ -34,6 +34,7 @@ public class GeoSearchKMLTest extends RegionatingTestSupport {
     public void cleanupRegionationDatabases() throws IOException {
         File dir = getDataDirectory().findOrCreateDir("geosearch");
         FileUtils.deleteDirectory(dir);
+        CachedHierarchyRegionatingStrategy.clearIndexes();
     }
     
     @Test
@@ -0,0 +1,62 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+
+public class KMLCoordinateWriterTest {
+
+    @Test
+    public void testShortSequence() throws Exception {
+        CoordinateSequence cs = new CoordinateArraySequence(new Coordinate[] {
+                new Coordinate(1, 2), new Coordinate(3.5, 4.25, 10) });
+        CollectingHandler handler = new CollectingHandler();
+        new KMLCoordinateWriter(4, false).writeCoordinates(cs, handler);
+
+        assertEquals("1,2 3.5,4.25,10", handler.text.toString());
+        assertEquals(1, handler.calls);
+    }
+
+    @Test
+    public void testLongSequenceChunked() throws Exception {
+        Coordinate[] coords = new Coordinate[5000];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = new Coordinate(i, i + 0.5);
+            if (i > 0) {
+                expected.append(" ");
+            }
+            expected.append(i).append(",").append(i + 0.5);
+        }
+        CollectingHandler handler = new CollectingHandler();
+        new KMLCoordinateWriter(4, false).writeCoordinates(new CoordinateArraySequence(coords),
+                handler);
+
+        assertEquals(expected.toString(), handler.text.toString());
+        // sent out in chunks, not one call per coordinate
+        assertTrue(handler.calls > 1);
+        assertTrue(handler.calls < coords.length / 10);
+    }
+
+    static class CollectingHandler extends DefaultHandler {
+        StringBuilder text = new StringBuilder();
+
+        int calls;
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            text.append(ch, start, length);
+            calls++;
+        }
+    }
+}
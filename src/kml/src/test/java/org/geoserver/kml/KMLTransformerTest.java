@@ -17,7 +17,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -36,6 +38,8 @@ import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.util.IOUtils;
 import org.geoserver.kml.KMZMapResponse.KMZMap;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.data.DataUtilities;
@@ -106,6 +110,34 @@ public class KMLTransformerTest extends WMSTestSupport {
         assertEquals(nfeatures, element.getElementsByTagName("Placemark").getLength());
     }
 
+    @Test
+    public void testFlushPlacemarks() throws Exception {
+        GeoServer gs = getGeoServer();
+        WMSInfo wms = gs.getService(WMSInfo.class);
+        wms.getMetadata().put(WMS.KML_FLUSH_INTERVAL, 1);
+        gs.save(wms);
+        try {
+            final List<Integer> flushed = new ArrayList<Integer>();
+            ByteArrayOutputStream output = new ByteArrayOutputStream() {
+                @Override
+                public void flush() {
+                    flushed.add(size());
+                }
+            };
+            KMLTransformer transformer = new KMLTransformer(getWMS());
+            transformer.transform(mapContent, output);
+
+            // the placemarks reached the stream while the document was still being encoded
+            assertTrue(flushed.size() > 1);
+            assertTrue(flushed.get(0) > 0);
+            assertTrue(flushed.get(0) < output.size());
+        } finally {
+            wms = gs.getService(WMSInfo.class);
+            wms.getMetadata().remove(WMS.KML_FLUSH_INTERVAL);
+            gs.save(wms);
+        }
+    }
+
     /**
      * See http://jira.codehaus.org/browse/GEOS-1947
      * 
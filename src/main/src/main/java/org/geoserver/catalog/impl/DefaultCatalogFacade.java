@@ -40,6 +40,7 @@ import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
 /**
@@ -1149,6 +1150,22 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             throw new IllegalArgumentException("Unknown type: " + of);
         }
 
+        // filter first, so that only the matching objects get sorted
+        if (!Filter.INCLUDE.equals(filter)) {
+            com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
+
+                @Override
+                public boolean apply(T input) {
+                    return filter.evaluate(input);
+                }
+            };
+
+            if (null == sortBy) {
+                return Iterables.filter(all, filterAdapter);
+            }
+            all = Lists.newArrayList(Iterables.filter(all, filterAdapter));
+        }
+
         if (null != sortBy) {
             Ordering<Object> ordering = Ordering.from(comparator(sortBy));
             if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
@@ -1157,19 +1174,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             all = ordering.sortedCopy(all);
         }
 
-        if (Filter.INCLUDE.equals(filter)) {
-            return all;
-        }
-
-        com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
-
-            @Override
-            public boolean apply(T input) {
-                return filter.evaluate(input);
-            }
-        };
-
-        return Iterables.filter(all, filterAdapter);
+        return all;
     }
 
     private Comparator<Object> comparator(final SortBy sortOrder) {
@@ -0,0 +1,419 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.ows.util.OwsUtils;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Brings a catalog in synch with another one (usually freshly read from the data directory) by
+ * adding, modifying and removing only the objects that differ between the two.
+ * <p>
+ * Each change goes through the standard catalog methods, so the usual events are fired and the
+ * resource caches are cleared only for the objects that actually changed. Two objects are
+ * considered equal when their XML representation is the same, objects are matched by id.
+ * </p>
+ * <p>
+ * Modified objects are updated in place by copying over all their properties, null ones
+ * included, so that a property cleared in the data directory gets cleared in the catalog too.
+ * </p>
+ * <p>
+ * The objects that cannot be added, modified or removed are skipped, and once the others have
+ * been synchronized a {@link CatalogException} reports the failures.
+ * </p>
+ * <p>
+ * The caller can provide the ids of the objects known to be unchanged, e.g. because their file
+ * did not change since the last load, whose comparison is then skipped.
+ * </p>
+ */
+public class CatalogSynchronizer {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogSynchronizer.class);
+
+    static final List<Class<? extends CatalogInfo>> SPECIFIC_TYPES = Arrays
+            .<Class<? extends CatalogInfo>> asList(DataStoreInfo.class, CoverageStoreInfo.class,
+                    WMSStoreInfo.class, FeatureTypeInfo.class, CoverageInfo.class,
+                    WMSLayerInfo.class);
+
+    Catalog catalog;
+
+    XStreamPersister xp;
+
+    int added;
+
+    int modified;
+
+    int removed;
+
+    List<String> failures = new ArrayList<String>();
+
+    Set<String> unchangedIds = Collections.emptySet();
+
+    Exception failure;
+
+    /**
+     * Creates a synchronizer updating the specified catalog
+     *
+     * @param catalog the catalog to be updated
+     * @param xpf
+     */
+    public CatalogSynchronizer(Catalog catalog, XStreamPersisterFactory xpf) {
+        this.catalog = catalog;
+        // a persister resolving references against the target catalog, plain text passwords
+        // make sure the comparison is not fooled by the encryption salt
+        this.xp = xpf.createXMLPersister();
+        this.xp.setCatalog(catalog);
+        this.xp.setEncryptPasswordFields(false);
+    }
+
+    /**
+     * Sets the ids of the objects known to be the same in the source and target catalogs, they
+     * won't be compared
+     */
+    public void setUnchangedIds(Set<String> unchangedIds) {
+        this.unchangedIds = unchangedIds != null ? unchangedIds : Collections.<String> emptySet();
+    }
+
+    /**
+     * Applies to the catalog the differences with the specified source catalog
+     *
+     * @param source
+     */
+    public void synchronize(Catalog source) throws CatalogException {
+        added = modified = removed = 0;
+        failures.clear();
+        failure = null;
+
+        // the files have already been changed, don't write them back
+        List<GeoServerPersister> persisters = GeoServerPersister.getPersisters(catalog);
+        catalog.removeListeners(GeoServerPersister.class);
+
+        try {
+            // additions and modifications, following the dependencies
+            List<WorkspaceInfo> oldWorkspaces = update(source.getWorkspaces(),
+                    catalog.getWorkspaces(), WorkspaceInfo.class);
+            List<NamespaceInfo> oldNamespaces = update(source.getNamespaces(),
+                    catalog.getNamespaces(), NamespaceInfo.class);
+            List<StoreInfo> oldStores = update(source.getStores(StoreInfo.class),
+                    catalog.getStores(StoreInfo.class), StoreInfo.class);
+            List<ResourceInfo> oldResources = update(source.getResources(ResourceInfo.class),
+                    catalog.getResources(ResourceInfo.class), ResourceInfo.class);
+            Set<String> modifiedStyles = new HashSet<String>();
+            List<StyleInfo> oldStyles = update(source.getStyles(), catalog.getStyles(),
+                    StyleInfo.class, modifiedStyles);
+            List<LayerInfo> oldLayers = update(source.getLayers(), catalog.getLayers(),
+                    LayerInfo.class);
+            List<LayerGroupInfo> oldGroups = update(source.getLayerGroups(),
+                    catalog.getLayerGroups(), LayerGroupInfo.class);
+
+            updateDefaults(source);
+
+            // removals, in reverse order
+            removeAll(oldGroups);
+            removeAll(oldLayers);
+            removeAll(oldStyles);
+            removeAll(oldResources);
+            removeAll(oldStores);
+            removeAll(oldNamespaces);
+            removeAll(oldWorkspaces);
+
+            // the style files might have been changed without touching the style configuration,
+            // styles are cheap to parse so let them be reloaded
+            for (StyleInfo style : catalog.getStyles()) {
+                if (!modifiedStyles.contains(style.getId())) {
+                    catalog.getResourcePool().clear(style);
+                }
+            }
+        } finally {
+            for (CatalogListener listener : persisters) {
+                catalog.addListener(listener);
+            }
+        }
+
+        LOGGER.info("Catalog synchronized, " + added + " objects added, " + modified
+                + " modified, " + removed + " removed");
+        if (!failures.isEmpty()) {
+            throw new CatalogException("Failed to synchronize " + failures.size()
+                    + " catalog objects: " + failures, failure);
+        }
+    }
+
+    <T extends CatalogInfo> List<T> update(List<T> sourceInfos, List<T> targetInfos,
+            Class<T> clazz) {
+        return update(sourceInfos, targetInfos, clazz, null);
+    }
+
+    /**
+     * Adds and modifies the target objects to match the source ones, returns the target objects
+     * that are not found in the source
+     */
+    <T extends CatalogInfo> List<T> update(List<T> sourceInfos, List<T> targetInfos,
+            Class<T> clazz, Set<String> modifiedIds) {
+        Map<String, T> targets = new LinkedHashMap<String, T>();
+        for (T info : targetInfos) {
+            targets.put(info.getId(), info);
+        }
+        Set<String> sourceIds = new HashSet<String>();
+        for (T info : sourceInfos) {
+            sourceIds.add(info.getId());
+        }
+
+        // objects can depend on others of the same type (e.g., nested layer groups), retry the
+        // failed ones as long as we are making progress
+        List<T> pending = new ArrayList<T>(sourceInfos);
+        while (!pending.isEmpty()) {
+            List<T> failed = new ArrayList<T>();
+            Exception lastError = null;
+            for (T source : pending) {
+                try {
+                    T target = targets.get(source.getId());
+                    if (target == null) {
+                        add(copy(serialize(source), clazz));
+                        added++;
+                    } else if (!unchangedIds.contains(source.getId())) {
+                        byte[] sourceXml = serialize(source);
+                        if (!Arrays.equals(sourceXml, serialize(target))) {
+                            modify(copy(sourceXml, clazz), target, clazz);
+                            modified++;
+                            if (modifiedIds != null) {
+                                modifiedIds.add(target.getId());
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    failed.add(source);
+                    lastError = e;
+                }
+            }
+
+            if (failed.size() == pending.size()) {
+                for (T source : failed) {
+                    LOGGER.log(Level.WARNING, "Failed to synchronize " + source, lastError);
+                    failures.add(source.toString());
+                }
+                failure = lastError;
+                break;
+            }
+            pending = failed;
+        }
+
+        List<T> result = new ArrayList<T>();
+        for (T target : targets.values()) {
+            if (!sourceIds.contains(target.getId())) {
+                result.add(target);
+            }
+        }
+        return result;
+    }
+
+    void updateDefaults(Catalog source) {
+        WorkspaceInfo ws = source.getDefaultWorkspace();
+        WorkspaceInfo currentWs = catalog.getDefaultWorkspace();
+        if (ws != null && (currentWs == null || !ws.getId().equals(currentWs.getId()))) {
+            catalog.setDefaultWorkspace(catalog.getWorkspace(ws.getId()));
+        }
+        NamespaceInfo ns = source.getDefaultNamespace();
+        NamespaceInfo currentNs = catalog.getDefaultNamespace();
+        if (ns != null && (currentNs == null || !ns.getId().equals(currentNs.getId()))) {
+            catalog.setDefaultNamespace(catalog.getNamespace(ns.getId()));
+        }
+        for (WorkspaceInfo sourceWs : source.getWorkspaces()) {
+            DataStoreInfo store = source.getDefaultDataStore(sourceWs);
+            WorkspaceInfo targetWs = catalog.getWorkspace(sourceWs.getId());
+            if (store == null || targetWs == null) {
+                continue;
+            }
+            DataStoreInfo currentStore = catalog.getDefaultDataStore(targetWs);
+            if (currentStore == null || !store.getId().equals(currentStore.getId())) {
+                DataStoreInfo targetStore = catalog.getDataStore(store.getId());
+                if (targetStore != null) {
+                    catalog.setDefaultDataStore(targetWs, targetStore);
+                }
+            }
+        }
+    }
+
+    <T extends CatalogInfo> void removeAll(List<T> infos) {
+        // again, retry in case of dependencies among objects of the same type
+        List<T> pending = new ArrayList<T>(infos);
+        while (!pending.isEmpty()) {
+            List<T> failed = new ArrayList<T>();
+            Exception lastError = null;
+            for (T info : pending) {
+                try {
+                    remove(info);
+                    removed++;
+                } catch (Exception e) {
+                    failed.add(info);
+                    lastError = e;
+                }
+            }
+            if (failed.size() == pending.size()) {
+                for (T info : failed) {
+                    LOGGER.log(Level.WARNING, "Failed to remove " + info, lastError);
+                    failures.add(info.toString());
+                }
+                failure = lastError;
+                break;
+            }
+            pending = failed;
+        }
+    }
+
+    <T extends CatalogInfo> void modify(T source, T target, Class<T> clazz) {
+        Class<? extends CatalogInfo> specific = getSpecificType(target, clazz);
+        if (!specific.isInstance(source)) {
+            throw new IllegalArgumentException("Cannot change the type of " + target + " to "
+                    + source.getClass().getSimpleName());
+        }
+        if (source instanceof ResourceInfo) {
+            // not persisted, keep the one in use
+            ((ResourceInfo) source).setCatalog(((ResourceInfo) target).getCatalog());
+        }
+        copy(source, target, specific);
+        save(target);
+    }
+
+    <S extends CatalogInfo> void copy(CatalogInfo source, CatalogInfo target, Class<S> type) {
+        OwsUtils.copy(type.cast(source), type.cast(target), type, true);
+    }
+
+    Class<? extends CatalogInfo> getSpecificType(CatalogInfo info,
+            Class<? extends CatalogInfo> clazz) {
+        Object impl = ModificationProxy.unwrap(info);
+        for (Class<? extends CatalogInfo> type : SPECIFIC_TYPES) {
+            if (clazz.isAssignableFrom(type) && type.isInstance(impl)) {
+                return type;
+            }
+        }
+        return clazz;
+    }
+
+    byte[] serialize(CatalogInfo info) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        xp.save(info, bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads back the object, with the references resolved against the target catalog
+     */
+    <T> T copy(byte[] xml, Class<T> clazz) throws IOException {
+        return xp.load(new ByteArrayInputStream(xml), clazz);
+    }
+
+    void add(CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.add((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.add((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.add((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.add((ResourceInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.add((StyleInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.add((LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.add((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unknown catalog object " + info);
+        }
+    }
+
+    void save(CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.save((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.save((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.save((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.save((ResourceInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.save((StyleInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.save((LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.save((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unknown catalog object " + info);
+        }
+    }
+
+    void remove(CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.remove((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.remove((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.remove((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.remove((ResourceInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.remove((StyleInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.remove((LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.remove((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unknown catalog object " + info);
+        }
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getModified() {
+        return modified;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * The objects that could not be synchronized during the last run
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+}
@@ -47,10 +47,17 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
         
         if ( !legacy ) {
             //add the listener which will persist changes
-            catalog.addListener( new GeoServerPersister( resourceLoader, xp ) );
+            GeoServerPersister p = new GeoServerPersister( resourceLoader, xp );
+            p.setWriteBehindDelay( GeoServerPersister.getConfiguredWriteBehindDelay() );
+            catalog.addListener( p );
         }
     }
     
+    @Override
+    protected boolean canReloadCatalogIncrementally() {
+        return !legacy;
+    }
+
     protected void loadGeoServer(final GeoServer geoServer, XStreamPersister xp) throws Exception {
         if(listener == null) { 
             // add event listener which persists changes
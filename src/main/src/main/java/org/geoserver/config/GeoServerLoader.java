@@ -5,6 +5,7 @@
 package org.geoserver.config;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -13,10 +14,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
@@ -24,6 +30,7 @@ import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
@@ -37,7 +44,11 @@ import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
+import org.geoserver.catalog.event.CatalogAddEvent;
 import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
@@ -70,6 +81,18 @@ public abstract class GeoServerLoader {
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
+
+    /**
+     * The checksums of the catalog files as last read, by object id. The ids of the objects
+     * modified in memory afterwards are removed. Used to skip the comparison of the unchanged
+     * objects during incremental reloads
+     */
+    volatile Map<String, Long> catalogChecksums = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Collects the checksums of the files while the catalog is being read, null otherwise
+     */
+    Map<String, Long> readChecksums;
     
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
@@ -211,10 +234,69 @@ public abstract class GeoServerLoader {
         loadGeoServer( geoserver, xp);
     }
 
+    /**
+     * Reloads the catalog from the data directory, applying to the in memory catalog only the
+     * objects that have been added, modified or removed, so that the resource caches of the
+     * others are preserved. The configuration is not reloaded.
+     * 
+     * @return false if the loader cannot do an incremental reload, in that case nothing is done
+     *         and a full reload is needed
+     */
+    public boolean reloadCatalogIncrementally() throws Exception {
+        if (!canReloadCatalogIncrementally() || resourceLoader.find("catalog.xml") != null) {
+            return false;
+        }
+
+        synchronized (org.geoserver.config.GeoServer.CONFIGURATION_LOCK) {
+            Catalog catalog = geoserver.getCatalog();
+            if (catalog instanceof Wrapper) {
+                catalog = ((Wrapper) geoserver.getCatalog()).unwrap(Catalog.class);
+            }
+
+            // make sure the data directory is up to date before reading it
+            for (GeoServerPersister persister : GeoServerPersister.getPersisters(catalog)) {
+                persister.flush();
+            }
+
+            Map<String, Long> checksums = new HashMap<String, Long>();
+            Catalog source = readCatalog(xpf.createXMLPersister(), checksums);
+            Map<String, Long> previous = catalogChecksums;
+            // until the synchronization succeeds no object can be assumed to be in synch
+            catalogChecksums = new ConcurrentHashMap<String, Long>();
+            try {
+                Set<String> unchanged = new HashSet<String>();
+                for (Map.Entry<String, Long> entry : checksums.entrySet()) {
+                    if (entry.getValue().equals(previous.get(entry.getKey()))) {
+                        unchanged.add(entry.getKey());
+                    }
+                }
+                CatalogSynchronizer synchronizer = new CatalogSynchronizer(catalog, xpf);
+                synchronizer.setUnchangedIds(unchanged);
+                synchronizer.synchronize(source);
+                catalogChecksums = new ConcurrentHashMap<String, Long>(checksums);
+            } finally {
+                source.dispose();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if the catalog is read from the data directory and can be thus be reloaded
+     * with {@link #reloadCatalogIncrementally()}
+     */
+    protected boolean canReloadCatalogIncrementally() {
+        return false;
+    }
+
     protected void readCatalog(Catalog catalog, XStreamPersister xp) throws Exception {
         // we are going to synch up the catalogs and need to preserve listeners,
         // but these two fellas are attached to the new catalog as well
         catalog.removeListeners(ResourcePool.CacheClearingListener.class);
+        for (GeoServerPersister persister : GeoServerPersister.getPersisters(catalog)) {
+            persister.dispose();
+        }
         catalog.removeListeners(GeoServerPersister.class);
         List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
 
@@ -223,9 +305,11 @@ public abstract class GeoServerLoader {
         File f = resourceLoader.find( "catalog.xml" );
         if ( f == null ) {
             //assume 2.x style data directory
-            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
+            Map<String, Long> checksums = new HashMap<String, Long>();
+            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp, checksums );
             // make to remove the old resource pool catalog listener
             ((CatalogImpl)catalog).sync( catalog2 );
+            catalogChecksums = new ConcurrentHashMap<String, Long>(checksums);
         } else {
             // import old style catalog, register the persister now so that we start 
             // with a new version of the catalog
@@ -237,6 +321,22 @@ public abstract class GeoServerLoader {
         for (CatalogListener listener : listeners) {
             catalog.addListener(listener);
         }
+
+        // track the objects modified in memory from now on
+        catalog.removeListeners(ChecksumInvalidator.class);
+        catalog.addListener(new ChecksumInvalidator());
+    }
+
+    /**
+     * Reads the catalog from disk, collecting the checksums of the files read, by object id
+     */
+    Catalog readCatalog(XStreamPersister xp, Map<String, Long> checksums) throws Exception {
+        readChecksums = checksums;
+        try {
+            return readCatalog(xp);
+        } finally {
+            readChecksums = null;
+        }
     }
     
     /**
@@ -727,6 +827,18 @@ public abstract class GeoServerLoader {
      * Helper method which uses xstream to depersist an object as xml from disk.
      */
     <T> T depersist( XStreamPersister xp, File f , Class<T> clazz ) throws IOException {
+        if (readChecksums != null) {
+            // the file is small, read it once to both parse it and compute its checksum
+            byte[] bytes = FileUtils.readFileToByteArray(f);
+            T result = xp.load(new ByteArrayInputStream(bytes), clazz);
+            if (result instanceof CatalogInfo) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                readChecksums.put(((CatalogInfo) result).getId(),
+                        ((long) bytes.length << 32) | crc.getValue());
+            }
+            return result;
+        }
         BufferedInputStream in = new BufferedInputStream( new FileInputStream( f ) );
         try {
             return xp.load( in, clazz );
@@ -752,7 +864,44 @@ public abstract class GeoServerLoader {
         return files;
     }
     
+    /**
+     * Drops the checksums of the objects changed in memory, they have to be compared during the
+     * next incremental reload
+     */
+    class ChecksumInvalidator implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+            catalogChecksums.remove(event.getSource().getId());
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            catalogChecksums.remove(event.getSource().getId());
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+            catalogChecksums.remove(event.getSource().getId());
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            catalogChecksums.remove(event.getSource().getId());
+        }
+
+        public void reloaded() {
+        }
+    }
+
     public void destroy() throws Exception {
+        //write out the queued changes
+        Catalog catalog = geoserver.getCatalog();
+        if (catalog instanceof Wrapper) {
+            catalog = ((Wrapper) catalog).unwrap(Catalog.class);
+        }
+        if (catalog != null) {
+            for (GeoServerPersister persister : GeoServerPersister.getPersisters(catalog)) {
+                persister.dispose();
+            }
+        }
+
         //dispose
         geoserver.dispose();
     }
@@ -65,6 +65,17 @@ public class GeoServerLoaderProxy implements BeanPostProcessor, DisposableBean,
             loader.reload();
         }
     }
+
+    /**
+     * @see GeoServerLoader#reloadCatalogIncrementally()
+     */
+    public boolean reloadCatalogIncrementally() throws Exception {
+        if (loader != null) {
+            return loader.reloadCatalogIncrementally();
+        }
+        return false;
+    }
+
     public void destroy() throws Exception {
         if (loader != null) {
             loader.destroy();
@@ -12,12 +12,21 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.geoserver.GeoServerConfigurationLock;
+import org.geoserver.GeoServerConfigurationLock.LockType;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogException;
 import org.geoserver.catalog.CoverageInfo;
@@ -33,12 +42,14 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.Wrapper;
 import org.geoserver.catalog.event.CatalogAddEvent;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.data.DataUtilities;
 import org.geotools.styling.AbstractStyleVisitor;
@@ -48,22 +59,273 @@ import org.geotools.util.logging.Logging;
 import static org.geoserver.data.util.IOUtils.rename;
 import static org.geoserver.data.util.IOUtils.xStreamPersist;
 
+/**
+ * Persists catalog and configuration changes in the data directory.
+ * <p>
+ * By default each change is written as soon as the event is received. In write-behind mode
+ * (see {@link #setWriteBehindDelay(long)}) the objects to be saved are queued instead, a change
+ * to an object already in the queue replaces the queued one, and the queue is written out in
+ * batches by a background thread. Changes moving or removing files act as a barrier, the queue
+ * is flushed before they are applied. Changes that could not be written are queued again, unless
+ * a newer one for the same file has been queued meanwhile, and retried at the next flush.
+ * </p>
+ */
 public class GeoServerPersister implements CatalogListener, ConfigurationListener {
 
     /**
      * logging instance
      */
     static Logger LOGGER = Logging.getLogger( "org.geoserver.config");
+
+    /**
+     * System property enabling the write-behind mode for the catalog, the value is the delay in
+     * milliseconds between two writes of the queued changes
+     */
+    public static final String WRITE_BEHIND_DELAY = "GEOSERVER_CATALOG_WRITE_BEHIND_DELAY";
+
+    /**
+     * Number of queued changes triggering a write regardless of the delay
+     */
+    static final int BATCH_SIZE = 1000;
      
     GeoServerResourceLoader rl;
     GeoServerDataDirectory dd;
     XStreamPersister xp;
+
+    /**
+     * The objects waiting to be written, by target file, in write-behind mode
+     */
+    Map<File, Object> pending = new LinkedHashMap<File, Object>();
+
+    /**
+     * Serializes the writes of the queued changes
+     */
+    Object flushLock = new Object();
+
+    volatile ScheduledExecutorService executor;
+
+    Runnable flushTask = new Runnable() {
+        public void run() {
+            // don't write objects while a configuration change is being applied to them
+            GeoServerConfigurationLock lock = GeoServerExtensions
+                    .bean(GeoServerConfigurationLock.class);
+            if (lock != null) {
+                lock.lock(LockType.READ);
+            }
+            try {
+                flush();
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, "Failed to write the queued configuration changes", t);
+            } finally {
+                if (lock != null) {
+                    lock.unlock(LockType.READ);
+                }
+            }
+        }
+    };
     
     public GeoServerPersister(GeoServerResourceLoader rl, XStreamPersister xp) {
         this.rl = rl;
         this.dd = new GeoServerDataDirectory(rl);
         this.xp = xp;
     }
+
+    /**
+     * Returns the write-behind delay configured with the {@link #WRITE_BEHIND_DELAY} property, or
+     * 0 if the write-behind mode has not been enabled
+     */
+    public static long getConfiguredWriteBehindDelay() {
+        String value = GeoServerExtensions.getProperty(WRITE_BEHIND_DELAY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + WRITE_BEHIND_DELAY + ": "
+                        + value + ", changes will be written synchronously");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Enables the write-behind mode, queued changes will be written every <code>delay</code>
+     * milliseconds, or sooner if the queue grows past {@link #BATCH_SIZE}. A non positive delay
+     * disables it, after writing out the queued changes.
+     */
+    public void setWriteBehindDelay(long delay) {
+        dispose();
+        if (delay > 0) {
+            ScheduledExecutorService executor = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GeoServerPersister");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.scheduleWithFixedDelay(flushTask, delay, delay, TimeUnit.MILLISECONDS);
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Returns true if the persister queues the changes instead of writing them immediately
+     */
+    public boolean isWriteBehind() {
+        return executor != null;
+    }
+
+    /**
+     * Returns the number of changes waiting to be written
+     */
+    public int getQueueLength() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Writes out all the changes queued so far, returning when they are on disk. Does nothing
+     * if the persister is not in write-behind mode.
+     * 
+     * @throws IOException if some of the changes could not be written, they stay in the queue
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            Map<File, Object> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<File, Object>(pending);
+                pending.clear();
+            }
+
+            Map<File, Object> failed;
+            try {
+                failed = write(batch);
+            } catch (RuntimeException e) {
+                requeue(batch);
+                throw e;
+            }
+            if (!failed.isEmpty()) {
+                requeue(failed);
+                throw new IOException("Failed to persist " + failed.size() + " of the "
+                        + batch.size() + " queued changes, they will be retried, "
+                        + "check the logs for details");
+            }
+        }
+    }
+
+    /**
+     * Puts back in the queue the changes that could not be written, ahead of the ones queued in
+     * the meantime, unless they have been superseded by a newer change to the same file
+     */
+    void requeue(Map<File, Object> failed) {
+        synchronized (pending) {
+            Map<File, Object> queue = new LinkedHashMap<File, Object>();
+            for (Map.Entry<File, Object> entry : failed.entrySet()) {
+                if (!pending.containsKey(entry.getKey())) {
+                    queue.put(entry.getKey(), entry.getValue());
+                }
+            }
+            queue.putAll(pending);
+            pending.clear();
+            pending.putAll(queue);
+        }
+    }
+
+    /**
+     * Writes out the queued changes before files are moved or removed. A failure to write some
+     * of them is logged and does not prevent the file operation, the changes that could not be
+     * written stay in the queue and follow the files they belong to.
+     */
+    void barrier() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write the queued configuration changes, "
+                    + "proceeding with the move or removal anyway", e);
+        }
+    }
+
+    /**
+     * Drops the queued changes for the specified file, or for any file under it if it's a
+     * directory, so that they don't recreate it once removed
+     */
+    void discard(File f) {
+        synchronized (pending) {
+            for (Iterator<File> it = pending.keySet().iterator(); it.hasNext();) {
+                if (isSameOrChild(it.next(), f)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the queued changes for the specified file, or for any file under it if it's a
+     * directory, to the new location
+     */
+    void relocate(File from, File to) {
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            String prefix = from.getAbsolutePath();
+            Map<File, Object> queue = new LinkedHashMap<File, Object>();
+            for (Map.Entry<File, Object> entry : pending.entrySet()) {
+                File f = entry.getKey();
+                if (isSameOrChild(f, from)) {
+                    f = new File(to.getAbsolutePath()
+                            + f.getAbsolutePath().substring(prefix.length()));
+                }
+                queue.put(f, entry.getValue());
+            }
+            pending.clear();
+            pending.putAll(queue);
+        }
+    }
+
+    static boolean isSameOrChild(File f, File parent) {
+        String path = f.getAbsolutePath();
+        String parentPath = parent.getAbsolutePath();
+        return path.equals(parentPath) || path.startsWith(parentPath + File.separator);
+    }
+
+    /**
+     * Returns the persisters attached to the catalog, unwrapping it if necessary
+     */
+    public static List<GeoServerPersister> getPersisters(Catalog catalog) {
+        if (catalog instanceof Wrapper && ((Wrapper) catalog).isWrapperFor(Catalog.class)) {
+            catalog = ((Wrapper) catalog).unwrap(Catalog.class);
+        }
+        List<GeoServerPersister> persisters = new ArrayList<GeoServerPersister>();
+        for (CatalogListener listener : catalog.getListeners()) {
+            if (listener instanceof GeoServerPersister) {
+                persisters.add((GeoServerPersister) listener);
+            }
+        }
+        return persisters;
+    }
+
+    /**
+     * Writes out the queued changes and stops the write-behind thread, if any
+     */
+    public void dispose() {
+        ScheduledExecutorService executor = this.executor;
+        if (executor != null) {
+            this.executor = null;
+            executor.shutdown();
+            try {
+                flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to write the queued configuration changes, "
+                        + getQueueLength() + " of them are still queued", e);
+            }
+        }
+    }
     
     public void handleAddEvent(CatalogAddEvent event) {
         Object source = event.getSource();
@@ -111,6 +373,13 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         Object source = event.getSource();
         
         try {
+            //files are about to be moved around, write out the queued changes first
+            List<String> names = event.getPropertyNames();
+            if ( names.contains( "name" ) || names.contains( "workspace" ) 
+                    || names.contains( "store" ) ) {
+                barrier();
+            }
+
             //here we handle name changes
             int i = event.getPropertyNames().indexOf( "name" );
             if ( i > -1 ) {
@@ -139,7 +408,9 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
                 if ( i > -1 ) {
                     WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
                     File oldDir = dir( (StoreInfo) source );
-                    oldDir.renameTo( new File( dir( newWorkspace ), oldDir.getName() ) );
+                    File newDir = new File( dir( newWorkspace ), oldDir.getName() );
+                    relocate( oldDir, newDir );
+                    oldDir.renameTo( newDir );
                 }
             }
             
@@ -149,7 +420,9 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
                 if ( i > -1 ) {
                     StoreInfo newStore = (StoreInfo) event.getNewValues().get( i );
                     File oldDir = dir( (FeatureTypeInfo) source );
-                    oldDir.renameTo( new File( dir( newStore ), oldDir.getName() ) );
+                    File newDir = new File( dir( newStore ), oldDir.getName() );
+                    relocate( oldDir, newDir );
+                    oldDir.renameTo( newDir );
                 }
             }
 
@@ -168,7 +441,9 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
 
                     //move over the config file and the sld
                     for (File oldFile : files((StyleInfo)source)) {
-                        oldFile.renameTo(new File(newDir, oldFile.getName()));
+                        File newFile = new File(newDir, oldFile.getName());
+                        relocate(oldFile, newFile);
+                        oldFile.renameTo(newFile);
                     }
 
                 }
@@ -180,7 +455,9 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
                 if (i > -1) {
                     WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
                     File oldFile = file((LayerGroupInfo)source);
-                    oldFile.renameTo(new File(dd.layerGroupDir(true, newWorkspace), oldFile.getName()));
+                    File newFile = new File(dd.layerGroupDir(true, newWorkspace), oldFile.getName());
+                    relocate(oldFile, newFile);
+                    oldFile.renameTo(newFile);
                 }
             }
 
@@ -248,6 +525,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     public void handleRemoveEvent(CatalogRemoveEvent event) {
         Object source = event.getSource();
         try {
+            barrier();
             if ( source instanceof WorkspaceInfo ) {
                 removeWorkspace( (WorkspaceInfo) source );
             }
@@ -313,8 +591,11 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
             LOGGER.fine( "Moving settings '" + settings + " to workspace: " + newWorkspace);
 
             try {
+                barrier();
                 File oldFile = file(settings);
-                oldFile.renameTo( new File( dir( newWorkspace ), oldFile.getName() ) );
+                File newFile = new File( dir( newWorkspace ), oldFile.getName() );
+                relocate( oldFile, newFile );
+                oldFile.renameTo( newFile );
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -334,7 +615,8 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     public void handleSettingsRemoved(SettingsInfo settings) {
         LOGGER.fine( "Removing settings " + settings );
         try {
-            file(settings).delete();
+            barrier();
+            delete(file(settings));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -380,7 +662,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void renameWorkspace( WorkspaceInfo ws, String newName ) throws IOException {
         LOGGER.fine( "Renaming workspace " + ws.getName() + "to " + newName );
-        rename( dir( ws ), newName );
+        move( dir( ws ), newName );
     }
     
     void modifyWorkspace( WorkspaceInfo ws ) throws IOException {
@@ -424,7 +706,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void removeNamespace( NamespaceInfo ns ) throws IOException {
         LOGGER.fine( "Removing namespace " + ns.getPrefix() );
-        file( ns ).delete();
+        delete( file( ns ) );
     }
     
     File dir( NamespaceInfo ns ) throws IOException {
@@ -454,7 +736,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void renameStore( StoreInfo s, String newName ) throws IOException {
         LOGGER.fine( "Renaming store " + s.getName() + "to " + newName );
-        rename( dir( s ), newName );
+        move( dir( s ), newName );
     }
     
     void modifyDataStore( DataStoreInfo ds ) throws IOException {
@@ -485,7 +767,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void renameResource( ResourceInfo r, String newName ) throws IOException {
         LOGGER.fine( "Renaming resource " + r.getName() + " to " + newName );
-        rename( dir( r ), newName );
+        move( dir( r ), newName );
     }
     
     void modifyFeatureType( FeatureTypeInfo ft ) throws IOException {
@@ -634,7 +916,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void renameStyle( StyleInfo s, String newName ) throws IOException {
         LOGGER.fine( "Renameing style " + s.getName() + " to " + newName );
-        rename( file( s ), newName+".xml" );
+        move( file( s ), newName+".xml" );
     }
     
     void modifyStyle( StyleInfo s ) throws IOException {
@@ -660,7 +942,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void removeStyle( StyleInfo s ) throws IOException {
         LOGGER.fine( "Removing style " + s.getName() );
-        file( s ).delete();
+        delete( file( s ) );
     }
     
     File dir( StyleInfo s ) throws IOException {
@@ -743,7 +1025,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void renameLayerGroup( LayerGroupInfo lg, String newName ) throws IOException {
         LOGGER.fine( "Renaming layer group " + lg.getName() + " to " + newName );
-        rename( file( lg ), newName+".xml" );
+        move( file( lg ), newName+".xml" );
     }
 
     void modifyLayerGroup( LayerGroupInfo lg ) throws IOException {
@@ -753,7 +1035,7 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     
     void removeLayerGroup( LayerGroupInfo lg ) throws IOException {
         LOGGER.fine( "Removing layer group " + lg.getName() );
-        file( lg ).delete();
+        delete( file( lg ) );
     }
     
     File dir( LayerGroupInfo lg ) throws IOException {
@@ -781,6 +1063,10 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     }
 
     void persist( Object o, File f ) throws IOException {
+        if ( executor != null ) {
+            enqueue( o, f );
+            return;
+        }
         try {
             synchronized ( xp ) {
                 xStreamPersist(f, o, xp);
@@ -794,9 +1080,89 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         }
     }
 
+    void enqueue( Object o, File f ) {
+        boolean full;
+        synchronized ( pending ) {
+            //a later change replaces the queued one, and moves to the end of the queue
+            pending.remove( f );
+            pending.put( f, o );
+            full = pending.size() == BATCH_SIZE;
+        }
+        LOGGER.fine("Queued " + o.getClass().getName() + " for " + f.getAbsolutePath() );
+
+        ScheduledExecutorService executor = this.executor;
+        if ( full && executor != null ) {
+            executor.execute( flushTask );
+        }
+    }
+
+    /*
+     * writes all the objects to temporary files first, then renames them in place, so that
+     * a failure encoding an object does not leave a half written file around. Returns the
+     * entries that could not be written.
+     */
+    Map<File, Object> write( Map<File, Object> batch ) {
+        Map<File, File> written = new LinkedHashMap<File, File>();
+        Map<File, Object> failed = new LinkedHashMap<File, Object>();
+        for ( Map.Entry<File, Object> entry : batch.entrySet() ) {
+            File f = entry.getKey();
+            Object o = entry.getValue();
+            File temp = new File( f.getParentFile(), f.getName() + ".tmp" );
+            BufferedOutputStream out = null;
+            try {
+                out = new BufferedOutputStream( new FileOutputStream( temp ) );
+                synchronized ( xp ) {
+                    xp.save( o, out );
+                }
+                out.flush();
+                written.put( temp, f );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.SEVERE, "Error persisting " + o + " to " + f.getAbsolutePath(), e );
+                failed.put( f, o );
+            }
+            finally {
+                IOUtils.closeQuietly( out );
+            }
+            if ( !written.containsKey( temp ) ) {
+                temp.delete();
+            }
+        }
+
+        for ( Map.Entry<File, File> entry : written.entrySet() ) {
+            File f = entry.getValue();
+            try {
+                rename( entry.getKey(), f );
+            }
+            catch( IOException e ) {
+                LOGGER.log( Level.SEVERE, "Error persisting " + f, e );
+                entry.getKey().delete();
+                failed.put( f, batch.get( f ) );
+            }
+        }
+        LOGGER.fine( "Persisted " + ( batch.size() - failed.size() ) + " queued changes" );
+
+        return failed;
+    }
+
     void rmdir(File dir) throws IOException {
         if (dir != null) {
+            discard( dir );
             FileUtils.deleteDirectory( dir );
         }
     }
+
+    void delete(File f) {
+        discard( f );
+        f.delete();
+    }
+
+    void move(File f, String newName) throws IOException {
+        move( f, new File( f.getParentFile(), newName ) );
+    }
+
+    void move(File from, File to) throws IOException {
+        relocate( from, to );
+        rename( from, to );
+    }
 }
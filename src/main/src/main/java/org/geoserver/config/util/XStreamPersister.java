@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -18,6 +21,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -33,6 +37,7 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Info;
 import org.geoserver.catalog.Keyword;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -124,6 +129,7 @@ import com.thoughtworks.xstream.converters.basic.AbstractSingleValueConverter;
 import com.thoughtworks.xstream.converters.collections.CollectionConverter;
 import com.thoughtworks.xstream.converters.collections.MapConverter;
 import com.thoughtworks.xstream.converters.reflection.FieldDictionary;
+import com.thoughtworks.xstream.converters.reflection.ObjectAccessException;
 import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
 import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.converters.reflection.SortableFieldKeySorter;
@@ -239,6 +245,31 @@ public class XStreamPersister {
      */
     boolean encryptPasswordFields = true;
 
+    /**
+     * The serializable fields of each class, shared among all persisters so that the reflective
+     * lookup is done only once per class instead of once per persister (a new persister is
+     * created for each REST request). The dictionary is thread safe.
+     */
+    static final FieldDictionary FIELD_DICTIONARY;
+    static {
+        //control the order in which fields are sorted
+        SortableFieldKeySorter sorter = new SortableFieldKeySorter();
+        //sorter.registerFieldOrder( DefaultCatalogDAO.class, new String[]{ "workspaces", "namespaces", "stores", "styles", 
+            /* these we actually omit, but the sorter needs them specified */
+        //    "layerGroups", "resources", "maps", "defaultStores", "listeners", "layers",  "resourcePool", "resourceLoader", "LOGGER" } ); 
+        FIELD_DICTIONARY = new FieldDictionary( sorter );
+    }
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The fields to encode for the catalog and configuration classes, which make up the bulk of
+     * what gets persisted. Computed once per class from {@link #FIELD_DICTIONARY}, whose lookups
+     * are synchronized, and then read without locking.
+     */
+    static final Map<Class, FieldAccessor[]> ACCESSORS = 
+        new ConcurrentHashMap<Class, FieldAccessor[]>();
+
     /**
      * Constructs the persister and underlying xstream.
      */
@@ -251,13 +282,7 @@ public class XStreamPersister {
      */
     protected XStreamPersister(HierarchicalStreamDriver streamDriver) {
         
-        //control the order in which fields are sorted
-        SortableFieldKeySorter sorter = new SortableFieldKeySorter();
-        //sorter.registerFieldOrder( DefaultCatalogDAO.class, new String[]{ "workspaces", "namespaces", "stores", "styles", 
-            /* these we actually omit, but the sorter needs them specified */
-        //    "layerGroups", "resources", "maps", "defaultStores", "listeners", "layers",  "resourcePool", "resourceLoader", "LOGGER" } ); 
-        
-        ReflectionProvider reflectionProvider = new CustomReflectionProvider( new FieldDictionary( sorter ) ); 
+        ReflectionProvider reflectionProvider = new CustomReflectionProvider( FIELD_DICTIONARY ); 
             //new Sun14ReflectionProvider( new FieldDictionary( sorter  ) ); 
         if ( streamDriver != null ) {
             xs = new XStream( reflectionProvider, streamDriver );
@@ -521,7 +546,7 @@ public class XStreamPersister {
     public void save(Object obj, OutputStream out) throws IOException {
         //unwrap dynamic proxies
         obj = unwrapProxies( obj );
-        xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        xs.toXML(obj, new OutputStreamWriter( out, UTF8 ));
     }
     
     /**
@@ -651,7 +676,60 @@ public class XStreamPersister {
         
         @Override
         public void visitSerializableFields(Object object, Visitor visitor) {
-            super.visitSerializableFields(object, new VisitorWrapper(visitor));
+            FieldAccessor[] accessors = accessors( object.getClass() );
+            if ( accessors == null ) {
+                super.visitSerializableFields(object, new VisitorWrapper(visitor));
+                return;
+            }
+            
+            VisitorWrapper wrapper = new VisitorWrapper(visitor);
+            for ( FieldAccessor accessor : accessors ) {
+                Object value;
+                try {
+                    value = accessor.field.get( object );
+                } 
+                catch (IllegalAccessException e) {
+                    throw new ObjectAccessException("Could not get field " 
+                        + accessor.definedIn.getName() + "." + accessor.name, e);
+                }
+                if ( accessor.simple ) {
+                    //can be neither a collection nor a proxy, no need to look at it
+                    visitor.visit( accessor.name, accessor.type, accessor.definedIn, value );
+                }
+                else {
+                    wrapper.visit( accessor.name, accessor.type, accessor.definedIn, value );
+                }
+            }
+        }
+        
+        /**
+         * Returns the cached fields of a catalog or configuration class, or null for the other 
+         * classes, which go through the regular reflection provider path
+         */
+        FieldAccessor[] accessors( Class clazz ) {
+            FieldAccessor[] accessors = ACCESSORS.get( clazz );
+            if ( accessors == null ) {
+                if ( !Info.class.isAssignableFrom( clazz ) || Proxy.isProxyClass( clazz ) ) {
+                    return null;
+                }
+                
+                List<FieldAccessor> list = new ArrayList<FieldAccessor>();
+                for ( Iterator it = fieldDictionary.fieldsFor( clazz ); it.hasNext(); ) {
+                    Field field = (Field) it.next();
+                    if ( fieldModifiersSupported( field ) ) {
+                        field.setAccessible( true );
+                        list.add( new FieldAccessor( field ) );
+                    }
+                }
+                accessors = list.toArray( new FieldAccessor[list.size()] );
+                ACCESSORS.put( clazz, accessors );
+            }
+            return accessors;
+        }
+        
+        boolean isSimpleValue( Object value ) {
+            return value == null || value instanceof String || value instanceof Number
+                || value instanceof Boolean || value instanceof Enum;
         }
         
         class VisitorWrapper implements ReflectionProvider.Visitor {
@@ -673,14 +751,41 @@ public class XStreamPersister {
                     return;
                 }
                 
-                //unwrap any proxies
-                value = unwrapProxies(value);
+                //unwrap any proxies, most values are simple ones that cannot be proxied
+                if ( !isSimpleValue( value ) ) {
+                    value = unwrapProxies(value);
+                }
                 wrapped.visit( name, type, definedIn, value);
             }
             
         }
     }
 
+    /**
+     * A field to encode, along with the information the visitor needs about it
+     */
+    static class FieldAccessor {
+        final Field field;
+        final String name;
+        final Class type;
+        final Class definedIn;
+        
+        /**
+         * Whether the declared type only allows values that are neither collections nor proxies
+         */
+        final boolean simple;
+        
+        FieldAccessor( Field field ) {
+            this.field = field;
+            this.name = field.getName();
+            this.type = field.getType();
+            this.definedIn = field.getDeclaringClass();
+            this.simple = type.isPrimitive() || type == String.class || type.isEnum() 
+                || Number.class.isAssignableFrom( type ) || type == Boolean.class 
+                || type == Character.class;
+        }
+    }
+
     //
     // custom converters
     //
@@ -17,6 +17,9 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
@@ -136,6 +139,49 @@ public class IOUtils {
         copy(new FileInputStream(from), to);
     }
 
+    /**
+     * Copies the contents of a file into the provided output stream, without closing the stream.
+     * <p>
+     * The copy is performed via {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which allows the operating system to move the bytes without copying them in user space
+     * when the destination is a file.
+     * </p>
+     * 
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    public static void copy(File from, OutputStream to) throws IOException {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(from);
+            FileChannel source = fis.getChannel();
+            WritableByteChannel target;
+            if (to instanceof FileOutputStream) {
+                target = ((FileOutputStream) to).getChannel();
+            } else {
+                to.flush();
+                target = Channels.newChannel(to);
+            }
+
+            // transferTo is allowed to move less than the requested amount of bytes
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    // the file got truncated while we were reading it
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+        }
+    }
+
     /**
      * Copy the contents of fromDir into toDir (if the latter is missing it will
      * be created)
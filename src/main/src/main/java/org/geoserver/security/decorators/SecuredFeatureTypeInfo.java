@@ -46,6 +46,13 @@ public class SecuredFeatureTypeInfo extends DecoratingFeatureTypeInfo {
         super(info);
         this.policy = policy;
     }
+
+    /**
+     * The policy used to secure the feature type
+     */
+    public WrapperPolicy getPolicy() {
+        return policy;
+    }
     
     @Override
     public FeatureType getFeatureType() throws IOException {
@@ -0,0 +1,179 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.vfny.geoserver.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.ows.DispatcherOutputStream;
+import org.geoserver.ows.ServiceStrategy;
+import org.vfny.geoserver.util.SpillingOutputStream;
+import org.vfny.geoserver.util.SpillingOutputStream.MemoryBudget;
+
+/**
+ * A safe strategy buffering the whole response, like {@link BufferStrategy} and
+ * {@link FileStrategy}, but keeping it in memory only up to a threshold and spilling it to a
+ * temporary file past it.
+ * <p>
+ * The memory used by all the responses being buffered at the same time is bounded by a global
+ * budget, once exhausted the responses go to disk regardless of their size. The strategy keeps
+ * track of how many responses had to be spilled, to help tune the threshold and the budget.
+ * </p>
+ */
+public class SpillStrategy implements ServiceStrategy {
+
+    /** Class logger */
+    protected static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.vfny.geoserver.servlets");
+
+    /** Default memory threshold per response, 1MB */
+    public static final long DEFAULT_THRESHOLD = 1024 * 1024;
+
+    /** Default memory budget shared by all responses, 64MB */
+    public static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+    /** The memory budget and spill statistics, shared among the clones */
+    MemoryBudget budget;
+
+    /** Number of responses buffered, shared among the clones */
+    AtomicLong responses;
+
+    long threshold = DEFAULT_THRESHOLD;
+
+    File tempDirectory;
+
+    SpillingOutputStream out;
+
+    public SpillStrategy() {
+        this(new MemoryBudget(DEFAULT_MEMORY_BUDGET), new AtomicLong());
+    }
+
+    SpillStrategy(MemoryBudget budget, AtomicLong responses) {
+        this.budget = budget;
+        this.responses = responses;
+    }
+
+    public String getId() {
+        return "SPILL";
+    }
+
+    /**
+     * Sets the max amount of memory, in bytes, a single response can use before being spilled to
+     * disk
+     */
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the max amount of memory, in bytes, used by all the responses being buffered
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        budget.setCapacity(memoryBudget);
+    }
+
+    public long getMemoryBudget() {
+        return budget.getCapacity();
+    }
+
+    /**
+     * Sets the directory used for the temporary files, the system default one is used if not set
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+     * The number of responses buffered so far
+     */
+    public long getResponseCount() {
+        return responses.get();
+    }
+
+    /**
+     * The number of responses that had to be spilled to disk
+     */
+    public long getSpillCount() {
+        return budget.getSpillCount();
+    }
+
+    /**
+     * The ratio of responses spilled to disk
+     */
+    public double getSpillRatio() {
+        long count = responses.get();
+        return count == 0 ? 0 : ((double) budget.getSpillCount()) / count;
+    }
+
+    /**
+     * The total number of bytes written to disk
+     */
+    public long getSpilledBytes() {
+        return budget.getSpilledBytes();
+    }
+
+    /**
+     * The memory currently used by the responses being buffered
+     */
+    public long getMemoryUsed() {
+        return budget.getUsed();
+    }
+
+    public DispatcherOutputStream getDestination(HttpServletResponse response)
+        throws IOException {
+        responses.incrementAndGet();
+        out = new SpillingOutputStream(budget, threshold, tempDirectory);
+
+        return new DispatcherOutputStream(out);
+    }
+
+    /**
+     * Copies the buffered response to the actual response output stream
+     */
+    public void flush(HttpServletResponse response) throws IOException {
+        if ((out == null) || (response == null)) {
+            return;
+        }
+
+        try {
+            if (out.isSpilled() && LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Response of " + out.size() + " bytes was spilled to disk");
+            }
+            out.writeTo(response.getOutputStream());
+        } finally {
+            out = null;
+        }
+    }
+
+    /**
+     * Drops the buffered response, releasing memory and temporary files
+     */
+    public void abort() {
+        if (out != null) {
+            out.dispose();
+            out = null;
+        }
+    }
+
+    public Object clone() throws CloneNotSupportedException {
+        SpillStrategy clone = new SpillStrategy(budget, responses);
+        clone.threshold = threshold;
+        clone.tempDirectory = tempDirectory;
+
+        return clone;
+    }
+}
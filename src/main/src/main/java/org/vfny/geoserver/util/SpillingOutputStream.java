@@ -0,0 +1,299 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.vfny.geoserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An output stream keeping the contents in memory up to a threshold, and spilling them to a
+ * temporary file past it. Nothing is written to the destination until {@link #writeTo(OutputStream)}
+ * is called, so the output can still be discarded with {@link #dispose()} in case of errors.
+ * <p>
+ * The memory is allocated in chunks from a {@link MemoryBudget} shared by all the streams, when
+ * the budget is exhausted the streams spill to disk even if they did not reach their own threshold.
+ * Once on disk the contents are copied to the destination with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, letting the JDK pick the most
+ * efficient way to move them.
+ * </p>
+ */
+public class SpillingOutputStream extends OutputStream {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    MemoryBudget budget;
+
+    long threshold;
+
+    File tempDirectory;
+
+    List<byte[]> chunks = new ArrayList<byte[]>();
+
+    /**
+     * Number of bytes used in the last chunk
+     */
+    int position;
+
+    long size;
+
+    File file;
+
+    RandomAccessFile raf;
+
+    FileChannel channel;
+
+    ByteBuffer fileBuffer;
+
+    boolean closed;
+
+    /**
+     * Creates a new stream
+     *
+     * @param budget the memory budget shared among all streams
+     * @param threshold the max amount of memory used by this stream
+     * @param tempDirectory the directory for the spill files, or null to use the system default
+     */
+    public SpillingOutputStream(MemoryBudget budget, long threshold, File tempDirectory) {
+        this.budget = budget;
+        this.threshold = threshold;
+        this.tempDirectory = tempDirectory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream has been closed");
+        }
+        while (len > 0) {
+            if (channel != null) {
+                writeFile(b, off, len);
+                return;
+            }
+
+            if (chunks.isEmpty() || position == CHUNK_SIZE) {
+                if (!allocateChunk()) {
+                    spill();
+                    continue;
+                }
+            }
+            byte[] chunk = chunks.get(chunks.size() - 1);
+            int n = Math.min(len, CHUNK_SIZE - position);
+            System.arraycopy(b, off, chunk, position, n);
+            position += n;
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    boolean allocateChunk() {
+        if ((long) (chunks.size() + 1) * CHUNK_SIZE > threshold || !budget.reserve(CHUNK_SIZE)) {
+            return false;
+        }
+        chunks.add(new byte[CHUNK_SIZE]);
+        position = 0;
+        return true;
+    }
+
+    /**
+     * Moves the in memory contents to a temporary file and releases the memory
+     */
+    void spill() throws IOException {
+        file = File.createTempFile("spill", ".tmp", tempDirectory);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        fileBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = i == chunks.size() - 1 ? position : CHUNK_SIZE;
+            writeFully(ByteBuffer.wrap(chunks.get(i), 0, length));
+        }
+        releaseChunks();
+        budget.spills.incrementAndGet();
+        budget.spilledBytes.addAndGet(size);
+    }
+
+    void writeFile(byte[] b, int off, int len) throws IOException {
+        if (len >= fileBuffer.capacity()) {
+            flushFileBuffer();
+            writeFully(ByteBuffer.wrap(b, off, len));
+        } else {
+            if (len > fileBuffer.remaining()) {
+                flushFileBuffer();
+            }
+            fileBuffer.put(b, off, len);
+        }
+        size += len;
+        budget.spilledBytes.addAndGet(len);
+    }
+
+    void flushFileBuffer() throws IOException {
+        fileBuffer.flip();
+        writeFully(fileBuffer);
+        fileBuffer.clear();
+    }
+
+    void writeFully(ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+
+    void releaseChunks() {
+        budget.release((long) chunks.size() * CHUNK_SIZE);
+        chunks.clear();
+        position = 0;
+    }
+
+    /**
+     * Returns true if the contents have been spilled to disk
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns the number of bytes written so far
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Writes the contents to the destination, and disposes the stream
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try {
+            if (channel != null) {
+                flushFileBuffer();
+                WritableByteChannel target = Channels.newChannel(out);
+                long written = 0;
+                while (written < size) {
+                    written += channel.transferTo(written, size - written, target);
+                }
+            } else {
+                for (int i = 0; i < chunks.size(); i++) {
+                    int length = i == chunks.size() - 1 ? position : CHUNK_SIZE;
+                    out.write(chunks.get(i), 0, length);
+                }
+            }
+            out.flush();
+        } finally {
+            dispose();
+        }
+    }
+
+    /**
+     * Marks the stream as closed, the contents are still available for
+     * {@link #writeTo(OutputStream)}
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+    }
+
+    /**
+     * Drops the contents, releasing the memory and removing the temporary file
+     */
+    public void dispose() {
+        closed = true;
+        releaseChunks();
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            raf = null;
+            channel = null;
+            fileBuffer = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * The memory shared by all the spilling streams, along with the statistics about the spills
+     */
+    public static class MemoryBudget {
+
+        AtomicLong capacity;
+
+        AtomicLong used = new AtomicLong();
+
+        AtomicLong spills = new AtomicLong();
+
+        AtomicLong spilledBytes = new AtomicLong();
+
+        public MemoryBudget(long capacity) {
+            this.capacity = new AtomicLong(capacity);
+        }
+
+        boolean reserve(long amount) {
+            while (true) {
+                long current = used.get();
+                if (current + amount > capacity.get()) {
+                    return false;
+                }
+                if (used.compareAndSet(current, current + amount)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(long amount) {
+            if (amount > 0) {
+                used.addAndGet(-amount);
+            }
+        }
+
+        public long getCapacity() {
+            return capacity.get();
+        }
+
+        public void setCapacity(long capacity) {
+            this.capacity.set(capacity);
+        }
+
+        /**
+         * The memory currently used by the streams
+         */
+        public long getUsed() {
+            return used.get();
+        }
+
+        /**
+         * The number of times a stream spilled to disk
+         */
+        public long getSpillCount() {
+            return spills.get();
+        }
+
+        /**
+         * The total amount of bytes written to disk
+         */
+        public long getSpilledBytes() {
+            return spilledBytes.get();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CatalogSynchronizerTest {
+
+    Catalog source;
+
+    Catalog target;
+
+    CatalogSynchronizer synchronizer;
+
+    List<Object> modified = new ArrayList<Object>();
+
+    @Before
+    public void setUp() throws Exception {
+        source = new CatalogImpl();
+        CatalogFactory factory = source.getFactory();
+
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("ws");
+        source.add(ws);
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix("ws");
+        ns.setURI("http://www.geoserver.org/ws");
+        source.add(ns);
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("ds");
+        ds.setWorkspace(ws);
+        ds.setEnabled(true);
+        source.add(ds);
+        FeatureTypeInfo ft = factory.createFeatureType();
+        ft.setName("ft");
+        ft.setNativeName("ft");
+        ft.setNamespace(ns);
+        ft.setStore(ds);
+        ft.setEnabled(true);
+        source.add(ft);
+
+        target = new CatalogImpl();
+        target.addListener(new CatalogListener() {
+
+            public void handleAddEvent(CatalogAddEvent event) {
+            }
+
+            public void handleRemoveEvent(CatalogRemoveEvent event) {
+            }
+
+            public void handleModifyEvent(CatalogModifyEvent event) {
+            }
+
+            public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+                modified.add(event.getSource());
+            }
+
+            public void reloaded() {
+            }
+        });
+        synchronizer = new CatalogSynchronizer(target, new XStreamPersisterFactory());
+    }
+
+    @Test
+    public void testSynchronize() throws Exception {
+        // first round, everything gets added
+        synchronizer.synchronize(source);
+        assertEquals(4, synchronizer.getAdded());
+        assertEquals(0, synchronizer.getRemoved());
+        FeatureTypeInfo ft = target.getFeatureTypeByName("ws", "ft");
+        assertNotNull(ft);
+        // the references point to the target catalog objects
+        assertSame(target, ft.getStore().getCatalog());
+        assertEquals(target.getDataStoreByName("ws", "ds").getId(), ft.getStore().getId());
+
+        // second round, nothing changed
+        synchronizer.synchronize(source);
+        assertEquals(0, synchronizer.getAdded());
+        assertEquals(0, synchronizer.getModified());
+        assertEquals(0, synchronizer.getRemoved());
+        assertTrue(modified.isEmpty());
+
+        // change the store, remove the feature type
+        DataStoreInfo ds = source.getDataStoreByName("ws", "ds");
+        ds.setDescription("modified");
+        source.save(ds);
+        source.remove(source.getFeatureTypeByName("ws", "ft"));
+        synchronizer.synchronize(source);
+        assertEquals(0, synchronizer.getAdded());
+        assertEquals(1, synchronizer.getModified());
+        assertEquals(1, synchronizer.getRemoved());
+        assertEquals("modified", target.getDataStoreByName("ws", "ds").getDescription());
+        assertNull(target.getFeatureTypeByName("ws", "ft"));
+        assertEquals(1, modified.size());
+        assertEquals(ds.getId(), ((DataStoreInfo) modified.get(0)).getId());
+    }
+
+    @Test
+    public void testClearProperties() throws Exception {
+        FeatureTypeInfo ft = source.getFeatureTypeByName("ws", "ft");
+        ft.setTitle("title");
+        ft.setAbstract("abstract");
+        source.save(ft);
+        synchronizer.synchronize(source);
+        assertEquals("title", target.getFeatureTypeByName("ws", "ft").getTitle());
+
+        // clear the properties, they have to be cleared in the target as well
+        ft = source.getFeatureTypeByName("ws", "ft");
+        ft.setTitle(null);
+        ft.setAbstract(null);
+        source.save(ft);
+        synchronizer.synchronize(source);
+        assertEquals(1, synchronizer.getModified());
+        FeatureTypeInfo targetFt = target.getFeatureTypeByName("ws", "ft");
+        assertNull(targetFt.getTitle());
+        assertNull(targetFt.getAbstract());
+        assertSame(target, targetFt.getCatalog());
+
+        // the two catalogs converged
+        synchronizer.synchronize(source);
+        assertEquals(0, synchronizer.getModified());
+    }
+
+    @Test
+    public void testUnchangedIds() throws Exception {
+        synchronizer.synchronize(source);
+        DataStoreInfo ds = source.getDataStoreByName("ws", "ds");
+        ds.setDescription("modified");
+        source.save(ds);
+
+        // declared unchanged, not even compared
+        synchronizer.setUnchangedIds(Collections.singleton(ds.getId()));
+        synchronizer.synchronize(source);
+        assertEquals(0, synchronizer.getModified());
+        assertNull(target.getDataStoreByName("ws", "ds").getDescription());
+
+        synchronizer.setUnchangedIds(null);
+        synchronizer.synchronize(source);
+        assertEquals(1, synchronizer.getModified());
+        assertEquals("modified", target.getDataStoreByName("ws", "ds").getDescription());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        // a different workspace with the same name, the source one cannot be added
+        WorkspaceInfo ws = target.getFactory().createWorkspace();
+        ws.setName("ws");
+        target.add(ws);
+
+        try {
+            synchronizer.synchronize(source);
+            fail("The synchronization should have failed");
+        } catch (CatalogException e) {
+            // expected
+        }
+        assertFalse(synchronizer.getFailures().isEmpty());
+    }
+}
@@ -9,6 +9,9 @@ import static org.custommonkey.xmlunit.XMLAssert.assertXpathExists;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -26,6 +29,8 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.config.util.XStreamPersisterFactory;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.util.IOUtils;
@@ -819,6 +824,149 @@ public class GeoServerPersisterTest extends GeoServerSystemTestSupport {
         assertNull(f);
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        testAddDataStore();
+        DataStoreInfo ds = ModificationProxy.unwrap(catalog.getDataStoreByName("acme", "foostore"));
+
+        File f = 
+            new File( testData.getDataDirectoryRoot(), "workspaces/acme/foostore/datastore.xml");
+        assertTrue( f.delete() );
+
+        GeoServerPersister p = 
+            new GeoServerPersister( getResourceLoader(), new XStreamPersisterFactory().createXMLPersister() );
+        p.setWriteBehindDelay( 3600 * 1000 );
+        try {
+            assertTrue( p.isWriteBehind() );
+            
+            // the two changes are coalesced and nothing is written yet
+            p.modifyDataStore( ds );
+            p.modifyDataStore( ds );
+            assertEquals( 1, p.getQueueLength() );
+            assertFalse( f.exists() );
+
+            p.flush();
+            assertEquals( 0, p.getQueueLength() );
+            assertTrue( f.exists() );
+            assertFalse( new File( f.getParentFile(), "datastore.xml.tmp" ).exists() );
+            assertXpathEvaluatesTo( "foostore", "/dataStore/name", dom( f ) );
+        } finally {
+            p.dispose();
+        }
+        assertFalse( p.isWriteBehind() );
+    }
+
+    @Test
+    public void testWriteBehindFailure() throws Exception {
+        testAddDataStore();
+        DataStoreInfo ds = ModificationProxy.unwrap(catalog.getDataStoreByName("acme", "foostore"));
+
+        // replace the store directory with a file, the store cannot be written
+        File dir = new File( testData.getDataDirectoryRoot(), "workspaces/acme/foostore");
+        FileUtils.deleteDirectory( dir );
+        assertTrue( dir.createNewFile() );
+
+        GeoServerPersister p = 
+            new GeoServerPersister( getResourceLoader(), new XStreamPersisterFactory().createXMLPersister() );
+        p.setWriteBehindDelay( 3600 * 1000 );
+        try {
+            p.modifyDataStore( ds );
+            try {
+                p.flush();
+                fail( "The flush should have failed" );
+            }
+            catch( IOException e ) {
+                // expected
+            }
+            // the change is still queued
+            assertEquals( 1, p.getQueueLength() );
+
+            // a failed change does not replace a newer one for the same file
+            File f = new File( dir, "datastore.xml" );
+            Map<File, Object> failed = new LinkedHashMap<File, Object>();
+            failed.put( f, "older" );
+            synchronized( p.pending ) {
+                p.pending.put( f, "newer" );
+            }
+            p.requeue( failed );
+            assertEquals( "newer", p.pending.get( f ) );
+            p.pending.put( f, ds );
+
+            // once the problem is fixed the change gets written
+            assertTrue( dir.delete() );
+            assertTrue( dir.mkdir() );
+            p.flush();
+            assertEquals( 0, p.getQueueLength() );
+            assertXpathEvaluatesTo( "foostore", "/dataStore/name", dom( f ) );
+        } finally {
+            p.dispose();
+        }
+    }
+
+    @Test
+    public void testWriteBehindRemoveAfterFailure() throws Exception {
+        testAddDataStore();
+        DataStoreInfo ds = ModificationProxy.unwrap(catalog.getDataStoreByName("acme", "foostore"));
+        File dir = new File( testData.getDataDirectoryRoot(), "workspaces/acme/foostore");
+        
+        GeoServerPersister p = 
+            new GeoServerPersister( getResourceLoader(), new XStreamPersisterFactory().createXMLPersister() );
+        p.setWriteBehindDelay( 3600 * 1000 );
+        try {
+            // two changes that cannot be written, one of them under the store directory
+            File inside = new File( dir, "missing/datastore.xml" );
+            File outside = new File( testData.getDataDirectoryRoot(), "missing/datastore.xml" );
+            synchronized( p.pending ) {
+                p.pending.put( inside, ds );
+                p.pending.put( outside, ds );
+            }
+
+            // the failed write does not prevent the removal
+            CatalogRemoveEventImpl event = new CatalogRemoveEventImpl();
+            event.setSource( ds );
+            p.handleRemoveEvent( event );
+            assertFalse( dir.exists() );
+
+            // and the change under the removed directory is gone
+            assertEquals( 1, p.getQueueLength() );
+            assertTrue( p.pending.containsKey( outside ) );
+            
+            p.pending.clear();
+        } finally {
+            p.dispose();
+        }
+    }
+
+    @Test
+    public void testWriteBehindRenameAfterFailure() throws Exception {
+        testAddDataStore();
+        DataStoreInfo ds = ModificationProxy.unwrap(catalog.getDataStoreByName("acme", "foostore"));
+        File dir = new File( testData.getDataDirectoryRoot(), "workspaces/acme/foostore");
+        File renamed = new File( testData.getDataDirectoryRoot(), "workspaces/acme/barstore");
+        
+        GeoServerPersister p = 
+            new GeoServerPersister( getResourceLoader(), new XStreamPersisterFactory().createXMLPersister() );
+        p.setWriteBehindDelay( 3600 * 1000 );
+        try {
+            synchronized( p.pending ) {
+                p.pending.put( new File( dir, "missing/datastore.xml" ), ds );
+            }
+
+            // the store gets renamed anyways, and the queued change follows it
+            p.barrier();
+            p.renameStore( ds, "barstore" );
+            assertFalse( dir.exists() );
+            assertTrue( renamed.exists() );
+            assertEquals( 1, p.getQueueLength() );
+            assertTrue( p.pending.containsKey( new File( renamed, "missing/datastore.xml" ) ) );
+            
+            p.pending.clear();
+        } finally {
+            p.dispose();
+            FileUtils.deleteDirectory( renamed );
+        }
+    }
+
     Document dom( File f ) throws Exception {
         return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( f );
     }
@@ -8,6 +8,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -15,7 +16,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -32,6 +38,7 @@ import org.geoserver.catalog.CatalogFactory;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Keyword;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
@@ -40,6 +47,8 @@ import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.impl.WMSStoreInfoImpl;
 import org.geoserver.config.ContactInfo;
 import org.geoserver.config.GeoServerFactory;
@@ -503,6 +512,91 @@ public class XStreamPersisterTest {
         assertTrue( CRS.equalsIgnoreMetadata( CRS.decode( "EPSG:4326"), ft.getNativeCRS() ) ); 
     }
     
+    @Test
+    public void testFeatureTypeProxySameOutput() throws Exception {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory cFactory = catalog.getFactory();
+        
+        WorkspaceInfo ws = cFactory.createWorkspace();
+        ws.setName( "foo" );
+        catalog.add( ws );
+        
+        NamespaceInfo ns = cFactory.createNamespace();
+        ns.setPrefix( "acme" );
+        ns.setURI( "http://acme.org" );
+        catalog.add( ns );
+        
+        DataStoreInfo ds = cFactory.createDataStore();
+        ds.setWorkspace( ws );
+        ds.setName( "foo" );
+        catalog.add( ds );
+        
+        FeatureTypeInfo ft = cFactory.createFeatureType();
+        ft.setStore( ds );
+        ft.setNamespace( ns );
+        ft.setName( "ft" );
+        ft.setAbstract( "abstract");
+        ft.setSRS( "EPSG:4326");
+        ft.setMaxFeatures( 10 );
+        ft.getKeywords().add( new Keyword( "kw" ) );
+        catalog.add( ft );
+        
+        // the catalog hands out modification proxies
+        FeatureTypeInfo proxy = catalog.getFeatureTypeByName( "acme", "ft" );
+        assertTrue( Proxy.isProxyClass( proxy.getClass() ) );
+        
+        ByteArrayOutputStream out1 = out();
+        persister.save( ModificationProxy.unwrap( proxy ), out1 );
+        
+        // a second persister, sharing the field dictionary, encodes the proxy the same way
+        ByteArrayOutputStream out2 = out();
+        new XStreamPersisterFactory().createXMLPersister().save( proxy, out2 );
+        assertTrue( Arrays.equals( out1.toByteArray(), out2.toByteArray() ) );
+        
+        Document dom = dom( in( out2 ) );
+        assertEquals( "featureType", dom.getDocumentElement().getNodeName() );
+        Element e = (Element) dom.getElementsByTagName( "namespace" ).item( 0 );
+        assertEquals( ns.getId(), e.getElementsByTagName( "id" ).item( 0 ).getTextContent() );
+        e = (Element) dom.getElementsByTagName( "store" ).item( 0 );
+        assertEquals( ds.getId(), e.getElementsByTagName( "id" ).item( 0 ).getTextContent() );
+        e = (Element) dom.getElementsByTagName( "maxFeatures" ).item( 0 );
+        assertEquals( "10", e.getTextContent() );
+    }
+    
+    @Test
+    public void testCachedFieldAccessors() throws Exception {
+        XStreamPersister.CustomReflectionProvider provider = 
+            persister.new CustomReflectionProvider( XStreamPersister.FIELD_DICTIONARY );
+        
+        // only the catalog and configuration classes get cached accessors
+        assertNull( provider.accessors( Integer.class ) );
+        assertNull( provider.accessors( String.class ) );
+        XStreamPersister.FieldAccessor[] accessors = provider.accessors( FeatureTypeInfoImpl.class );
+        assertNotNull( accessors );
+        assertSame( accessors, provider.accessors( FeatureTypeInfoImpl.class ) );
+        
+        // same fields in the same order as the regular reflection path
+        List<String> names = new ArrayList<String>();
+        for ( Iterator it = XStreamPersister.FIELD_DICTIONARY.fieldsFor( FeatureTypeInfoImpl.class ); 
+                it.hasNext(); ) {
+            Field field = (Field) it.next();
+            if ( !Modifier.isStatic( field.getModifiers() ) 
+                    && !Modifier.isTransient( field.getModifiers() ) ) {
+                names.add( field.getName() );
+            }
+        }
+        assertEquals( names.size(), accessors.length );
+        for ( int i = 0; i < accessors.length; i++ ) {
+            assertEquals( names.get( i ), accessors[i].name );
+            if ( "name".equals( accessors[i].name ) || "maxFeatures".equals( accessors[i].name ) ) {
+                assertTrue( accessors[i].simple );
+            }
+            if ( "keywords".equals( accessors[i].name ) || "store".equals( accessors[i].name ) ) {
+                assertFalse( accessors[i].simple );
+            }
+        }
+    }
+    
     @Test
     public void testWMSLayer() throws Exception {
         Catalog catalog = new CatalogImpl();
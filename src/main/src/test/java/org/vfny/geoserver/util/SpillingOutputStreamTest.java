@@ -0,0 +1,93 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.vfny.geoserver.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vfny.geoserver.util.SpillingOutputStream.MemoryBudget;
+
+public class SpillingOutputStreamTest {
+
+    File tempDir;
+
+    @Before
+    public void setup() {
+        tempDir = new File("target/spill");
+        tempDir.mkdirs();
+        for (File f : tempDir.listFiles()) {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        byte[] data = randomBytes(100 * 1024);
+
+        SpillingOutputStream out = new SpillingOutputStream(budget, 256 * 1024, tempDir);
+        out.write(data);
+        assertFalse(out.isSpilled());
+        assertTrue(budget.getUsed() > 0);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        out.writeTo(bos);
+        assertArrayEquals(data, bos.toByteArray());
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getSpillCount());
+    }
+
+    @Test
+    public void testSpillOverThreshold() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        byte[] data = randomBytes(300 * 1024 + 13);
+
+        SpillingOutputStream out = new SpillingOutputStream(budget, 128 * 1024, tempDir);
+        // write in small pieces to go through both the memory and the file buffers
+        for (int i = 0; i < data.length; i += 1000) {
+            out.write(data, i, Math.min(1000, data.length - i));
+        }
+        assertTrue(out.isSpilled());
+        assertEquals(0, budget.getUsed());
+        assertEquals(1, tempDir.listFiles().length);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        out.writeTo(bos);
+        assertArrayEquals(data, bos.toByteArray());
+        assertEquals(1, budget.getSpillCount());
+        assertEquals(data.length, budget.getSpilledBytes());
+        assertEquals(0, tempDir.listFiles().length);
+    }
+
+    @Test
+    public void testSpillOverBudget() throws Exception {
+        MemoryBudget budget = new MemoryBudget(SpillingOutputStream.CHUNK_SIZE);
+        SpillingOutputStream first = new SpillingOutputStream(budget, 1024 * 1024, tempDir);
+        first.write(1);
+        assertFalse(first.isSpilled());
+
+        // the budget is used up by the first stream
+        SpillingOutputStream second = new SpillingOutputStream(budget, 1024 * 1024, tempDir);
+        second.write(2);
+        assertTrue(second.isSpilled());
+
+        // disposing releases memory and files
+        first.dispose();
+        second.dispose();
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, tempDir.listFiles().length);
+    }
+
+    byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+}
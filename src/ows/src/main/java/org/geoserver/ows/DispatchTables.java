@@ -0,0 +1,141 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.platform.Service;
+
+/**
+ * The lookup tables used by the {@link Dispatcher} to find the service, request readers and
+ * response for a request.
+ * <p>
+ * The extensions are loaded once when the tables are built, and the results of the lookups are
+ * cached as they are performed, so that the dispatcher does not have to scan, filter and sort all
+ * the extensions on each request. The keys are limited to values coming from the extensions
+ * themselves (service ids, request and result classes), so that the tables cannot grow unbounded
+ * due to client input.
+ * </p>
+ * <p>
+ * Responses are cached by binding only, their output formats are checked on each request since
+ * some responses compute them on the fly (e.g., the XSLT based WFS output formats).
+ * </p>
+ * <p>
+ * The tables are immutable snapshots of the extension set, the dispatcher replaces them when the
+ * application context is refreshed.
+ * </p>
+ */
+class DispatchTables {
+
+    /**
+     * The services, in extension order
+     */
+    final List<Service> services;
+
+    /**
+     * The services grouped by lower case id
+     */
+    final Map<String, List<Service>> servicesById;
+
+    /**
+     * The lower case operation names supported by each service
+     */
+    final Map<Service, Set<String>> operations;
+
+    final List<KvpRequestReader> kvpReaders;
+
+    final List<XmlRequestReader> xmlReaders;
+
+    final List<Response> responses;
+
+    /**
+     * The kvp reader to use for a request bean class
+     */
+    final Map<Class, KvpRequestReader> kvpReadersByType = new ConcurrentHashMap<Class, KvpRequestReader>();
+
+    /**
+     * The responses whose binding is compatible with a result class
+     */
+    final Map<Class, List<Response>> responsesByResult = new ConcurrentHashMap<Class, List<Response>>();
+
+    DispatchTables(Collection<Service> services, Collection<KvpRequestReader> kvpReaders,
+            Collection<XmlRequestReader> xmlReaders, Collection<Response> responses) {
+        this.services = Collections.unmodifiableList(new ArrayList<Service>(services));
+        this.kvpReaders = Collections.unmodifiableList(new ArrayList<KvpRequestReader>(
+                kvpReaders));
+        this.xmlReaders = Collections.unmodifiableList(new ArrayList<XmlRequestReader>(
+                xmlReaders));
+        this.responses = Collections.unmodifiableList(new ArrayList<Response>(responses));
+
+        Map<String, List<Service>> byId = new HashMap<String, List<Service>>();
+        Map<Service, Set<String>> ops = new HashMap<Service, Set<String>>();
+        for (Service service : this.services) {
+            String id = service.getId() != null ? service.getId().toLowerCase(Locale.ENGLISH)
+                    : null;
+            List<Service> matches = byId.get(id);
+            if (matches == null) {
+                matches = new ArrayList<Service>();
+                byId.put(id, matches);
+            }
+            matches.add(service);
+
+            Set<String> names = new HashSet<String>();
+            if (service.getOperations() != null) {
+                for (String op : service.getOperations()) {
+                    names.add(op.toLowerCase(Locale.ENGLISH));
+                }
+            }
+            ops.put(service, names);
+        }
+        this.servicesById = byId;
+        this.operations = ops;
+    }
+
+    /**
+     * Returns the services with the specified id, compared case insensitively
+     */
+    List<Service> getServices(String id) {
+        List<Service> matches = servicesById.get(id.toLowerCase(Locale.ENGLISH));
+        return matches != null ? matches : Collections.<Service> emptyList();
+    }
+
+    /**
+     * Returns true if the service declares the operation, compared case insensitively
+     */
+    boolean hasOperation(Service service, String operation) {
+        Set<String> names = operations.get(service);
+        if (names == null) {
+            // a service swapped by a dispatcher callback, not part of the tables
+            for (String op : service.getOperations()) {
+                if (op.equalsIgnoreCase(operation)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return names.contains(operation.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the responses whose binding is compatible with the result class, in extension order,
+     * or null if the lookup has not been performed yet
+     */
+    List<Response> getResponses(Class resultClass) {
+        return responsesByResult.get(resultClass);
+    }
+
+    void putResponses(Class resultClass, List<Response> responses) {
+        responsesByResult.put(resultClass, Collections.unmodifiableList(responses));
+    }
+}
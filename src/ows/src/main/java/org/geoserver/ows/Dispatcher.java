@@ -56,6 +56,9 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -118,7 +121,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -147,6 +150,12 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * the service, reader and response lookup tables, built lazily and dropped when the
+     * application context is refreshed
+     */
+    volatile DispatchTables tables;
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -192,6 +201,9 @@ public class Dispatcher extends AbstractController {
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
         
+        // the extension set might have changed
+        tables = null;
+        
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
         if(lookahead != null) {
@@ -208,6 +220,26 @@ public class Dispatcher extends AbstractController {
         }
     }
     
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            // extensions might have been added or removed, rebuild the lookup tables
+            tables = null;
+        }
+    }
+
+    /**
+     * Returns the dispatch tables, building them if necessary
+     */
+    DispatchTables tables() {
+        DispatchTables result = tables;
+        if (result == null) {
+            result = new DispatchTables(loadServices(), loadKvpRequestReaders(),
+                    loadXmlReaders(), GeoServerExtensions.extensions(Response.class));
+            tables = result;
+        }
+        return result;
+    }
+
     protected void preprocessRequest(HttpServletRequest request)
         throws Exception {
         //set the charset
@@ -575,13 +607,7 @@ public class Dispatcher extends AbstractController {
         }
 
         // ensure the requested operation exists
-        boolean exists = false;
-        for ( String op : serviceDescriptor.getOperations() ) {
-            if ( op.equalsIgnoreCase( req.getRequest() ) ) {
-                exists = true;
-                break;
-            }
-        }
+        boolean exists = tables().hasOperation(serviceDescriptor, req.getRequest());
 
         // lookup the operation, initial lookup based on (service,request)
         Object serviceBean = serviceDescriptor.getService();
@@ -695,7 +721,7 @@ public class Dispatcher extends AbstractController {
                     boolean found = false;
                     Version version = new Version(req.getVersion());
 
-                    for (Iterator s = loadServices().iterator(); s.hasNext();) {
+                    for (Iterator s = tables().services.iterator(); s.hasNext();) {
                         Service service = (Service) s.next();
 
                         if (version.equals(service.getVersion())) {
@@ -795,37 +821,15 @@ public class Dispatcher extends AbstractController {
         throws Throwable {
         //step 6: write response
         if (result != null) {
-            //look up respones
-            List responses = GeoServerExtensions.extensions(Response.class);
-
-            //first filter by binding, and canHandle
-         O: for (Iterator itr = responses.iterator(); itr.hasNext();) {
-                Response response = (Response) itr.next();
-
-                Class binding = response.getBinding();
-
-                if (!binding.isAssignableFrom(result.getClass())
-                        || !response.canHandle(opDescriptor)) {
-                    itr.remove();
-
-                    continue;
-                }
-
-                //filter by output format
-                Set outputFormats = response.getOutputFormats();
-
-                if ((req.getOutputFormat() != null) && (!outputFormats.isEmpty())
-                        && !outputFormats.contains(req.getOutputFormat())) {
-                    
-                    //must do a case insensitive check
-                    for ( Iterator of = outputFormats.iterator(); of.hasNext(); ) {
-                        String outputFormat = (String) of.next();
-                        if( req.getOutputFormat().equalsIgnoreCase( outputFormat ) ) {
-                            continue O;
-                        }
-                    }
-                    
-                    itr.remove();
+            //look up respones, filtered by binding and output format
+            List<Response> candidates = findResponseCandidates(result.getClass(),
+                    req.getOutputFormat());
+
+            //then filter by canHandle, which depends on the operation
+            List responses = new ArrayList(candidates.size());
+            for (Response response : candidates) {
+                if (response.canHandle(opDescriptor)) {
+                    responses.add(response);
                 }
             }
 
@@ -1012,6 +1016,50 @@ public class Dispatcher extends AbstractController {
         return response;
     }
     
+    /**
+     * Returns the responses whose binding is compatible with the result class and which support
+     * the output format, using the dispatch tables to filter by binding
+     */
+    List<Response> findResponseCandidates(Class resultClass, String outputFormat) {
+        DispatchTables tables = tables();
+        List<Response> bound = tables.getResponses(resultClass);
+        if (bound == null) {
+            bound = new ArrayList<Response>();
+            for (Response response : tables.responses) {
+                if (response.getBinding().isAssignableFrom(resultClass)) {
+                    bound.add(response);
+                }
+            }
+            tables.putResponses(resultClass, bound);
+            bound = tables.getResponses(resultClass);
+        }
+        if (outputFormat == null) {
+            return bound;
+        }
+
+        //filter by output format, not cached as some responses compute their formats on the fly
+        List<Response> candidates = new ArrayList<Response>();
+     O: for (Response response : bound) {
+            Set outputFormats = response.getOutputFormats();
+
+            if (!outputFormats.isEmpty()) {
+                //must do a case insensitive check
+                for ( Iterator of = outputFormats.iterator(); of.hasNext(); ) {
+                    String format = (String) of.next();
+                    if( outputFormat.equalsIgnoreCase( format ) ) {
+                        candidates.add(response);
+                        continue O;
+                    }
+                }
+                
+                continue;
+            }
+
+            candidates.add(response);
+        }
+        return candidates;
+    }
+
     Collection loadServices() {
         Collection services = GeoServerExtensions.extensions(Service.class);
 
@@ -1025,7 +1073,6 @@ public class Dispatcher extends AbstractController {
 
     Service findService(String id, String ver, String namespace) throws ServiceException {
         Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
         
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
@@ -1035,15 +1082,7 @@ public class Dispatcher extends AbstractController {
         }
 
         //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
+        List matches = tables().getServices(id);
 
         if (matches.isEmpty()) {
             return null;
@@ -1130,8 +1169,10 @@ public class Dispatcher extends AbstractController {
     }
 
     public static KvpRequestReader findKvpRequestReader(Class type) {
-        Collection kvpReaders = loadKvpRequestReaders();
+        return findKvpRequestReader(type, loadKvpRequestReaders());
+    }
 
+    static KvpRequestReader findKvpRequestReader(Class type, Collection kvpReaders) {
         List matches = new ArrayList();
 
         for (Iterator itr = kvpReaders.iterator(); itr.hasNext();) {
@@ -1192,7 +1233,7 @@ public class Dispatcher extends AbstractController {
     }
 
     XmlRequestReader findXmlReader(String namespace, String element, String serviceId, String ver) {
-        Collection xmlReaders = loadXmlReaders();
+        Collection xmlReaders = tables().xmlReaders;
 
         //first just match on namespace, element
         List matches = new ArrayList();
@@ -1398,7 +1439,14 @@ public class Dispatcher extends AbstractController {
 
     Object parseRequestKVP(Class type, Request request)
         throws Exception {
-        KvpRequestReader kvpReader = findKvpRequestReader(type);
+        DispatchTables tables = tables();
+        KvpRequestReader kvpReader = tables.kvpReadersByType.get(type);
+        if (kvpReader == null) {
+            kvpReader = findKvpRequestReader(type, tables.kvpReaders);
+            if (kvpReader != null) {
+                tables.kvpReadersByType.put(type, kvpReader);
+            }
+        }
 
         if (kvpReader != null) {
             //check for http request awareness
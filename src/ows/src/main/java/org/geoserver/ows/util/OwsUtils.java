@@ -304,13 +304,25 @@ public class OwsUtils {
     }
     
     /**
-     * Copies properties from one object to another.
+     * Copies properties from one object to another, skipping the null values.
      * 
      * @param source The source object. 
      * @param target The target object.
      * @param clazz The class of source and target.
      */
     public static <T> void copy(T source, T target, Class<T> clazz) {
+        copy(source, target, clazz, false);
+    }
+
+    /**
+     * Copies properties from one object to another.
+     * 
+     * @param source The source object. 
+     * @param target The target object.
+     * @param clazz The class of source and target.
+     * @param copyNulls If true null values are copied as well, clearing the target properties
+     */
+    public static <T> void copy(T source, T target, Class<T> clazz, boolean copyNulls) {
         ClassProperties properties = getClassProperties(clazz);
         for (String p : properties.properties()) {
             Method getter = properties.getter(p, null);
@@ -332,8 +344,20 @@ public class OwsUtils {
             try {
                 Object newValue = getter.invoke(source, null);
                 if (newValue == null) {
+                    if (!copyNulls || type.isPrimitive()) {
+                        continue;
+                    }
+                    if (setter == null) {
+                        Object oldValue = getter.invoke(target, null);
+                        if (oldValue instanceof Collection) {
+                            ((Collection) oldValue).clear();
+                        } else if (oldValue instanceof Map) {
+                            ((Map) oldValue).clear();
+                        }
+                    } else {
+                        setter.invoke(target, new Object[] { null });
+                    }
                     continue;
-                    // TODO: make this a flag whether to overwrite with null values
                 }
                 if (setter == null) {
                     if (Collection.class.isAssignableFrom(type)) {
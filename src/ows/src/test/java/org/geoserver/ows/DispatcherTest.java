@@ -10,10 +10,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.ServletInputStream;
@@ -450,4 +454,58 @@ public class DispatcherTest extends TestCase {
         dispatcher.handleRequest(request, response);
         assertEquals("Hello world!:V2", response.getOutputStreamContent());
     }
+
+    public void testDispatchTables() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        DispatchTables tables = dispatcher.tables();
+        assertSame(tables, dispatcher.tables());
+        assertEquals(1, tables.getServices("HELLO").size());
+        assertTrue(tables.hasOperation(tables.getServices("hello").get(0), "HttpErrorCodeException"));
+
+        // lookups are cached
+        List<Response> responses = dispatcher.findResponseCandidates(Message.class, null);
+        assertEquals(1, responses.size());
+        assertSame(responses, dispatcher.findResponseCandidates(Message.class, null));
+
+        // the response accepts any format
+        responses = dispatcher.findResponseCandidates(Message.class, "foo/bar");
+        assertEquals(1, responses.size());
+
+        // a refresh drops the tables
+        context.refresh();
+        dispatcher = (Dispatcher) context.getBean("dispatcher");
+        assertNotSame(tables, dispatcher.tables());
+    }
+
+    public void testResponseFormatsChangingAtRuntime() throws Exception {
+        // some responses, like the XSLT ones, expose a live view of their formats
+        Set<String> formats = new HashSet<String>(Collections.singleton("foo"));
+        Response response = new Response(Message.class, formats) {
+
+            @Override
+            public String getMimeType(Object value, Operation operation) {
+                return "text/plain";
+            }
+
+            @Override
+            public void write(Object value, OutputStream output, Operation operation) {
+            }
+        };
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.tables = new DispatchTables(Collections.<Service> emptyList(),
+                Collections.<KvpRequestReader> emptyList(),
+                Collections.<XmlRequestReader> emptyList(), Collections.singletonList(response));
+
+        assertEquals(1, dispatcher.findResponseCandidates(Message.class, "foo").size());
+        assertTrue(dispatcher.findResponseCandidates(Message.class, "bar").isEmpty());
+
+        formats.add("bar");
+        formats.remove("foo");
+        assertEquals(1, dispatcher.findResponseCandidates(Message.class, "bar").size());
+        assertTrue(dispatcher.findResponseCandidates(Message.class, "foo").isEmpty());
+    }
 }
@@ -0,0 +1,96 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.rest;
+
+import java.util.List;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerPersister;
+import org.geoserver.rest.RestletException;
+import org.restlet.Finder;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.resource.Resource;
+import org.restlet.resource.StringRepresentation;
+
+/**
+ * Gives access to the catalog changes queued by a write-behind {@link GeoServerPersister}. A GET
+ * returns the number of changes waiting to be written, a POST or PUT writes them out and returns
+ * once they are on disk, so that scripts configuring the catalog in bulk can use it as a barrier
+ * before copying or reloading the data directory.
+ */
+public class CatalogFlusher extends Finder {
+
+    GeoServer geoServer;
+
+    public CatalogFlusher(GeoServer geoServer) {
+        this.geoServer = geoServer;
+    }
+
+    @Override
+    public Resource findTarget(Request request, Response response) {
+        Method method = request.getMethod();
+        if (!(method == Method.GET || method == Method.POST || method == Method.PUT)) {
+            response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            return null;
+        }
+        return new Resource() {
+            @Override
+            public boolean allowGet() {
+                return true;
+            }
+
+            @Override
+            public boolean allowPost() {
+                return true;
+            }
+
+            @Override
+            public boolean allowPut() {
+                return true;
+            }
+
+            @Override
+            public void handleGet() {
+                getResponse().setEntity(
+                        new StringRepresentation(String.valueOf(getQueueLength()),
+                                MediaType.TEXT_PLAIN));
+            }
+
+            @Override
+            public void handlePost() {
+                try {
+                    for (GeoServerPersister persister : getPersisters()) {
+                        persister.flush();
+                    }
+                } catch (Exception e) {
+                    throw new RestletException("Error writing the queued catalog changes",
+                            Status.SERVER_ERROR_INTERNAL, e);
+                }
+                handleGet();
+            }
+
+            @Override
+            public void handlePut() {
+                handlePost();
+            }
+        };
+    }
+
+    int getQueueLength() {
+        int length = 0;
+        for (GeoServerPersister persister : getPersisters()) {
+            length += persister.getQueueLength();
+        }
+        return length;
+    }
+
+    List<GeoServerPersister> getPersisters() {
+        return GeoServerPersister.getPersisters(geoServer.getCatalog());
+    }
+}
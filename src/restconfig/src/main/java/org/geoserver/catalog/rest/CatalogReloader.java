@@ -7,9 +7,12 @@ package org.geoserver.catalog.rest;
 import java.util.logging.Logger;
 
 import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerLoaderProxy;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.rest.RestletException;
 import org.geotools.util.logging.Logging;
 import org.restlet.Finder;
+import org.restlet.data.Form;
 import org.restlet.data.Method;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
@@ -52,7 +55,8 @@ public class CatalogReloader extends Finder {
             @Override
             public void handlePost() {
                 try {   
-                    reloadCatalog();
+                    Form form = getRequest().getResourceRef().getQueryAsForm();
+                    reloadCatalog(Boolean.valueOf(form.getFirstValue("incremental")));
                 } catch (Exception e) {
                     throw new RestletException("Error reloading catalog", Status.SERVER_ERROR_INTERNAL, e);
                 }
@@ -69,10 +73,26 @@ public class CatalogReloader extends Finder {
      * Method to reload the catalog
      */
     protected void reloadCatalog() throws Exception {
+        reloadCatalog(false);
+    }
+
+    /**
+     * Method to reload the catalog. An incremental reload only applies the catalog objects that
+     * have been added, modified or removed in the data directory, keeping the caches of the
+     * others, and falls back on a full reload if the catalog is not stored in the data directory
+     */
+    protected void reloadCatalog(boolean incremental) throws Exception {
         if(forceReset) {
             geoServer.reset();
+        } else if(incremental && reloadCatalogIncrementally()) {
+            LOGGER.info("Catalog reloaded incrementally");
         } else {
             geoServer.reload();
         }
     }
+
+    boolean reloadCatalogIncrementally() throws Exception {
+        GeoServerLoaderProxy loader = GeoServerExtensions.bean(GeoServerLoaderProxy.class);
+        return loader != null && loader.reloadCatalogIncrementally();
+    }
 }
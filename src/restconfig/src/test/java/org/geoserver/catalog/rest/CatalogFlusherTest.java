@@ -0,0 +1,101 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.rest;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.Wrapper;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.config.GeoServerPersister;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class CatalogFlusherTest extends CatalogRESTTestSupport {
+
+    GeoServerPersister persister;
+
+    @Before
+    public void enableWriteBehind() {
+        Catalog rawCatalog = catalog;
+        if (rawCatalog instanceof Wrapper) {
+            rawCatalog = ((Wrapper) rawCatalog).unwrap(Catalog.class);
+        }
+        for (CatalogListener listener : rawCatalog.getListeners()) {
+            if (listener instanceof GeoServerPersister) {
+                persister = (GeoServerPersister) listener;
+            }
+        }
+        assertNotNull(persister);
+        persister.setWriteBehindDelay(3600 * 1000);
+    }
+
+    @After
+    public void disableWriteBehind() {
+        persister.setWriteBehindDelay(0);
+        WorkspaceInfo ws = catalog.getWorkspaceByName("flushws");
+        if (ws != null) {
+            catalog.remove(ws);
+        }
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        assertEquals("0", getAsString("/rest/flush"));
+
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("flushws");
+        catalog.add(ws);
+        File f = new File(getDataDirectory().root(), "workspaces/flushws/workspace.xml");
+        assertFalse(f.exists());
+        assertEquals("1", getAsString("/rest/flush"));
+
+        MockHttpServletResponse response = postAsServletResponse("/rest/flush", "");
+        assertEquals(200, response.getStatusCode());
+        assertEquals("0", response.getOutputStreamContent());
+        assertEquals("0", getAsString("/rest/flush"));
+        InputStream is = new FileInputStream(f);
+        try {
+            assertXpathEvaluatesTo("flushws", "/workspace/name", dom(is));
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void testFlushFailure() throws Exception {
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("flushws");
+        catalog.add(ws);
+
+        // replace the workspace directory with a file, the workspace cannot be written
+        File dir = new File(getDataDirectory().root(), "workspaces/flushws");
+        FileUtils.deleteDirectory(dir);
+        assertTrue(dir.createNewFile());
+        try {
+            MockHttpServletResponse response = postAsServletResponse("/rest/flush", "");
+            assertEquals(500, response.getStatusCode());
+            // the change is still queued
+            assertEquals("1", getAsString("/rest/flush"));
+        } finally {
+            dir.delete();
+            dir.mkdir();
+        }
+
+        MockHttpServletResponse response = postAsServletResponse("/rest/flush", "");
+        assertEquals(200, response.getStatusCode());
+        assertTrue(new File(dir, "workspace.xml").exists());
+    }
+}
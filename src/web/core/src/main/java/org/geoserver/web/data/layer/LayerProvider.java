@@ -4,50 +4,25 @@
  */
 package org.geoserver.web.data.layer;
 
-import static org.geoserver.catalog.Predicates.acceptAll;
-import static org.geoserver.catalog.Predicates.or;
-import static org.geoserver.catalog.Predicates.sortBy;
-
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 
-import org.apache.wicket.extensions.markup.html.repeater.util.SortParam;
 import org.apache.wicket.model.IModel;
-import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerInfo;
-import org.geoserver.catalog.Predicates;
-import org.geoserver.catalog.util.CloseableIterator;
-import org.geoserver.catalog.util.CloseableIteratorAdapter;
-import org.geoserver.web.wicket.GeoServerDataProvider;
-import org.opengis.filter.Filter;
-import org.opengis.filter.sort.SortBy;
-
-import com.google.common.collect.Lists;
+import org.geoserver.web.wicket.CatalogDataProvider;
 
 /**
  * Provides a filtered, sorted view over the catalog layers.
  * <p>
- * <!-- Implementation detail: This class overrides the following methods in
- * order to leverage the Catalog filtering and paging support:
- * <ul>
- * <li> {@link #size()}: in order to call {@link Catalog#count(Class, Filter)}
- * with any filter criteria set on the page
- * <li> {@link #fullSize()}: in order to call
- * {@link Catalog#count(Class, Filter)} with {@link Predicates#acceptAll()}
- * <li>{@link #iterator}: in order to ask the catalog for paged and sorted
- * contents directly through
- * {@link Catalog#list(Class, Filter, Integer, Integer, SortBy)}
- * <li> {@link #getItems()} throws an unsupported operation exception, as given
- * the above it should not be called
- * </ul>
- * -->
+ * Filtering, paging and sorting are delegated to the catalog, see
+ * {@link CatalogDataProvider}
+ * </p>
  * 
  * @author Andrea Aime - OpenGeo
  */
 @SuppressWarnings("serial")
-public class LayerProvider extends GeoServerDataProvider<LayerInfo> {
+public class LayerProvider extends CatalogDataProvider<LayerInfo> {
     static final Property<LayerInfo> TYPE = new BeanProperty<LayerInfo>("type",
             "type");
 
@@ -114,11 +89,8 @@ public class LayerProvider extends GeoServerDataProvider<LayerInfo> {
             WORKSPACE, STORE, NAME, ENABLED, SRS);
 
     @Override
-    protected List<LayerInfo> getItems() {
-        // forced to implement this method as its abstract in the super class
-        throw new UnsupportedOperationException(
-                "This method should not be being called! "
-                        + "We use the catalog streaming API");
+    protected Class<LayerInfo> getCatalogType() {
+        return LayerInfo.class;
     }
 
     @Override
@@ -131,82 +103,10 @@ public class LayerProvider extends GeoServerDataProvider<LayerInfo> {
     }
 
     @Override
-    protected Comparator<LayerInfo> getComparator(SortParam sort) {
-        return super.getComparator(sort);
-    }
-
-    @Override
-    public int size() {
-        Filter filter = getFilter();
-        int count = getCatalog().count(LayerInfo.class, filter);
-        return count;
-    }
-
-    @Override
-    public int fullSize() {
-        Filter filter = Predicates.acceptAll();
-        int count = getCatalog().count(LayerInfo.class, filter);
-        return count;
-    }
-    
-    @Override
-    public Iterator<LayerInfo> iterator(final int first, final int count) {
-        Iterator<LayerInfo> iterator = filteredItems(first, count);
-        if (iterator instanceof CloseableIterator) {
-            // don't know how to force wicket to close the iterator, lets return
-            // a copy. Shouldn't be much overhead as we're paging
-            try {
-                return Lists.newArrayList(iterator).iterator();
-            } finally {
-                CloseableIteratorAdapter.close(iterator);
-            }
-        } else {
-            return iterator;
-        }
-    }
-
-    /**
-     * Returns the requested page of layer objects after applying any keyword
-     * filtering set on the page
-     */
-    private Iterator<LayerInfo> filteredItems(Integer first, Integer count) {
-        final Catalog catalog = getCatalog();
-
-        // global sorting
-        final SortParam sort = getSort();
-        final Property<LayerInfo> property = getProperty(sort);
-
-        SortBy sortOrder = null;
-        if (sort != null) {
-            if(property instanceof BeanProperty){
-                final String sortProperty = ((BeanProperty<LayerInfo>)property).getPropertyPath();
-                sortOrder = sortBy(sortProperty, sort.isAscending());
-            }else if(property == ENABLED){
-                sortOrder = sortBy("enabled", sort.isAscending());
-            }
-        }
-
-        final Filter filter = getFilter();
-        //our already filtered and closeable iterator
-        Iterator<LayerInfo> items = catalog.list(LayerInfo.class, filter, first, count, sortOrder);
-
-        return items;
-    }
-
-    private Filter getFilter() {
-        final String[] keywords = getKeywords();
-        Filter filter = acceptAll();
-        if (null != keywords) {
-            for (String keyword : keywords) {
-                Filter propContains = Predicates.fullTextSearch(keyword);
-                // chain the filters together
-                if (Filter.INCLUDE == filter) {
-                    filter = propContains;
-                } else {
-                    filter = or(filter, propContains);
-                }
-            }
+    protected String getSortPropertyPath(Property<LayerInfo> property) {
+        if (property == ENABLED) {
+            return "enabled";
         }
-        return filter;
+        return super.getSortPropertyPath(property);
     }
 }
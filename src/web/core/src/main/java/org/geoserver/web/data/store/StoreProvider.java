@@ -16,19 +16,21 @@ import org.apache.wicket.model.Model;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourcePool;
 import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.web.GeoServerApplication;
-import org.geoserver.web.wicket.GeoServerDataProvider;
+import org.geoserver.web.wicket.CatalogDataProvider;
 import org.geotools.data.DataAccessFactory;
 import org.opengis.coverage.grid.Format;
+import org.opengis.filter.Filter;
 
 /**
  * Data providers for the {@link StorePanel}
  */
 @SuppressWarnings("serial")
-public class StoreProvider extends GeoServerDataProvider<StoreInfo> {
+public class StoreProvider extends CatalogDataProvider<StoreInfo> {
     
     static final Property<StoreInfo> DATA_TYPE = new AbstractProperty<StoreInfo>("datatype") {
 
@@ -102,9 +104,14 @@ public class StoreProvider extends GeoServerDataProvider<StoreInfo> {
     }
     
     @Override
-    protected List<StoreInfo> getItems() {
-        return workspace == null ? getCatalog().getStores(StoreInfo.class) 
-            : getCatalog().getStoresByWorkspace( workspace, StoreInfo.class );
+    protected Class<StoreInfo> getCatalogType() {
+        return StoreInfo.class;
+    }
+
+    @Override
+    protected Filter getBaseFilter() {
+        return workspace == null ? Predicates.acceptAll() : Predicates.equal("workspace.id",
+                workspace.getId());
     }
 
     @Override
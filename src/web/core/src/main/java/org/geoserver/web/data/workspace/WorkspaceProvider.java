@@ -11,13 +11,14 @@ import org.apache.wicket.model.IModel;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.web.GeoServerApplication;
+import org.geoserver.web.wicket.CatalogDataProvider;
 import org.geoserver.web.wicket.GeoServerDataProvider;
 
 /**
  * {@link GeoServerDataProvider} for the list of workspaces available in the {@link Catalog}
  */
 @SuppressWarnings("serial")
-public class WorkspaceProvider extends GeoServerDataProvider<WorkspaceInfo> {
+public class WorkspaceProvider extends CatalogDataProvider<WorkspaceInfo> {
 
     public static Property<WorkspaceInfo> NAME = 
         new BeanProperty<WorkspaceInfo>( "name", "name" );
@@ -39,8 +40,8 @@ public class WorkspaceProvider extends GeoServerDataProvider<WorkspaceInfo> {
     }
    
     @Override
-    protected List<WorkspaceInfo> getItems() {
-        return getCatalog().getWorkspaces();
+    protected Class<WorkspaceInfo> getCatalogType() {
+        return WorkspaceInfo.class;
     }
 
     @Override
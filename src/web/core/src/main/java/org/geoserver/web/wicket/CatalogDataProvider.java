@@ -0,0 +1,170 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.web.wicket;
+
+import static org.geoserver.catalog.Predicates.acceptAll;
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.or;
+import static org.geoserver.catalog.Predicates.sortBy;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.wicket.extensions.markup.html.repeater.util.SortParam;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A {@link GeoServerDataProvider} serving catalog objects, which delegates the keyword filtering,
+ * counting, sorting and paging to the catalog instead of loading and sorting all the objects in
+ * memory at each page render.
+ * <p>
+ * The keywords are turned into full text search predicates, see
+ * {@link Predicates#fullTextSearch(String)}. Sorting is delegated to the catalog when the sort
+ * property can be mapped to a catalog property path (by default, for {@link BeanProperty}
+ * properties) the catalog can sort on, otherwise the provider falls back on loading the filtered
+ * objects and sorting them in memory.
+ * </p>
+ *
+ * @param <T>
+ */
+@SuppressWarnings("serial")
+public abstract class CatalogDataProvider<T extends CatalogInfo> extends GeoServerDataProvider<T> {
+
+    /**
+     * Returns the type of catalog objects served by this provider
+     *
+     * @return
+     */
+    protected abstract Class<T> getCatalogType();
+
+    /**
+     * Returns the filter selecting the objects served by this provider before any keyword
+     * filtering is applied. Defaults to all the objects of the {@link #getCatalogType()} type,
+     * subclasses can override to restrict the selection (e.g., to a single workspace)
+     *
+     * @return
+     */
+    protected Filter getBaseFilter() {
+        return acceptAll();
+    }
+
+    /**
+     * Returns the filter combining the base filter and the current keywords
+     *
+     * @return
+     */
+    protected Filter getFilter() {
+        Filter filter = getBaseFilter();
+        final String[] keywords = getKeywords();
+        if (keywords == null || keywords.length == 0) {
+            return filter;
+        }
+
+        Filter keywordsFilter = null;
+        for (String keyword : keywords) {
+            Filter propContains = Predicates.fullTextSearch(keyword);
+            // chain the filters together
+            if (keywordsFilter == null) {
+                keywordsFilter = propContains;
+            } else {
+                keywordsFilter = or(keywordsFilter, propContains);
+            }
+        }
+
+        if (Filter.INCLUDE.equals(filter)) {
+            return keywordsFilter;
+        } else {
+            return and(filter, keywordsFilter);
+        }
+    }
+
+    /**
+     * Returns the catalog property path the specified property can be sorted on, or null if the
+     * property cannot be sorted by the catalog. By default the property path of
+     * {@link BeanProperty} is returned
+     *
+     * @param property
+     * @return
+     */
+    protected String getSortPropertyPath(Property<T> property) {
+        if (property instanceof BeanProperty) {
+            return ((BeanProperty<T>) property).getPropertyPath();
+        }
+        return null;
+    }
+
+    @Override
+    protected List<T> getItems() {
+        return list(getBaseFilter(), null, null, null);
+    }
+
+    @Override
+    protected List<T> getFilteredItems() {
+        return list(getFilter(), null, null, null);
+    }
+
+    @Override
+    public int size() {
+        return getCatalog().count(getCatalogType(), getFilter());
+    }
+
+    @Override
+    public int fullSize() {
+        return getCatalog().count(getCatalogType(), getBaseFilter());
+    }
+
+    @Override
+    public Iterator<T> iterator(int first, int count) {
+        final SortParam sort = getSort();
+        SortBy sortOrder = null;
+        if (sort != null && sort.getProperty() != null) {
+            sortOrder = getSortOrder(sort);
+            if (sortOrder == null) {
+                // the catalog cannot sort on this property, do it in memory
+                return super.iterator(first, count);
+            }
+        }
+
+        return list(getFilter(), first, count, sortOrder).iterator();
+    }
+
+    /**
+     * Maps the sort parameter to a catalog sort order, or returns null if the catalog cannot
+     * sort on it
+     */
+    SortBy getSortOrder(SortParam sort) {
+        Property<T> property = getProperty(sort);
+        if (property == null) {
+            return null;
+        }
+        String path = getSortPropertyPath(property);
+        if (path == null || !getCatalog().getFacade().canSort(getCatalogType(), path)) {
+            return null;
+        }
+        return sortBy(path, sort.isAscending());
+    }
+
+    /**
+     * Runs the query against the catalog, and copies the results in a list, as there is no way to
+     * force Wicket to close the iterator. Shouldn't be much overhead as we're paging
+     */
+    List<T> list(Filter filter, Integer first, Integer count, SortBy sortOrder) {
+        Catalog catalog = getCatalog();
+        CloseableIterator<T> iterator = catalog.list(getCatalogType(), filter, first, count,
+                sortOrder);
+        try {
+            return Lists.newArrayList(iterator);
+        } finally {
+            iterator.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.web.data.store;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.web.GeoServerWicketTestSupport;
+import org.junit.Test;
+
+public class StoreProviderTest extends GeoServerWicketTestSupport {
+
+    @Test
+    public void testPagingSorting() {
+        List<String> names = new ArrayList<String>();
+        for (StoreInfo store : getCatalog().getStores(StoreInfo.class)) {
+            names.add(store.getName());
+        }
+        Collections.sort(names);
+
+        StoreProvider provider = new StoreProvider();
+        provider.setSort(StoreProvider.NAME.getName(), true);
+        assertEquals(names.size(), provider.size());
+        assertEquals(names.size(), provider.fullSize());
+
+        // the second page, sorted by the catalog
+        List<String> page = names(provider.iterator(2, 3));
+        assertEquals(names.subList(2, 5), page);
+
+        // descending
+        provider.setSort(StoreProvider.NAME.getName(), false);
+        Collections.reverse(names);
+        assertEquals(names.subList(0, 3), names(provider.iterator(0, 3)));
+    }
+
+    @Test
+    public void testInMemorySort() {
+        // the type is computed, cannot be sorted by the catalog
+        StoreProvider provider = new StoreProvider();
+        provider.setSort(provider.TYPE.getName(), true);
+        int size = provider.size();
+        assertEquals(size, names(provider.iterator(0, size)).size());
+    }
+
+    @Test
+    public void testKeywords() {
+        StoreProvider provider = new StoreProvider();
+        provider.setKeywords(new String[] { MockData.CITE_PREFIX });
+        int size = provider.size();
+        assertTrue(size > 0);
+        assertTrue(size < provider.fullSize());
+        assertEquals(size, names(provider.iterator(0, Integer.MAX_VALUE)).size());
+    }
+
+    @Test
+    public void testWorkspace() {
+        WorkspaceInfo cite = getCatalog().getWorkspaceByName(MockData.CITE_PREFIX);
+        StoreProvider provider = new StoreProvider(cite);
+        assertEquals(getCatalog().getStoresByWorkspace(cite, StoreInfo.class).size(),
+                provider.fullSize());
+        Iterator<StoreInfo> it = provider.iterator(0, Integer.MAX_VALUE);
+        while (it.hasNext()) {
+            assertEquals(cite, it.next().getWorkspace());
+        }
+    }
+
+    List<String> names(Iterator<StoreInfo> it) {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().getName());
+        }
+        return result;
+    }
+}
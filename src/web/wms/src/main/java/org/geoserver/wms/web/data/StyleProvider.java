@@ -10,13 +10,14 @@ import java.util.List;
 import org.apache.wicket.model.IModel;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.web.data.style.StyleDetachableModel;
+import org.geoserver.web.wicket.CatalogDataProvider;
 import org.geoserver.web.wicket.GeoServerDataProvider;
 
 /**
  * A {@link GeoServerDataProvider} provider for styles
  */
 @SuppressWarnings("serial")
-public class StyleProvider extends GeoServerDataProvider<StyleInfo> {
+public class StyleProvider extends CatalogDataProvider<StyleInfo> {
 
     public static Property<StyleInfo> NAME = 
         new BeanProperty<StyleInfo>( "name", "name" );
@@ -31,8 +32,8 @@ public class StyleProvider extends GeoServerDataProvider<StyleInfo> {
     }
     
     @Override
-    protected List<StyleInfo> getItems() {
-        return getCatalog().getStyles();
+    protected Class<StyleInfo> getCatalogType() {
+        return StyleInfo.class;
     }
 
     @Override
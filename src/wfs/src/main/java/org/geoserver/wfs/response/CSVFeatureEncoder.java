@@ -0,0 +1,317 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.geotools.feature.type.DateUtil;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTWriter;
+
+/**
+ * Encodes simple features as CSV lines (RFC 4180). The value encoder of each attribute is
+ * chosen once from the attribute binding, and values are appended to a shared buffer without
+ * building intermediate strings where possible.
+ * <p>
+ * The encoder is thread safe, each call to {@link #encode(List)} uses its own buffers and
+ * formatters, so that batches of features can be encoded in parallel.
+ * </p>
+ */
+class CSVFeatureEncoder {
+
+    SimpleFeatureType schema;
+
+    ValueEncoder[] encoders;
+
+    int numDecimals;
+
+    Charset charset;
+
+    public CSVFeatureEncoder(SimpleFeatureType schema, int numDecimals, Charset charset) {
+        this.schema = schema;
+        this.numDecimals = numDecimals;
+        this.charset = charset;
+        this.encoders = new ValueEncoder[schema.getAttributeCount()];
+        for (int i = 0; i < encoders.length; i++) {
+            encoders[i] = getEncoder(schema.getDescriptor(i).getType().getBinding());
+        }
+    }
+
+    static ValueEncoder getEncoder(Class<?> binding) {
+        if (Integer.class.equals(binding) || Long.class.equals(binding)
+                || Short.class.equals(binding) || Byte.class.equals(binding)
+                || BigInteger.class.equals(binding)) {
+            return INTEGER;
+        } else if (Number.class.isAssignableFrom(binding)) {
+            return DECIMAL;
+        } else if (Date.class.isAssignableFrom(binding)) {
+            return DATE;
+        } else if (Geometry.class.isAssignableFrom(binding)) {
+            return GEOMETRY;
+        } else if (String.class.equals(binding)) {
+            return TEXT;
+        } else {
+            return GENERIC;
+        }
+    }
+
+    /**
+     * Encodes the header line
+     */
+    public ByteBuffer encodeHeader() throws IOException {
+        Context ctx = new Context(numDecimals);
+        ctx.sb.append("FID,");
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            appendEscaped(schema.getDescriptor(i).getLocalName(), ctx.sb);
+            if (i < schema.getAttributeCount() - 1) {
+                ctx.sb.append(',');
+            }
+        }
+        // by RFC each line is terminated by CRLF
+        ctx.sb.append("\r\n");
+
+        return ctx.toBytes(charset);
+    }
+
+    /**
+     * Encodes the specified features, one line each
+     */
+    public ByteBuffer encode(List<SimpleFeature> features) throws IOException {
+        Context ctx = new Context(numDecimals);
+        StringBuilder sb = ctx.sb;
+        for (SimpleFeature f : features) {
+            // dump fid
+            appendEscaped(f.getID(), sb);
+            sb.append(',');
+            // dump attributes
+            int count = f.getAttributeCount();
+            for (int j = 0; j < count; j++) {
+                Object value = f.getAttribute(j);
+                if (value != null) {
+                    ValueEncoder encoder = j < encoders.length ? encoders[j] : GENERIC;
+                    encoder.encode(value, ctx);
+                }
+                if (j < count - 1) {
+                    sb.append(',');
+                }
+            }
+            // by RFC each line is terminated by CRLF
+            sb.append("\r\n");
+        }
+
+        return ctx.toBytes(charset);
+    }
+
+    /**
+     * Appends the value, enclosing it in double quotes if it contains double quotes, commas or
+     * newlines, and doubling the embedded double quotes, as mandated by the CSV "spec"
+     */
+    static void appendEscaped(String value, StringBuilder sb) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == '"' || c == ',' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(value);
+        } else {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    sb.append('"');
+                }
+                sb.append(c);
+            }
+            sb.append('"');
+        }
+    }
+
+    /**
+     * The buffers and formatters used while encoding a batch of features
+     */
+    static class Context {
+        StringBuilder sb = new StringBuilder(64 * 1024);
+
+        NumberFormat numberFormat;
+
+        StringBuffer numberBuffer = new StringBuffer();
+
+        FieldPosition position = new FieldPosition(0);
+
+        WKTWriter wktWriter;
+
+        StringWriter wktBuffer;
+
+        Context(int numDecimals) {
+            numberFormat = NumberFormat.getInstance(Locale.US);
+            numberFormat.setMaximumFractionDigits(numDecimals);
+            numberFormat.setGroupingUsed(false);
+        }
+
+        void appendNumber(Object number) {
+            numberBuffer.setLength(0);
+            numberFormat.format(number, numberBuffer, position);
+            sb.append(numberBuffer);
+        }
+
+        void appendNumber(double number) {
+            numberBuffer.setLength(0);
+            numberFormat.format(number, numberBuffer, position);
+            sb.append(numberBuffer);
+        }
+
+        ByteBuffer toBytes(Charset charset) throws CharacterCodingException {
+            char[] chars = new char[sb.length()];
+            sb.getChars(0, chars.length, chars, 0);
+            CharsetEncoder encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            return encoder.encode(CharBuffer.wrap(chars));
+        }
+    }
+
+    /**
+     * Appends a non null value to the context buffer
+     */
+    static abstract class ValueEncoder {
+        abstract void encode(Object value, Context ctx);
+    }
+
+    /**
+     * Handles any value, used when the binding does not tell us enough
+     */
+    static final ValueEncoder GENERIC = new ValueEncoder() {
+
+        @Override
+        void encode(Object value, Context ctx) {
+            if (value instanceof Number) {
+                DECIMAL.encode(value, ctx);
+            } else if (value instanceof Date) {
+                DATE.encode(value, ctx);
+            } else if (value instanceof Geometry) {
+                GEOMETRY.encode(value, ctx);
+            } else {
+                // everything else we just "toString"
+                appendEscaped(value.toString(), ctx.sb);
+            }
+        }
+    };
+
+    static final ValueEncoder TEXT = new ValueEncoder() {
+
+        @Override
+        void encode(Object value, Context ctx) {
+            appendEscaped(value.toString(), ctx.sb);
+        }
+    };
+
+    static final ValueEncoder INTEGER = new ValueEncoder() {
+
+        @Override
+        void encode(Object value, Context ctx) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                ctx.sb.append(((Number) value).longValue());
+            } else {
+                GENERIC.encode(value, ctx);
+            }
+        }
+    };
+
+    static final ValueEncoder DECIMAL = new ValueEncoder() {
+
+        @Override
+        void encode(Object value, Context ctx) {
+            if (value instanceof Double || value instanceof Float) {
+                double d = ((Number) value).doubleValue();
+                if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                    // integral values need no rounding
+                    ctx.sb.append((long) d);
+                } else {
+                    // don't allow scientific notation in the output, as OpenOffice won't
+                    // recognize that as a number
+                    ctx.appendNumber(d);
+                }
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                ctx.sb.append(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                ctx.appendNumber(value);
+            } else {
+                GENERIC.encode(value, ctx);
+            }
+        }
+    };
+
+    static final ValueEncoder DATE = new ValueEncoder() {
+
+        @Override
+        void encode(Object value, Context ctx) {
+            // serialize dates in ISO format
+            if (value instanceof java.sql.Date) {
+                ctx.sb.append(DateUtil.serializeSqlDate((java.sql.Date) value));
+            } else if (value instanceof java.sql.Time) {
+                ctx.sb.append(DateUtil.serializeSqlTime((java.sql.Time) value));
+            } else if (value instanceof Date) {
+                ctx.sb.append(DateUtil.serializeDateTime((Date) value));
+            } else {
+                GENERIC.encode(value, ctx);
+            }
+        }
+    };
+
+    static final ValueEncoder GEOMETRY = new ValueEncoder() {
+
+        @Override
+        void encode(Object value, Context ctx) {
+            if (!(value instanceof Geometry)) {
+                GENERIC.encode(value, ctx);
+                return;
+            }
+
+            if (ctx.wktWriter == null) {
+                ctx.wktWriter = new WKTWriter();
+                ctx.wktBuffer = new StringWriter();
+            }
+            StringBuffer wkt = ctx.wktBuffer.getBuffer();
+            wkt.setLength(0);
+            try {
+                ctx.wktWriter.write((Geometry) value, ctx.wktBuffer);
+            } catch (IOException e) {
+                // cannot happen, we are writing in memory
+                throw new RuntimeException(e);
+            }
+
+            // WKT contains no quotes or newlines, but any geometry with more than one
+            // coordinate has commas
+            boolean quote = false;
+            for (int i = 0; i < wkt.length() && !quote; i++) {
+                quote = wkt.charAt(i) == ',';
+            }
+            if (quote) {
+                ctx.sb.append('"').append(wkt).append('"');
+            } else {
+                ctx.sb.append(wkt);
+            }
+        }
+    };
+}
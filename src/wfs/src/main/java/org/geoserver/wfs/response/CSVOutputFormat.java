@@ -4,26 +4,37 @@
  */
 package org.geoserver.wfs.response;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.text.NumberFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
 
 import org.geoserver.config.GeoServer;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.feature.type.DateUtil;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * WFS output format for a GetFeature operation in which the outputFormat is "csv".
@@ -34,7 +45,25 @@ import org.opengis.feature.type.AttributeDescriptor;
  * @author Sebastian Benthall, OpenGeo, seb@opengeo.org
  * @author Andrea Aime, OpenGeo
  */
-public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
+public class CSVOutputFormat extends WFSGetFeatureOutputFormat implements DisposableBean {
+
+    /**
+     * System/environment variable controlling how many threads encode the CSV batches, setting
+     * it to 1 disables the parallel encoding
+     */
+    public static final String CSV_ENCODER_THREADS = "CSV_ENCODER_THREADS";
+
+    /**
+     * Format option enabling the gzip compression of the output
+     */
+    public static final String GZIP_OPTION = "GZIP";
+
+    /**
+     * Number of features encoded in a single chunk
+     */
+    static final int BATCH_SIZE = 1000;
+
+    ThreadPoolExecutor executor;
 
     public CSVOutputFormat(GeoServer gs) {
         //this is the name of your output format, it is the string
@@ -42,6 +71,39 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         // GEtFeature request: 
         // ie ;.../geoserver/wfs?request=getfeature&outputFormat=myOutputFormat
         super(gs, "csv");
+        int threads = getThreadCount();
+        if (threads > 1) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "CSVEncoder-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Returns the number of threads used to encode the output, by default the number of
+     * available processors
+     */
+    static int getThreadCount() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String value = GeoServerExtensions.getProperty(CSV_ENCODER_THREADS);
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + CSV_ENCODER_THREADS + ": "
+                        + value + ", using " + threads + " threads instead");
+            }
+        }
+        return threads;
     }
     
     /**
@@ -50,6 +112,9 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     @Override
     public String getMimeType(Object value, Operation operation)
                throws ServiceException {
+        if (isGzipEnabled(operation)) {
+            return "application/x-gzip";
+        }
         // won't allow browsers to open it directly, but that's the mime
         // state in the RFC
         return "text/csv";
@@ -64,7 +129,7 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     public String getAttachmentFileName(Object value, Operation operation) {
         GetFeatureRequest request = GetFeatureRequest.adapt(operation.getParameters()[0]);
         String outputFileName = request.getQueries().get(0).getTypeNames().get(0).getLocalPart();
-        return outputFileName + ".csv";
+        return outputFileName + (isGzipEnabled(operation) ? ".csv.gz" : ".csv");
     }
     
     /**
@@ -74,98 +139,123 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     protected void write(FeatureCollectionResponse featureCollection,
             OutputStream output, Operation getFeature) throws IOException,
             ServiceException {
-    	   //write out content here
-        
-        //create a writer
-        BufferedWriter w = new BufferedWriter( new OutputStreamWriter( output ) );
-                   
+        OutputStream os = output;
+        if (isGzipEnabled(getFeature)) {
+            os = new GZIPOutputStream(output, 64 * 1024);
+        }
+
         //get the feature collection
         SimpleFeatureCollection fc = 
             (SimpleFeatureCollection) featureCollection.getFeature().get(0);
-           
+        SettingsInfo settings = getInfo().getGeoServer().getSettings();
+        CSVFeatureEncoder encoder = new CSVFeatureEncoder(fc.getSchema(),
+                settings.getNumDecimals(), Charset.forName(settings.getCharset()));
+
         //write out the header
-        SimpleFeatureType ft = fc.getSchema();
-        w.write("FID,");
-        for ( int i = 0; i < ft.getAttributeCount(); i++ ) {
-            AttributeDescriptor ad = ft.getDescriptor( i );
-            w.write( prepCSVField(ad.getLocalName()) );
-               
-            if ( i < ft.getAttributeCount()-1 ) {
-               w.write( "," );
-            }
-        }
-        // by RFC each line is terminated by CRLF
-        w.write( "\r\n" );
-        
-        // prepare the formatter for numbers
-        NumberFormat coordFormatter = NumberFormat.getInstance(Locale.US);
-        coordFormatter.setMaximumFractionDigits(getInfo().getGeoServer().getSettings().getNumDecimals());
-        coordFormatter.setGroupingUsed(false);
-           
-        //write out the features
+        writeChunk(encoder.encodeHeader(), os);
+
+        //write out the features, in batches that can be encoded in parallel
+        LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
         SimpleFeatureIterator i = fc.features();
         try {
-            while( i.hasNext() ) {
-                SimpleFeature f = i.next();
-                // dump fid
-                w.write(prepCSVField(f.getID()));
-                w.write(",");
-                // dump attributes
-                for ( int j = 0; j < f.getAttributeCount(); j++ ) {
-                    Object att = f.getAttribute( j );
-                    if ( att != null ) {
-                        String value = null;
-                        if(att instanceof Number) {
-                            // don't allow scientific notation in the output, as OpenOffice won't 
-                            // recognize that as a number 
-                            value = coordFormatter.format(att);
-                        } else if(att instanceof Date) {
-                            // serialize dates in ISO format
-                            if(att instanceof java.sql.Date)
-                                value = DateUtil.serializeSqlDate((java.sql.Date) att);
-                            else if(att instanceof java.sql.Time)
-                                value = DateUtil.serializeSqlTime((java.sql.Time) att);
-                            else
-                                value = DateUtil.serializeDateTime((Date) att);
-                        } else {
-                            // everything else we just "toString"
-                            value = att.toString();
-                        }
-                        w.write( prepCSVField(value) );
-                    }
-                    if ( j < f.getAttributeCount()-1 ) {
-                        w.write(",");    
-                    }
+            List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
+            while (i.hasNext()) {
+                batch.add(i.next());
+                if (batch.size() == BATCH_SIZE) {
+                    encode(encoder, batch, pending, os);
+                    batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
                 }
-                // by RFC each line is terminated by CRLF
-                w.write( "\r\n" );
+            }
+            if (!batch.isEmpty()) {
+                if (pending.isEmpty()) {
+                    // small output, no point handing it to another thread
+                    writeChunk(encoder.encode(batch), os);
+                } else {
+                    encode(encoder, batch, pending, os);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeChunk(pending.removeFirst(), os);
             }
         } finally {
             i.close();
+            // in case of failure
+            for (Future<ByteBuffer> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        if (os instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) os).finish();
         }
-           
-        w.flush();
+        os.flush();
     }
-    
-    /*
-     * The CSV "spec" explains that fields with certain properties must be
-     * delimited by double quotes, and also that double quotes within fields
-     * must be escaped.  This method takes a field and returns one that
-     * obeys the CSV spec.
-     */    
-    private String prepCSVField(String field){
-    	// "embedded double-quote characters must be represented by a pair of double-quote characters."
-    	String mod = field.replaceAll("\"", "\"\"");
-    	
-    	/*
-    	 * Enclose string in double quotes if it contains double quotes, commas, or newlines
-    	 */
-    	if(mod.matches(".*(\"|\n|,).*")){
-    		mod = "\"" + mod + "\"";
-    	}
-    	
-		return mod;
-    	
+
+    /**
+     * Encodes the batch, in parallel if an executor is available. The encoded chunks are
+     * written out in order, and at most one batch per thread is kept in memory waiting
+     */
+    void encode(final CSVFeatureEncoder encoder, final List<SimpleFeature> batch,
+            LinkedList<Future<ByteBuffer>> pending, OutputStream os) throws IOException {
+        if (executor == null) {
+            writeChunk(encoder.encode(batch), os);
+            return;
+        }
+
+        pending.add(executor.submit(new Callable<ByteBuffer>() {
+
+            @Override
+            public ByteBuffer call() throws Exception {
+                return encoder.encode(batch);
+            }
+        }));
+        while (pending.size() > executor.getMaximumPoolSize()) {
+            writeChunk(pending.removeFirst(), os);
+        }
+    }
+
+    void writeChunk(Future<ByteBuffer> future, OutputStream os) throws IOException {
+        ByteBuffer chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            throw new WFSException("Interrupted while encoding the CSV output", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new WFSException("Failed to encode the CSV output", e.getCause());
+        }
+        writeChunk(chunk, os);
+    }
+
+    void writeChunk(ByteBuffer chunk, OutputStream os) throws IOException {
+        os.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+    }
+
+    /**
+     * Returns true if the GZIP format option has been set to true
+     */
+    boolean isGzipEnabled(Operation operation) {
+        Object[] parameters = operation.getParameters();
+        if (parameters == null || parameters.length == 0) {
+            return false;
+        }
+        GetFeatureRequest request = GetFeatureRequest.adapt(parameters[0]);
+        if (request == null || request.getFormatOptions() == null) {
+            return false;
+        }
+        Object gzip = request.getFormatOptions().get(GZIP_OPTION);
+        return gzip != null && Boolean.valueOf(gzip.toString());
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            executor = null;
+        }
     }
     
     @Override
@@ -0,0 +1,254 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the serialized XML schemas produced by DescribeFeatureType, so that clients asking for
+ * the schema before each GetFeature do not cause the schema to be rebuilt over and over.
+ * <p>
+ * The schemas are keyed by schema builder (that is, GML version), feature types, base URL, local
+ * workspace and charset. Lookups do not involve any global lock. The cache is cleared, or the
+ * affected entries dropped, when the catalog or the configuration change.
+ * </p>
+ * <p>
+ * Security can hide attributes from some users, the schemas of feature types with access limits
+ * are never cached. This way the cached schemas do not depend on the user, nor become stale when
+ * the data access rules change.
+ * </p>
+ */
+public class DescribeFeatureTypeCache implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(DescribeFeatureTypeCache.class);
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    Cache<SchemaKey, byte[]> cache;
+
+    public DescribeFeatureTypeCache(GeoServer geoServer) {
+        this(geoServer, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DescribeFeatureTypeCache(GeoServer geoServer, int maxEntries) {
+        cache = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        geoServer.getCatalog().addListener(this);
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                // the proxy base url and charset are used in the schemas
+                clear();
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                clear();
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                clear();
+            }
+
+            @Override
+            public void reloaded() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Builds the key for the schema of the specified feature types, or returns null if the
+     * schema cannot be cached
+     *
+     * @param builder the schema builder, identifies the GML version
+     * @param featureTypes
+     * @param baseUrl
+     * @param charset
+     * @return
+     */
+    public SchemaKey getKey(FeatureTypeSchemaBuilder builder, FeatureTypeInfo[] featureTypes,
+            String baseUrl, String charset) {
+        List<String> ids = new ArrayList<String>(featureTypes.length);
+        for (FeatureTypeInfo ft : featureTypes) {
+            if (isLimited(ft)) {
+                return null;
+            }
+            ids.add(ft.getId());
+        }
+        WorkspaceInfo ws = LocalWorkspace.get();
+        return new SchemaKey(builder.getClass().getName(), ids, baseUrl,
+                ws != null ? ws.getName() : null, charset);
+    }
+
+    /**
+     * Returns true if the secure catalog applied access limits to the feature type, which might
+     * then be hiding attributes
+     */
+    boolean isLimited(FeatureTypeInfo ft) {
+        return ft instanceof SecuredFeatureTypeInfo
+                && ((SecuredFeatureTypeInfo) ft).getPolicy().getLimits() != null;
+    }
+
+    /**
+     * Returns the cached schema, or null if not found
+     */
+    public byte[] get(SchemaKey key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(SchemaKey key, byte[] schema) {
+        cache.put(key, schema);
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Drops the schemas involving the specified feature type
+     *
+     * @param featureTypeId
+     */
+    void invalidate(String featureTypeId) {
+        for (Iterator<SchemaKey> it = cache.asMap().keySet().iterator(); it.hasNext();) {
+            if (it.next().featureTypeIds.contains(featureTypeId)) {
+                it.remove();
+            }
+        }
+    }
+
+    void invalidate(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof FeatureTypeInfo) {
+            invalidate(source.getId());
+        } else if (source instanceof LayerInfo) {
+            LayerInfo layer = (LayerInfo) source;
+            if (layer.getResource() != null) {
+                invalidate(layer.getResource().getId());
+            }
+        } else if (source instanceof NamespaceInfo || source instanceof WorkspaceInfo
+                || source instanceof StoreInfo) {
+            // namespaces end up in all the schemas, store changes can alter the feature types
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Clearing the schema cache after a change in " + source);
+            }
+            clear();
+        }
+    }
+
+    // -----------------------------------------------------------------
+    // CatalogListener methods
+    // -----------------------------------------------------------------
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        if (event.getSource() instanceof NamespaceInfo) {
+            // new namespaces are declared in the single namespace schemas
+            clear();
+        }
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event);
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event);
+    }
+
+    public void reloaded() {
+        clear();
+    }
+
+    /**
+     * The key of a cached schema
+     */
+    public static class SchemaKey {
+        final String builder;
+
+        final List<String> featureTypeIds;
+
+        final String baseUrl;
+
+        final String workspace;
+
+        final String charset;
+
+        SchemaKey(String builder, List<String> featureTypeIds, String baseUrl, String workspace,
+                String charset) {
+            this.builder = builder;
+            this.featureTypeIds = featureTypeIds;
+            this.baseUrl = baseUrl;
+            this.workspace = workspace;
+            this.charset = charset;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = builder.hashCode();
+            result = 31 * result + featureTypeIds.hashCode();
+            result = 31 * result + (baseUrl == null ? 0 : baseUrl.hashCode());
+            result = 31 * result + (workspace == null ? 0 : workspace.hashCode());
+            result = 31 * result + (charset == null ? 0 : charset.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SchemaKey)) {
+                return false;
+            }
+            SchemaKey other = (SchemaKey) obj;
+            return builder.equals(other.builder) && featureTypeIds.equals(other.featureTypeIds)
+                    && equals(baseUrl, other.baseUrl) && equals(workspace, other.workspace)
+                    && equals(charset, other.charset);
+        }
+
+        private static boolean equals(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
@@ -121,10 +121,24 @@ public class GML2OutputFormat extends WFSGetFeatureOutputFormat {
     *
     * @throws IOException DOCUMENT ME!
     */
-    @SuppressWarnings("unchecked")
     public void prepare(String outputFormat, FeatureCollectionResponse results, GetFeatureRequest request)
         throws IOException {
-        transformer = createTransformer();
+        transformer = createTransformer(results, request);
+    }
+
+    /**
+     * Builds a transformer set up to encode the results, it can also be used to generate the GML2
+     * document as SAX events, see {@link #getSource(FeatureCollectionResponse)}
+     * 
+     * @param results
+     * @param request
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public FeatureTransformer createTransformer(FeatureCollectionResponse results,
+            GetFeatureRequest request) throws IOException {
+        FeatureTransformer transformer = createTransformer();
 
         FeatureTypeNamespaces ftNames = transformer.getFeatureTypeNamespaces();
         Map ftNamespaces = new HashMap();
@@ -224,6 +238,16 @@ public class GML2OutputFormat extends WFSGetFeatureOutputFormat {
         if (srs != -1) {
             transformer.setSrsName(gml.getSrsNameStyle().getPrefix() + srs);
         }
+
+        return transformer;
+    }
+
+    /**
+     * Returns the object the {@link FeatureTransformer} encodes for the results
+     */
+    public static Object getSource(FeatureCollectionResponse results) {
+        List resultsList = results.getFeature();
+        return resultsList.toArray(new FeatureCollection[resultsList.size()]);
     }
 
     /**
@@ -248,12 +272,8 @@ public class GML2OutputFormat extends WFSGetFeatureOutputFormat {
         // including the lockID
         //
         // execute should also fail if all of the locks could not be aquired
-        List resultsList = results.getFeature();
-        FeatureCollection[] featureResults = (FeatureCollection[]) resultsList.toArray(new FeatureCollection[resultsList
-                .size()]);
-
         try {
-            transformer.transform(featureResults, output);
+            transformer.transform(getSource(results), output);
 
             //we need to "finish" here because if not,it is possible that the gzipped
             //content do not gets completely written
@@ -90,6 +90,12 @@ public class GML32OutputFormat extends GML3OutputFormat {
         return new Encoder(config);
     }
 
+    @Override
+    protected boolean isStreamingEncoderEnabled(WFSInfo wfs) {
+        // the streaming writer only does GML 3.1.1
+        return false;
+    }
+
     @Override
     protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
         //since wfs 2.0 schema does not depend on gml 3.2 schema we register it manually
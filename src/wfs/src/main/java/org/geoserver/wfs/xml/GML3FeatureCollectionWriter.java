@@ -0,0 +1,592 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.gml2.SrsSyntax;
+import org.geotools.gml3.GML;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streams a WFS 1.1 GetFeature response made of simple features as GML 3.1.1, writing directly to
+ * a {@link XMLStreamWriter} instead of going through the XSD bindings of the GeoTools
+ * {@link org.geotools.xml.Encoder}.
+ * <p>
+ * The element names and attribute handling of each feature type are computed once, the first time
+ * a feature of that type is met, and geometries are encoded with dedicated writers reusing the
+ * same coordinate buffer. Complex features are not supported, the caller has to fall back on the
+ * binding based encoding for them.
+ * </p>
+ * <p>
+ * A writer holds its formatters and buffers, it is meant to encode a single response at a time.
+ * </p>
+ */
+public class GML3FeatureCollectionWriter {
+
+    static final String GML_PREFIX = "gml";
+
+    static final String WFS_PREFIX = "wfs";
+
+    static final String XSI_PREFIX = "xsi";
+
+    static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    Catalog catalog;
+
+    Charset charset;
+
+    boolean featureBounding;
+
+    boolean encodeSrsDimension = true;
+
+    boolean encodeFeatureMember;
+
+    SrsSyntax srsSyntax = SrsSyntax.OGC_URN_EXPERIMENTAL;
+
+    /**
+     * Same default as the global settings
+     */
+    int numDecimals = 8;
+
+    Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
+
+    /**
+     * The encoding information for each feature type, computed on first usage
+     */
+    Map<SimpleFeatureType, FeatureTypeEncoding> encodings = new IdentityHashMap<SimpleFeatureType, FeatureTypeEncoding>();
+
+    /**
+     * Cache of the srsName for each CRS met, looking up the EPSG code is expensive
+     */
+    Map<CoordinateReferenceSystem, String> srsNames = new IdentityHashMap<CoordinateReferenceSystem, String>();
+
+    /**
+     * Reused to format coordinates
+     */
+    StringBuffer coordinates = new StringBuffer();
+
+    char[] chars = new char[1024];
+
+    NumberFormat coordinateFormat;
+
+    FieldPosition position = new FieldPosition(0);
+
+    DateFormat dateFormat;
+
+    XMLStreamWriter writer;
+
+    public GML3FeatureCollectionWriter(Catalog catalog, Charset charset) {
+        this.catalog = catalog;
+        this.charset = charset;
+    }
+
+    public void setFeatureBounding(boolean featureBounding) {
+        this.featureBounding = featureBounding;
+    }
+
+    public void setEncodeSrsDimension(boolean encodeSrsDimension) {
+        this.encodeSrsDimension = encodeSrsDimension;
+    }
+
+    public void setEncodeFeatureMember(boolean encodeFeatureMember) {
+        this.encodeFeatureMember = encodeFeatureMember;
+    }
+
+    public void setSrsSyntax(SrsSyntax srsSyntax) {
+        this.srsSyntax = srsSyntax;
+    }
+
+    /**
+     * Sets the max number of decimals used for the coordinates
+     */
+    public void setNumDecimals(int numDecimals) {
+        this.numDecimals = numDecimals;
+    }
+
+    public void setSchemaLocation(String namespaceURI, String location) {
+        schemaLocations.put(namespaceURI, location);
+    }
+
+    /**
+     * Writes out the feature collection response
+     *
+     * @param results
+     * @param output
+     * @throws IOException
+     */
+    public void write(FeatureCollectionResponse results, OutputStream output) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(output, charset), 8192);
+        coordinateFormat = NumberFormat.getInstance(Locale.US);
+        coordinateFormat.setMaximumFractionDigits(numDecimals);
+        coordinateFormat.setGroupingUsed(false);
+        try {
+            writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out);
+            writer.writeStartDocument(charset.name(), "1.0");
+            writeStartCollection(results);
+
+            List<?> collections = results.getFeature();
+            if (!encodeFeatureMember) {
+                writer.writeStartElement(GML_PREFIX, "featureMembers", GML.NAMESPACE);
+            }
+            for (Object collection : collections) {
+                SimpleFeatureIterator it = ((SimpleFeatureCollection) collection).features();
+                try {
+                    while (it.hasNext()) {
+                        SimpleFeature feature = it.next();
+                        if (encodeFeatureMember) {
+                            writer.writeStartElement(GML_PREFIX, "featureMember", GML.NAMESPACE);
+                        }
+                        writeFeature(feature);
+                        if (encodeFeatureMember) {
+                            writer.writeEndElement();
+                        }
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+            if (!encodeFeatureMember) {
+                writer.writeEndElement();
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+            out.flush();
+        } catch (XMLStreamException e) {
+            throw (IOException) new IOException("Failed to encode the feature collection")
+                    .initCause(e);
+        } finally {
+            writer = null;
+        }
+    }
+
+    void writeStartCollection(FeatureCollectionResponse results) throws XMLStreamException {
+        writer.writeStartElement(WFS_PREFIX, "FeatureCollection",
+                org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE);
+        writer.writeNamespace(WFS_PREFIX, org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE);
+        writer.writeNamespace(GML_PREFIX, GML.NAMESPACE);
+        writer.writeNamespace(XSI_PREFIX, XSI_NAMESPACE);
+
+        // declare the namespaces of the feature types being encoded
+        Map<String, String> declared = new LinkedHashMap<String, String>();
+        for (Object collection : results.getFeature()) {
+            SimpleFeatureType type = ((SimpleFeatureCollection) collection).getSchema();
+            FeatureTypeEncoding encoding = getEncoding(type);
+            if (!declared.containsKey(encoding.prefix)) {
+                declared.put(encoding.prefix, encoding.namespaceURI);
+                writer.writeNamespace(encoding.prefix, encoding.namespaceURI);
+            }
+        }
+
+        BigInteger count = results.getNumberOfFeatures();
+        if (count != null) {
+            writer.writeAttribute("numberOfFeatures", count.toString());
+        }
+        Calendar timeStamp = results.getTimeStamp();
+        if (timeStamp != null) {
+            writer.writeAttribute("timeStamp", formatDateTime(timeStamp.getTime()));
+        }
+        if (results.getLockId() != null) {
+            writer.writeAttribute("lockId", results.getLockId());
+        }
+        if (!schemaLocations.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(" ");
+                }
+                sb.append(entry.getKey()).append(" ").append(entry.getValue());
+            }
+            writer.writeAttribute(XSI_PREFIX, XSI_NAMESPACE, "schemaLocation", sb.toString());
+        }
+
+        if (featureBounding) {
+            ReferencedEnvelope bounds = getBounds(results);
+            if (bounds != null && !bounds.isEmpty()) {
+                writer.writeStartElement(GML_PREFIX, "boundedBy", GML.NAMESPACE);
+                writeEnvelope(bounds);
+                writer.writeEndElement();
+            }
+        }
+    }
+
+    /**
+     * Returns the bounds of all the collections in the response, or null if they cannot be
+     * computed or are expressed in different reference systems
+     */
+    ReferencedEnvelope getBounds(FeatureCollectionResponse results) {
+        ReferencedEnvelope bounds = null;
+        for (Object collection : results.getFeature()) {
+            ReferencedEnvelope cb = ((SimpleFeatureCollection) collection).getBounds();
+            if (cb == null || cb.isEmpty()) {
+                continue;
+            }
+            if (bounds == null) {
+                bounds = new ReferencedEnvelope(cb);
+            } else if (CRS.equalsIgnoreMetadata(bounds.getCoordinateReferenceSystem(),
+                    cb.getCoordinateReferenceSystem())) {
+                bounds.expandToInclude(cb);
+            } else {
+                return null;
+            }
+        }
+        return bounds;
+    }
+
+    FeatureTypeEncoding getEncoding(SimpleFeatureType type) {
+        FeatureTypeEncoding encoding = encodings.get(type);
+        if (encoding == null) {
+            encoding = new FeatureTypeEncoding(type);
+            encodings.put(type, encoding);
+        }
+        return encoding;
+    }
+
+    void writeFeature(SimpleFeature feature) throws XMLStreamException {
+        FeatureTypeEncoding encoding = getEncoding(feature.getFeatureType());
+        writer.writeStartElement(encoding.prefix, encoding.typeName, encoding.namespaceURI);
+        writer.writeAttribute(GML_PREFIX, GML.NAMESPACE, "id", feature.getID());
+
+        if (featureBounding) {
+            BoundingBox bounds = feature.getBounds();
+            if (bounds != null && !bounds.isEmpty()) {
+                writer.writeStartElement(GML_PREFIX, "boundedBy", GML.NAMESPACE);
+                writeEnvelope(bounds);
+                writer.writeEndElement();
+            }
+        }
+
+        for (int i = 0; i < encoding.attributes.length; i++) {
+            Object value = feature.getAttribute(i);
+            if (value == null) {
+                if (encoding.minOccurs[i] == 0) {
+                    continue;
+                }
+                writer.writeStartElement(encoding.prefix, encoding.attributes[i],
+                        encoding.namespaceURI);
+                if (encoding.nillable[i]) {
+                    writer.writeAttribute(XSI_PREFIX, XSI_NAMESPACE, "nil", "true");
+                }
+                writer.writeEndElement();
+                continue;
+            }
+
+            writer.writeStartElement(encoding.prefix, encoding.attributes[i],
+                    encoding.namespaceURI);
+            if (value instanceof Geometry) {
+                Geometry geometry = (Geometry) value;
+                writeGeometry(geometry, getSrsName(geometry, encoding.crs[i]));
+            } else {
+                writer.writeCharacters(toString(value));
+            }
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+    }
+
+    String toString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof java.sql.Date || value instanceof java.sql.Time) {
+            return value.toString();
+        } else if (value instanceof Date) {
+            return formatDateTime((Date) value);
+        }
+        String converted = Converters.convert(value, String.class);
+        return converted != null ? converted : value.toString();
+    }
+
+    String formatDateTime(Date date) {
+        if (dateFormat == null) {
+            dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        }
+        return dateFormat.format(date);
+    }
+
+    String getSrsName(Geometry geometry, CoordinateReferenceSystem defaultCrs) {
+        CoordinateReferenceSystem crs = defaultCrs;
+        if (geometry.getUserData() instanceof CoordinateReferenceSystem) {
+            crs = (CoordinateReferenceSystem) geometry.getUserData();
+        }
+        return getSrsName(crs);
+    }
+
+    String getSrsName(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return null;
+        }
+        if (srsNames.containsKey(crs)) {
+            return srsNames.get(crs);
+        }
+        String srsName = null;
+        try {
+            Integer code = CRS.lookupEpsgCode(crs, false);
+            if (code != null) {
+                srsName = srsSyntax.getPrefix() + code;
+            }
+        } catch (Exception e) {
+            // no code, no srsName
+        }
+        srsNames.put(crs, srsName);
+        return srsName;
+    }
+
+    void writeEnvelope(BoundingBox bounds) throws XMLStreamException {
+        writer.writeStartElement(GML_PREFIX, "Envelope", GML.NAMESPACE);
+        int dimension = bounds.getDimension();
+        if (encodeSrsDimension) {
+            writer.writeAttribute("srsDimension", String.valueOf(dimension));
+        }
+        String srsName = getSrsName(bounds.getCoordinateReferenceSystem());
+        if (srsName != null) {
+            writer.writeAttribute("srsName", srsName);
+        }
+
+        writer.writeStartElement(GML_PREFIX, "lowerCorner", GML.NAMESPACE);
+        coordinates.setLength(0);
+        for (int i = 0; i < dimension; i++) {
+            if (i > 0) {
+                coordinates.append(' ');
+            }
+            appendOrdinate(bounds.getMinimum(i));
+        }
+        writeCoordinates();
+        writer.writeEndElement();
+
+        writer.writeStartElement(GML_PREFIX, "upperCorner", GML.NAMESPACE);
+        coordinates.setLength(0);
+        for (int i = 0; i < dimension; i++) {
+            if (i > 0) {
+                coordinates.append(' ');
+            }
+            appendOrdinate(bounds.getMaximum(i));
+        }
+        writeCoordinates();
+        writer.writeEndElement();
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes the geometry, the srsName is only set on the top level geometries
+     */
+    void writeGeometry(Geometry geometry, String srsName) throws XMLStreamException {
+        if (geometry instanceof Point) {
+            startGeometry("Point", geometry, srsName);
+            writer.writeStartElement(GML_PREFIX, "pos", GML.NAMESPACE);
+            writePositions(((Point) geometry).getCoordinateSequence());
+            writer.writeEndElement();
+            writer.writeEndElement();
+        } else if (geometry instanceof LinearRing) {
+            startGeometry("LinearRing", geometry, srsName);
+            writePosList((LineString) geometry);
+            writer.writeEndElement();
+        } else if (geometry instanceof LineString) {
+            startGeometry("LineString", geometry, srsName);
+            writePosList((LineString) geometry);
+            writer.writeEndElement();
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            startGeometry("Polygon", geometry, srsName);
+            writer.writeStartElement(GML_PREFIX, "exterior", GML.NAMESPACE);
+            writeGeometry(polygon.getExteriorRing(), null);
+            writer.writeEndElement();
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                writer.writeStartElement(GML_PREFIX, "interior", GML.NAMESPACE);
+                writeGeometry(polygon.getInteriorRingN(i), null);
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+        } else if (geometry instanceof MultiPoint) {
+            writeMulti("MultiPoint", "pointMember", (GeometryCollection) geometry, srsName);
+        } else if (geometry instanceof MultiLineString) {
+            writeMulti("MultiCurve", "curveMember", (GeometryCollection) geometry, srsName);
+        } else if (geometry instanceof MultiPolygon) {
+            writeMulti("MultiSurface", "surfaceMember", (GeometryCollection) geometry, srsName);
+        } else if (geometry instanceof GeometryCollection) {
+            writeMulti("MultiGeometry", "geometryMember", (GeometryCollection) geometry, srsName);
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type " + geometry.getClass());
+        }
+    }
+
+    void writeMulti(String element, String member, GeometryCollection collection, String srsName)
+            throws XMLStreamException {
+        startGeometry(element, collection, srsName);
+        for (int i = 0; i < collection.getNumGeometries(); i++) {
+            writer.writeStartElement(GML_PREFIX, member, GML.NAMESPACE);
+            writeGeometry(collection.getGeometryN(i), null);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    void startGeometry(String element, Geometry geometry, String srsName)
+            throws XMLStreamException {
+        writer.writeStartElement(GML_PREFIX, element, GML.NAMESPACE);
+        if (encodeSrsDimension) {
+            writer.writeAttribute("srsDimension", String.valueOf(getDimension(geometry)));
+        }
+        if (srsName != null) {
+            writer.writeAttribute("srsName", srsName);
+        }
+    }
+
+    int getDimension(Geometry geometry) {
+        if (geometry.isEmpty()) {
+            return 2;
+        }
+        double z = geometry.getCoordinate().z;
+        return Double.isNaN(z) ? 2 : 3;
+    }
+
+    void writePosList(LineString line) throws XMLStreamException {
+        writer.writeStartElement(GML_PREFIX, "posList", GML.NAMESPACE);
+        writePositions(line.getCoordinateSequence());
+        writer.writeEndElement();
+    }
+
+    void writePositions(CoordinateSequence cs) throws XMLStreamException {
+        coordinates.setLength(0);
+        int size = cs.size();
+        boolean hasZ = cs.getDimension() > 2 && size > 0 && !Double.isNaN(cs.getOrdinate(0, 2));
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                coordinates.append(' ');
+            }
+            appendOrdinate(cs.getOrdinate(i, 0));
+            coordinates.append(' ');
+            appendOrdinate(cs.getOrdinate(i, 1));
+            if (hasZ) {
+                coordinates.append(' ');
+                appendOrdinate(cs.getOrdinate(i, 2));
+            }
+        }
+        writeCoordinates();
+    }
+
+    /**
+     * Appends the ordinate to the coordinates buffer, with the configured number of decimals and
+     * no exponential notation
+     */
+    void appendOrdinate(double ordinate) {
+        coordinateFormat.format(ordinate, coordinates, position);
+    }
+
+    /**
+     * Writes out the contents of the coordinates buffer without creating a String out of it
+     */
+    void writeCoordinates() throws XMLStreamException {
+        int length = coordinates.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        coordinates.getChars(0, length, chars, 0);
+        writer.writeCharacters(chars, 0, length);
+    }
+
+    /**
+     * The encoding information of a feature type, computed once
+     */
+    class FeatureTypeEncoding {
+        String prefix;
+
+        String namespaceURI;
+
+        String typeName;
+
+        String[] attributes;
+
+        int[] minOccurs;
+
+        boolean[] nillable;
+
+        CoordinateReferenceSystem[] crs;
+
+        FeatureTypeEncoding(SimpleFeatureType type) {
+            namespaceURI = type.getName().getNamespaceURI();
+            typeName = type.getTypeName();
+            NamespaceInfo ns = namespaceURI != null ? catalog.getNamespaceByURI(namespaceURI)
+                    : null;
+            if (ns != null) {
+                prefix = ns.getPrefix();
+            } else {
+                prefix = "ns" + encodings.size();
+                if (namespaceURI == null) {
+                    namespaceURI = catalog.getDefaultNamespace().getURI();
+                    prefix = catalog.getDefaultNamespace().getPrefix();
+                }
+            }
+
+            int count = type.getAttributeCount();
+            attributes = new String[count];
+            minOccurs = new int[count];
+            nillable = new boolean[count];
+            crs = new CoordinateReferenceSystem[count];
+            for (int i = 0; i < count; i++) {
+                AttributeDescriptor ad = type.getDescriptor(i);
+                attributes[i] = ad.getLocalName();
+                minOccurs[i] = ad.getMinOccurs();
+                nillable[i] = ad.isNillable();
+                if (ad instanceof GeometryDescriptor) {
+                    crs[i] = ((GeometryDescriptor) ad).getCoordinateReferenceSystem();
+                }
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -65,6 +66,12 @@ import org.opengis.feature.type.Name;
 import org.w3c.dom.Document;
 
 public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
+
+    /**
+     * WFS metadata key enabling the streaming encoder for simple features, see
+     * {@link GML3FeatureCollectionWriter}
+     */
+    public static final String STREAMING_ENCODER = "gml3StreamingEncoder";
     
     GeoServer geoServer;
     Catalog catalog;
@@ -202,10 +209,12 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         Encoder encoder = createEncoder(configuration, ns2metas, gft);
         encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
 
+        // the streaming writer needs the same schema locations
+        Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
         if (wfs.isCanonicalSchemaLocation()) {
-            encoder.setSchemaLocation(getWfsNamespace(), getCanonicalWfsSchemaLocation());
+            schemaLocations.put(getWfsNamespace(), getCanonicalWfsSchemaLocation());
         } else {
-            encoder.setSchemaLocation(getWfsNamespace(),
+            schemaLocations.put(getWfsNamespace(),
                     buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation()));
         }
 
@@ -227,7 +236,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 if (userSchemaLocation != null && userSchemaLocation instanceof Map) {
                     Map<String, String> schemaURIs = (Map<String, String>) userSchemaLocation;
                     for (String namespace : schemaURIs.keySet()) {
-                        encoder.setSchemaLocation(namespace, schemaURIs.get(namespace));
+                        schemaLocations.put(namespace, schemaURIs.get(namespace));
                     }
                 } else {
                     typeNames.append(meta.getPrefixedName());
@@ -243,18 +252,64 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 String schemaLocation = buildURL(request.getBaseURL(), "wfs", params, URLType.SERVICE);
                 LOGGER.finer("Unable to find user-defined schema location for: " + namespaceURI
                         + ". Using a built schema location by default: " + schemaLocation);
-                encoder.setSchemaLocation(namespaceURI, schemaLocation);
+                schemaLocations.put(namespaceURI, schemaLocation);
             }
         }
+        for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
 
         setAdditionalSchemaLocations(encoder, request, wfs);
         if (this.isComplexFeature(results)) {
             complexFeatureStreamIntercept(results, output, encoder);
+        } else if (isStreamingEncoderEnabled(wfs)) {
+            GML3FeatureCollectionWriter writer = new GML3FeatureCollectionWriter(catalog,
+                    Charset.forName(geoServer.getSettings().getCharset()));
+            writer.setFeatureBounding(wfs.isFeatureBounding());
+            writer.setEncodeSrsDimension(!wfs.isCiteCompliant());
+            writer.setEncodeFeatureMember(wfs.isEncodeFeatureMember());
+            writer.setSrsSyntax(wfs.getGML().get(WFSInfo.Version.V_11).getSrsNameStyle()
+                    .toSrsSyntax());
+            writer.setNumDecimals(getNumDecimals(ns2metas));
+            for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                writer.setSchemaLocation(entry.getKey(), entry.getValue());
+            }
+            writer.write(results, output);
         } else {
             encode(results, output, encoder);
         }
         
     }
+
+    /**
+     * Returns the number of decimals used by the streaming writer, the max of the ones configured
+     * in the feature types, or the global one if none is
+     */
+    int getNumDecimals(Map<String, Set<FeatureTypeInfo>> ns2metas) {
+        int numDecimals = -1;
+        for (Set<FeatureTypeInfo> metas : ns2metas.values()) {
+            for (FeatureTypeInfo meta : metas) {
+                int ftiDecimals = meta.getNumDecimals();
+                if (ftiDecimals > 0) {
+                    numDecimals = Math.max(numDecimals, ftiDecimals);
+                }
+            }
+        }
+        return numDecimals == -1 ? geoServer.getSettings().getNumDecimals() : numDecimals;
+    }
+
+    /**
+     * Returns true if simple features should be encoded with the
+     * {@link GML3FeatureCollectionWriter} instead of the binding based encoder. The streaming
+     * writer only supports GML 3.1.1, subclasses encoding other GML versions must return false
+     * 
+     * @param wfs
+     * @return
+     */
+    protected boolean isStreamingEncoderEnabled(WFSInfo wfs) {
+        Boolean enabled = wfs.getMetadata().get(STREAMING_ENCODER, Boolean.class);
+        return enabled != null && enabled;
+    }
     
     protected Encoder createEncoder(Configuration configuration, 
         Map<String, Set<FeatureTypeInfo>> featureTypes, Object request ) {
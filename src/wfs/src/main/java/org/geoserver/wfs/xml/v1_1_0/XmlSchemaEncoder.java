@@ -30,6 +30,8 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSDescribeFeatureTypeOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.DescribeFeatureTypeRequest;
+import org.geoserver.wfs.xml.DescribeFeatureTypeCache;
+import org.geoserver.wfs.xml.DescribeFeatureTypeCache.SchemaKey;
 import org.geoserver.wfs.xml.FeatureTypeSchemaBuilder;
 import org.geotools.xml.Schemas;
 
@@ -45,6 +47,9 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
     /** schema builder */
     FeatureTypeSchemaBuilder schemaBuilder;
 
+    /** the serialized schema cache, optional */
+    DescribeFeatureTypeCache schemaCache;
+
     public XmlSchemaEncoder(String mimeType, GeoServer gs, FeatureTypeSchemaBuilder schemaBuilder) {
         super(gs, mimeType);
         
@@ -63,6 +68,19 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         this.schemaBuilder = schemaBuilder;
     }
 
+    /**
+     * Sets the cache used to avoid building and serializing the same schemas over and over
+     * 
+     * @param schemaCache
+     */
+    public void setSchemaCache(DescribeFeatureTypeCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    public DescribeFeatureTypeCache getSchemaCache() {
+        return schemaCache;
+    }
+
     public String getMimeType(Object value, Operation operation)
         throws ServiceException {
         return getOutputFormat();
@@ -102,13 +120,32 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         //create the schema
         Object request = describeFeatureType.getParameters()[0];
         DescribeFeatureTypeRequest req = DescribeFeatureTypeRequest.adapt(request);
+        final String encoding = gs.getSettings().getCharset();
+
+        // look up the cache first
+        SchemaKey key = null;
+        if (schemaCache != null) {
+            key = schemaCache.getKey(schemaBuilder, featureTypeInfos, req.getBaseURL(), encoding);
+            byte[] cached = key != null ? schemaCache.get(key) : null;
+            if (cached != null) {
+                output.write(cached);
+                return;
+            }
+        }
         
         XSDSchema schema = schemaBuilder.build(featureTypeInfos, req.getBaseURL());
 
         //serialize
         schema.updateElement();
-        final String encoding = gs.getSettings().getCharset();
-        XSDResourceImpl.serialize(output, schema.getElement(), encoding);
+        if (key != null) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            XSDResourceImpl.serialize(bout, schema.getElement(), encoding);
+            byte[] bytes = bout.toByteArray();
+            schemaCache.put(key, bytes);
+            output.write(bytes);
+        } else {
+            XSDResourceImpl.serialize(output, schema.getElement(), encoding);
+        }
     }
     
     public static class V20 extends XmlSchemaEncoder {
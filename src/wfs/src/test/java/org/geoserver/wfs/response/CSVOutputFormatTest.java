@@ -5,14 +5,20 @@
 package org.geoserver.wfs.response;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.WfsFactory;
+
+import org.apache.commons.io.IOUtils;
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.Operation;
 import org.geoserver.wfs.WFSTestSupport;
@@ -20,16 +26,19 @@ import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.junit.Test;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+
 import au.com.bytecode.opencsv.CSVReader;
 import com.mockrunner.mock.web.MockHttpServletResponse;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
 
 
@@ -107,6 +116,69 @@ public class CSVOutputFormatTest extends WFSTestSupport {
         assertEquals(f2.getAttribute("label"), lines.get(2)[2]);
     }
     
+    @Test
+    public void testBatchesInOrder() throws Exception {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.add("geom", LineString.class);
+        builder.add("id", Integer.class);
+        builder.add("value", Double.class);
+        builder.setName("manyLines");
+        SimpleFeatureType type = builder.buildFeatureType();
+
+        // enough features to be split in several batches
+        int count = CSVOutputFormat.BATCH_SIZE * 3 + 10;
+        GeometryFactory gf = new GeometryFactory();
+        MemoryDataStore data = new MemoryDataStore();
+        for (int i = 0; i < count; i++) {
+            LineString line = gf.createLineString(new Coordinate[] { new Coordinate(i, 0),
+                    new Coordinate(i, 1) });
+            data.addFeature(SimpleFeatureBuilder.build(type, new Object[] { line, i, i + 0.5 },
+                    "manyLines." + i));
+        }
+        SimpleFeatureSource fs = data.getFeatureSource("manyLines");
+
+        GetFeatureType gft = WfsFactory.eINSTANCE.createGetFeatureType();
+        gft.getFormatOptions().put(CSVOutputFormat.GZIP_OPTION, "true");
+        Operation op = new Operation("GetFeature", getServiceDescriptor10(), null, new Object[] {gft});
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(fs.getFeatures());
+
+        CSVOutputFormat format = new CSVOutputFormat(getGeoServer());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            assertEquals("application/x-gzip", format.getMimeType(fct, op));
+            format.write(fct, bos, op);
+        } finally {
+            format.destroy();
+        }
+
+        String csv = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(bos
+                .toByteArray())), "UTF-8");
+        List<String[]> lines = readLines(csv);
+        assertEquals(count + 1, lines.size());
+
+        // the batches have been written in the same order as the features
+        List<String> expectedIds = new ArrayList<String>();
+        SimpleFeatureIterator fi = fs.getFeatures().features();
+        try {
+            while (fi.hasNext()) {
+                expectedIds.add(fi.next().getID());
+            }
+        } finally {
+            fi.close();
+        }
+        for (int i = 1; i < lines.size(); i++) {
+            String[] line = lines.get(i);
+            assertEquals(4, line.length);
+            assertEquals(expectedIds.get(i - 1), line[0]);
+            int id = Integer.parseInt(line[2]);
+            assertEquals("manyLines." + id, line[0]);
+            assertEquals(String.valueOf(id + 0.5), line[3]);
+            assertTrue(line[1].startsWith("LINESTRING"));
+        }
+    }
+
     /**
      * Convenience to read the csv content and 
      * @param csvContent
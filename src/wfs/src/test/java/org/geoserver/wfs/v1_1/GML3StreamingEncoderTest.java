@@ -0,0 +1,107 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.v1_1;
+
+import static org.junit.Assert.*;
+
+import org.custommonkey.xmlunit.XMLAssert;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.GML3OutputFormat;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class GML3StreamingEncoderTest extends WFSTestSupport {
+
+    @Override
+    protected void setUpInternal(SystemTestData data) throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setFeatureBounding(true);
+        wfs.getMetadata().put(GML3OutputFormat.STREAMING_ENCODER, Boolean.TRUE);
+        getGeoServer().save(wfs);
+    }
+
+    @Test
+    public void testGetAll() throws Exception {
+        Document doc = getAsDOM("wfs?request=GetFeature&typename=cdf:Fifteen&version=1.1.0&service=wfs");
+        assertEquals("wfs:FeatureCollection", doc.getDocumentElement().getNodeName());
+        XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberOfFeatures", doc);
+        XMLAssert.assertXpathEvaluatesTo("15",
+                "count(/wfs:FeatureCollection/gml:featureMembers/cdf:Fifteen)", doc);
+        XMLAssert.assertXpathEvaluatesTo("15",
+                "count(//cdf:Fifteen/gml:boundedBy/gml:Envelope/gml:lowerCorner)", doc);
+
+        NodeList features = doc.getElementsByTagName("cdf:Fifteen");
+        for (int i = 0; i < features.getLength(); i++) {
+            Element feature = (Element) features.item(i);
+            assertTrue(feature.hasAttribute("gml:id"));
+        }
+    }
+
+    @Test
+    public void testSameContentsAsEncoder() throws Exception {
+        String request = "wfs?request=GetFeature&typename=cite:Lakes&version=1.1.0&service=wfs";
+        Document streamed = getAsDOM(request);
+
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(GML3OutputFormat.STREAMING_ENCODER, Boolean.FALSE);
+        getGeoServer().save(wfs);
+        Document encoded;
+        try {
+            encoded = getAsDOM(request);
+        } finally {
+            wfs.getMetadata().put(GML3OutputFormat.STREAMING_ENCODER, Boolean.TRUE);
+            getGeoServer().save(wfs);
+        }
+
+        String[] xpaths = new String[] { "count(//cite:Lakes)", "//cite:Lakes/@gml:id",
+                "//cite:Lakes/cite:NAME", "count(//cite:Lakes/cite:the_geom//gml:posList)",
+                "//cite:Lakes/cite:the_geom/*/@srsName",
+                "local-name(//cite:Lakes/cite:the_geom/*)" };
+        for (String xpath : xpaths) {
+            assertEquals(xpath, xpathValue(xpath, encoded), xpathValue(xpath, streamed));
+        }
+    }
+
+    @Test
+    public void testCollectionBounds() throws Exception {
+        Document doc = getAsDOM("wfs?request=GetFeature&typename=cdf:Fifteen&version=1.1.0&service=wfs");
+        XMLAssert.assertXpathEvaluatesTo("1",
+                "count(/wfs:FeatureCollection/gml:boundedBy/gml:Envelope/gml:lowerCorner)", doc);
+        XMLAssert.assertXpathEvaluatesTo("1",
+                "count(/wfs:FeatureCollection/gml:boundedBy/gml:Envelope/gml:upperCorner)", doc);
+    }
+
+    @Test
+    public void testNumDecimals() throws Exception {
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName("cite", "Lakes");
+        int numDecimals = fti.getNumDecimals();
+        fti.setNumDecimals(2);
+        getCatalog().save(fti);
+        Document doc;
+        try {
+            doc = getAsDOM("wfs?request=GetFeature&typename=cite:Lakes&version=1.1.0&service=wfs");
+        } finally {
+            fti = getCatalog().getFeatureTypeByName("cite", "Lakes");
+            fti.setNumDecimals(numDecimals);
+            getCatalog().save(fti);
+        }
+
+        String posList = xpathValue("//cite:Lakes/cite:the_geom//gml:posList", doc);
+        assertTrue(posList.length() > 0);
+        for (String ordinate : posList.trim().split("\\s+")) {
+            assertTrue(ordinate, ordinate.matches("-?\\d+(\\.\\d{1,2})?"));
+        }
+    }
+
+    String xpathValue(String xpath, Document doc) throws Exception {
+        return XMLUnit.newXpathEngine().evaluate(xpath, doc);
+    }
+}
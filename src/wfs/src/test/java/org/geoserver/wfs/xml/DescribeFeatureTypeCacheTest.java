@@ -0,0 +1,71 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.CatalogMode;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.WFSTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.PropertyName;
+
+public class DescribeFeatureTypeCacheTest extends WFSTestSupport {
+
+    DescribeFeatureTypeCache cache;
+
+    @Before
+    public void clearCache() {
+        cache = GeoServerExtensions.bean(DescribeFeatureTypeCache.class);
+        cache.clear();
+    }
+
+    @Test
+    public void testCacheAndInvalidate() throws Exception {
+        String typeName = getLayerId(MockData.BASIC_POLYGONS);
+        String request = "wfs?request=DescribeFeatureType&version=1.1.0&typeName=" + typeName;
+
+        String first = getAsString(request);
+        assertEquals(1, cache.size());
+        String second = getAsString(request);
+        assertEquals(1, cache.size());
+        assertEquals(first, second);
+
+        // another version is a different schema
+        getAsString("wfs?request=DescribeFeatureType&version=1.0.0&typeName=" + typeName);
+        assertEquals(2, cache.size());
+
+        // modifying the feature type drops the schemas using it
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(typeName);
+        ft.setTitle("Modified title");
+        getCatalog().save(ft);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testAccessLimitsNotCached() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        FeatureTypeSchemaBuilder builder = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+
+        FeatureTypeInfo readOnly = new SecuredFeatureTypeInfo(ft, WrapperPolicy.readOnlyHide(null));
+        assertNotNull(cache.getKey(builder, new FeatureTypeInfo[] { readOnly },
+                "http://localhost/geoserver", "UTF-8"));
+
+        VectorAccessLimits limits = new VectorAccessLimits(CatalogMode.HIDE,
+                Collections.<PropertyName> emptyList(), Filter.INCLUDE, null, Filter.INCLUDE);
+        FeatureTypeInfo limited = new SecuredFeatureTypeInfo(ft, WrapperPolicy.readWrite(limits));
+        assertNull(cache.getKey(builder, new FeatureTypeInfo[] { ft, limited },
+                "http://localhost/geoserver", "UTF-8"));
+    }
+}
@@ -16,6 +16,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +33,8 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ProjectionPolicy;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.featureinfo.FeatureCollectionDecorator;
 import org.geotools.coverage.GridSampleDimension;
@@ -42,17 +49,21 @@ import org.geotools.data.Query;
 import org.geotools.data.ows.Layer;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.store.FilteringFeatureCollection;
+import org.geotools.data.store.MaxFeaturesFeatureCollection;
 import org.geotools.data.store.ReTypingFeatureCollection;
 import org.geotools.data.wms.WebMapServer;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.GeoTools;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
+import org.geotools.feature.collection.MaxSimpleFeatureCollection;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.SchemaException;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.Filters;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.filter.IllegalFilterException;
 import org.geotools.filter.visitor.SimplifyingFilterVisitor;
 import org.geotools.geometry.DirectPosition2D;
@@ -92,6 +103,8 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -107,6 +120,18 @@ public class GetFeatureInfo {
 
     private static final Logger LOGGER = Logging.getLogger(GetFeatureInfo.class);
 
+    /**
+     * How many candidates per requested feature are loaded from the store when the features
+     * are filtered in memory
+     */
+    static final int CANDIDATES_FACTOR = 10;
+
+    /**
+     * The minimum number of candidates loaded from the store when the features are filtered in
+     * memory
+     */
+    static final int MIN_CANDIDATES = 100;
+
     private WMS wms;
 
     public GetFeatureInfo(final WMS wms) {
@@ -177,7 +202,7 @@ public class GetFeatureInfo {
         }
     }
 
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     private List<FeatureCollection> execute(GetFeatureInfoRequest request, Style[] styles,
             Filter[] filters) throws Exception {
 
@@ -202,19 +227,78 @@ public class GetFeatureInfo {
 
         List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
 
+        // if there are multiple vector layers, query them in parallel. The queries are set up
+        // here so that the catalog and security checks happen in the request thread
+        final Future<FeatureCollection>[] vectorResults = new Future[requestedLayers.size()];
+        final ExecutorService executor = wms.getFeatureInfoExecutorService();
+        if (executor != null && countVectorLayers(requestedLayers) > 1) {
+            for (int i = 0; i < requestedLayers.size(); i++) {
+                final MapLayerInfo layer = requestedLayers.get(i);
+                if (layer.getType() != MapLayerInfo.TYPE_VECTOR) {
+                    continue;
+                }
+                final List<Rule> rules = getActiveRules(styles[i], scaleDenominator);
+                if (rules.size() == 0) {
+                    continue;
+                }
+                final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
+                final FeatureCollection collection = identifyVectorLayer(filters, x, y, buffer,
+                        viewParam, requestedCRS, width, height, bbox, ff, results, i, layer,
+                        rules, request.getFeatureCount(), times, elevations,
+                        getPropertyNames(request, i));
+                try {
+                    vectorResults[i] = executor.submit(new VectorQueryCallable(collection));
+                } catch (RejectedExecutionException e) {
+                    // the executor is being replaced (e.g., on reload), the layers not submitted
+                    // will be queried sequentially
+                    LOGGER.log(Level.FINE, "GetFeatureInfo executor not available, "
+                            + "querying the layers sequentially", e);
+                    break;
+                }
+            }
+        }
+
+        try {
+            return collectResults(request, styles, filters, vectorResults, results);
+        } finally {
+            // early termination, the remaining layers are not needed anymore
+            for (Future<FeatureCollection> future : vectorResults) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private List<FeatureCollection> collectResults(GetFeatureInfoRequest request, Style[] styles,
+            Filter[] filters, Future<FeatureCollection>[] vectorResults,
+            List<FeatureCollection> results) throws Exception {
+
+        final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
+        final int x = request.getXPixel();
+        final int y = request.getYPixel();
+        final int buffer = request.getGetMapRequest().getBuffer();
+        final List<Map<String, String>> viewParams = request.getGetMapRequest().getViewParams();
+        final GetMapRequest getMapReq = request.getGetMapRequest();
+        final CoordinateReferenceSystem requestedCRS = getMapReq.getCrs(); // optional, may be null
+
+        // basic information about the request
+        final int width = getMapReq.getWidth();
+        final int height = getMapReq.getHeight();
+        final ReferencedEnvelope bbox = new ReferencedEnvelope(getMapReq.getBbox(),
+                getMapReq.getCrs());
+        final double scaleDenominator = RendererUtilities.calculateOGCScale(bbox, width, null);
+        final List<Object> elevations = request.getGetMapRequest().getElevation();
+        final List<Object> times = request.getGetMapRequest().getTime();
+        final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
+
         int maxFeatures = request.getFeatureCount();
         for (int i = 0; i < requestedLayers.size(); i++) {
             final MapLayerInfo layer = requestedLayers.get(i);
             
             // look at the property names
-            String[] names;
-            List<List<String>> propertyNames = request.getPropertyNames();
-            if(propertyNames == null || propertyNames.size() == 0 || propertyNames.get(i) == null) {
-                names = Query.ALL_NAMES;
-            } else {
-                List<String> layerPropNames = propertyNames.get(i);
-                names = (String[]) layerPropNames.toArray(new String[layerPropNames.size()]);
-            }
+            String[] names = getPropertyNames(request, i);
 
             // check cascaded WMS first, it's a special case
             if (layer.getType() == MapLayerInfo.TYPE_WMS) {
@@ -236,10 +320,16 @@ public class GetFeatureInfo {
             
             FeatureCollection collection = null;
             if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
-                final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
-				collection = identifyVectorLayer(filters, x, y, buffer, viewParam,
-                        requestedCRS, width, height, bbox, ff, results, i, layer, rules, maxFeatures,
-                        times, elevations, names);
+                if (vectorResults[i] != null) {
+                    collection = getVectorResults(vectorResults[i]);
+                } else {
+                    final Map<String, String> viewParam = viewParams != null ? viewParams
+                            .get(i) : null;
+                    collection = identifyVectorLayer(filters, x, y, buffer, viewParam,
+                            requestedCRS, width, height, bbox, ff, results, i, layer, rules,
+                            maxFeatures, times, elevations, names);
+                    collection = loadVectorResults(collection);
+                }
             } else if (layer.getType() == MapLayerInfo.TYPE_RASTER) {
                 final CoverageInfo cinfo = requestedLayers.get(i).getCoverage();
                 final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) cinfo
@@ -299,6 +389,11 @@ public class GetFeatureInfo {
                 }
                 
                 int size = collection.size();
+                if (size > maxFeatures) {
+                    // the layer was queried in parallel with the others
+                    collection = limit(collection, maxFeatures);
+                    size = maxFeatures;
+                }
                 if(size != 0) {
 
                     // HACK HACK HACK
@@ -328,6 +423,99 @@ public class GetFeatureInfo {
         return results;
     }
 
+    private String[] getPropertyNames(GetFeatureInfoRequest request, int layerIndex) {
+        List<List<String>> propertyNames = request.getPropertyNames();
+        if (propertyNames == null || propertyNames.size() == 0
+                || propertyNames.get(layerIndex) == null) {
+            return Query.ALL_NAMES;
+        } else {
+            List<String> layerPropNames = propertyNames.get(layerIndex);
+            return (String[]) layerPropNames.toArray(new String[layerPropNames.size()]);
+        }
+    }
+
+    private int countVectorLayers(List<MapLayerInfo> layers) {
+        int count = 0;
+        for (MapLayerInfo layer : layers) {
+            if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads the results of a vector query in a pool thread. The pool threads do not carry the
+     * request thread locals, so the environment variables and the security context are captured
+     * on creation and set up around the query (they are used by the filters and the secured
+     * feature sources)
+     */
+    @SuppressWarnings("rawtypes")
+    private class VectorQueryCallable implements Callable<FeatureCollection> {
+
+        FeatureCollection collection;
+
+        Map<String, Object> envVars;
+
+        SecurityContext securityContext;
+
+        Request owsRequest;
+
+        VectorQueryCallable(FeatureCollection collection) {
+            this.collection = collection;
+            this.envVars = EnvFunction.getLocalValues();
+            this.securityContext = SecurityContextHolder.getContext();
+            this.owsRequest = Dispatcher.REQUEST.get();
+        }
+
+        public FeatureCollection call() throws Exception {
+            EnvFunction.setLocalValues(envVars);
+            SecurityContextHolder.setContext(securityContext);
+            Dispatcher.REQUEST.set(owsRequest);
+            try {
+                return loadVectorResults(collection);
+            } finally {
+                EnvFunction.clearLocalValues();
+                SecurityContextHolder.clearContext();
+                Dispatcher.REQUEST.remove();
+            }
+        }
+    }
+
+    /**
+     * Runs the vector query. Simple features are loaded in memory, there are at most FEATURE_COUNT
+     * of them, and this avoids running the query once to count them and once more to encode them
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private FeatureCollection loadVectorResults(FeatureCollection collection) throws IOException {
+        if (collection instanceof SimpleFeatureCollection) {
+            return DataUtilities.collection((SimpleFeatureCollection) collection);
+        }
+        return collection;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private FeatureCollection getVectorResults(Future<FeatureCollection> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private FeatureCollection limit(FeatureCollection collection, int maxFeatures) {
+        if (collection instanceof SimpleFeatureCollection) {
+            return new MaxSimpleFeatureCollection((SimpleFeatureCollection) collection, 0,
+                    maxFeatures);
+        } else {
+            return new MaxFeaturesFeatureCollection(collection, maxFeatures);
+        }
+    }
+
     private FeatureCollection selectProperties(FeatureCollection collection, String[] names) throws IOException {
         if(names != Query.ALL_NAMES) {
             Query q = new Query(collection.getSchema().getName().getLocalPart(), Filter.INCLUDE, names);
@@ -465,11 +653,23 @@ public class GetFeatureInfo {
         featureSource = layer.getFeatureSource(false);
         FeatureType schema = featureSource.getSchema();
 
+        // for simple features the store is only asked for the bbox matches, which is cheap and
+        // can use the spatial index, the exact intersection test is then run in memory
+        final boolean simple = schema instanceof SimpleFeatureType;
         Filter getFInfoFilter = null;
+        Filter refineFilter = Filter.INCLUDE;
         try {
             GeometryDescriptor geometryDescriptor = schema.getGeometryDescriptor();
             String localName = geometryDescriptor.getLocalName();
-            getFInfoFilter = ff.intersects(ff.property(localName), ff.literal(pixelRect));
+            Filter intersects = ff.intersects(ff.property(localName), ff.literal(pixelRect));
+            if (simple) {
+                ReferencedEnvelope pixelEnvelope = new ReferencedEnvelope(
+                        pixelRect.getEnvelopeInternal(), dataCRS);
+                getFInfoFilter = ff.bbox(ff.property(localName), pixelEnvelope);
+                refineFilter = intersects;
+            } else {
+                getFInfoFilter = intersects;
+            }
         } catch (IllegalFilterException e) {
             e.printStackTrace();
             throw new ServiceException("Internal error : " + e.getMessage(), e);
@@ -499,10 +699,17 @@ public class GetFeatureInfo {
         SimplifyingFilterVisitor simplifier = new SimplifyingFilterVisitor();
         getFInfoFilter = (Filter) getFInfoFilter.accept(simplifier, null);
         
+        // the in memory filters, if any, have to run before the max features limit
+        if (simple) {
+            postFilter = Filters.and(ff, refineFilter, postFilter);
+            postFilter = (Filter) postFilter.accept(simplifier, null);
+        }
+        final boolean limitInMemory = simple && !Filter.INCLUDE.equals(postFilter);
+
         // build the query
         String typeName = schema.getName().getLocalPart();
-        Query q = new Query(typeName, null, getFInfoFilter, maxFeatures,
-                propertyNames, null);
+        int storeMaxFeatures = limitInMemory ? getMaxCandidates(maxFeatures) : maxFeatures;
+        Query q = new Query(typeName, null, getFInfoFilter, storeMaxFeatures, propertyNames, null);
 
         // handle sql view params
         if (viewParams != null && viewParams.size() > 0) {
@@ -514,7 +721,11 @@ public class GetFeatureInfo {
 
         // if we could not include the rules filter into the query, post process in
         // memory
-        if (!Filter.INCLUDE.equals(postFilter)) {
+        if (limitInMemory) {
+            SimpleFeatureCollection candidates = DataUtilities.simple(match);
+            match = new MaxSimpleFeatureCollection(new FilteringSimpleFeatureCollection(
+                    candidates, postFilter), 0, maxFeatures);
+        } else if (!Filter.INCLUDE.equals(postFilter)) {
         	match = new FilteringFeatureCollection(match, postFilter);
         }
 
@@ -524,6 +735,19 @@ public class GetFeatureInfo {
         return match;
     }
 
+    /**
+     * Returns the number of candidates the store is asked for when the features are filtered in
+     * memory before applying the max features limit. The candidates are bbox matches around the
+     * queried pixel, so only a few of them should be dropped by the in memory filters, but the
+     * store still needs a limit to avoid loading the whole layer in case of dense data
+     */
+    static int getMaxCandidates(int maxFeatures) {
+        if (maxFeatures <= 0 || maxFeatures >= Query.DEFAULT_MAX / CANDIDATES_FACTOR) {
+            return Query.DEFAULT_MAX;
+        }
+        return Math.max(maxFeatures * CANDIDATES_FACTOR, MIN_CANDIDATES);
+    }
+
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private List<FeatureCollection> handleGetFeatureInfoCascade(GetFeatureInfoRequest request,
             int maxFeatures,
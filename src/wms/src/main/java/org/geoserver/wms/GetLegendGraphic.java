@@ -4,9 +4,19 @@
  */
 package org.geoserver.wms;
 
+import java.awt.image.BufferedImage;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphic;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache.CachedLegend;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache.LegendKey;
 import org.geotools.filter.function.EnvFunction;
 
 /**
@@ -18,10 +28,24 @@ public class GetLegendGraphic {
 
     private final WMS wms;
 
+    private LegendGraphicCache legendCache;
+
     public GetLegendGraphic(final WMS wms) {
         this.wms = wms;
     }
 
+    /**
+     * Sets the cache for the legends produced as {@link BufferedImageLegendGraphic}, if not set
+     * the legends are produced on each request
+     */
+    public void setLegendCache(LegendGraphicCache legendCache) {
+        this.legendCache = legendCache;
+    }
+
+    public LegendGraphicCache getLegendCache() {
+        return legendCache;
+    }
+
     /**
      * Produces a representation of the map's legend graphic given by the {@code request} by means
      * of a {@link GetLegendGraphicOutputFormat}.
@@ -45,8 +69,31 @@ public class GetLegendGraphic {
             throw new ServiceException("There is no support for creating legends in "
                     + outputFormat + " format", "InvalidFormat");
         }
-        Object legend = format.produceLegendGraphic(request);
-        return legend;
+
+        final LegendKey key = legendCache != null ? legendCache.getKey(request) : null;
+        if (key == null) {
+            return format.produceLegendGraphic(request);
+        }
+
+        CachedLegend cached = legendCache.get(key);
+        if (cached == null) {
+            Object legend = format.produceLegendGraphic(request);
+            if (!(legend instanceof BufferedImageLegendGraphic)) {
+                return legend;
+            }
+            cached = legendCache.put(key, ((BufferedImageLegendGraphic) legend).getLegend());
+        }
+
+        // the client might already have the current version of the legend
+        Request owsRequest = Dispatcher.REQUEST.get();
+        if (owsRequest != null && owsRequest.getHttpRequest() != null
+                && LegendGraphicCache.matches(
+                        owsRequest.getHttpRequest().getHeader("If-None-Match"), cached.getEtag())) {
+            throw new HttpErrorCodeException(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+
+        return new BufferedImageLegendGraphic((BufferedImage) cached.getLegend(),
+                cached.getEtag());
     }
 
 }
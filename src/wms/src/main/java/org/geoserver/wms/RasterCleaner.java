@@ -14,6 +14,7 @@ import javax.media.jai.RenderedImageList;
 
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.Request;
+import org.geoserver.wms.animate.FrameList;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.resources.image.ImageUtilities;
 
@@ -69,7 +70,10 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         if (list != null) {
             images.remove();
             for (RenderedImage image : list) {
-                if (image instanceof RenderedImageList) {
+                if (image instanceof FrameList) {
+                    // don't render the frames that have not been encoded
+                    ((FrameList) image).dispose();
+                } else if (image instanceof RenderedImageList) {
                     RenderedImageList ril = (RenderedImageList) image;
                     for (int i = 0; i < ril.size(); i++) {
                         disposeImage((RenderedImage) ril.get(i));
@@ -112,6 +112,10 @@ public class WMS implements ApplicationContextAware {
     public static final String MAX_RENDERING_TIME = "maxAnimatorRenderingTime";
     
     public static final String MAX_RENDERING_SIZE = "maxRenderingSize";
+
+    public static final String MAX_ANIMATOR_FRAMES_MEMORY = "maxAnimatorFramesMemory";
+
+    public static final long MAX_ANIMATOR_FRAMES_MEMORY_DEFAULT = 64 * 1024 * 1024;
     
     public static final String FRAMES_DELAY = "framesDelay";
 
@@ -176,11 +180,23 @@ public class WMS implements ApplicationContextAware {
     public static final String KML_KMSCORE = "kmlKmscore";
 
     public static final int KML_KMSCORE_DEFAULT = 40;
+
+    /**
+     * Number of placemarks after which the KML encoder flushes the output
+     */
+    public static final String KML_FLUSH_INTERVAL = "kmlFlushInterval";
+
+    public static final int KML_FLUSH_INTERVAL_DEFAULT = 100;
     
     /**
      * the WMS Animator animatorExecutor service
      */
     private ExecutorService animatorExecutorService;
+
+    /**
+     * the WMS GetFeatureInfo executor service, used to query the layers in parallel
+     */
+    private ExecutorService featureInfoExecutorService;
     
     private static final FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
 
@@ -297,6 +313,21 @@ public class WMS implements ApplicationContextAware {
         return animatorExecutorService;
     }
 
+    /**
+     * @param featureInfoExecutorService the featureInfoExecutorService to set
+     */
+    public void setFeatureInfoExecutorService(ExecutorService featureInfoExecutorService) {
+        this.featureInfoExecutorService = featureInfoExecutorService;
+    }
+
+    /**
+     * @return the featureInfoExecutorService, or null if GetFeatureInfo should query the layers
+     *         sequentially
+     */
+    public ExecutorService getFeatureInfoExecutorService() {
+        return featureInfoExecutorService;
+    }
+
     public WMSInterpolation getInterpolation() {
         return getServiceInfo().getInterpolation();
     }
@@ -480,6 +511,15 @@ public class WMS implements ApplicationContextAware {
         return getMetadataValue( MAX_RENDERING_SIZE, null, Long.class);
     }
 
+    /**
+     * The memory, in bytes, the frames of a single animation can use while being rendered in
+     * parallel and waiting to be encoded
+     */
+    public long getMaxAnimatorFramesMemory() {
+        return getMetadataValue(MAX_ANIMATOR_FRAMES_MEMORY, MAX_ANIMATOR_FRAMES_MEMORY_DEFAULT,
+                Long.class);
+    }
+
     public Integer getFramesDelay() {
         return getMetadataValue(FRAMES_DELAY, FRAMES_DELAY_DEFAULT, Integer.class);
     }
@@ -569,6 +609,14 @@ public class WMS implements ApplicationContextAware {
                 KML_KMSCORE_DEFAULT);
     }
 
+    /**
+     * Returns the number of placemarks after which the KML encoder flushes the output, a
+     * non positive value disables the periodic flushes
+     */
+    public int getKmlFlushInterval() {
+        return getMetadataValue(KML_FLUSH_INTERVAL, KML_FLUSH_INTERVAL_DEFAULT, Integer.class);
+    }
+
     /**
      * Returns all available map output formats.
      */
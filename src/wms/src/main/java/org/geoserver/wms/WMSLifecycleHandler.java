@@ -48,6 +48,7 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
     public void onDispose() {
         // dispose the WMS Animator Executor Service
         shutdownAnimatorExecutorService();
+        shutdownFeatureInfoExecutorService();
     }
 
     public void onReload() {
@@ -65,6 +66,7 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
         
         // reset WMS Animator Executor Service
         resetAnimatorExecutorService();
+        resetFeatureInfoExecutorService();
     }
 
     /**
@@ -93,6 +95,36 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
         }
     }
 
+    /**
+     * Replaces the GetFeatureInfo executor service with a new one sized on the number of
+     * processors. The old one is shut down gracefully, letting the requests using it complete
+     */
+    private void resetFeatureInfoExecutorService() {
+        final ExecutorService previous = this.wmsConfig.getFeatureInfoExecutorService();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor featureInfoExecutorService = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        featureInfoExecutorService.allowCoreThreadTimeOut(true);
+
+        this.wmsConfig.setFeatureInfoExecutorService(featureInfoExecutorService);
+
+        if (previous != null && !previous.isShutdown()) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Suddenly shuts down the GetFeatureInfo Executor Service
+     */
+    private void shutdownFeatureInfoExecutorService() {
+        final ExecutorService featureInfoExecutorService = this.wmsConfig
+                .getFeatureInfoExecutorService();
+        if (featureInfoExecutorService != null && !featureInfoExecutorService.isShutdown()) {
+            featureInfoExecutorService.shutdownNow();
+        }
+    }
+
     void reloadFontCache() {
         List<Font> fonts = loadFontsFromDataDirectory();
         final FontCache cache = FontCache.getDefaultInstance();
@@ -131,6 +163,7 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
             
             // reset WMS Animator Executor Service
             resetAnimatorExecutorService();
+            resetFeatureInfoExecutorService();
         }
     }
 
@@ -4,26 +4,30 @@
  */
 package org.geoserver.wms.animate;
 
+import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedImageList;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
@@ -32,28 +36,62 @@ import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geotools.resources.image.ImageUtilities;
+import org.geotools.util.logging.Logging;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br/>
- * The "visit" method initializes the runnables and the animatorExecutor service, while
- * the "produce" method runs the tasks and generated the frames images.
+ * The "visit" method initializes the frame loaders, while the "produce" method starts rendering
+ * them on the animatorExecutor service and returns a {@link FrameList} handing out the frames in
+ * order as they get ready. The number of frames rendering or waiting to be encoded is bounded by
+ * the {@link WMS#getMaxAnimatorFramesMemory() frames memory budget}.
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
  */
 public class FrameCatalogVisitor {
 
+    static final Logger LOGGER = Logging.getLogger(FrameCatalogVisitor.class);
+
     /**
      * total number of available frames for this visitor
      */
     int framesNumber;
 
     /**
-     * the list of runnables to be executed
+     * the list of tasks to be executed
+     */
+    List<FutureTask<RenderedImage>> tasks;
+
+    /**
+     * The index of the next task to be submitted to the executor
+     */
+    int submitted;
+
+    /**
+     * Index of the next frame to be handed out
+     */
+    int nextIndex;
+
+    /**
+     * The estimated memory used by a single frame
+     */
+    long frameSize;
+
+    /**
+     * The max number of frames rendering, or rendered and waiting to be encoded
      */
-    List<Future<RenderedImage>> tasks;
+    int maxInFlight;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not yet initialied. 
+     * The estimated size of the frames produced so far
+     */
+    long gifAnimatedSize;
+
+    WMS wmsConfiguration;
+
+    /**
+     * Adds a new frame loader to the tasks list. The frame is not rendered until
+     * {@link #produce(WMS)} is called
      * @param request
      * @param wms
      * @param wmsConfiguration
@@ -62,7 +100,7 @@ public class FrameCatalogVisitor {
      */
     public void visit(final GetMapRequest request, WebMapService wms, WMS wmsConfiguration, String aparam, String avalue) {
         if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+            this.tasks = new ArrayList<FutureTask<RenderedImage>>();
         }
 
         FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
@@ -72,55 +110,86 @@ public class FrameCatalogVisitor {
         this.tasks.add(task);
         this.framesNumber++;
 
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
+        // assume 4 bytes per pixel, the frames are usually rendered as RGBA images
+        this.frameSize = Math.max(this.frameSize, 4l * request.getWidth() * request.getHeight());
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Starts rendering the frames and returns them as a list that will hand them out in order as
+     * they get rendered.
      * @param wmsConfiguration
      * @return
      * @throws IOException
      */
     public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
-
-        long gifAnimatedSize = 0;
-
-        for (Future<RenderedImage> future : tasks) {
-            RenderedImage image = null;
-            try {
-                image = future.get();
-            } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
-            } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
-            }
+        if (tasks == null || tasks.size() == 0) {
+            dispose();
+            throw new IOException("Empty list of frames.");
+        }
+        this.wmsConfiguration = wmsConfiguration;
 
-            if (image == null) {
-                continue;
-            }
+        // estimate how many frames we can keep in memory
+        maxInFlight = computeMaxInFlight(wmsConfiguration.getMaxAnimatorFramesMemory());
+        submitNext();
 
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
-            }
+        RenderedImage first = next(0);
+        return new FrameList(first, framesNumber, this);
+    }
 
-            images.add(image);
+    int computeMaxInFlight(long framesMemory) {
+        long frames = frameSize > 0 ? framesMemory / frameSize : framesNumber;
+        return (int) Math.max(1, Math.min(framesNumber, frames));
+    }
+
+    /**
+     * Submits the tasks allowed by the in flight frames limit
+     */
+    void submitNext() {
+        ExecutorService executor = wmsConfiguration.getAnimatorExecutorService();
+        while (tasks != null && submitted < tasks.size() && submitted < nextIndex + maxInFlight) {
+            executor.execute(tasks.get(submitted));
+            submitted++;
         }
+    }
 
-        if (images == null || images.size() == 0) {
+    /**
+     * Waits for the specified frame to be rendered and returns it, making room for the rendering
+     * of another frame
+     * @param index
+     * @return
+     */
+    RenderedImage next(int index) {
+        if (tasks == null) {
+            throw new ServiceException("The animation frames have been disposed");
+        }
+        RenderedImage image = null;
+        try {
+            image = tasks.get(index).get();
+        } catch (InterruptedException e) {
             dispose();
-            throw new IOException("Empty list of frames.");
+            throw new ServiceException(e);
+        } catch (ExecutionException e) {
+            dispose();
+            throw new ServiceException("Failed to render frame " + index, e.getCause());
         }
+        // let go of the task, it would keep a reference to the frame
+        tasks.set(index, null);
+        nextIndex = index + 1;
 
-        dispose();
-        return new RenderedImageList(images);
+        if (image == null) {
+            dispose();
+            throw new ServiceException("Frame " + index + " could not be rendered");
+        }
+
+        gifAnimatedSize += getImageSizeInBytes(image);
+        if (wmsConfiguration.getMaxRenderingSize() != null
+                && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
+            dispose();
+            throw new ServiceException("Max rendering size exceed!");
+        }
+
+        submitNext();
+        return image;
     }
 
     private long getImageSizeInBytes(RenderedImage image) {
@@ -133,17 +202,39 @@ public class FrameCatalogVisitor {
     }
 
     /**
-     * Suddenly stops the Executor service and clear instantiated visitors.
+     * Suddenly stops the pending frames and clear instantiated visitors.
      */
-    private void dispose() {
+    void dispose() {
         this.framesNumber = 0;
 
-        if (this.tasks != null)
+        if (this.tasks != null) {
+            for (FutureTask<RenderedImage> task : tasks) {
+                if (task == null) {
+                    continue;
+                }
+                if (!task.cancel(true) && task.isDone()) {
+                    // already rendered, but never encoded
+                    try {
+                        disposeFrame(task.get());
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINEST, "Failed to dispose frame", e);
+                    }
+                }
+            }
             this.tasks.clear();
+        }
         
         this.tasks = null;
     }
 
+    static void disposeFrame(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
 }
 
 /**
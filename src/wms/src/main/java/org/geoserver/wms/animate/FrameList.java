@@ -0,0 +1,83 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import java.awt.image.RenderedImage;
+import java.util.Collections;
+
+import javax.media.jai.RenderedImageList;
+
+/**
+ * A {@link RenderedImageList} whose frames are rendered in parallel by a
+ * {@link FrameCatalogVisitor}, and handed out as they become available.
+ * <p>
+ * The list is meant to be scanned once, in order, by the animated output encoder: accessing a
+ * frame releases the frames before it, so that only a bounded number of frames is held in memory
+ * at any given time. The first frame is kept as the primary image of the list.
+ * </p>
+ */
+public class FrameList extends RenderedImageList {
+
+    private static final long serialVersionUID = -1581413936264744858L;
+
+    final transient FrameCatalogVisitor visitor;
+
+    final int framesNumber;
+
+    /**
+     * The last frame handed out, and its index
+     */
+    transient RenderedImage current;
+
+    int currentIndex;
+
+    FrameList(RenderedImage first, int framesNumber, FrameCatalogVisitor visitor) {
+        super(Collections.singletonList(first));
+        this.visitor = visitor;
+        this.framesNumber = framesNumber;
+        this.current = first;
+        this.currentIndex = 0;
+    }
+
+    @Override
+    public int size() {
+        return framesNumber;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index == 0) {
+            return getPrimaryImage();
+        } else if (index == currentIndex) {
+            return current;
+        } else if (index < currentIndex) {
+            throw new IllegalStateException("Frame " + index
+                    + " has already been released, frames can only be accessed in order");
+        }
+
+        // release the previous frame, the encoder is done with it
+        current = null;
+        RenderedImage frame = null;
+        while (currentIndex < index) {
+            if (frame != null) {
+                // skipped over
+                FrameCatalogVisitor.disposeFrame(frame);
+            }
+            currentIndex++;
+            frame = visitor.next(currentIndex);
+        }
+        current = frame;
+        return frame;
+    }
+
+    /**
+     * Cancels the rendering of the frames that have not been accessed yet, and releases the ones
+     * already rendered
+     */
+    public void dispose() {
+        current = null;
+        visitor.dispose();
+    }
+}
@@ -10,6 +10,7 @@ import java.util.TreeSet;
 import org.geoserver.ows.Response;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetLegendGraphicRequest;
 
 abstract class AbstractGetLegendGraphicResponse extends Response {
@@ -25,6 +26,22 @@ abstract class AbstractGetLegendGraphicResponse extends Response {
         return set;
     }
 
+    /**
+     * Returns the ETag of cached legends
+     * 
+     * @see org.geoserver.ows.Response#getHeaders(Object, Operation)
+     */
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        if (value instanceof BufferedImageLegendGraphic) {
+            String etag = ((BufferedImageLegendGraphic) value).getEtag();
+            if (etag != null) {
+                return new String[][] { { "ETag", etag } };
+            }
+        }
+        return null;
+    }
+
     /**
      * @see org.geoserver.ows.Response#canHandle(org.geoserver.platform.Operation)
      */
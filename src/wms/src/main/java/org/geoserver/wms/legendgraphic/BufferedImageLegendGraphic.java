@@ -10,11 +10,25 @@ public class BufferedImageLegendGraphic {
 
     private BufferedImage legendGraphic;
 
+    private String etag;
+
     public BufferedImageLegendGraphic(final BufferedImage legendGraphic) {
         this.legendGraphic = legendGraphic;
     }
 
+    public BufferedImageLegendGraphic(final BufferedImage legendGraphic, final String etag) {
+        this.legendGraphic = legendGraphic;
+        this.etag = etag;
+    }
+
     public BufferedImage getLegend() {
         return legendGraphic;
     }
+
+    /**
+     * The ETag of the legend, if it was served from the {@link LegendGraphicCache}, or null
+     */
+    public String getEtag() {
+        return etag;
+    }
 }
@@ -0,0 +1,536 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geotools.styling.Style;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.FeatureType;
+
+/**
+ * Caches the legend graphics produced by {@link org.geoserver.wms.GetLegendGraphic}, as map
+ * clients ask for the same legends over and over.
+ * <p>
+ * The cache key is made of the names of the catalog styles and layers used, along with the
+ * version they had when the legend was built, and all the request parameters affecting the
+ * output (size, format, scale, rules, legend options and env variables). Requests using an
+ * external or inline style (SLD and SLD_BODY parameters) are not cached.
+ * </p>
+ * <p>
+ * As a catalog listener, the cache drops the entries depending on a style or layer, and bumps
+ * its version, when they are modified or removed. The cache is bounded by the memory used by
+ * the legend images. Each entry carries an ETag, so that clients can validate their copy with a
+ * conditional request.
+ * </p>
+ */
+public class LegendGraphicCache implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(LegendGraphicCache.class);
+
+    /**
+     * 16MB of legend images
+     */
+    static final long DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
+
+    /**
+     * The size assumed for legends whose memory usage cannot be estimated
+     */
+    static final long UNKNOWN_SIZE = 16 * 1024;
+
+    long maxMemory = DEFAULT_MAX_MEMORY;
+
+    /**
+     * Least recently used entries come first
+     */
+    final LinkedHashMap<LegendKey, CachedLegend> cache = new LinkedHashMap<LegendKey, CachedLegend>(
+            16, 0.75f, true);
+
+    /**
+     * The memory used by the cached legends, guarded by the cache lock
+     */
+    long memoryUsed;
+
+    /**
+     * The versions of the styles and layers, by name, bumped each time they are modified or
+     * removed. Guarded by the cache lock
+     */
+    final Map<String, Long> versions = new HashMap<String, Long>();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Makes sure the etags change across restarts and invalidations
+     */
+    final AtomicLong generation = new AtomicLong(System.currentTimeMillis());
+
+    final Catalog catalog;
+
+    public LegendGraphicCache(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    /**
+     * Sets the max amount of memory, in bytes, the cached legend images can use
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        synchronized (cache) {
+            evict();
+        }
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Builds the cache key for the request, or returns null if the request legend cannot be
+     * cached
+     *
+     * @param request
+     * @return
+     */
+    public LegendKey getKey(GetLegendGraphicRequest request) {
+        Map<String, String> rawKvp = request.getRawKvp();
+        // without the raw parameters the catalog styles used cannot be told
+        if (rawKvp == null || rawKvp.containsKey("SLD") || rawKvp.containsKey("SLD_BODY")) {
+            return null;
+        }
+        for (Style style : request.getStyles()) {
+            if (style == null) {
+                return null;
+            }
+        }
+        LegendKey key = new LegendKey(request, getStyleNames(rawKvp));
+        synchronized (cache) {
+            for (String name : key.dependencies) {
+                key.versions.put(name, getVersion(name));
+            }
+        }
+        return key;
+    }
+
+    private Long getVersion(String name) {
+        Long version = versions.get(name);
+        return version != null ? version : Long.valueOf(0);
+    }
+
+    /**
+     * Returns the names of the catalog styles the legend can be built from: the ones in the STYLE
+     * parameter, and the default ones of the layer, or of the layers in the group, used when
+     * STYLE is missing or has empty entries. The {@link Style} objects cannot be used for this,
+     * their name is the one inside the SLD document.
+     */
+    Set<String> getStyleNames(Map<String, String> rawKvp) {
+        Set<String> names = new HashSet<String>();
+        String styleParam = rawKvp.get("STYLE");
+        if (styleParam != null) {
+            for (String name : styleParam.split(",")) {
+                name = name.trim();
+                // workspace prefixed names
+                int idx = name.indexOf(':');
+                if (idx >= 0) {
+                    name = name.substring(idx + 1);
+                }
+                if (name.length() > 0) {
+                    names.add(name);
+                }
+            }
+        }
+        String layerParam = rawKvp.get("LAYER");
+        if (layerParam != null) {
+            LayerInfo layer = catalog.getLayerByName(layerParam);
+            if (layer != null) {
+                addDefaultStyle(names, layer);
+            } else {
+                LayerGroupInfo group = catalog.getLayerGroupByName(layerParam);
+                if (group != null) {
+                    for (StyleInfo style : group.getStyles()) {
+                        if (style != null) {
+                            names.add(style.getName());
+                        }
+                    }
+                    for (LayerInfo groupLayer : group.layers()) {
+                        addDefaultStyle(names, groupLayer);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private void addDefaultStyle(Set<String> names, LayerInfo layer) {
+        if (layer.getDefaultStyle() != null) {
+            names.add(layer.getDefaultStyle().getName());
+        }
+    }
+
+    /**
+     * Returns the cached legend for the key, or null if not found
+     */
+    public CachedLegend get(LegendKey key) {
+        CachedLegend legend;
+        synchronized (cache) {
+            legend = cache.get(key);
+        }
+        if (legend != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return legend;
+    }
+
+    /**
+     * Caches the legend produced for the key, and returns it along with its (quoted) etag
+     */
+    public CachedLegend put(LegendKey key, Object legend) {
+        String etag = "\"" + Long.toHexString(generation.incrementAndGet()) + "-"
+                + Integer.toHexString(key.hashCode()) + "\"";
+        CachedLegend cached = new CachedLegend(legend, etag, getSize(legend));
+        synchronized (cache) {
+            // a style or layer might have changed while the legend was being built
+            for (Map.Entry<String, Long> entry : key.versions.entrySet()) {
+                if (!entry.getValue().equals(getVersion(entry.getKey()))) {
+                    return cached;
+                }
+            }
+            CachedLegend previous = cache.put(key, cached);
+            if (previous != null) {
+                memoryUsed -= previous.size;
+            }
+            memoryUsed += cached.size;
+            evict();
+        }
+        return cached;
+    }
+
+    /**
+     * Drops the least recently used legends until the memory limit is met, to be called while
+     * holding the cache lock
+     */
+    private void evict() {
+        Iterator<CachedLegend> it = cache.values().iterator();
+        while (memoryUsed > maxMemory && it.hasNext()) {
+            memoryUsed -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Estimates the memory used by a legend image
+     */
+    static long getSize(Object legend) {
+        if (legend instanceof RenderedImage) {
+            RenderedImage image = (RenderedImage) legend;
+            long bits = 0;
+            for (int size : image.getSampleModel().getSampleSize()) {
+                bits += size;
+            }
+            return (long) image.getWidth() * image.getHeight() * bits / 8;
+        }
+        return UNKNOWN_SIZE;
+    }
+
+    /**
+     * Checks if the etag matches one of those listed in a If-None-Match header. As mandated for
+     * this header, the weak comparison is used, the etags match regardless of their W/ prefix
+     *
+     * @param ifNoneMatch The header value, might be null
+     * @param etag
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String opaque = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if ("*".equals(candidate) || opaque.equals(stripWeak(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Drops all the cached legends
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            memoryUsed = 0;
+        }
+    }
+
+    /**
+     * Drops the legends depending on the specified style or layer name
+     *
+     * @param name
+     */
+    void invalidate(String name) {
+        if (name == null) {
+            return;
+        }
+        int removed = 0;
+        synchronized (cache) {
+            versions.put(name, getVersion(name) + 1);
+            for (Iterator<Map.Entry<LegendKey, CachedLegend>> it = cache.entrySet().iterator(); it
+                    .hasNext();) {
+                Map.Entry<LegendKey, CachedLegend> entry = it.next();
+                if (entry.getKey().dependencies.contains(name)) {
+                    memoryUsed -= entry.getValue().size;
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0 && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Dropped " + removed + " cached legends depending on " + name);
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getMemoryUsed() {
+        synchronized (cache) {
+            return memoryUsed;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // -----------------------------------------------------------------
+    // CatalogListener methods
+    // -----------------------------------------------------------------
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // new objects are not referenced by any cached legend
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // renames, the post modify event will only know about the new name
+        int index = event.getPropertyNames().indexOf("name");
+        if (index >= 0) {
+            Object oldName = event.getOldValues().get(index);
+            if (oldName instanceof String) {
+                invalidate((String) oldName);
+            }
+        }
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    public void reloaded() {
+        clear();
+    }
+
+    private void invalidate(Object source) {
+        if (source instanceof StyleInfo) {
+            invalidate(((StyleInfo) source).getName());
+        } else if (source instanceof LayerInfo) {
+            LayerInfo layer = (LayerInfo) source;
+            invalidate(layer.getName());
+            if (layer.getResource() != null) {
+                invalidate(layer.getResource().prefixedName());
+            }
+        } else if (source instanceof ResourceInfo) {
+            ResourceInfo resource = (ResourceInfo) source;
+            invalidate(resource.getName());
+            invalidate(resource.prefixedName());
+        } else if (source instanceof LayerGroupInfo) {
+            LayerGroupInfo group = (LayerGroupInfo) source;
+            invalidate(group.getName());
+            invalidate(group.prefixedName());
+        }
+    }
+
+    /**
+     * The key of a cached legend
+     */
+    public static class LegendKey {
+
+        final String styleParam;
+
+        final List<String> layers = new ArrayList<String>();
+
+        final List<String> rules;
+
+        final String layerParam;
+
+        final String format;
+
+        final int width;
+
+        final int height;
+
+        final double scale;
+
+        final boolean transparent;
+
+        final boolean strict;
+
+        final Map<?, ?> legendOptions;
+
+        final Map<?, ?> env;
+
+        /**
+         * The names of the styles and layers this legend depends on, used for invalidation
+         */
+        final Set<String> dependencies = new HashSet<String>();
+
+        /**
+         * The versions of the dependencies when the key was built, filled in by the cache. They
+         * are part of the key, a legend built before a style change never matches a request
+         * made after it
+         */
+        final Map<String, Long> versions = new HashMap<String, Long>();
+
+        @SuppressWarnings("rawtypes")
+        LegendKey(GetLegendGraphicRequest request, Set<String> styleNames) {
+            dependencies.addAll(styleNames);
+            for (FeatureType layer : request.getLayers()) {
+                if (layer == null) {
+                    layers.add(null);
+                } else {
+                    layers.add(layer.getName().getURI());
+                    dependencies.add(layer.getName().getLocalPart());
+                }
+            }
+            Map<String, String> rawKvp = request.getRawKvp();
+            styleParam = rawKvp != null ? rawKvp.get("STYLE") : null;
+            layerParam = rawKvp != null ? rawKvp.get("LAYER") : null;
+            if (layerParam != null) {
+                dependencies.add(layerParam);
+            }
+            rules = new ArrayList<String>(request.getRules());
+            format = request.getFormat();
+            width = request.getWidth();
+            height = request.getHeight();
+            scale = request.getScale();
+            transparent = request.isTransparent();
+            strict = request.isStrict();
+            Map options = request.getLegendOptions();
+            legendOptions = options == null ? null : new HashMap(options);
+            Map environment = request.getEnv();
+            env = environment == null ? null : new HashMap(environment);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = styleParam == null ? 0 : styleParam.hashCode();
+            result = 31 * result + versions.hashCode();
+            result = 31 * result + layers.hashCode();
+            result = 31 * result + rules.hashCode();
+            result = 31 * result + (layerParam == null ? 0 : layerParam.hashCode());
+            result = 31 * result + (format == null ? 0 : format.hashCode());
+            result = 31 * result + width;
+            result = 31 * result + height;
+            long temp = Double.doubleToLongBits(scale);
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
+            result = 31 * result + (transparent ? 1 : 0);
+            result = 31 * result + (strict ? 1 : 0);
+            result = 31 * result + (legendOptions == null ? 0 : legendOptions.hashCode());
+            result = 31 * result + (env == null ? 0 : env.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LegendKey)) {
+                return false;
+            }
+            LegendKey other = (LegendKey) obj;
+            return width == other.width
+                    && height == other.height
+                    && Double.doubleToLongBits(scale) == Double.doubleToLongBits(other.scale)
+                    && transparent == other.transparent && strict == other.strict
+                    && equals(styleParam, other.styleParam)
+                    && versions.equals(other.versions) && layers.equals(other.layers)
+                    && rules.equals(other.rules) && equals(layerParam, other.layerParam)
+                    && equals(format, other.format)
+                    && equals(legendOptions, other.legendOptions) && equals(env, other.env);
+        }
+
+        private static boolean equals(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    /**
+     * A cached legend, along with its etag
+     */
+    public static class CachedLegend {
+        final Object legend;
+
+        final String etag;
+
+        final long size;
+
+        CachedLegend(Object legend, String etag, long size) {
+            this.legend = legend;
+            this.etag = etag;
+            this.size = size;
+        }
+
+        public Object getLegend() {
+            return legend;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
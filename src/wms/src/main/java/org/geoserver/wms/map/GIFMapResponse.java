@@ -201,7 +201,12 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
                     // write
                     gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+                    // the frames can be produced on the fly, release them as soon as possible
+                    if (i > 0) {
+                        disposeFrame(ri);
+                    } else {
+                        images.add(ri);
+                    }
                 }
             }
 
@@ -231,11 +236,7 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
             // let go of the image chain as soon as possible to free memory
             for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
+                disposeFrame(image);
             }
         }
 
@@ -243,6 +244,14 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
             LOGGER.fine("Done writing animated gif");
     }
 
+    private void disposeFrame(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
@@ -6,6 +6,8 @@ package org.geoserver.wms.animate;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
@@ -110,6 +112,47 @@ public class AnimatorTest extends WMSTestSupport {
     	assertEquals(4, frames.size());
     }
     
+    /**
+     * Frames are rendered ahead within the memory budget, and handed out in order
+     */
+    @org.junit.Test
+    public void testFrameListStreaming() throws Exception {
+        final WebMapService wms = (WebMapService) applicationContext.getBean("wmsService2");
+        final String layerName = MockData.BASIC_POLYGONS.getPrefix() + ":" +
+            MockData.BASIC_POLYGONS.getLocalPart();
+
+        GetMapRequest getMapRequest = createGetMapRequest(new QName(layerName));
+        getMapRequest.getRawKvp().put("aparam", "fake_param");
+        getMapRequest.getRawKvp().put("avalues", "val0,val1,val2,val3");
+        getMapRequest.getRawKvp().put("format", GIF_ANIMATED_FORMAT);
+        getMapRequest.getRawKvp().put("LAYERS", layerName);
+
+        FrameCatalog catalog = new FrameCatalog(getMapRequest, wms, getWMS());
+        FrameCatalogVisitor visitor = new FrameCatalogVisitor();
+        catalog.getFrames(visitor);
+
+        // the budget allows for two frames only
+        assertEquals(2, visitor.computeMaxInFlight(visitor.frameSize * 2 + 1));
+        assertEquals(1, visitor.computeMaxInFlight(0));
+        assertEquals(4, visitor.computeMaxInFlight(Long.MAX_VALUE));
+
+        FrameList frames = (FrameList) visitor.produce(getWMS());
+        assertEquals(4, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertNotNull(frames.get(i));
+            assertTrue(visitor.submitted - visitor.nextIndex <= visitor.maxInFlight);
+        }
+
+        // frames can only be accessed in order
+        try {
+            frames.get(1);
+            fail("Frame 1 should have been released");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+        frames.dispose();
+    }
+
     /**
      * Produce animated gif through the WMS request.
      */
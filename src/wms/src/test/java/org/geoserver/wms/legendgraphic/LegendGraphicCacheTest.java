@@ -0,0 +1,208 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache.LegendKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class LegendGraphicCacheTest extends WMSTestSupport {
+
+    static final String PATH = "wms?service=WMS&version=1.1.1&request=GetLegendGraphic"
+            + "&format=image/png&width=20&height=20&layer=cite:Ponds&style=Ponds";
+
+    LegendGraphicCache cache;
+
+    @Override
+    protected void onSetUp(SystemTestData testData) throws Exception {
+        super.onSetUp(testData);
+        // same SLD as Ponds, whose internal style name is "Default Styler"
+        testData.addStyle("pondsAlt", "Ponds.sld", MockData.class, getCatalog());
+    }
+
+    @Before
+    public void clearCache() {
+        cache = GeoServerExtensions.bean(LegendGraphicCache.class);
+        cache.clear();
+    }
+
+    @Test
+    public void testCachedWithEtag() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(PATH);
+        assertEquals("image/png", response.getContentType());
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+        assertEquals(1, cache.size());
+
+        // same legend, same etag
+        response = getAsServletResponse(PATH);
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals(1, cache.size());
+
+        // a different size is a different legend
+        response = getAsServletResponse(PATH.replace("width=20", "width=30"));
+        assertFalse(etag.equals(response.getHeader("ETag")));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        String etag = getAsServletResponse(PATH).getHeader("ETag");
+
+        MockHttpServletRequest httpReq = createRequest(PATH);
+        httpReq.setMethod("GET");
+        httpReq.setBodyContent(new byte[] {});
+        httpReq.setHeader("If-None-Match", etag);
+        MockHttpServletResponse response = dispatch(httpReq, "UTF-8");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getErrorCode());
+    }
+
+    @Test
+    public void testNotModifiedEtagList() throws Exception {
+        String etag = getAsServletResponse(PATH).getHeader("ETag");
+
+        MockHttpServletRequest httpReq = createRequest(PATH);
+        httpReq.setMethod("GET");
+        httpReq.setBodyContent(new byte[] {});
+        httpReq.setHeader("If-None-Match", "\"abc\", W/" + etag);
+        MockHttpServletResponse response = dispatch(httpReq, "UTF-8");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getErrorCode());
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(LegendGraphicCache.matches("\"a\"", "\"a\""));
+        assertTrue(LegendGraphicCache.matches("W/\"a\"", "\"a\""));
+        assertTrue(LegendGraphicCache.matches("\"b\" , W/\"a\"", "\"a\""));
+        assertTrue(LegendGraphicCache.matches("*", "\"a\""));
+        assertFalse(LegendGraphicCache.matches("\"b\", \"c\"", "\"a\""));
+        assertFalse(LegendGraphicCache.matches(null, "\"a\""));
+    }
+
+    @Test
+    public void testMemoryBound() throws Exception {
+        long maxMemory = cache.getMaxMemory();
+        try {
+            // room for two 20x20 ARGB legends
+            cache.setMaxMemory(2 * 20 * 20 * 4);
+            LegendKey k1 = cache.getKey(buildRequest(20));
+            LegendKey k2 = cache.getKey(buildRequest(21));
+            LegendKey k3 = cache.getKey(buildRequest(22));
+            cache.put(k1, new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+            cache.put(k2, new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+            assertEquals(2, cache.size());
+
+            // the least recently used one goes
+            assertNotNull(cache.get(k1));
+            cache.put(k3, new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+            assertEquals(2, cache.size());
+            assertNull(cache.get(k2));
+            assertNotNull(cache.get(k1));
+
+            // a large legend pushes out many small ones
+            cache.put(k2, new BufferedImage(20, 40, BufferedImage.TYPE_INT_ARGB));
+            assertEquals(1, cache.size());
+            assertEquals(20 * 40 * 4, cache.getMemoryUsed());
+        } finally {
+            cache.setMaxMemory(maxMemory);
+        }
+    }
+
+    @Test
+    public void testStaleLegendNotCached() throws Exception {
+        GetLegendGraphicRequest request = buildRequest(20);
+        LegendKey key = cache.getKey(request);
+        assertNotNull(key);
+
+        // the style changes while the legend is being built
+        getCatalog().save(getCatalog().getStyleByName("Ponds"));
+        cache.put(key, new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+        assertEquals(0, cache.size());
+
+        // a key built after the change does not match the old one
+        LegendKey current = cache.getKey(request);
+        assertFalse(key.equals(current));
+        cache.put(current, new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+        assertEquals(1, cache.size());
+        assertEquals(20 * 20 * 4, cache.getMemoryUsed());
+    }
+
+    GetLegendGraphicRequest buildRequest(int width) throws Exception {
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest();
+        Map<String, String> rawKvp = new HashMap<String, String>();
+        rawKvp.put("LAYER", "cite:Ponds");
+        rawKvp.put("STYLE", "Ponds");
+        request.setRawKvp(rawKvp);
+        request.setStyles(Arrays.asList(getCatalog().getStyleByName("Ponds").getStyle()));
+        request.setWidth(width);
+        return request;
+    }
+
+    @Test
+    public void testEtagQuoted() throws Exception {
+        String etag = getAsServletResponse(PATH).getHeader("ETag");
+        assertTrue(etag.length() > 2);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    }
+
+    @Test
+    public void testStyleChangeInvalidates() throws Exception {
+        String etag = getAsServletResponse(PATH).getHeader("ETag");
+        assertEquals(1, cache.size());
+
+        StyleInfo style = getCatalog().getStyleByName("Ponds");
+        getCatalog().save(style);
+        assertEquals(0, cache.size());
+
+        MockHttpServletResponse response = getAsServletResponse(PATH);
+        assertFalse(etag.equals(response.getHeader("ETag")));
+    }
+
+    @Test
+    public void testStyleNotNamedAfterLayerInvalidates() throws Exception {
+        String path = PATH.replace("style=Ponds", "style=pondsAlt");
+        String etag = getAsServletResponse(path).getHeader("ETag");
+        assertEquals(1, cache.size());
+
+        // the layer is untouched, only the catalog style name can match
+        StyleInfo style = getCatalog().getStyleByName("pondsAlt");
+        getCatalog().save(style);
+        assertEquals(0, cache.size());
+
+        MockHttpServletResponse response = getAsServletResponse(path);
+        assertFalse(etag.equals(response.getHeader("ETag")));
+    }
+
+    @Test
+    public void testDefaultStyleChangeInvalidates() throws Exception {
+        getAsServletResponse(PATH.replace("&style=Ponds", ""));
+        assertEquals(1, cache.size());
+
+        // modifying another style leaves the legend alone
+        getCatalog().save(getCatalog().getStyleByName("pondsAlt"));
+        assertEquals(1, cache.size());
+
+        getCatalog().save(getCatalog().getStyleByName("Ponds"));
+        assertEquals(0, cache.size());
+    }
+}
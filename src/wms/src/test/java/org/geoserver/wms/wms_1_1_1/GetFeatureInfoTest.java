@@ -12,6 +12,8 @@ import static org.junit.Assert.assertTrue;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
@@ -31,6 +33,7 @@ import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.factory.CommonFactoryFinder;
@@ -50,6 +53,7 @@ public class GetFeatureInfoTest extends WMSTestSupport {
     public static QName TASMANIA_BM = new QName(WCS_URI, "BlueMarble", WCS_PREFIX);
     public static QName SQUARES = new QName(MockData.CITE_URI, "squares", MockData.CITE_PREFIX);
     public static QName CUSTOM = new QName(MockData.CITE_URI, "custom", MockData.CITE_PREFIX);
+    public static QName LSHAPE = new QName(MockData.CITE_URI, "lshape", MockData.CITE_PREFIX);
 
 
     @Override
@@ -90,6 +94,8 @@ public class GetFeatureInfoTest extends WMSTestSupport {
         testData.addStyle("squares","squares.sld",GetFeatureInfoTest.class,catalog);
         testData.addVectorLayer(SQUARES,Collections.EMPTY_MAP,"squares.properties",
                 GetFeatureInfoTest.class,catalog);
+        testData.addVectorLayer(LSHAPE,Collections.EMPTY_MAP,"lshape.properties",
+                GetFeatureInfoTest.class,catalog);
         Map propertyMap = new HashMap();
         propertyMap.put(LayerProperty.STYLE,"raster");
         testData.addRasterLayer(TASMANIA_BM, "tazbm.tiff","tiff",propertyMap,
@@ -393,6 +399,96 @@ public class GetFeatureInfoTest extends WMSTestSupport {
         assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
     }
 
+    /**
+     * Tests the results of layers queried in parallel are returned in the requested layer order
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testTwoLayersOrder() throws Exception {
+        String forests = getLayerId(MockData.FORESTS);
+        String lakes = getLayerId(MockData.LAKES);
+        String request = "wms?REQUEST=GetFeatureInfo&BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781" +
+                "&SERVICE=WMS&VERSION=1.1.0&X=267&Y=325&INFO_FORMAT=application/vnd.ogc.gml" +
+                "&Styles=&WIDTH=426&HEIGHT=512&format=image%2Fpng&srs=EPSG%3A4326&FEATURE_COUNT=2";
+
+        String layers = forests + "," + lakes;
+        Document dom = getAsDOM(request + "&QUERY_LAYERS=" + layers + "&LAYERS=" + layers);
+        assertXpathEvaluatesTo("2", "count(//gml:featureMember)", dom);
+        assertXpathEvaluatesTo("Forests", "local-name(//gml:featureMember[1]/*)", dom);
+        assertXpathEvaluatesTo("Lakes", "local-name(//gml:featureMember[2]/*)", dom);
+
+        layers = lakes + "," + forests;
+        dom = getAsDOM(request + "&QUERY_LAYERS=" + layers + "&LAYERS=" + layers);
+        assertXpathEvaluatesTo("2", "count(//gml:featureMember)", dom);
+        assertXpathEvaluatesTo("Lakes", "local-name(//gml:featureMember[1]/*)", dom);
+        assertXpathEvaluatesTo("Forests", "local-name(//gml:featureMember[2]/*)", dom);
+    }
+
+    /**
+     * Tests the layers are queried sequentially if the executor has been shut down, as it happens
+     * while it's being replaced during a reload
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testTwoLayersExecutorShutdown() throws Exception {
+        WMS wms = getWMS();
+        ExecutorService executor = wms.getFeatureInfoExecutorService();
+        ExecutorService shutdown = Executors.newSingleThreadExecutor();
+        shutdown.shutdown();
+        wms.setFeatureInfoExecutorService(shutdown);
+        try {
+            testTwoLayersFeatureCount();
+        } finally {
+            wms.setFeatureInfoExecutorService(executor);
+        }
+    }
+
+    /**
+     * Tests the env params are still used when the layers are queried in parallel
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testParameterizedStyleTwoLayers() throws Exception {
+        String layer = getLayerId(MockData.BASIC_POLYGONS);
+        String layers = layer + "," + layer;
+        String base = "wms?version=1.1.1&bbox=-4.5,-2.,4.5,7&format=jpeg&info_format=text/html" +
+                "&request=GetFeatureInfo&layers=" + layers + "&query_layers=" + layers 
+                + "&width=300&height=300&x=114&y=229&styles=paramStroke,paramStroke&feature_count=2";
+        Document dom = getAsDOM(base);
+        assertXpathEvaluatesTo("0", "count(/html/body/table/tr)", dom);
+
+        dom = getAsDOM(base + "&env=thickness:10");
+        assertXpathEvaluatesTo("2", "count(/html/body/table/tr/td[. = 'BasicPolygons.1107531493630'])", dom);
+    }
+
+    /**
+     * Tests the bounding box pre-filter does not replace the actual intersection test, using a
+     * L shaped polygon whose envelope covers the whole map
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testPrefilterBBoxEdge() throws Exception {
+        String layer = getLayerId(LSHAPE);
+        String request = "wms?version=1.1.1&bbox=0,0,10,10&srs=EPSG:4326&styles=&format=jpeg" +
+                "&info_format=application/vnd.ogc.gml&request=GetFeatureInfo&layers="
+                + layer + "&query_layers=" + layer + "&width=100&height=100";
+
+        // inside the envelope, but far from the polygon
+        Document dom = getAsDOM(request + "&x=50&y=50&buffer=1");
+        assertXpathEvaluatesTo("0", "count(//gml:featureMember)", dom);
+
+        // a pixel and a half above the bottom bar of the L, only a larger buffer catches it
+        dom = getAsDOM(request + "&x=50&y=88&buffer=1");
+        assertXpathEvaluatesTo("0", "count(//gml:featureMember)", dom);
+        dom = getAsDOM(request + "&x=50&y=88&buffer=4");
+        assertXpathEvaluatesTo("1", "count(//gml:featureMember)", dom);
+        assertXpathEvaluatesTo("1", "count(//cite:lshape)", dom);
+    }
+
 
     /**
      * Check GetFeatureInfo returns an error if the format is not known, instead